@@ -0,0 +1,129 @@
+package api;
+
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory stand-ins for the servlet API, just deep enough to drive a
+ * servlet's {@code doGet}/{@code doPost} without a container. Built as
+ * dynamic proxies so they keep compiling as the interfaces grow; any method
+ * not handled here returns null/0/false.
+ */
+final class FakeHttp {
+    private FakeHttp() {}
+
+    /** A GET with the given query parameters; attributes and headers start empty. */
+    static HttpServletRequest request(Map<String, String> params) {
+        Map<String, Object> attributes = new HashMap<>();
+        return (HttpServletRequest) Proxy.newProxyInstance(FakeHttp.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "getParameter": return params.get((String) args[0]);
+                        case "getMethod": return "GET";
+                        case "getAttribute": return attributes.get((String) args[0]);
+                        case "setAttribute": attributes.put((String) args[0], args[1]); return null;
+                        case "getHeaderNames": return Collections.emptyEnumeration();
+                        case "hashCode": return System.identityHashCode(proxy);
+                        case "equals": return proxy == args[0];
+                        case "toString": return "FakeRequest" + params;
+                        default: return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    /** Records status and headers; the body is counted, not kept. */
+    static final class Response {
+        final Map<String, String> headers = new HashMap<>();
+        int status = HttpServletResponse.SC_OK;
+        long chars;
+        final HttpServletResponse proxy;
+
+        private final Writer sink = new Writer() {
+            @Override
+            public void write(char[] buf, int off, int len) { chars += len; }
+
+            @Override
+            public void write(String s, int off, int len) { chars += len; }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        /** Servlets close their writer, so each response gets a fresh one, as in a container. */
+        private PrintWriter writer = new PrintWriter(sink);
+
+        Response() {
+            proxy = (HttpServletResponse) Proxy.newProxyInstance(FakeHttp.class.getClassLoader(),
+                    new Class<?>[]{HttpServletResponse.class}, (p, m, args) -> {
+                        switch (m.getName()) {
+                            case "getWriter": return writer;
+                            case "setStatus": status = (Integer) args[0]; return null;
+                            case "getStatus": return status;
+                            case "setHeader":
+                            case "addHeader": headers.put((String) args[0], (String) args[1]); return null;
+                            case "getHeader": return headers.get((String) args[0]);
+                            case "hashCode": return System.identityHashCode(p);
+                            case "equals": return p == args[0];
+                            case "toString": return "FakeResponse(" + status + ")";
+                            default: return defaultValue(m.getReturnType());
+                        }
+                    });
+        }
+
+        /** Makes the response reusable across benchmark invocations. */
+        void reset() {
+            headers.clear();
+            status = HttpServletResponse.SC_OK;
+            chars = 0;
+            writer = new PrintWriter(sink);
+        }
+    }
+
+    /** A servlet config whose context knows nothing; enough for {@code GenericServlet.init}. */
+    static ServletConfig config(String servletName) {
+        ServletContext ctx = (ServletContext) Proxy.newProxyInstance(FakeHttp.class.getClassLoader(),
+                new Class<?>[]{ServletContext.class}, (p, m, args) -> {
+                    switch (m.getName()) {
+                        case "getInitParameterNames":
+                        case "getAttributeNames": return Collections.emptyEnumeration();
+                        case "hashCode": return System.identityHashCode(p);
+                        case "equals": return p == args[0];
+                        case "toString": return "FakeServletContext";
+                        default: return defaultValue(m.getReturnType());
+                    }
+                });
+        return (ServletConfig) Proxy.newProxyInstance(FakeHttp.class.getClassLoader(),
+                new Class<?>[]{ServletConfig.class}, (p, m, args) -> {
+                    switch (m.getName()) {
+                        case "getServletName": return servletName;
+                        case "getServletContext": return ctx;
+                        case "getInitParameterNames": return Collections.emptyEnumeration();
+                        case "hashCode": return System.identityHashCode(p);
+                        case "equals": return p == args[0];
+                        default: return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0f;
+        if (type == double.class) return 0d;
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+}
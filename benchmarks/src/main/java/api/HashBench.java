@@ -0,0 +1,37 @@
+package api;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@link HashUtil#sha256(String)}, single-threaded and contended (it keeps a digest per thread). */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBench {
+    @Param({"demo123", "a much longer passphrase that spans more than one sha-256 block of input, 64+ bytes"})
+    public String input;
+
+    @Benchmark
+    public String sha256() {
+        return HashUtil.sha256(input);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String sha256FourThreads() {
+        return HashUtil.sha256(input);
+    }
+}
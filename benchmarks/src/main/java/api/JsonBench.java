@@ -0,0 +1,101 @@
+package api;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Request-body parsing and response serialization, against the old regex parser and reflective stringify for scale. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBench {
+    /** A /trade body as the wallet page posts it. */
+    static final String TRADE_BODY = "{\"userId\":\"1\",\"side\":\"BUY\",\"eventId\":\"G5vYZ9QaZpA7\","
+            + "\"eventName\":\"Los Angeles Lakers vs Boston Celtics\",\"qty\":\"2\",\"priceUsd\":\"95.50\","
+            + "\"minPriceUsd\":\"95.50\",\"maxPriceUsd\":\"140.00\"}";
+
+    /** A favorites list of 200 events. */
+    String eventArray;
+    JsonResp<List<EventCatalog.Event>> searchPage;
+    JsonResp<Map<String, Object>> tradeResult;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder("[");
+        List<EventCatalog.Event> events = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"eventId\":\"E").append(i).append("\",\"name\":\"Event number ").append(i)
+              .append("\",\"venue\":\"Arena ").append(i % 17).append("\",\"localDate\":\"2025-12-")
+              .append(10 + i % 20).append("\",\"minPrice\":").append(50 + i).append('}');
+            events.add(new EventCatalog.Event("E" + i, "Event number " + i, "Arena " + (i % 17),
+                    "2025-12-" + (10 + i % 20), "https://example.com/e" + i + ".jpg", "Los Angeles"));
+        }
+        eventArray = sb.append(']').toString();
+        searchPage = JsonResp.ok(events);
+        Map<String, Object> result = new java.util.LinkedHashMap<>();
+        result.put("cashUsd", new BigDecimal("8765.43"));
+        result.put("qty", 4);
+        result.put("eventId", "G5vYZ9QaZpA7");
+        tradeResult = JsonResp.ok("Trade executed", result);
+    }
+
+    @Benchmark
+    public Map<String, String> parseObject() {
+        return SimpleJson.parseObject(TRADE_BODY);
+    }
+
+    @Benchmark
+    public Map<String, String> parseObjectLegacyRegex() {
+        return LegacyJson.parseObject(TRADE_BODY);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Map<String, String>> parseArrayOfObjects() {
+        return SimpleJson.parseArrayOfObjects(eventArray);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Map<String, String>> parseArrayOfObjectsLegacyRegex() {
+        return LegacyJson.parseArrayOfObjects(eventArray);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String stringifySearchPage() {
+        return SimpleJson.stringify(searchPage);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String stringifySearchPageLegacyReflective() {
+        return LegacyJson.stringify(searchPage);
+    }
+
+    @Benchmark
+    public String jsonRespToJson() {
+        return tradeResult.toJson();
+    }
+
+    @Benchmark
+    public String jsonRespToJsonLegacyReflective() {
+        return LegacyJson.stringify(tradeResult);
+    }
+}
@@ -0,0 +1,93 @@
+package api;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Order book operations per second on one thread, matching only (no escrow
+ * or settlement). Each invocation places one order and cancels the one placed
+ * {@code resting} invocations earlier, so the book holds a steady
+ * {@code resting} orders spread over {@code levels} prices per side. Orders
+ * are passive except for {@code aggressivePercent} that cross the spread and
+ * trade against one to three levels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderBookBench {
+    private static final int STREAM = 1 << 16;
+    private static final long MID = 10_000;
+
+    @Param({"10000"})
+    int resting;
+
+    @Param({"50"})
+    int levels;
+
+    @Param({"0", "20"})
+    int aggressivePercent;
+
+    OrderBook book;
+    OrderBook.Fills fills;
+    long[] user = new long[STREAM];
+    boolean[] buy = new boolean[STREAM];
+    long[] price = new long[STREAM];
+    int[] qty = new int[STREAM];
+    long[] placedIds;
+    long[] placedUsers;
+    long nextId;
+    int cursor;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        for (int i = 0; i < STREAM; i++) {
+            user[i] = 1 + r.nextInt(1_000);
+            buy[i] = r.nextBoolean();
+            boolean aggressive = r.nextInt(100) < aggressivePercent;
+            long offset = aggressive ? -(1 + r.nextInt(3)) : 1 + r.nextInt(levels);
+            price[i] = buy[i] ? MID - offset : MID + offset;
+            qty[i] = 1 + r.nextInt(aggressive ? 4 : 10);
+        }
+        book = new OrderBook(resting * 2);
+        fills = new OrderBook.Fills();
+        placedIds = new long[Integer.highestOneBit(resting)];
+        placedUsers = new long[placedIds.length];
+        nextId = 0;
+        cursor = 0;
+        for (int i = 0; i < placedIds.length; i++) churn();
+    }
+
+    /** One place plus one cancel. */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public int placeAndCancel() {
+        return churn();
+    }
+
+    private int churn() {
+        int i = cursor++ & (STREAM - 1);
+        int slot = (int) (nextId & (placedIds.length - 1));
+        long id = ++nextId;
+        int left = book.place(id, user[i], buy[i], price[i], qty[i], fills);
+        int cancelled = placedIds[slot] == 0 ? 0 : book.cancel(placedIds[slot], placedUsers[slot]);
+        placedIds[slot] = id;
+        placedUsers[slot] = user[i];
+        return left + cancelled + fills.size();
+    }
+}
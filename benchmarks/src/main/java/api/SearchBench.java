@@ -0,0 +1,122 @@
+package api;
+
+import jakarta.servlet.ServletException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code GET /search} end to end through {@link SearchServlet} on fake
+ * request/response objects, over a synthetic catalog of {@code events}
+ * entries. The catalog is written to a temp file and loaded the same way
+ * {@link EventCatalog} loads the real one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class SearchBench {
+    private static final String[] ACTS = {"Lakers", "Celtics", "Warriors", "Taylor Swift", "Coldplay", "Hamilton",
+            "Metallica", "Dodgers", "Yankees", "Billie Eilish", "Les Miserables", "Knicks", "Kendrick Lamar", "Adele"};
+    private static final String[] KINDS = {"Live", "World Tour", "Playoffs", "Opening Night", "Matinee", "Finals"};
+    private static final String[] VENUES = {"Crypto.com Arena", "SoFi Stadium", "Madison Square Garden", "TD Garden",
+            "Chase Center", "Hollywood Bowl", "Wembley Stadium", "Red Rocks Amphitheatre"};
+    private static final String[] CITIES = {"Los Angeles", "New York", "Boston", "San Francisco", "London", "Denver",
+            "Chicago", "Seattle", "Austin", "Miami"};
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int events;
+
+    /** Which query to run; see {@link #query}. */
+    @Param({"keyword", "phrase", "city", "dates", "keywordCityDates", "all"})
+    public String query;
+
+    private Path file;
+    private SearchServlet servlet;
+    private jakarta.servlet.http.HttpServletRequest request;
+    private final FakeHttp.Response response = new FakeHttp.Response();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ServletException {
+        file = Files.createTempFile("tt-catalog-", ".json");
+        Random rnd = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write('[');
+            for (int i = 0; i < events; i++) {
+                if (i > 0) out.write(',');
+                out.write("{\"id\":\"S" + i + "\",\"name\":\"" + ACTS[rnd.nextInt(ACTS.length)] + " "
+                        + KINDS[rnd.nextInt(KINDS.length)] + " " + i + "\",\"venue\":\""
+                        + VENUES[rnd.nextInt(VENUES.length)] + "\",\"city\":\"" + CITIES[rnd.nextInt(CITIES.length)]
+                        + "\",\"localDate\":\"" + (2025 + rnd.nextInt(2)) + "-" + pad(1 + rnd.nextInt(12)) + "-"
+                        + pad(1 + rnd.nextInt(28)) + "\",\"image\":\"\"}\n");
+            }
+            out.write(']');
+        }
+        EventCatalog.stop();
+        System.setProperty("tt.catalog.file", file.toString());
+        EventCatalog.start(null);
+        if (EventCatalog.loadedSize() != events) throw new IllegalStateException("catalog did not load: " + file);
+
+        servlet = new SearchServlet();
+        servlet.init(FakeHttp.config("SearchServlet"));
+        request = FakeHttp.request(query(query));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        EventCatalog.stop();
+        System.clearProperty("tt.catalog.file");
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long search() throws IOException, ServletException {
+        response.reset();
+        servlet.doGet(request, response.proxy);
+        if (response.status != 200 || response.chars == 0) throw new IllegalStateException("status " + response.status);
+        return response.chars;
+    }
+
+    static Map<String, String> query(String name) {
+        Map<String, String> p = new HashMap<>();
+        switch (name) {
+            case "keyword": p.put("keyword", "lakers"); break;
+            case "phrase": p.put("keyword", "taylor swift world tour"); break;
+            case "city": p.put("city", "boston"); break;
+            case "dates": p.put("from", "2025-06-01"); p.put("to", "2025-06-30"); break;
+            case "keywordCityDates":
+                p.put("keyword", "live");
+                p.put("city", "Los Angeles");
+                p.put("from", "2025-01-01");
+                p.put("to", "2025-12-31");
+                break;
+            case "all": break;
+            default: throw new IllegalArgumentException(name);
+        }
+        return p;
+    }
+
+    private static String pad(int v) {
+        return v < 10 ? "0" + v : String.valueOf(v);
+    }
+}
@@ -0,0 +1,98 @@
+package api;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The BUY/SELL arithmetic every trade path runs, from parsed body to new
+ * holding, in long cents. The {@code decimal*} benchmarks are the same steps
+ * done the way they were before {@link Money}, with BigDecimal and column
+ * rounding, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeMathBench {
+    Map<String, String> body;
+    TradeOrder buy;
+    TradeMath.Holding held;
+    long cash;
+
+    BigDecimal decimalBuyPrice;
+    BigDecimal decimalSellPrice;
+    BigDecimal decimalCost;
+    BigDecimal decimalCash;
+
+    @Setup
+    public void setup() {
+        body = SimpleJson.parseObject(JsonBench.TRADE_BODY);
+        buy = TradeOrder.parse(1, body);
+        held = new TradeMath.Holding(buy.eventName, 7, 66_850, 9_000, 15_000);
+        cash = 1_000_000;
+
+        decimalBuyPrice = new BigDecimal(body.get("minPriceUsd"));
+        decimalSellPrice = new BigDecimal(body.get("maxPriceUsd"));
+        decimalCost = new BigDecimal("668.50");
+        decimalCash = new BigDecimal("10000.00");
+    }
+
+    @Benchmark
+    public TradeOrder parseOrder() {
+        return TradeOrder.parse(1, body);
+    }
+
+    /** Cash check, new cash balance and the merged position, as in a direct-mode BUY. */
+    @Benchmark
+    public TradeMath.Holding buy() {
+        long value = TradeMath.tradeValue(buy);
+        if (!TradeMath.canAfford(cash, value)) throw new IllegalStateException();
+        long newCash = Money.minus(cash, value);
+        return newCash < 0 ? null : TradeMath.buy(held, buy, value);
+    }
+
+    /** Cost-basis split of a partial SELL. */
+    @Benchmark
+    public TradeMath.Holding sell() {
+        return TradeMath.sell(held, 3);
+    }
+
+    @Benchmark
+    public BigDecimal[] decimalParseOrder() {
+        return new BigDecimal[] {new BigDecimal(body.get("priceUsd")), new BigDecimal(body.get("minPriceUsd")),
+                new BigDecimal(body.get("maxPriceUsd"))};
+    }
+
+    @Benchmark
+    public BigDecimal[] decimalBuy() {
+        BigDecimal value = decimalBuyPrice.multiply(BigDecimal.valueOf(buy.qty));
+        if (decimalCash.compareTo(value) < 0) throw new IllegalStateException();
+        BigDecimal newCash = column(decimalCash.subtract(value));
+        return new BigDecimal[] {newCash, column(decimalCost.add(value)),
+                column(decimalBuyPrice.min(decimalBuyPrice)), column(decimalSellPrice.max(decimalSellPrice))};
+    }
+
+    @Benchmark
+    public BigDecimal decimalSell() {
+        BigDecimal avgCostPer = decimalCost.divide(BigDecimal.valueOf(7), 6, RoundingMode.HALF_UP);
+        return column(avgCostPer.multiply(BigDecimal.valueOf(4)));
+    }
+
+    private static BigDecimal column(BigDecimal v) {
+        return v.setScale(2, RoundingMode.HALF_UP);
+    }
+}
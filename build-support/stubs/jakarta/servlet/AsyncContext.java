@@ -0,0 +1,8 @@
+package jakarta.servlet;
+public interface AsyncContext {
+    ServletRequest getRequest();
+    ServletResponse getResponse();
+    void setTimeout(long timeout);
+    void addListener(AsyncListener listener);
+    void complete();
+}
@@ -0,0 +1,5 @@
+package jakarta.servlet;
+public class AsyncEvent {
+    public AsyncContext getAsyncContext() { return null; }
+    public Throwable getThrowable() { return null; }
+}
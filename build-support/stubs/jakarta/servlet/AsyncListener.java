@@ -0,0 +1,8 @@
+package jakarta.servlet;
+import java.io.IOException;
+public interface AsyncListener extends java.util.EventListener {
+    void onComplete(AsyncEvent event) throws IOException;
+    void onTimeout(AsyncEvent event) throws IOException;
+    void onError(AsyncEvent event) throws IOException;
+    void onStartAsync(AsyncEvent event) throws IOException;
+}
@@ -1,4 +1,5 @@
 package jakarta.servlet;
 public interface ServletContext {
     String getRealPath(String path);
+    void log(String msg);
 }
@@ -0,0 +1,5 @@
+package jakarta.servlet;
+public class ServletContextEvent extends java.util.EventObject {
+    public ServletContextEvent(ServletContext source) { super(source); }
+    public ServletContext getServletContext() { return (ServletContext) getSource(); }
+}
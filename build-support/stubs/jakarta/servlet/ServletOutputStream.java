@@ -0,0 +1,5 @@
+package jakarta.servlet;
+public abstract class ServletOutputStream extends java.io.OutputStream {
+    public abstract boolean isReady();
+    public abstract void setWriteListener(WriteListener writeListener);
+}
@@ -0,0 +1,6 @@
+package jakarta.servlet;
+public interface ServletResponse {
+    boolean isCommitted();
+    ServletOutputStream getOutputStream() throws java.io.IOException;
+    String getContentType();
+}
@@ -0,0 +1,9 @@
+package jakarta.servlet.annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+@Retention(RetentionPolicy.RUNTIME)
+public @interface WebFilter {
+    String filterName() default "";
+    String[] urlPatterns() default {};
+    boolean asyncSupported() default false;
+}
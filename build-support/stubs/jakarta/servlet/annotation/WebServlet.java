@@ -5,4 +5,5 @@ import java.lang.annotation.RetentionPolicy;
 public @interface WebServlet {
     String name() default "";
     String[] urlPatterns() default {};
+    boolean asyncSupported() default false;
 }
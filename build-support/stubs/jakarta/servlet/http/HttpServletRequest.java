@@ -1,6 +1,9 @@
 package jakarta.servlet.http;
 import java.io.BufferedReader;
-public interface HttpServletRequest {
+public interface HttpServletRequest extends jakarta.servlet.ServletRequest {
     BufferedReader getReader();
     String getParameter(String name);
+    String getPathInfo();
+    String getServletPath();
+    String getHeader(String name);
 }
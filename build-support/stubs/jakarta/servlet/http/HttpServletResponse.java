@@ -1,11 +1,31 @@
 package jakarta.servlet.http;
 import java.io.PrintWriter;
-public interface HttpServletResponse {
+public interface HttpServletResponse extends jakarta.servlet.ServletResponse {
     int SC_BAD_REQUEST = 400;
+    int SC_UNAUTHORIZED = 401;
+    int SC_NOT_FOUND = 404;
+    int SC_BAD_GATEWAY = 502;
     int SC_METHOD_NOT_ALLOWED = 405;
     int SC_INTERNAL_SERVER_ERROR = 500;
+    int SC_SERVICE_UNAVAILABLE = 503;
+    int SC_GATEWAY_TIMEOUT = 504;
     int SC_OK = 200;
+    int SC_ACCEPTED = 202;
+    int SC_NOT_MODIFIED = 304;
+    int SC_FOUND = 302;
     void setStatus(int sc);
     void setContentType(String type);
+    void setHeader(String name, String value);
     PrintWriter getWriter();
+    void sendError(int sc, String msg) throws java.io.IOException;
+    void sendError(int sc) throws java.io.IOException;
+    void sendRedirect(String location) throws java.io.IOException;
+    void addHeader(String name, String value);
+    void setIntHeader(String name, int value);
+    void addIntHeader(String name, int value);
+    void setDateHeader(String name, long date);
+    void addDateHeader(String name, long date);
+    boolean containsHeader(String name);
+    String getHeader(String name);
+    int getStatus();
 }
@@ -0,0 +1,23 @@
+package jakarta.servlet.http;
+import java.io.PrintWriter;
+public class HttpServletResponseWrapper implements HttpServletResponse {
+    public HttpServletResponseWrapper(HttpServletResponse response) {}
+    public void setStatus(int sc) {}
+    public void setContentType(String type) {}
+    public void setHeader(String name, String value) {}
+    public PrintWriter getWriter() { return null; }
+    public boolean isCommitted() { return false; }
+    public jakarta.servlet.ServletOutputStream getOutputStream() { return null; }
+    public void sendError(int sc, String msg) throws java.io.IOException {}
+    public void sendError(int sc) throws java.io.IOException {}
+    public void sendRedirect(String location) throws java.io.IOException {}
+    public void addHeader(String name, String value) {}
+    public void setIntHeader(String name, int value) {}
+    public void addIntHeader(String name, int value) {}
+    public void setDateHeader(String name, long date) {}
+    public void addDateHeader(String name, long date) {}
+    public boolean containsHeader(String name) { return false; }
+    public String getHeader(String name) { return null; }
+    public int getStatus() { return 200; }
+    public String getContentType() { return null; }
+}
@@ -0,0 +1,53 @@
+package api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.loader.WebappLoader;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+
+/**
+ * The webapp in an embedded Tomcat, configured from its own {@code web.xml}.
+ * Classes come from this JVM's classpath (parent-first), so a stale
+ * {@code WEB-INF/classes} from an IDE build is never picked up.
+ */
+final class EmbeddedServer {
+    private final Tomcat tomcat = new Tomcat();
+    private int port;
+
+    /** Deploys {@code webappDir} at the root context and starts listening on {@code port} (0 for any free port). */
+    void start(File webappDir, int port, int maxThreads) throws IOException, LifecycleException {
+        tomcat.setBaseDir(Files.createTempDirectory("tt-tomcat-").toString());
+        tomcat.setPort(port);
+        tomcat.setAddDefaultWebXmlToWebapp(false); // no JSP or default servlet; only the API is exercised
+        Connector connector = tomcat.getConnector();
+        connector.setProperty("maxThreads", String.valueOf(maxThreads));
+        connector.setProperty("maxConnections", "20000");
+        connector.setProperty("acceptCount", "1000");
+        connector.setProperty("maxKeepAliveRequests", "-1");
+
+        Context ctx = tomcat.addWebapp("", webappDir.getAbsolutePath());
+        WebappLoader loader = new WebappLoader();
+        loader.setDelegate(true);
+        ctx.setLoader(loader);
+        StandardJarScanner scanner = new StandardJarScanner();
+        scanner.setScanClassPath(false);
+        scanner.setScanManifest(false);
+        ctx.setJarScanner(scanner);
+
+        tomcat.start();
+        this.port = connector.getLocalPort();
+    }
+
+    int port() { return port; }
+
+    /** Stops the webapp, which runs {@link AppLifecycle#contextDestroyed} and so drains any write-behind state. */
+    void stop() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+}
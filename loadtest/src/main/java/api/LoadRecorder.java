@@ -0,0 +1,117 @@
+package api;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-endpoint outcome counters and two latency histograms: service time
+ * (request sent to response received) and response time measured from when
+ * the request was <em>meant</em> to go out. The second one is corrected for
+ * coordinated omission: a stalled server delays the generator too, so the
+ * wait before a late send is charged to the request, and in closed-loop mode
+ * the requests a stalled user never got to send are back-filled at the
+ * expected interval, as HdrHistogram's {@code recordValueWithExpectedInterval} does.
+ */
+final class LoadRecorder {
+    /** How one request ended, from the client's point of view. */
+    enum Result { OK, NOT_MODIFIED, BUSINESS_ERROR, REJECTED, HTTP_ERROR, IO_ERROR }
+
+    static final class Endpoint {
+        final Histogram service = new Histogram();
+        final Histogram response = new Histogram();
+        final LongAdder[] results = new LongAdder[Result.values().length];
+
+        Endpoint() {
+            for (int i = 0; i < results.length; i++) results[i] = new LongAdder();
+        }
+
+        long count() {
+            long n = 0;
+            for (LongAdder a : results) n += a.sum();
+            return n;
+        }
+    }
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final long expectedIntervalNanos;
+    private volatile boolean recording;
+    private volatile long startedNanos;
+    private volatile long stoppedNanos;
+
+    /** @param expectedIntervalNanos closed-loop think time to back-fill at, or 0 for open-loop runs */
+    LoadRecorder(long expectedIntervalNanos) {
+        this.expectedIntervalNanos = expectedIntervalNanos;
+    }
+
+    void start() {
+        startedNanos = System.nanoTime();
+        recording = true;
+    }
+
+    void stop() {
+        recording = false;
+        stoppedNanos = System.nanoTime();
+    }
+
+    void record(String endpoint, Result result, long intendedNanos, long sentNanos, long doneNanos) {
+        if (!recording) return;
+        Endpoint e = endpoints.computeIfAbsent(endpoint, k -> new Endpoint());
+        e.results[result.ordinal()].increment();
+        e.service.record(doneNanos - sentNanos);
+        long response = doneNanos - intendedNanos;
+        e.response.record(response);
+        if (expectedIntervalNanos > 0) {
+            for (long missed = response - expectedIntervalNanos; missed >= expectedIntervalNanos; missed -= expectedIntervalNanos) {
+                e.response.record(missed);
+            }
+        }
+    }
+
+    Map<String, Endpoint> endpoints() {
+        return new TreeMap<>(endpoints);
+    }
+
+    double seconds() {
+        long end = recording ? System.nanoTime() : stoppedNanos;
+        return (end - startedNanos) / 1e9;
+    }
+
+    /** Plain-text table: throughput, outcomes and both latency distributions per endpoint. */
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        double secs = seconds();
+        long total = 0;
+        sb.append(String.format("%-16s %9s %9s %7s %7s %7s %7s%n", "endpoint", "requests", "req/s",
+                "ok", "biz-err", "reject", "error"));
+        for (Map.Entry<String, Endpoint> en : endpoints().entrySet()) {
+            Endpoint e = en.getValue();
+            long n = e.count();
+            total += n;
+            sb.append(String.format("%-16s %9d %9.1f %7d %7d %7d %7d%n", en.getKey(), n, n / secs,
+                    e.results[Result.OK.ordinal()].sum() + e.results[Result.NOT_MODIFIED.ordinal()].sum(),
+                    e.results[Result.BUSINESS_ERROR.ordinal()].sum(), e.results[Result.REJECTED.ordinal()].sum(),
+                    e.results[Result.HTTP_ERROR.ordinal()].sum() + e.results[Result.IO_ERROR.ordinal()].sum()));
+        }
+        sb.append(String.format("%-16s %9d %9.1f%n%n", "total", total, total / secs));
+        sb.append(String.format("%-16s %-9s %9s %9s %9s %9s %9s%n", "latency (ms)", "", "p50", "p90", "p99",
+                "p99.9", "max"));
+        for (Map.Entry<String, Endpoint> en : endpoints().entrySet()) {
+            sb.append(latencyRow(en.getKey(), "service", en.getValue().service));
+            sb.append(latencyRow("", "response", en.getValue().response));
+        }
+        return sb.toString();
+    }
+
+    private static String latencyRow(String name, String kind, Histogram h) {
+        long[] s = h.snapshot();
+        return String.format("%-16s %-9s %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, kind, ms(s, 0.5), ms(s, 0.9),
+                ms(s, 0.99), ms(s, 0.999), ms(s, 1.0));
+    }
+
+    private static double ms(long[] snapshot, double q) {
+        return Histogram.quantile(snapshot, q) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
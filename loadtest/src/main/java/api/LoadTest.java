@@ -0,0 +1,268 @@
+package api;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.h2.tools.RunScript;
+
+/**
+ * Offline load test. Boots the webapp in an {@link EmbeddedServer} on an
+ * in-memory H2 database in MySQL mode, seeds {@code tt.load.users} users
+ * through {@code /register/import}, and drives a mix of {@code /login},
+ * {@code /search}, {@code /favorites}, {@code /wallet} and {@code /trade}
+ * traffic at it. Prints throughput, latency percentiles (see
+ * {@link LoadRecorder}) and the {@link TradeInvariants} result, and exits
+ * non-zero when an invariant was broken.
+ *
+ * <p>Closed loop ({@code tt.load.mode=closed}, the default): each user waits
+ * for its response, thinks for an exponentially distributed
+ * {@code tt.load.thinkMs} and sends again. Open loop ({@code open}): requests
+ * arrive as a Poisson process at {@code tt.load.rate} per second from random
+ * users, however slowly the server answers, with at most
+ * {@code tt.load.maxInFlight} outstanding. Other knobs: {@code tt.load.seconds},
+ * {@code tt.load.warmupSeconds}, {@code tt.load.mix}
+ * ({@code search:40,wallet:20,trade:20,favorites:15,login:5}),
+ * {@code tt.load.events} (synthetic catalog size), {@code tt.load.port},
+ * {@code tt.load.serverThreads} and {@code tt.load.webapp}. Every {@code tt.*}
+ * setting of the app itself, such as {@code tt.trade.mode} or
+ * {@code tt.async.enabled}, passes straight through.
+ */
+public final class LoadTest {
+    private static final String DB_URL = "jdbc:h2:mem:tickettrader_load;MODE=MySQL;DATABASE_TO_LOWER=TRUE;"
+            + "DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASS = "";
+
+    /** The synthetic events written to the catalog file, each with one fixed ticket price. */
+    static final class Catalog {
+        private static final String[] ACTS = {"Lakers", "Celtics", "Taylor Swift", "Coldplay", "Hamilton", "Adele",
+                "Dodgers", "Knicks", "Billie Eilish", "Metallica"};
+        private static final String[] KINDS = {"Live", "World Tour", "Playoffs", "Opening Night", "Finals", "Matinee"};
+        private static final String[] VENUES = {"Crypto.com Arena", "TD Garden", "Madison Square Garden",
+                "SoFi Stadium", "Wembley Stadium", "Red Rocks Amphitheatre"};
+        private static final String[] CITIES = {"Los Angeles", "Boston", "New York", "London", "Denver", "Chicago"};
+
+        final int size;
+
+        Catalog(int size) { this.size = size; }
+
+        String randomId() { return "L" + ThreadLocalRandom.current().nextInt(size); }
+
+        String name(String id) {
+            int i = index(id);
+            return ACTS[i % ACTS.length] + " " + KINDS[(i / ACTS.length) % KINDS.length] + " " + i;
+        }
+
+        /** Between $10 and $200, whole cents, stable per event. */
+        BigDecimal price(String id) {
+            int i = index(id);
+            return BigDecimal.valueOf(1_000 + (i * 7_919L) % 19_000, 2);
+        }
+
+        Path write() throws Exception {
+            Path file = Files.createTempFile("tt-load-catalog-", ".json");
+            Random rnd = new Random(7);
+            try (BufferedWriter out = Files.newBufferedWriter(file)) {
+                out.write('[');
+                for (int i = 0; i < size; i++) {
+                    if (i > 0) out.write(",\n");
+                    String id = "L" + i;
+                    out.write("{\"id\":\"" + id + "\",\"name\":\"" + name(id) + "\",\"venue\":\""
+                            + VENUES[rnd.nextInt(VENUES.length)] + "\",\"city\":\"" + CITIES[rnd.nextInt(CITIES.length)]
+                            + "\",\"localDate\":\"2026-" + (10 + rnd.nextInt(3)) + "-" + (10 + rnd.nextInt(18)) + "\"}");
+                }
+                out.write(']');
+            }
+            file.toFile().deleteOnExit();
+            return file;
+        }
+
+        private static int index(String id) { return Integer.parseInt(id.substring(1)); }
+    }
+
+    private LoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.getInteger("tt.load.users", 2_000);
+        boolean open = "open".equalsIgnoreCase(System.getProperty("tt.load.mode", "closed"));
+        int seconds = Integer.getInteger("tt.load.seconds", 60);
+        int warmup = Integer.getInteger("tt.load.warmupSeconds", 10);
+        long thinkMs = Long.getLong("tt.load.thinkMs", 500L);
+        double rate = Double.parseDouble(System.getProperty("tt.load.rate", "1000"));
+        int maxInFlight = Integer.getInteger("tt.load.maxInFlight", 5_000);
+        LoadUser.Mix mix = LoadUser.Mix.parse(System.getProperty("tt.load.mix",
+                "search:40,wallet:20,trade:20,favorites:15,login:5"));
+        Catalog catalog = new Catalog(Integer.getInteger("tt.load.events", 5_000));
+
+        // The app reads these once, when its classes load, so they go in before anything touches it.
+        String importToken = UUID.randomUUID().toString();
+        System.setProperty("tt.db.url", DB_URL);
+        System.setProperty("tt.db.driver", "org.h2.Driver");
+        System.setProperty("tt.db.user", DB_USER);
+        System.setProperty("tt.db.password", DB_PASS);
+        System.setProperty("tt.register.importToken", importToken);
+        System.setProperty("tt.catalog.file", catalog.write().toString());
+        if (System.getProperty("tt.password.iterations") == null) {
+            System.setProperty("tt.password.iterations", "1000"); // login cost is not what this measures
+        }
+        if (System.getProperty("tt.db.pool.max") == null) System.setProperty("tt.db.pool.max", "20");
+        if (System.getProperty("tt.price.check") == null) {
+            System.setProperty("tt.price.check", "off"); // the synthetic events have no detail source to price from
+        }
+
+        try (Connection c = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
+             Reader schema = new InputStreamReader(LoadTest.class.getResourceAsStream("/loadtest-schema.sql"),
+                     StandardCharsets.UTF_8)) {
+            RunScript.execute(c, schema);
+        }
+
+        EmbeddedServer server = new EmbeddedServer();
+        server.start(webappDir(), Integer.getInteger("tt.load.port", 0), Integer.getInteger("tt.load.serverThreads", 200));
+        URI base = URI.create("http://127.0.0.1:" + server.port() + "/");
+        System.out.println("Webapp up at " + base + " (trade mode " + System.getProperty("tt.trade.mode", "direct")
+                + ", async " + Boolean.getBoolean("tt.async.enabled") + ", storage " + System.getProperty("tt.storage", "mysql") + ")");
+
+        ExecutorService clientPool = Executors.newFixedThreadPool(
+                Integer.getInteger("tt.load.clientThreads", Math.max(4, Runtime.getRuntime().availableProcessors())));
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(clientPool)
+                .connectTimeout(Duration.ofSeconds(10)).build();
+
+        seedUsers(http, base, importToken, users);
+        Storage storage = Storage.get(); // the webapp's instance: its classes load parent-first from here
+
+        LoadRecorder recorder = new LoadRecorder(open ? 0 : TimeUnit.MILLISECONDS.toNanos(thinkMs));
+        TradeInvariants invariants = new TradeInvariants(Money.decimal(DemoUser.DEFAULT_CASH));
+        List<LoadUser> population = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            population.add(new LoadUser(catalog, http, base, recorder, invariants, mix, "load" + i, "pw-" + i));
+        }
+
+        System.out.println((open ? "Open loop at " + rate + " req/s" : "Closed loop, " + users + " users thinking "
+                + thinkMs + "ms") + ": " + warmup + "s warm-up, " + seconds + "s measured");
+        long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup + seconds);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        scheduler.schedule(recorder::start, warmup, TimeUnit.SECONDS);
+        AtomicInteger inFlight = new AtomicInteger();
+        LongAdder dropped = new LongAdder();
+        if (open) {
+            runOpen(population, rate, maxInFlight, endNanos, inFlight, dropped);
+        } else {
+            runClosed(population, thinkMs, endNanos, scheduler, inFlight);
+        }
+        recorder.stop();
+
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) Thread.sleep(50);
+        scheduler.shutdownNow();
+        server.stop();
+        if (storage instanceof MySqlStorage) invariants.checkDatabase(DB_URL, DB_USER, DB_PASS);
+        else invariants.checkStorage(storage);
+
+        System.out.println();
+        System.out.print(recorder.report());
+        if (dropped.sum() > 0) System.out.println("Generator dropped " + dropped.sum() + " arrivals (maxInFlight reached)");
+        System.out.println();
+        System.out.print(invariants.report());
+        clientPool.shutdownNow();
+        System.exit(invariants.passed() ? 0 : 1);
+    }
+
+    /** Each user sends, waits for the answer, thinks, and sends again until the end. */
+    private static void runClosed(List<LoadUser> population, long thinkMs, long endNanos,
+                                  ScheduledExecutorService scheduler, AtomicInteger inFlight) throws InterruptedException {
+        long now = System.nanoTime();
+        for (LoadUser u : population) {
+            // Spread the first logins over one think time instead of a thundering herd.
+            long first = now + (long) (ThreadLocalRandom.current().nextDouble() * TimeUnit.MILLISECONDS.toNanos(Math.max(1, thinkMs)));
+            schedule(u, first, thinkMs, endNanos, scheduler, inFlight);
+        }
+        long left;
+        while ((left = endNanos - System.nanoTime()) > 0) TimeUnit.NANOSECONDS.sleep(Math.min(left, 100_000_000L));
+    }
+
+    private static void schedule(LoadUser u, long intended, long thinkMs, long endNanos,
+                                 ScheduledExecutorService scheduler, AtomicInteger inFlight) {
+        if (intended >= endNanos || scheduler.isShutdown()) return;
+        scheduler.schedule(() -> {
+            inFlight.incrementAndGet();
+            // The send is charged from `intended`, so a late scheduler shows up in the response time.
+            u.step(intended).whenComplete((v, err) -> {
+                inFlight.decrementAndGet();
+                long think = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * TimeUnit.MILLISECONDS.toNanos(thinkMs));
+                schedule(u, System.nanoTime() + think, thinkMs, endNanos, scheduler, inFlight);
+            });
+        }, Math.max(0, intended - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /** Poisson arrivals at {@code rate}/s; a late generator still stamps each request with its planned time. */
+    private static void runOpen(List<LoadUser> population, double rate, int maxInFlight, long endNanos,
+                                AtomicInteger inFlight, LongAdder dropped) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        double meanGapNanos = 1e9 / rate;
+        long next = System.nanoTime();
+        while (next < endNanos) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            if (inFlight.get() >= maxInFlight) {
+                dropped.increment();
+            } else {
+                inFlight.incrementAndGet();
+                population.get(rnd.nextInt(population.size())).step(next).whenComplete((v, err) -> inFlight.decrementAndGet());
+            }
+            next += (long) (-Math.log(1 - rnd.nextDouble()) * meanGapNanos);
+        }
+    }
+
+    /** Creates the users in bulk; their wallets appear when each one first logs in. */
+    private static void seedUsers(HttpClient http, URI base, String token, int users) throws Exception {
+        long start = System.nanoTime();
+        for (int from = 0; from < users; from += 1_000) {
+            StringBuilder ndjson = new StringBuilder();
+            for (int i = from; i < Math.min(users, from + 1_000); i++) {
+                ndjson.append("{\"username\":\"load").append(i).append("\",\"email\":\"load").append(i)
+                      .append("@example.com\",\"password\":\"pw-").append(i).append("\"}\n");
+            }
+            HttpResponse<String> resp = http.send(HttpRequest.newBuilder(base.resolve("/register/import"))
+                    .header("X-Import-Token", token).header("Content-Type", "application/x-ndjson")
+                    .POST(HttpRequest.BodyPublishers.ofString(ndjson.toString())).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (resp.statusCode() != 200) throw new IllegalStateException("User import failed: " + resp.body());
+        }
+        System.out.println("Seeded " + users + " users in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    private static File webappDir() {
+        String configured = System.getProperty("tt.load.webapp");
+        if (configured != null) return new File(configured);
+        for (String candidate : new String[]{"src/main/webapp", "../src/main/webapp"}) {
+            File f = new File(candidate);
+            if (new File(f, "WEB-INF/web.xml").isFile()) return f;
+        }
+        throw new IllegalStateException("Cannot find src/main/webapp; run from the repository root or set -Dtt.load.webapp");
+    }
+}
@@ -0,0 +1,254 @@
+package api;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One simulated user: logs in first, then on every {@link #step} picks the
+ * next request from the configured mix. Search results feed the events it
+ * later favorites and trades; wallet snapshots (sent with the last ETag)
+ * keep its idea of what it holds current and are checked by
+ * {@link TradeInvariants} as they arrive.
+ */
+final class LoadUser {
+    /** Relative weights of the request kinds after login. */
+    static final class Mix {
+        final int search, wallet, trade, favorites, login;
+        final int total;
+
+        Mix(int search, int wallet, int trade, int favorites, int login) {
+            this.search = search; this.wallet = wallet; this.trade = trade; this.favorites = favorites; this.login = login;
+            this.total = search + wallet + trade + favorites + login;
+            if (total <= 0) throw new IllegalArgumentException("request mix is empty");
+        }
+
+        /** Parses {@code search:40,wallet:20,...}; kinds left out get weight 0. */
+        static Mix parse(String spec) {
+            Map<String, Integer> w = new HashMap<>();
+            for (String part : spec.split(",")) {
+                String[] kv = part.trim().split(":");
+                if (kv.length != 2) throw new IllegalArgumentException("bad mix entry: " + part);
+                w.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+            }
+            return new Mix(w.getOrDefault("search", 0), w.getOrDefault("wallet", 0), w.getOrDefault("trade", 0),
+                    w.getOrDefault("favorites", 0), w.getOrDefault("login", 0));
+        }
+    }
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final String[] KEYWORDS = {"lakers", "swift", "tour", "live", "finals", "coldplay", "arena",
+            "hamilton", "playoffs", "garden", "night", "adele"};
+    private static final String[] CITIES = {"Los Angeles", "New York", "Boston", "London", "Denver", "Chicago"};
+
+    private final LoadTest.Catalog catalog;
+    private final HttpClient http;
+    private final URI base;
+    private final LoadRecorder recorder;
+    private final TradeInvariants invariants;
+    private final Mix mix;
+    final String username;
+    private final String password;
+
+    // Guarded by this; open-loop runs can have several requests of one user in flight.
+    private String token;
+    private long userId;
+    private String etag;
+    private final List<String> seen = new ArrayList<>();
+    private final Map<String, Integer> held = new HashMap<>();
+
+    LoadUser(LoadTest.Catalog catalog, HttpClient http, URI base, LoadRecorder recorder, TradeInvariants invariants,
+             Mix mix, String username, String password) {
+        this.catalog = catalog;
+        this.http = http;
+        this.base = base;
+        this.recorder = recorder;
+        this.invariants = invariants;
+        this.mix = mix;
+        this.username = username;
+        this.password = password;
+    }
+
+    /** Sends this user's next request; completes (never exceptionally) once it has been recorded. */
+    CompletableFuture<Void> step(long intendedNanos) {
+        boolean loggedIn;
+        synchronized (this) {
+            loggedIn = token != null;
+        }
+        if (!loggedIn) return login(intendedNanos);
+        int r = ThreadLocalRandom.current().nextInt(mix.total);
+        if ((r -= mix.search) < 0) return search(intendedNanos);
+        if ((r -= mix.wallet) < 0) return wallet(intendedNanos);
+        if ((r -= mix.trade) < 0) return trade(intendedNanos);
+        if ((r -= mix.favorites) < 0) {
+            return ThreadLocalRandom.current().nextInt(4) == 0 ? favorite(intendedNanos) : favorites(intendedNanos);
+        }
+        return login(intendedNanos);
+    }
+
+    private CompletableFuture<Void> login(long intended) {
+        String body = "{\"username\":\"" + username + "\",\"password\":\"" + password + "\"}";
+        return send("login", post("/login", body, false), intended, resp -> {
+            Map<String, String> data = data(resp.body());
+            if (data == null) return LoadRecorder.Result.BUSINESS_ERROR;
+            synchronized (this) {
+                token = data.get("token");
+                userId = Long.parseLong(data.get("id"));
+            }
+            invariants.userSeen(userId);
+            return LoadRecorder.Result.OK;
+        });
+    }
+
+    private CompletableFuture<Void> search(long intended) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        StringBuilder q = new StringBuilder("/search?limit=20&keyword=").append(KEYWORDS[rnd.nextInt(KEYWORDS.length)]);
+        if (rnd.nextInt(3) == 0) q.append("&city=").append(URLEncoder.encode(CITIES[rnd.nextInt(CITIES.length)], StandardCharsets.UTF_8));
+        return send("search", get(q.toString(), false).build(), intended, resp -> {
+            Map<String, String> top = SimpleJson.parseObject(resp.body());
+            if (!"true".equals(top.get("success"))) return LoadRecorder.Result.BUSINESS_ERROR;
+            List<Map<String, String>> items = SimpleJson.parseArrayOfObjects(top.get("data"));
+            synchronized (this) {
+                for (Map<String, String> e : items) {
+                    if (seen.size() >= 32) seen.remove(0);
+                    seen.add(e.get("id"));
+                }
+            }
+            return LoadRecorder.Result.OK;
+        });
+    }
+
+    private CompletableFuture<Void> wallet(long intended) {
+        HttpRequest.Builder b = get("/wallet?type=snapshot", true);
+        long uid;
+        synchronized (this) {
+            if (etag != null) b.header("If-None-Match", etag);
+            uid = userId;
+        }
+        return send("wallet", b.build(), intended, resp -> {
+            if (resp.statusCode() == 304) return LoadRecorder.Result.NOT_MODIFIED;
+            Map<String, String> data = data(resp.body());
+            if (data == null) return LoadRecorder.Result.BUSINESS_ERROR;
+            List<Map<String, String>> positions = SimpleJson.parseArrayOfObjects(data.get("positions"));
+            invariants.checkSnapshot(uid, new BigDecimal(data.get("cashUsd")), positions);
+            synchronized (this) {
+                etag = resp.headers().firstValue("ETag").orElse(null);
+                held.clear();
+                for (Map<String, String> p : positions) held.put(p.get("eventId"), Integer.parseInt(p.get("qty")));
+            }
+            return LoadRecorder.Result.OK;
+        });
+    }
+
+    private CompletableFuture<Void> trade(long intended) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String eventId;
+        int qty;
+        boolean buy;
+        synchronized (this) {
+            buy = held.isEmpty() || rnd.nextInt(10) < 6;
+            if (buy) {
+                eventId = seen.isEmpty() ? catalog.randomId() : seen.get(rnd.nextInt(seen.size()));
+                qty = 1 + rnd.nextInt(3);
+            } else {
+                List<String> ids = new ArrayList<>(held.keySet());
+                eventId = ids.get(rnd.nextInt(ids.size()));
+                qty = 1 + rnd.nextInt(held.get(eventId));
+            }
+        }
+        // A single fixed price per event, so a BUY and a later SELL move cash and cost basis by the same amount.
+        String body = "{\"side\":\"" + (buy ? "BUY" : "SELL") + "\",\"eventId\":\"" + eventId + "\",\"eventName\":\""
+                + catalog.name(eventId) + "\",\"qty\":\"" + qty + "\",\"priceUsd\":\"" + catalog.price(eventId) + "\"}";
+        return send("trade", post("/trade", body, true), intended, resp -> {
+            if (successOf(resp) != LoadRecorder.Result.OK) return LoadRecorder.Result.BUSINESS_ERROR;
+            synchronized (this) {
+                held.merge(eventId, buy ? qty : -qty, Integer::sum);
+                if (held.get(eventId) <= 0) held.remove(eventId);
+            }
+            return LoadRecorder.Result.OK;
+        });
+    }
+
+    private CompletableFuture<Void> favorites(long intended) {
+        return send("favorites", get("/favorites", true).build(), intended, LoadUser::successOf);
+    }
+
+    private CompletableFuture<Void> favorite(long intended) {
+        String eventId;
+        synchronized (this) {
+            eventId = seen.isEmpty() ? catalog.randomId() : seen.get(ThreadLocalRandom.current().nextInt(seen.size()));
+        }
+        String body = "{\"eventId\":\"" + eventId + "\",\"eventName\":\"" + catalog.name(eventId) + "\",\"minPriceUsd\":\""
+                + catalog.price(eventId) + "\",\"maxPriceUsd\":\"" + catalog.price(eventId) + "\"}";
+        return send("favorites.post", post("/favorites", body, true), intended, LoadUser::successOf);
+    }
+
+    // ---- plumbing ----
+
+    @FunctionalInterface
+    private interface Check {
+        LoadRecorder.Result apply(HttpResponse<String> resp);
+    }
+
+    private CompletableFuture<Void> send(String endpoint, HttpRequest req, long intended, Check check) {
+        long sent = System.nanoTime();
+        return http.sendAsync(req, HttpResponse.BodyHandlers.ofString()).handle((resp, err) -> {
+            long done = System.nanoTime();
+            LoadRecorder.Result result;
+            if (err != null) {
+                result = LoadRecorder.Result.IO_ERROR;
+            } else if (resp.statusCode() == 503) {
+                result = LoadRecorder.Result.REJECTED;
+            } else if (resp.statusCode() >= 400) {
+                result = LoadRecorder.Result.HTTP_ERROR;
+            } else {
+                try {
+                    result = check.apply(resp);
+                } catch (RuntimeException e) {
+                    result = LoadRecorder.Result.HTTP_ERROR;
+                }
+            }
+            recorder.record(endpoint, result, intended, sent, done);
+            return null;
+        });
+    }
+
+    private HttpRequest.Builder get(String path, boolean auth) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(base.resolve(path)).timeout(TIMEOUT).GET();
+        return auth ? authorize(b) : b;
+    }
+
+    private HttpRequest post(String path, String json, boolean auth) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(base.resolve(path)).timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+        return (auth ? authorize(b) : b).build();
+    }
+
+    private synchronized HttpRequest.Builder authorize(HttpRequest.Builder b) {
+        return token == null ? b : b.header("Authorization", "Bearer " + token);
+    }
+
+    /** The {@code data} object of a successful JsonResp, or null when it reports a failure. */
+    private static Map<String, String> data(String body) {
+        Map<String, String> top = SimpleJson.parseObject(body);
+        if (!"true".equals(top.get("success")) || top.get("data") == null) return null;
+        return SimpleJson.parseObject(top.get("data"));
+    }
+
+    private static LoadRecorder.Result successOf(HttpResponse<String> resp) {
+        return "true".equals(SimpleJson.parseObject(resp.body()).get("success"))
+                ? LoadRecorder.Result.OK : LoadRecorder.Result.BUSINESS_ERROR;
+    }
+}
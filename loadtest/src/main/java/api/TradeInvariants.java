@@ -0,0 +1,125 @@
+package api;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Trade correctness checks. Every order the load test sends uses one fixed
+ * price per event, so whatever mix of BUYs and SELLs succeeded, each user's
+ * cash plus the cost basis of their positions must still equal the starting
+ * cash, and no position may ever be negative. Wallet snapshots are checked
+ * as they arrive; storage is checked once the server has shut down and
+ * flushed any write-behind state.
+ */
+final class TradeInvariants {
+    private static final int MAX_REPORTED = 20;
+
+    private final BigDecimal startingCash;
+    private final Set<Long> users = ConcurrentHashMap.newKeySet();
+    private final LongAdder snapshotsChecked = new LongAdder();
+    private final List<String> violations = new ArrayList<>();
+    private long violationCount;
+
+    TradeInvariants(BigDecimal startingCash) {
+        this.startingCash = startingCash;
+    }
+
+    /** A simulated user whose wallet the final check should cover. */
+    void userSeen(long userId) {
+        users.add(userId);
+    }
+
+    /** Checks one {@code /wallet?type=snapshot} as the server returned it. */
+    void checkSnapshot(long userId, BigDecimal cash, List<Map<String, String>> positions) {
+        snapshotsChecked.increment();
+        BigDecimal basis = BigDecimal.ZERO;
+        for (Map<String, String> p : positions) {
+            int qty = Integer.parseInt(p.get("qty"));
+            if (qty <= 0) violation("user " + userId + " snapshot shows qty " + qty + " of " + p.get("eventId"));
+            basis = basis.add(new BigDecimal(p.get("totalCostUsd")));
+        }
+        if (cash.signum() < 0) violation("user " + userId + " snapshot shows negative cash " + cash);
+        if (cash.add(basis).compareTo(startingCash) != 0) {
+            violation("user " + userId + " snapshot: cash " + cash + " + cost basis " + basis + " != " + startingCash);
+        }
+    }
+
+    /** Checks every simulated user's committed wallet and positions. */
+    void checkDatabase(String url, String user, String pass) throws SQLException {
+        try (Connection c = DriverManager.getConnection(url, user, pass);
+             Statement s = c.createStatement()) {
+            try (ResultSet rs = s.executeQuery("SELECT user_id, event_id, qty FROM positions WHERE qty <= 0")) {
+                while (rs.next()) {
+                    violation("user " + rs.getLong(1) + " holds qty " + rs.getInt(3) + " of " + rs.getString(2));
+                }
+            }
+            try (ResultSet rs = s.executeQuery("SELECT w.user_id, w.cash_usd, COALESCE(SUM(p.total_cost_usd), 0) "
+                    + "FROM wallet w LEFT JOIN positions p ON p.user_id = w.user_id GROUP BY w.user_id, w.cash_usd")) {
+                int found = 0;
+                while (rs.next()) {
+                    long id = rs.getLong(1);
+                    if (!users.contains(id)) continue;
+                    found++;
+                    BigDecimal cash = rs.getBigDecimal(2);
+                    BigDecimal basis = rs.getBigDecimal(3);
+                    if (cash.signum() < 0) violation("user " + id + " has negative cash " + cash);
+                    if (cash.add(basis).compareTo(startingCash) != 0) {
+                        violation("user " + id + ": cash " + cash + " + cost basis " + basis + " != " + startingCash);
+                    }
+                }
+                if (found != users.size()) violation((users.size() - found) + " logged-in users have no wallet row");
+            }
+        }
+    }
+
+    /** The same final check against a non-SQL {@link Storage} backend, which outlives the webapp that used it. */
+    void checkStorage(Storage storage) throws SQLException {
+        int missing = 0;
+        for (long id : users) {
+            Storage.Account a = storage.wallets().account(id);
+            if (a == null) {
+                missing++;
+                continue;
+            }
+            long basis = 0;
+            for (Storage.Position p : a.positions) {
+                if (p.holding.qty <= 0) violation("user " + id + " holds qty " + p.holding.qty + " of " + p.eventId);
+                basis += p.holding.totalCost;
+            }
+            BigDecimal cash = Money.decimal(a.cash);
+            if (a.cash < 0) violation("user " + id + " has negative cash " + cash);
+            if (cash.add(Money.decimal(basis)).compareTo(startingCash) != 0) {
+                violation("user " + id + ": cash " + cash + " + cost basis " + Money.decimal(basis) + " != " + startingCash);
+            }
+        }
+        if (missing > 0) violation(missing + " logged-in users have no wallet");
+    }
+
+    private synchronized void violation(String message) {
+        violationCount++;
+        if (violations.size() < MAX_REPORTED) violations.add(message);
+    }
+
+    synchronized boolean passed() {
+        return violationCount == 0;
+    }
+
+    synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Invariants: ").append(users.size()).append(" users, ").append(snapshotsChecked.sum())
+          .append(" wallet snapshots checked, ").append(violationCount).append(" violations\n");
+        for (String v : violations) sb.append("  ").append(v).append('\n');
+        if (violationCount > violations.size()) sb.append("  ...\n");
+        return sb.toString();
+    }
+}
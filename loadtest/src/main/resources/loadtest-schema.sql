@@ -0,0 +1,85 @@
+-- The schema of migrations 1 and 2 in H2's dialect, for the load test's stand-in database.
+-- The MySQL trigger that gives new users a wallet has no equivalent here; /login seeds
+-- the wallet instead, and every simulated user logs in before trading.
+
+CREATE TABLE IF NOT EXISTS users (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    username VARCHAR(50) NOT NULL,
+    email VARCHAR(100) NOT NULL,
+    password_hash VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    CONSTRAINT uq_users_username UNIQUE (username),
+    CONSTRAINT uq_users_email UNIQUE (email)
+);
+
+CREATE TABLE IF NOT EXISTS favorites (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    user_id BIGINT NOT NULL,
+    event_id VARCHAR(64) NOT NULL,
+    event_name VARCHAR(255) NULL,
+    event_date VARCHAR(64) NULL,
+    venue VARCHAR(255) NULL,
+    min_price_usd DECIMAL(10,2) NULL,
+    max_price_usd DECIMAL(10,2) NULL,
+    url VARCHAR(500) NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    CONSTRAINT uq_fav_user_event UNIQUE (user_id, event_id),
+    CONSTRAINT fk_fav_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS wallet (
+    user_id BIGINT NOT NULL,
+    cash_usd DECIMAL(10,2) NOT NULL DEFAULT 3000.00,
+    PRIMARY KEY (user_id),
+    CONSTRAINT fk_wallet_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS positions (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    user_id BIGINT NOT NULL,
+    event_id VARCHAR(64) NOT NULL,
+    event_name VARCHAR(255) NULL,
+    qty INT NOT NULL,
+    total_cost_usd DECIMAL(12,2) NOT NULL,
+    min_price_usd DECIMAL(10,2) NOT NULL,
+    max_price_usd DECIMAL(10,2) NOT NULL,
+    last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    CONSTRAINT uq_pos_user_event UNIQUE (user_id, event_id),
+    CONSTRAINT fk_pos_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+CREATE INDEX IF NOT EXISTS ix_pos_user ON positions(user_id);
+
+CREATE TABLE IF NOT EXISTS orders (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    user_id BIGINT NOT NULL,
+    side CHAR(4) NOT NULL,
+    event_id VARCHAR(64) NOT NULL,
+    event_name VARCHAR(255) NULL,
+    price_cents BIGINT NOT NULL,
+    qty INT NOT NULL,
+    remaining INT NOT NULL,
+    escrow_cost_usd DECIMAL(12,2) NULL,
+    escrow_min_price_usd DECIMAL(10,2) NULL,
+    escrow_max_price_usd DECIMAL(10,2) NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    CONSTRAINT fk_orders_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+CREATE INDEX IF NOT EXISTS ix_orders_event ON orders(event_id, id);
+CREATE INDEX IF NOT EXISTS ix_orders_user ON orders(user_id, id);
+
+CREATE TABLE IF NOT EXISTS schema_version (
+    version INT NOT NULL,
+    description VARCHAR(255) NOT NULL,
+    applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    duration_ms BIGINT NOT NULL,
+    PRIMARY KEY (version)
+);
+-- Recorded as applied so SchemaMigrator leaves the MySQL-only DDL alone.
+MERGE INTO schema_version(version, description, duration_ms) KEY (version)
+    VALUES (1, 'Load-test stand-in schema', 0);
+MERGE INTO schema_version(version, description, duration_ms) KEY (version)
+    VALUES (2, 'Load-test stand-in schema', 0);
@@ -0,0 +1,50 @@
+package api;
+
+import db.JDBCConnector;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/** Starts shared resources when the webapp deploys and releases them on undeploy. */
+public class AppLifecycle implements ServletContextListener {
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        Metrics.start();
+        Storage.start();
+        if (Storage.get() instanceof MySqlStorage) {
+            sce.getServletContext().log("Schema version " + JDBCConnector.schemaVersion()
+                    + " (migration check took " + JDBCConnector.migrationMillis() + "ms)");
+        } else {
+            sce.getServletContext().log("Serving from " + Storage.get().name() + " storage");
+        }
+        TradeJournal.start();
+        TradeSnapshot.startScheduler();
+        TradeEngine.start();
+        TradeBatcher.start();
+        Market.start();
+        EventCatalog.start(sce.getServletContext());
+        PriceCache.start(sce.getServletContext());
+        Valuation.start();
+        LiveUpdates.start();
+        SessionStore.start();
+        RequestExecutor.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        LiveUpdates.stop();
+        RequestExecutor.stop();
+        SessionStore.stop();
+        PasswordHasher.shutdown();
+        EventCatalog.stop();
+        EventDetailCache.shutdown();
+        PriceCache.stop();
+        Valuation.stop();
+        Market.stop();
+        TradeBatcher.stop();
+        TradeEngine.stop();
+        TradeSnapshot.stopScheduler();
+        TradeJournal.stop();
+        Storage.stop();
+        JDBCConnector.shutdown();
+    }
+}
@@ -0,0 +1,136 @@
+package api;
+
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many requests of one kind run at once, so a slow dependency only
+ * backs up the endpoints that use it. Up to {@code tt.async.<name>.limit}
+ * requests run; up to {@code tt.async.<name>.queue} more wait for a slot, and
+ * anything beyond that is turned away immediately. {@link #call} takes a
+ * slot around a part of a request only.
+ */
+final class Bulkhead {
+    /** Work that holds a MySQL connection. */
+    static final Bulkhead DB = new Bulkhead("db",
+            Integer.getInteger("tt.db.pool.max", 10), 100);
+    /** In-memory work such as search; never waits behind the database. */
+    static final Bulkhead CPU = new Bulkhead("cpu",
+            Runtime.getRuntime().availableProcessors() * 2, 500);
+
+    /** Thrown by {@link #call} when no slot freed up in time. */
+    static final class Full extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Full(String message) { super(message); }
+    }
+
+    /** Storage work run by {@link #call}. */
+    @FunctionalInterface
+    interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    /** Counters since startup. */
+    static final class Stats {
+        public String name;
+        public int limit;
+        public int maxQueue;
+        public int active;
+        public int queued;
+        public int queuedMax;
+        public long admitted;
+        public long rejected;
+        public long timedOut;
+    }
+
+    final String name;
+    private final int limit;
+    private final long waitMs;
+    private final int maxQueue;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger queuedMax = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    Bulkhead(String name, int defaultLimit, int defaultQueue) {
+        this.name = name;
+        this.limit = Math.max(1, Integer.getInteger("tt.async." + name + ".limit", defaultLimit));
+        this.maxQueue = Math.max(0, Integer.getInteger("tt.async." + name + ".queue", defaultQueue));
+        this.waitMs = Math.max(0, Long.getLong("tt.async." + name + ".waitMs", 2_000L));
+        this.permits = new Semaphore(limit, true);
+    }
+
+    /**
+     * Runs {@code work} holding a slot, for handlers admitted to another
+     * bulkhead that only need this one around part of their work (e.g. the
+     * JDBC calls of a login, whose password hashing must not hold a database
+     * slot). Waits at most {@code tt.async.<name>.waitMs} for the slot.
+     * With {@link RequestExecutor#enabled async handling} off it just runs
+     * {@code work}, as synchronous requests never take a slot.
+     */
+    <T> T call(Work<T> work) throws SQLException, Full {
+        if (!RequestExecutor.enabled()) return work.run();
+        try {
+            if (!acquire(waitMs)) throw new Full("Server busy, please retry");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Full("Interrupted while waiting for the " + name + " bulkhead");
+        }
+        try {
+            return work.run();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Takes a slot, waiting at most {@code waitMs}; false when the queue is
+     * full or the wait ran out. A true return must be paired with {@link #release}.
+     */
+    boolean acquire(long waitMs) throws InterruptedException {
+        if (permits.tryAcquire()) {
+            admitted.increment();
+            return true;
+        }
+        int depth = queued.incrementAndGet();
+        try {
+            if (depth > maxQueue) {
+                rejected.increment();
+                return false;
+            }
+            queuedMax.accumulateAndGet(depth, Math::max);
+            if (permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+                admitted.increment();
+                return true;
+            }
+            timedOut.increment();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    void release() {
+        permits.release();
+    }
+
+    Stats stats() {
+        Stats s = new Stats();
+        s.name = name;
+        s.limit = limit;
+        s.maxQueue = maxQueue;
+        s.active = limit - permits.availablePermits();
+        s.queued = queued.get();
+        s.queuedMax = queuedMax.get();
+        s.admitted = admitted.sum();
+        s.rejected = rejected.sum();
+        s.timedOut = timedOut.sum();
+        return s;
+    }
+}
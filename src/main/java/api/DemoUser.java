@@ -1,16 +1,14 @@
 package api;
 
-import db.JDBCConnector;
-import java.math.BigDecimal;
-import java.sql.*;
+import java.sql.SQLException;
 
 /** Ensures a default demo user and wallet exist so the app works without signup. */
 public final class DemoUser {
     public static final long ID = 1L;
-    public static final java.math.BigDecimal DEFAULT_CASH = new java.math.BigDecimal("3000.00");
+    public static final long DEFAULT_CASH = 300_000; // cents
     private static final String USERNAME = "demo";
     private static final String EMAIL = "demo@example.com";
-    private static final String PASS_HASH = HashUtil.sha256("demo123");
+    private static final String PASSWORD = "demo123";
 
     private DemoUser() {}
 
@@ -18,55 +16,22 @@ public final class DemoUser {
      * Guarantees there is at least one user record and wallet row for the demo
      * user. Returns the demo user id.
      */
-    public static long ensure(BigDecimal startingCash) throws SQLException {
-        if (startingCash == null) startingCash = DEFAULT_CASH;
-        Connection c = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        try {
-            c = JDBCConnector.get();
-
-            ps = c.prepareStatement("SELECT id, password_hash FROM users WHERE id=?");
-            ps.setLong(1, ID);
-            rs = ps.executeQuery();
-            if (rs.next()) {
-                String stored = rs.getString("password_hash");
-                if (!PASS_HASH.equals(stored)) {
-                    JDBCConnector.closeQuiet(ps);
-                    ps = c.prepareStatement("UPDATE users SET password_hash=? WHERE id=?");
-                    ps.setString(1, PASS_HASH);
-                    ps.setLong(2, ID);
-                    ps.executeUpdate();
-                }
-                ensureWallet(c, startingCash);
-                return ID;
+    public static long ensure(long startingCash) throws SQLException {
+        if (ProvisionedUsers.demoReady()) return ID;
+        if (startingCash == Money.NONE) startingCash = DEFAULT_CASH;
+        Storage.Users users = Storage.get().users();
+        Storage.User demo = users.findById(ID);
+        if (demo != null) {
+            if (!PasswordHasher.verifyInline(PASSWORD, demo.passwordHash)) {
+                users.replacePasswordHash(ID, demo.passwordHash, PasswordHasher.hashInline(PASSWORD));
             }
-            JDBCConnector.closeQuiet(rs);
-            JDBCConnector.closeQuiet(ps);
-
-            c.setAutoCommit(false);
-            try {
-                ps = c.prepareStatement("INSERT INTO users(id, username, email, password_hash) VALUES(?,?,?,?)");
-                ps.setLong(1, ID);
-                ps.setString(2, USERNAME);
-                ps.setString(3, EMAIL);
-                ps.setString(4, PASS_HASH);
-                ps.executeUpdate();
-
-                ensureWallet(c, startingCash);
-                c.commit();
-            } catch (Exception e) {
-                c.rollback();
-                throw e;
-            } finally {
-                c.setAutoCommit(true);
-            }
-            return ID;
-        } finally {
-            JDBCConnector.closeQuiet(rs);
-            JDBCConnector.closeQuiet(ps);
-            JDBCConnector.closeQuiet(c);
+            Storage.get().wallets().seed(ID, startingCash);
+        } else {
+            users.create(ID, USERNAME, EMAIL, PasswordHasher.hashInline(PASSWORD), startingCash);
         }
+        WalletVersions.bump(ID);
+        ProvisionedUsers.demoProvisioned();
+        return ID;
     }
 
     /**
@@ -74,47 +39,24 @@ public final class DemoUser {
      * database is unreachable so that the rest of the app can keep running in
      * mock/in-memory mode.
      */
-    public static long ensureSafe(BigDecimal startingCash) {
+    public static long ensureSafe(long startingCash) {
         try {
             return ensure(startingCash);
         } catch (SQLException e) {
-            System.err.println("Demo user bootstrap skipped (DB offline): " + e.getMessage());
+            Metrics.error("demo_user", "Demo user bootstrap skipped (DB offline): " + e.getMessage());
             return ID;
         }
     }
 
-    private static void ensureWallet(Connection c, BigDecimal startingCash) throws SQLException {
-        PreparedStatement ps = null;
-        try {
-            ps = c.prepareStatement(
-                "INSERT INTO wallet(user_id, cash_usd) VALUES(?, ?) " +
-                "ON DUPLICATE KEY UPDATE cash_usd = GREATEST(cash_usd, VALUES(cash_usd))"
-            );
-            ps.setLong(1, ID);
-            ps.setBigDecimal(2, startingCash);
-            ps.executeUpdate();
-        } finally {
-            JDBCConnector.closeQuiet(ps);
-        }
-    }
-
-    /** Ensure a wallet exists for arbitrary user ids with at least the starting cash. */
-    public static void seedWallet(long userId, BigDecimal startingCash) throws SQLException {
-        if (startingCash == null) startingCash = DEFAULT_CASH;
-        Connection c = null;
-        PreparedStatement ps = null;
-        try {
-            c = JDBCConnector.get();
-            ps = c.prepareStatement(
-                "INSERT INTO wallet(user_id, cash_usd) VALUES(?, ?) " +
-                "ON DUPLICATE KEY UPDATE cash_usd = GREATEST(cash_usd, VALUES(cash_usd))"
-            );
-            ps.setLong(1, userId);
-            ps.setBigDecimal(2, startingCash);
-            ps.executeUpdate();
-        } finally {
-            JDBCConnector.closeQuiet(ps);
-            JDBCConnector.closeQuiet(c);
-        }
+    /**
+     * Ensure a wallet exists for arbitrary user ids with at least the starting cash.
+     * Only the first call per user on this node touches storage (see {@link ProvisionedUsers}).
+     */
+    public static void seedWallet(long userId, long startingCash) throws SQLException {
+        if (ProvisionedUsers.contains(userId)) return;
+        if (startingCash == Money.NONE) startingCash = DEFAULT_CASH;
+        Storage.get().wallets().seed(userId, startingCash);
+        WalletVersions.bump(userId); // the upsert may have topped the cash up
+        ProvisionedUsers.add(userId);
     }
 }
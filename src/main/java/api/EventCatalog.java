@@ -0,0 +1,410 @@
+package api;
+
+import jakarta.servlet.ServletContext;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resident, indexed copy of the event list behind {@code /search}.
+ *
+ * <p>The JSON file is parsed once and kept as an immutable snapshot with a
+ * trigram index over event names and venues, an exact-match city index and
+ * a date index.
+ * A {@code WatchService} thread rebuilds the snapshot when the file changes
+ * and swaps it in atomically, so readers never see a half-built catalog.
+ * The file defaults to {@code mock/getEvents/search.json} inside the webapp
+ * and can be overridden with {@code -Dtt.catalog.file}.
+ */
+final class EventCatalog {
+    private static final String DEFAULT_RESOURCE = "/mock/getEvents/search.json";
+    private static final long RELOAD_DEBOUNCE_MS = 250;
+
+    /** One event as returned by /search; every field here is serialized. */
+    static final class Event {
+        final String id;
+        final String name;
+        final String venue;
+        final String localDate;
+        final String image;
+        final String city;
+
+        Event(String id, String name, String venue, String localDate, String image, String city) {
+            this.id = id; this.name = name; this.venue = venue; this.localDate = localDate; this.image = image; this.city = city;
+        }
+    }
+
+    private static volatile EventCatalog current;
+    private static Path source;
+    private static WatchService watcher;
+
+    private final Event[] events;
+    private final GramTable grams;           // trigram of name/venue -> ascending event ids
+    private final Map<String, int[]> cities; // normalized city -> ascending event ids
+    private final long[] byDate;             // (yyyymmdd << 32 | id), sorted; undated events left out
+
+    private EventCatalog(Event[] events) {
+        this.events = events;
+        GramTable g = new GramTable();
+        Map<String, IntList> c = new HashMap<>();
+        long[] dated = new long[events.length];
+        int datedCount = 0;
+        for (int id = 0; id < events.length; id++) {
+            Event e = events[id];
+            int date = dateKey(e.localDate);
+            if (date >= 0) dated[datedCount++] = ((long) date << 32) | id;
+            addGrams(g, lower(e.name), id);
+            addGrams(g, lower(e.venue), id);
+            String city = normalize(e.city);
+            if (!city.isEmpty()) c.computeIfAbsent(city, k -> new IntList()).add(id);
+        }
+        g.trim();
+        grams = g;
+        byDate = Arrays.copyOf(dated, datedCount);
+        Arrays.sort(byDate);
+        cities = new HashMap<>(c.size() * 4 / 3 + 1);
+        for (Map.Entry<String, IntList> e : c.entrySet()) cities.put(e.getKey(), e.getValue().toArray());
+    }
+
+    /** Loads the catalog and starts watching its file for changes. Safe to call more than once. */
+    static synchronized void start(ServletContext ctx) {
+        if (current != null) return;
+        source = resolve(ctx);
+        EventCatalog loaded = load(source);
+        current = loaded != null ? loaded : fallback();
+        if (source != null) watch(source);
+    }
+
+    static synchronized void stop() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignore) {}
+            watcher = null;
+        }
+        current = null;
+    }
+
+    /** The current snapshot, loading it on first use if the lifecycle listener did not. */
+    static EventCatalog get(ServletContext ctx) {
+        EventCatalog c = current;
+        if (c != null) return c;
+        start(ctx);
+        return current;
+    }
+
+    int size() { return events.length; }
+
+    /** Events in the current snapshot; 0 before the first load. */
+    static int loadedSize() {
+        EventCatalog c = current;
+        return c == null ? 0 : c.size();
+    }
+
+    Event event(int id) { return events[id]; }
+
+    /**
+     * Ids of events whose name or venue contains {@code keyword}, ignoring case,
+     * in catalog order; null when the keyword is empty and so matches everything.
+     */
+    int[] keyword(String keyword) {
+        return keyword(keyword, null);
+    }
+
+    /** Like {@link #keyword(String)}, restricted to the ascending ids in {@code within} (null for all). */
+    int[] keyword(String keyword, int[] within) {
+        String needle = normalize(keyword);
+        return needle.isEmpty() ? within : find(needle, within);
+    }
+
+    /** Ids of events in exactly this city, ignoring case; null when it is empty. */
+    int[] city(String city) {
+        String key = normalize(city);
+        if (key.isEmpty()) return null;
+        int[] ids = cities.get(key);
+        return ids == null ? new int[0] : ids;
+    }
+
+    /** Intersection of two ascending id lists, where null stands for "every event". */
+    static int[] intersect(int[] a, int[] b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /** Ids of events dated within [from, to] (yyyymmdd, inclusive), in catalog order. */
+    int[] dateRange(int from, int to) {
+        int lo = lowerBound((long) from << 32);
+        int hi = to == Integer.MAX_VALUE ? byDate.length : lowerBound((long) (to + 1) << 32);
+        int[] ids = new int[Math.max(0, hi - lo)];
+        for (int i = lo; i < hi; i++) ids[i - lo] = (int) byDate[i];
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /** {@code yyyy-MM-dd} (anything after the tenth character ignored) as yyyymmdd, or -1. */
+    static int dateKey(String s) {
+        if (s == null || s.length() < 10 || s.charAt(4) != '-' || s.charAt(7) != '-') return -1;
+        int v = 0;
+        for (int i = 0; i < 10; i++) {
+            if (i == 4 || i == 7) continue;
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    private int lowerBound(long key) {
+        int lo = 0, hi = byDate.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (byDate[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private int[] find(String needle, int[] within) {
+        int[] candidates = within;
+        if (needle.length() >= 3) {
+            // Every trigram of the needle must occur; start from the rarest list.
+            List<int[]> lists = new ArrayList<>();
+            for (int i = 0; i + 3 <= needle.length(); i++) {
+                int[] ids = grams.get(gram(needle, i));
+                if (ids == null) return new int[0];
+                lists.add(ids);
+            }
+            lists.sort((x, y) -> Integer.compare(x.length, y.length));
+            if (candidates != null && candidates.length == 0) return candidates;
+            for (int[] ids : lists) {
+                candidates = intersect(candidates, ids);
+                if (candidates.length == 0) return candidates;
+            }
+        }
+        // Trigrams only narrow the candidates (and one- or two-character
+        // needles are not indexed at all); the substring check decides.
+        int n = candidates == null ? events.length : candidates.length;
+        int[] out = new int[Math.min(n, 1024)];
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            int id = candidates == null ? k : candidates[k];
+            Event e = events[id];
+            if (lower(e.name).contains(needle) || lower(e.venue).contains(needle)) {
+                if (count == out.length) out = Arrays.copyOf(out, out.length * 2);
+                out[count++] = id;
+            }
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private static void addGrams(GramTable g, String text, int id) {
+        for (int i = 0; i + 3 <= text.length(); i++) g.add(gram(text, i), id);
+    }
+
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    static String normalize(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static String lower(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static Path resolve(ServletContext ctx) {
+        String override = System.getProperty("tt.catalog.file");
+        if (override != null && !override.isEmpty()) return Path.of(override);
+        String realPath = ctx == null ? null : ctx.getRealPath(DEFAULT_RESOURCE);
+        return realPath == null ? null : Path.of(realPath);
+    }
+
+    /** Parses the catalog file; null when it is missing, unreadable or empty. */
+    private static EventCatalog load(Path file) {
+        if (file != null && Files.exists(file)) {
+            try {
+                List<Map<String, String>> maps;
+                try (Reader in = Files.newBufferedReader(file)) {
+                    maps = JsonParser.parseArrayOfObjects(in, new ArrayList<>());
+                }
+                Event[] events = new Event[maps.size()];
+                int i = 0;
+                for (Map<String, String> m : maps) {
+                    events[i++] = new Event(
+                            m.getOrDefault("id", m.getOrDefault("eventId", "")),
+                            m.getOrDefault("name", ""),
+                            m.getOrDefault("venue", ""),
+                            m.getOrDefault("localDate", m.getOrDefault("date", "")),
+                            m.getOrDefault("image", ""),
+                            m.getOrDefault("city", ""));
+                }
+                if (events.length > 0) return new EventCatalog(events);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Unable to read event catalog " + file + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /** The two demo events served when there is no usable catalog file. */
+    private static EventCatalog fallback() {
+        return new EventCatalog(new Event[] {
+                new Event("E1", "Taylor Swift | The Eras Tour", "SoFi Stadium", "2025-12-20", "", "Los Angeles"),
+                new Event("E2", "Los Angeles Lakers vs Boston Celtics", "Crypto.com Arena", "2025-12-25", "", "Los Angeles")
+        });
+    }
+
+    private static void watch(Path file) {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir == null || !Files.isDirectory(dir)) return;
+        try {
+            WatchService ws = FileSystems.getDefault().newWatchService();
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watcher = ws;
+            Thread t = new Thread(() -> watchLoop(ws, file), "event-catalog-watch");
+            t.setDaemon(true);
+            t.start();
+        } catch (IOException e) {
+            System.err.println("Event catalog hot reload disabled: " + e.getMessage());
+        }
+    }
+
+    private static void watchLoop(WatchService ws, Path file) {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                boolean changed = false;
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    if (name.equals(ev.context())) changed = true;
+                }
+                key.reset();
+                if (!changed) continue;
+                // Editors and copy tools write in several steps; let them finish.
+                Thread.sleep(RELOAD_DEBOUNCE_MS);
+                WatchKey more;
+                while ((more = ws.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                EventCatalog next = load(file);
+                if (next == null) continue; // keep serving the previous snapshot
+                synchronized (EventCatalog.class) {
+                    if (watcher == ws) current = next;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stop() closed the watcher
+        } catch (RuntimeException e) {
+            System.err.println("Event catalog watcher stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Open-addressing map from a packed trigram to its ascending id list, so
+     * building and probing the index never boxes a key.
+     */
+    private static final class GramTable {
+        private static final long USED = 1L << 63;
+
+        private long[] keys = new long[1 << 12];
+        private int[][] ids = new int[1 << 12][];
+        private int[] sizes = new int[1 << 12];
+        private int count;
+
+        void add(long gram, int id) {
+            int slot = slot(gram);
+            if (keys[slot] == 0) {
+                if ((count + 1) * 2 > keys.length) {
+                    grow();
+                    slot = slot(gram);
+                }
+                keys[slot] = gram | USED;
+                ids[slot] = new int[4];
+                count++;
+            }
+            int n = sizes[slot];
+            int[] a = ids[slot];
+            if (n > 0 && a[n - 1] == id) return; // same trigram twice in one event
+            if (n == a.length) ids[slot] = a = Arrays.copyOf(a, n * 2);
+            a[n] = id;
+            sizes[slot] = n + 1;
+        }
+
+        int[] get(long gram) {
+            int slot = slot(gram);
+            return keys[slot] == 0 ? null : ids[slot];
+        }
+
+        /** Shrinks every list to its size once building is done. */
+        void trim() {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && ids[i].length != sizes[i]) ids[i] = Arrays.copyOf(ids[i], sizes[i]);
+            }
+        }
+
+        private int slot(long gram) {
+            long key = gram | USED;
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (keys[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+            return i;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[][] oldIds = ids;
+            int[] oldSizes = sizes;
+            keys = new long[oldKeys.length * 2];
+            ids = new int[keys.length][];
+            sizes = new int[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) continue;
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+                sizes[slot] = oldSizes[i];
+            }
+        }
+    }
+
+    /** Growable int array used while building the city index. */
+    private static final class IntList {
+        int[] a = new int[4];
+        int size;
+
+        void add(int v) {
+            if (size == a.length) a = Arrays.copyOf(a, size * 2);
+            a[size++] = v;
+        }
+
+        int[] toArray() { return Arrays.copyOf(a, size); }
+    }
+}
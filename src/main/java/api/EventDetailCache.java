@@ -0,0 +1,235 @@
+package api;
+
+import jakarta.servlet.ServletContext;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded TTL cache in front of an {@link EventDetailSource}.
+ *
+ * <ul>
+ *   <li>Entries are fresh for {@code tt.detail.ttlMs}; after that they are
+ *       still served for {@code tt.detail.staleMs} while one background
+ *       refresh runs (stale-while-revalidate), and served past that window
+ *       too if the refresh fails.</li>
+ *   <li>Concurrent misses for the same event share one upstream call.</li>
+ *   <li>At most {@code tt.detail.maxEntries} entries are kept; the least
+ *       recently used one is evicted first.</li>
+ *   <li>Unknown events are remembered for {@code tt.detail.notFoundTtlMs}.</li>
+ * </ul>
+ */
+final class EventDetailCache {
+    private static final long TTL_MS = Long.getLong("tt.detail.ttlMs", 300_000L);
+    private static final long STALE_MS = Long.getLong("tt.detail.staleMs", 600_000L);
+    private static final long NOT_FOUND_TTL_MS = Long.getLong("tt.detail.notFoundTtlMs", 30_000L);
+    private static final int MAX_ENTRIES = Integer.getInteger("tt.detail.maxEntries", 10_000);
+    private static final long WAIT_MS = Long.getLong("tt.detail.waitMs", 5_000L);
+
+    /** How a lookup was answered; sent back as the X-Cache header. */
+    enum Outcome { HIT, STALE, MISS }
+
+    /** Detail JSON (null when the event does not exist) and how it was obtained. */
+    static final class Result {
+        final String json;
+        final Outcome outcome;
+
+        Result(String json, Outcome outcome) {
+            this.json = json;
+            this.outcome = outcome;
+        }
+    }
+
+    /** Counters since startup. */
+    static final class Stats {
+        public int size;
+        public long hits;
+        public long staleHits;
+        public long misses;
+        public long coalesced;
+        public long evictions;
+        public long upstreamCalls;
+        public long upstreamErrors;
+        public long upstreamNanosTotal;
+        public long upstreamNanosMax;
+    }
+
+    private static final class Entry {
+        final String json;
+        final long freshUntil;
+        final long staleUntil;
+
+        Entry(String json, long now, long ttlMs) {
+            this.json = json;
+            this.freshUntil = now + TimeUnit.MILLISECONDS.toNanos(ttlMs);
+            this.staleUntil = freshUntil + TimeUnit.MILLISECONDS.toNanos(STALE_MS);
+        }
+    }
+
+    private static EventDetailCache instance;
+
+    private final EventDetailSource source;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= MAX_ENTRIES) return false;
+            evictions.increment();
+            return true;
+        }
+    };
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder upstreamCalls = new LongAdder();
+    private final LongAdder upstreamErrors = new LongAdder();
+    private final LongAdder upstreamNanosTotal = new LongAdder();
+    private final AtomicLong upstreamNanosMax = new AtomicLong();
+
+    EventDetailCache(EventDetailSource source) {
+        this.source = source;
+        this.refresher = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(256), r -> {
+            Thread t = new Thread(r, "event-detail-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** The shared cache, created on first use with the configured source. */
+    static synchronized EventDetailCache get(ServletContext ctx) {
+        if (instance == null) instance = new EventDetailCache(EventDetailSource.fromConfig(ctx));
+        return instance;
+    }
+
+    static synchronized void shutdown() {
+        if (instance != null) {
+            instance.refresher.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /** Counters for the shared cache, or null before first use. */
+    static synchronized Stats stats() {
+        return instance == null ? null : instance.snapshot();
+    }
+
+    Result lookup(String eventId) throws IOException {
+        long now = System.nanoTime();
+        Entry e;
+        synchronized (entries) {
+            e = entries.get(eventId);
+        }
+        if (e != null && now - e.freshUntil < 0) {
+            hits.increment();
+            return new Result(e.json, Outcome.HIT);
+        }
+        if (e != null && now - e.staleUntil < 0) {
+            staleHits.increment();
+            refreshInBackground(eventId);
+            return new Result(e.json, Outcome.STALE);
+        }
+        misses.increment();
+        try {
+            return new Result(load(eventId).json, Outcome.MISS);
+        } catch (IOException ex) {
+            if (e == null) throw ex;
+            staleHits.increment(); // stale-if-error: better an old answer than none
+            return new Result(e.json, Outcome.STALE);
+        }
+    }
+
+    /** Fetches through the single-flight table, waiting for a call already under way. */
+    private Entry load(String eventId) throws IOException {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(eventId, mine);
+        if (running == null) {
+            fetchInto(eventId, mine);
+            running = mine;
+        } else {
+            coalesced.increment();
+        }
+        try {
+            return running.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause.getMessage(), cause);
+        } catch (TimeoutException ex) {
+            throw new IOException("Timed out waiting for event detail " + eventId);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for event detail " + eventId);
+        }
+    }
+
+    private void refreshInBackground(String eventId) {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(eventId, mine) != null) return; // someone is already refreshing
+        try {
+            refresher.execute(() -> fetchInto(eventId, mine));
+        } catch (RejectedExecutionException ex) {
+            // Refresh queue full: keep serving the stale copy and let a later request retry.
+            inFlight.remove(eventId, mine);
+            mine.completeExceptionally(new IOException("Event detail refresh queue is full"));
+        }
+    }
+
+    private void fetchInto(String eventId, CompletableFuture<Entry> future) {
+        long start = System.nanoTime();
+        upstreamCalls.increment();
+        try {
+            String json = source.fetch(eventId);
+            long end = System.nanoTime();
+            record(end - start);
+            PriceCache.observe(eventId, json, end);
+            Entry entry = new Entry(json, end, json == null ? NOT_FOUND_TTL_MS : TTL_MS);
+            synchronized (entries) {
+                entries.put(eventId, entry);
+            }
+            future.complete(entry);
+        } catch (Exception ex) {
+            record(System.nanoTime() - start);
+            upstreamErrors.increment();
+            future.completeExceptionally(ex);
+        } finally {
+            inFlight.remove(eventId, future);
+        }
+    }
+
+    private void record(long nanos) {
+        upstreamNanosTotal.add(nanos);
+        upstreamNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    private Stats snapshot() {
+        Stats s = new Stats();
+        synchronized (entries) {
+            s.size = entries.size();
+        }
+        s.hits = hits.sum();
+        s.staleHits = staleHits.sum();
+        s.misses = misses.sum();
+        s.coalesced = coalesced.sum();
+        s.evictions = evictions.sum();
+        s.upstreamCalls = upstreamCalls.sum();
+        s.upstreamErrors = upstreamErrors.sum();
+        s.upstreamNanosTotal = upstreamNanosTotal.sum();
+        s.upstreamNanosMax = upstreamNanosMax.get();
+        return s;
+    }
+}
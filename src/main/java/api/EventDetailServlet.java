@@ -0,0 +1,54 @@
+package api;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * {@code GET /eventDetail?eventId=E1} (or {@code /eventDetail/E1}): the event's
+ * detail JSON exactly as the upstream returns it, served through
+ * {@link EventDetailCache}. The {@code X-Cache} header says whether the answer
+ * was fresh, stale or fetched for this request.
+ */
+@WebServlet(name = "EventDetailServlet", urlPatterns = {"/eventDetail", "/eventDetail/*"})
+public class EventDetailServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        resp.setContentType("application/json;charset=UTF-8");
+
+        String eventId = req.getParameter("eventId");
+        String path = req.getPathInfo();
+        if ((eventId == null || eventId.trim().isEmpty()) && path != null) eventId = path.replaceAll("^/+|/+$", "");
+        eventId = eventId == null ? "" : eventId.trim();
+        if (!EventDetailSource.validId(eventId)) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            write(resp, JsonResp.error("eventId is required"));
+            return;
+        }
+
+        EventDetailCache.Result r;
+        try {
+            r = EventDetailCache.get(getServletContext()).lookup(eventId);
+        } catch (IOException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+            write(resp, JsonResp.error("Event detail unavailable: " + e.getMessage()));
+            return;
+        }
+        resp.setHeader("X-Cache", r.outcome.name());
+        if (r.json == null) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            write(resp, JsonResp.error("Event not found"));
+            return;
+        }
+        try (PrintWriter out = resp.getWriter()) { out.write(r.json); }
+    }
+
+    private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
+        try (PrintWriter out = resp.getWriter()) { jr.writeTo(out); }
+    }
+}
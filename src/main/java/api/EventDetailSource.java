@@ -0,0 +1,82 @@
+package api;
+
+import jakarta.servlet.ServletContext;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Where {@code /eventDetail} gets event details from. Selected with
+ * {@code -Dtt.detail.source}: {@code upstream} (default) calls the Ticketmaster
+ * proxy, {@code mock} serves {@code mock/getEvents/eventDetail/{id}.json} for
+ * local testing.
+ */
+interface EventDetailSource {
+    /** The detail JSON for {@code eventId}, or null when the event does not exist. */
+    String fetch(String eventId) throws IOException;
+
+    /** Whether {@code eventId} has the shape of an event id; anything else is never sent upstream. */
+    static boolean validId(String eventId) {
+        return eventId != null && eventId.matches("[A-Za-z0-9_-]{1,64}");
+    }
+
+    static EventDetailSource fromConfig(ServletContext ctx) {
+        String kind = System.getProperty("tt.detail.source", "upstream");
+        if ("mock".equalsIgnoreCase(kind)) return new Mock(ctx);
+        return new Upstream(System.getProperty("tt.detail.upstream",
+                "https://us-central1-quixotic-dynamo-165616.cloudfunctions.net/getEvents"),
+                Long.getLong("tt.detail.upstreamTimeoutMs", 3_000L));
+    }
+
+    /** The Ticketmaster proxy's {@code /eventDetail?eventId=} endpoint. */
+    final class Upstream implements EventDetailSource {
+        private final String base;
+        private final Duration timeout;
+        private final HttpClient client;
+
+        Upstream(String base, long timeoutMs) {
+            this.base = base.replaceAll("/+$", "");
+            this.timeout = Duration.ofMillis(timeoutMs);
+            this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        }
+
+        @Override
+        public String fetch(String eventId) throws IOException {
+            HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/eventDetail?eventId="
+                    + URLEncoder.encode(eventId, StandardCharsets.UTF_8)))
+                    .timeout(timeout).header("Accept", "application/json").GET().build();
+            HttpResponse<String> resp;
+            try {
+                resp = client.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while calling the event detail upstream", e);
+            }
+            if (resp.statusCode() == 404) return null;
+            if (resp.statusCode() / 100 != 2) throw new IOException("Event detail upstream returned " + resp.statusCode());
+            return resp.body();
+        }
+    }
+
+    /** Stand-in backed by the mock JSON files shipped with the webapp. */
+    final class Mock implements EventDetailSource {
+        private final ServletContext ctx;
+
+        Mock(ServletContext ctx) { this.ctx = ctx; }
+
+        @Override
+        public String fetch(String eventId) throws IOException {
+            String realPath = ctx == null ? null : ctx.getRealPath("/mock/getEvents/eventDetail/" + eventId + ".json");
+            if (realPath == null) return null;
+            Path p = Path.of(realPath);
+            return Files.exists(p) ? Files.readString(p) : null;
+        }
+    }
+}
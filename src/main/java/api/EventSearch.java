@@ -0,0 +1,157 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ranked, paginated queries over an {@link EventCatalog}.
+ *
+ * <p>The keyword is split into terms; an event matches when every term occurs
+ * in its name or venue. Name hits weigh more than venue hits, a term at the
+ * start of a word more than one inside it, and the whole phrase appearing in
+ * the name earns a bonus. Only the best {@code offset + limit} matches are
+ * kept, in a bounded min-heap, so a broad query never sorts or materializes
+ * its full result. Ties (and keyword-less queries) keep catalog order.
+ */
+final class EventSearch {
+    static final int NAME_WEIGHT = 3;
+    static final int WORD_START_BONUS = 1;
+    static final int VENUE_WEIGHT = 1;
+    static final int PHRASE_BONUS = 2;
+
+    /** One page of results plus the number of events that matched in total. */
+    static final class Page {
+        final List<EventCatalog.Event> items;
+        final int total;
+
+        Page(List<EventCatalog.Event> items, int total) {
+            this.items = items;
+            this.total = total;
+        }
+    }
+
+    private EventSearch() {}
+
+    /**
+     * @param from first day (yyyymmdd) to include, or 0 for no lower bound
+     * @param to   last day (yyyymmdd) to include, or Integer.MAX_VALUE for no upper bound
+     */
+    static Page search(EventCatalog catalog, String keyword, String city, int from, int to, int offset, int limit) {
+        String phrase = EventCatalog.normalize(keyword);
+        String[] terms = phrase.isEmpty() ? new String[0] : phrase.split("\\s+");
+
+        // Cheapest filters first; each term then only verifies what is left.
+        int[] ids = catalog.city(city);
+        if (from > 0 || to < Integer.MAX_VALUE) {
+            ids = ids == null ? catalog.dateRange(from, to) : withinDates(catalog, ids, from, to);
+        }
+        for (String term : terms) {
+            if (ids != null && ids.length == 0) break;
+            ids = catalog.keyword(term, ids);
+        }
+
+        int total = ids == null ? catalog.size() : ids.length;
+        int end = (int) Math.min((long) offset + limit, total);
+        if (offset >= end) return new Page(new ArrayList<>(), total);
+
+        List<EventCatalog.Event> items = new ArrayList<>(end - offset);
+        if (terms.length == 0) {
+            // Every match scores the same, so catalog order is the ranking.
+            for (int i = offset; i < end; i++) items.add(catalog.event(ids == null ? i : ids[i]));
+            return new Page(items, total);
+        }
+
+        long[] top = topK(catalog, ids, terms, phrase, end);
+        for (int i = offset; i < end; i++) items.add(catalog.event(idOf(top[i])));
+        return new Page(items, total);
+    }
+
+    /** The k best-ranked ids, best first, encoded by {@link #rank}. */
+    private static long[] topK(EventCatalog catalog, int[] ids, String[] terms, String phrase, int k) {
+        long[] heap = new long[k]; // min-heap: heap[0] is the weakest kept entry
+        int size = 0;
+        for (int id : ids) {
+            long r = rank(score(catalog.event(id), terms, phrase), id);
+            if (size < k) {
+                heap[size] = r;
+                siftUp(heap, size++);
+            } else if (r > heap[0]) {
+                heap[0] = r;
+                siftDown(heap, size);
+            }
+        }
+        Arrays.sort(heap, 0, size);
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            long t = heap[i];
+            heap[i] = heap[j];
+            heap[j] = t;
+        }
+        return heap;
+    }
+
+    static int score(EventCatalog.Event e, String[] terms, String phrase) {
+        String name = EventCatalog.lower(e.name);
+        String venue = EventCatalog.lower(e.venue);
+        int score = 0;
+        for (String term : terms) {
+            int at = name.indexOf(term);
+            if (at >= 0) score += NAME_WEIGHT + (wordStart(name, term, at) ? WORD_START_BONUS : 0);
+            if (venue.contains(term)) score += VENUE_WEIGHT;
+        }
+        if (terms.length > 1 && name.contains(phrase)) score += PHRASE_BONUS;
+        return score;
+    }
+
+    /** Whether {@code term} starts a word anywhere in {@code text}, given its first occurrence. */
+    private static boolean wordStart(String text, String term, int at) {
+        for (; at >= 0; at = text.indexOf(term, at + 1)) {
+            if (at == 0 || !Character.isLetterOrDigit(text.charAt(at - 1))) return true;
+        }
+        return false;
+    }
+
+    private static int[] withinDates(EventCatalog catalog, int[] ids, int from, int to) {
+        int[] out = new int[ids.length];
+        int n = 0;
+        for (int id : ids) {
+            int d = EventCatalog.dateKey(catalog.event(id).localDate);
+            if (d >= from && d <= to) out[n++] = id;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** Higher score first, then lower id, as one comparable long. */
+    private static long rank(int score, int id) {
+        return ((long) score << 32) | (Integer.MAX_VALUE - id);
+    }
+
+    private static int idOf(long rank) {
+        return Integer.MAX_VALUE - (int) rank;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= v) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = v;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        long v = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= v) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = v;
+    }
+}
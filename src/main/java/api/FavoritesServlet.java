@@ -1,6 +1,5 @@
 package api;
 
-import db.JDBCConnector;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -9,17 +8,21 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
-import java.sql.*;
 import java.util.*;
 
-@WebServlet(name = "FavoritesServlet", urlPatterns = {"/favorites"})
+@WebServlet(name = "FavoritesServlet", urlPatterns = {"/favorites"}, asyncSupported = true)
 public class FavoritesServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
+        RequestExecutor.run(req, resp, "favorites", Bulkhead.DB, this::handleGet);
+    }
+
+    private void handleGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
         resp.setContentType("application/json;charset=UTF-8");
 
-        long userId = parseUserId(req.getParameter("userId"));
+        long userId = parseUserId(req, req.getParameter("userId"));
         try {
             DemoUser.seedWallet(userId, DemoUser.DEFAULT_CASH);
         } catch (Exception e) {
@@ -27,52 +30,50 @@ public class FavoritesServlet extends HttpServlet {
             return;
         }
 
-        Connection c = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
         try {
-            c = JDBCConnector.get();
-            ps = c.prepareStatement(
-                    "SELECT event_id,event_name,event_date,venue,min_price_usd,max_price_usd,url " +
-                    "FROM favorites WHERE user_id=? ORDER BY created_at DESC");
-            ps.setLong(1, userId);
-            rs = ps.executeQuery();
-            java.util.List<Map<String, Object>> list = new ArrayList<>();
-            while (rs.next()) {
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (Storage.Favorite f : Storage.get().favorites().list(userId)) {
                 Map<String, Object> m = new LinkedHashMap<>();
-                m.put("eventId", rs.getString(1));
-                m.put("eventName", rs.getString(2));
-                m.put("date", rs.getString(3));
-                m.put("venue", rs.getString(4));
-                m.put("minPriceUsd", rs.getBigDecimal(5));
-                m.put("maxPriceUsd", rs.getBigDecimal(6));
-                m.put("url", rs.getString(7));
+                m.put("eventId", f.eventId);
+                m.put("eventName", f.eventName);
+                m.put("date", f.date);
+                m.put("venue", f.venue);
+                m.put("minPriceUsd", f.minPrice);
+                m.put("maxPriceUsd", f.maxPrice);
+                m.put("url", f.url);
                 list.add(m);
             }
             write(resp, JsonResp.ok("OK", list));
         } catch (Exception e) {
             write(resp, JsonResp.error("DB error: " + e.getMessage()));
-        } finally {
-            JDBCConnector.closeQuiet(rs);
-            JDBCConnector.closeQuiet(ps);
-            JDBCConnector.closeQuiet(c);
         }
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
+        RequestExecutor.run(req, resp, "favorites", Bulkhead.DB, this::handlePost);
+    }
+
+    private void handlePost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
         resp.setContentType("application/json;charset=UTF-8");
 
         try {
-            String raw = req.getReader().lines().collect(java.util.stream.Collectors.joining());
-            Map<String, String> body = SimpleJson.parseObject(raw);
-            if (body == null || body.isEmpty()) {
+            Map<String, String> body;
+            try {
+                body = JsonParser.parseObject(req.getReader(), new HashMap<>());
+            } catch (IllegalArgumentException e) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                write(resp, JsonResp.error("Invalid JSON payload: " + e.getMessage()));
+                return;
+            }
+            if (body.isEmpty()) {
                 write(resp, JsonResp.error("Missing request body"));
                 return;
             }
 
-            long userId = parseUserId(body.get("userId"));
+            long userId = parseUserId(req, body.get("userId"));
             try {
                 DemoUser.seedWallet(userId, DemoUser.DEFAULT_CASH);
             } catch (Exception e) {
@@ -87,49 +88,34 @@ public class FavoritesServlet extends HttpServlet {
             }
 
             String action = body.getOrDefault("action", "toggle").toLowerCase(Locale.ROOT);
-            Connection c = null;
-            PreparedStatement ps = null;
             try {
-                c = JDBCConnector.get();
                 if ("remove".equals(action)) {
-                    ps = c.prepareStatement("DELETE FROM favorites WHERE user_id=? AND event_id=?");
-                    ps.setLong(1, userId);
-                    ps.setString(2, eventId);
-                    ps.executeUpdate();
+                    Storage.get().favorites().remove(userId, eventId);
+                    LiveUpdates.favoritesChanged(userId);
                     write(resp, JsonResp.ok("Removed"));
                 } else {
-                    ps = c.prepareStatement(
-                            "INSERT INTO favorites(user_id, event_id, event_name, event_date, venue, min_price_usd, max_price_usd, url) " +
-                                    "VALUES(?,?,?,?,?,?,?,?) " +
-                                    "ON DUPLICATE KEY UPDATE event_name=VALUES(event_name), event_date=VALUES(event_date), venue=VALUES(venue), " +
-                                    "min_price_usd=VALUES(min_price_usd), max_price_usd=VALUES(max_price_usd), url=VALUES(url)");
-                    ps.setLong(1, userId);
-                    ps.setString(2, eventId);
-                    ps.setString(3, body.get("eventName"));
-                    ps.setString(4, body.get("date"));
-                    ps.setString(5, body.get("venue"));
-                    ps.setBigDecimal(6, parseDecimal(body.get("minPriceUsd")));
-                    ps.setBigDecimal(7, parseDecimal(body.get("maxPriceUsd")));
-                    ps.setString(8, body.get("url"));
-                    ps.executeUpdate();
+                    Storage.get().favorites().save(userId, new Storage.Favorite(eventId, body.get("eventName"),
+                            body.get("date"), body.get("venue"), parseDecimal(body.get("minPriceUsd")),
+                            parseDecimal(body.get("maxPriceUsd")), body.get("url")));
+                    LiveUpdates.favoritesChanged(userId);
                     write(resp, JsonResp.ok("Saved"));
                 }
             } catch (Exception e) {
                 write(resp, JsonResp.error("DB error: " + e.getMessage()));
-            } finally {
-                JDBCConnector.closeQuiet(ps);
-                JDBCConnector.closeQuiet(c);
             }
         } catch (Exception e) {
             write(resp, JsonResp.error("Server error: " + e.getMessage()));
         }
     }
 
-    private void write(HttpServletResponse resp, JsonResp jr) throws IOException {
-        try (PrintWriter out = resp.getWriter()) { out.write(jr.toJson()); }
+    private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
+        try (PrintWriter out = resp.getWriter()) { jr.writeTo(out); }
     }
 
-    private long parseUserId(String raw) {
+    /** The session's user when there is one, else the legacy userId parameter. */
+    private long parseUserId(HttpServletRequest req, String raw) {
+        Long sessionUser = SessionFilter.userId(req);
+        if (sessionUser != null) return sessionUser;
         try {
             if (raw != null && !raw.isEmpty()) {
                 return Long.parseLong(raw);
@@ -1,20 +1,46 @@
 package api;
 
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public final class HashUtil {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    });
+    private static final ThreadLocal<char[]> HEX_BUF = ThreadLocal.withInitial(() -> new char[64]);
+
     private HashUtil() {}
 
+    /** Lowercase hex SHA-256 of the UTF-8 bytes of {@code raw}; "" for null. */
     public static String sha256(String raw) {
         if (raw == null) return "";
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(raw.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) {
-            throw new RuntimeException("Unable to hash string", e);
+        return hex(sha256(raw.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** SHA-256 with this thread's reusable digest. */
+    public static byte[] sha256(byte[] raw) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md.digest(raw);
+    }
+
+    /** Lowercase hex through a table and a per-thread buffer; the String is the only allocation. */
+    public static String hex(byte[] bytes) {
+        char[] buf = HEX_BUF.get();
+        if (buf.length < bytes.length * 2) {
+            buf = new char[bytes.length * 2];
+            HEX_BUF.set(buf);
+        }
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            buf[j++] = HEX[(bytes[i] >> 4) & 0xF];
+            buf[j++] = HEX[bytes[i] & 0xF];
         }
+        return new String(buf, 0, bytes.length * 2);
     }
 }
@@ -1,60 +1,110 @@
 package api;
 
-import java.util.Map;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Lightweight in-memory auth store used when the database is unavailable. It
- * mirrors the basic contract of the users table so login/register can still
- * succeed in demo environments.
+ * The users table of {@link InMemoryStorage}. Rows are held by id in
+ * {@link LongMap}s, one per lock stripe, and indexed by lower-cased username
+ * and email for logins; like the {@code uq_users_*} keys, each index only
+ * admits one user per name. Ids start after the demo user's.
  */
-public final class InMemoryAuthStore {
-    public static class User {
-        public long id;
-        public String username;
-        public String email;
-        public String passwordHash;
+final class InMemoryAuthStore implements Storage.Users {
+    private final Storage.Wallets wallets;
+    private final AtomicLong seq = new AtomicLong(DemoUser.ID + 1);
+    private final LongMap<Storage.User>[] byId;
+    private final int shift;
+    private final ConcurrentHashMap<String, Storage.User> byUsername = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Storage.User> byEmail = new ConcurrentHashMap<>();
+
+    InMemoryAuthStore(Storage.Wallets wallets, int stripes) {
+        this.wallets = wallets;
+        byId = LongMap.stripes(stripes);
+        shift = 64 - Integer.numberOfTrailingZeros(stripes);
     }
 
-    private static final AtomicLong SEQ = new AtomicLong(1000);
-    private static final Map<String, User> USERS = new ConcurrentHashMap<>();
+    @Override
+    public Storage.User find(String usernameOrEmail) {
+        if (usernameOrEmail == null) return null;
+        Storage.User u = byUsername.get(key(usernameOrEmail));
+        return u != null ? u : byEmail.get(key(usernameOrEmail));
+    }
 
-    static {
-        // Seed demo user so logins still work without MySQL.
-        addUser(1L, "demo", "demo@example.com", LoginServlet.hash("demo123"));
+    @Override
+    public Storage.User findById(long id) {
+        LongMap<Storage.User> stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.get(id);
+        }
     }
 
-    private InMemoryAuthStore() {}
+    @Override
+    public long create(long id, String username, String email, String passwordHash, long startingCash)
+            throws SQLException {
+        if (id > 0) seq.accumulateAndGet(id + 1, Math::max);
+        else id = seq.getAndIncrement();
+        Storage.User u = new Storage.User(id, username, email, passwordHash);
+        String reason = insert(u);
+        if (reason != null) throw new Storage.DuplicateUserException(reason);
+        wallets.seed(id, startingCash);
+        return id;
+    }
 
-    public static User find(String usernameOrEmail) {
-        if (usernameOrEmail == null) return null;
-        return USERS.get(key(usernameOrEmail));
+    @Override
+    public int createAll(List<Storage.User> users) throws SQLException {
+        int created = 0;
+        for (Storage.User given : users) {
+            Storage.User u = new Storage.User(seq.getAndIncrement(), given.username, given.email, given.passwordHash);
+            if (insert(u) != null) continue;
+            wallets.seed(u.id, DemoUser.DEFAULT_CASH);
+            created++;
+        }
+        return created;
     }
 
-    public static boolean usernameExists(String username) {
-        return USERS.containsKey(key(username));
+    @Override
+    public boolean replacePasswordHash(long id, String expected, String replacement) {
+        LongMap<Storage.User> stripe = stripe(id);
+        synchronized (stripe) {
+            Storage.User old = stripe.get(id);
+            if (old == null || !old.passwordHash.equals(expected)) return false;
+            Storage.User u = new Storage.User(id, old.username, old.email, replacement);
+            stripe.put(id, u);
+            byUsername.replace(key(old.username), old, u);
+            byEmail.replace(key(old.email), old, u);
+            return true;
+        }
     }
 
-    public static boolean emailExists(String email) {
-        return USERS.containsKey(key(email));
+    int size() {
+        return byUsername.size();
     }
 
-    public static User insert(String username, String email, String passwordHash) {
-        long id = SEQ.getAndIncrement();
-        return addUser(id, username, email, passwordHash);
+    /** Claims the username, then the email, then the id; returns why it failed, or null once all three are taken. */
+    private String insert(Storage.User u) {
+        if (byUsername.putIfAbsent(key(u.username), u) != null) return "Username already taken";
+        if (byEmail.putIfAbsent(key(u.email), u) != null) {
+            byUsername.remove(key(u.username), u);
+            return "Email already registered";
+        }
+        LongMap<Storage.User> stripe = stripe(u.id);
+        synchronized (stripe) {
+            if (stripe.get(u.id) == null) {
+                stripe.put(u.id, u);
+                return null;
+            }
+        }
+        byUsername.remove(key(u.username), u);
+        byEmail.remove(key(u.email), u);
+        return "User id " + u.id + " already exists";
     }
 
-    private static User addUser(long id, String username, String email, String passwordHash) {
-        User u = new User();
-        u.id = id;
-        u.username = username;
-        u.email = email;
-        u.passwordHash = passwordHash;
-        USERS.put(key(username), u);
-        USERS.put(key(email), u);
-        return u;
+    private LongMap<Storage.User> stripe(long id) {
+        return byId[(int) ((id * 0x9E3779B97F4A7C15L) >>> shift)];
     }
 
-    private static String key(String s) { return s == null ? "" : s.trim().toLowerCase(); }
+    private static String key(String s) { return s == null ? "" : s.trim().toLowerCase(Locale.ROOT); }
 }
@@ -0,0 +1,400 @@
+package api;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap-only backend for {@code -Dtt.storage=memory} and the MySQL fallback.
+ * Each user's wallet, positions, favorites and open orders form one {@code Account} kept
+ * in a {@link LongMap} keyed by user id. Users are spread over
+ * {@code tt.storage.memory.stripes} lock stripes; every read or write of an
+ * account holds its stripe's monitor, which gives the per-user atomicity the
+ * MySQL backend gets from row locks. Nothing survives a restart unless the
+ * {@link TradeJournal} is on, and then only as journal records.
+ */
+final class InMemoryStorage extends Storage {
+    private static final int STRIPES = Integer.highestOneBit(
+            Math.max(16, Integer.getInteger("tt.storage.memory.stripes", 256)));
+
+    /** Row counts, gathered stripe by stripe when scraped. */
+    static final class Stats extends Storage.Stats {
+        public int stripes;
+        public long users;
+        public long wallets;
+        public long positions;
+        public long favorites;
+        public long orders;
+    }
+
+    /** One user's rows; only touched while holding its stripe. */
+    private static final class Account {
+        long cash = Money.NONE; // cents; NONE until the wallet exists
+        final Map<String, Position> positions = new HashMap<>();
+        final LinkedHashMap<String, Favorite> favorites = new LinkedHashMap<>();
+        final LongMap<LimitOrder> orders = new LongMap<>();
+    }
+
+    private final LongMap<Account>[] stripes;
+    private final int shift = 64 - Integer.numberOfTrailingZeros(STRIPES);
+    private final AtomicLong positionIds = new AtomicLong();
+    private final AtomicLong orderIds = new AtomicLong();
+    private final Wallets wallets = new WalletRows();
+    private final Positions positions = new PositionRows();
+    private final Favorites favorites = new FavoriteRows();
+    private final Orders orders = new OrderRows();
+    private final InMemoryAuthStore users = new InMemoryAuthStore(wallets, STRIPES);
+
+    InMemoryStorage() {
+        stripes = LongMap.stripes(STRIPES);
+    }
+
+    @Override String name() { return "memory"; }
+    @Override Users users() { return users; }
+    @Override Wallets wallets() { return wallets; }
+    @Override Positions positions() { return positions; }
+    @Override Favorites favorites() { return favorites; }
+    @Override Orders orders() { return orders; }
+
+    @Override
+    Stats stats() {
+        Stats s = fill(new Stats());
+        s.stripes = STRIPES;
+        s.users = users.size();
+        for (LongMap<Account> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach((id, a) -> {
+                    if (a.cash != Money.NONE) s.wallets++;
+                    s.positions += a.positions.size();
+                    s.favorites += a.favorites.size();
+                    s.orders += a.orders.size();
+                });
+            }
+        }
+        return s;
+    }
+
+    private LongMap<Account> stripe(long userId) {
+        return stripes[stripeIndex(userId)];
+    }
+
+    /** The user's account, created empty if needed; call with the stripe held. */
+    private static Account accountOf(LongMap<Account> stripe, long userId) {
+        Account a = stripe.get(userId);
+        if (a == null) {
+            a = new Account();
+            stripe.put(userId, a);
+        }
+        return a;
+    }
+
+    /** Stores {@code next} as the event's position, keeping its id, or drops it at qty 0. */
+    private void put(Account a, String eventId, Position old, TradeMath.Holding next) {
+        if (next.qty == 0) a.positions.remove(eventId);
+        else a.positions.put(eventId, new Position(old != null ? old.id : positionIds.incrementAndGet(), eventId, next));
+    }
+
+    /** Runs {@code body} holding the given stripes, taken in ascending index order so two callers never deadlock. */
+    private void locked(int[] stripeIndexes, int from, Runnable body) {
+        if (from == stripeIndexes.length) {
+            body.run();
+            return;
+        }
+        synchronized (stripes[stripeIndexes[from]]) {
+            locked(stripeIndexes, from + 1, body);
+        }
+    }
+
+    private int stripeIndex(long userId) {
+        return (int) ((userId * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private static List<Position> newestFirst(Account a) {
+        List<Position> list = new ArrayList<>(a.positions.values());
+        list.sort((x, y) -> Long.compare(y.id, x.id));
+        return list;
+    }
+
+    private final class WalletRows implements Wallets {
+        @Override
+        public void seed(long userId, long startingCash) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = accountOf(stripe, userId);
+                if (a.cash == Money.NONE || a.cash < startingCash) a.cash = startingCash;
+            }
+        }
+
+        @Override
+        public long cash(long userId) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = stripe.get(userId);
+                return a == null ? Money.NONE : a.cash;
+            }
+        }
+
+        @Override
+        public Storage.Account account(long userId) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = stripe.get(userId);
+                if (a == null || a.cash == Money.NONE) return null;
+                return new Storage.Account(a.cash, newestFirst(a));
+            }
+        }
+
+        /** The same checks and arithmetic as the MySQL path, with the stripe standing in for the row locks. */
+        @Override
+        public JsonResp<?> trade(TradeOrder order) {
+            long seq;
+            LongMap<Account> stripe = stripe(order.userId);
+            try {
+                synchronized (stripe) {
+                    Account a = stripe.get(order.userId);
+                    if (a == null || a.cash == Money.NONE) {
+                        ProvisionedUsers.forget(order.userId);
+                        return new JsonResp<>(false, TradeMath.WALLET_NOT_FOUND);
+                    }
+                    long tradeValue = TradeMath.tradeValue(order);
+                    Position held = a.positions.get(order.eventId);
+                    TradeMath.Holding next;
+                    long cash;
+                    if (order.buy) {
+                        if (!TradeMath.canAfford(a.cash, tradeValue)) {
+                            return new JsonResp<>(false, TradeMath.INSUFFICIENT_CASH);
+                        }
+                        next = TradeMath.buy(held == null ? null : held.holding, order, tradeValue);
+                        cash = Money.minus(a.cash, tradeValue);
+                    } else {
+                        if (held == null) return new JsonResp<>(false, TradeMath.NO_POSITION);
+                        if (order.qty > held.holding.qty) return new JsonResp<>(false, TradeMath.EXCEEDS_POSITION);
+                        next = TradeMath.sell(held.holding, order.qty);
+                        cash = Money.plus(a.cash, tradeValue);
+                    }
+                    // Journal first so a failed append leaves the account unchanged.
+                    seq = TradeJournal.appendIfEnabled(TradeJournal.Entry.of(order, cash, next));
+                    a.cash = cash;
+                    put(a, order.eventId, held, next);
+                }
+            } catch (Exception e) {
+                return new JsonResp<>(false, "DB error: " + e.getMessage());
+            }
+            WalletVersions.bump(order.userId);
+            TradeJournal.settle(seq);
+            awaitJournal(seq);
+            return new JsonResp<>(true, "Done");
+        }
+
+        @Override
+        public void store(List<TradeWriteBehind.Change> changes) {
+            for (TradeWriteBehind.Change ch : changes) {
+                LongMap<Account> stripe = stripe(ch.userId);
+                synchronized (stripe) {
+                    Account a = accountOf(stripe, ch.userId);
+                    a.cash = ch.cash;
+                    if (ch.holding != null) put(a, ch.eventId, a.positions.get(ch.eventId), ch.holding);
+                }
+            }
+        }
+
+        /** Consistent per user, not across users; journal records carry absolute state, so replay covers the rest. */
+        @Override
+        public TradeSnapshot dump(long startSeq) {
+            TradeSnapshot snap = new TradeSnapshot(startSeq, System.currentTimeMillis());
+            for (LongMap<Account> stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.forEach((userId, a) -> {
+                        if (a.cash == Money.NONE) return;
+                        snap.wallets.put(userId, a.cash);
+                        if (a.positions.isEmpty()) return;
+                        Map<String, TradeMath.Holding> held = new LinkedHashMap<>();
+                        for (Position p : a.positions.values()) held.put(p.eventId, p.holding);
+                        snap.positions.put(userId, held);
+                    });
+                }
+            }
+            return snap;
+        }
+    }
+
+    private final class PositionRows implements Positions {
+        @Override
+        public List<Position> list(long userId) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = stripe.get(userId);
+                return a == null ? new ArrayList<>() : newestFirst(a);
+            }
+        }
+    }
+
+    private final class FavoriteRows implements Favorites {
+        @Override
+        public List<Favorite> list(long userId) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = stripe.get(userId);
+                List<Favorite> list = new ArrayList<>();
+                if (a == null) return list;
+                list.addAll(a.favorites.values());
+                Collections.reverse(list);
+                return list;
+            }
+        }
+
+        /** Replacing an existing entry keeps its place, like the upsert keeps {@code created_at}. */
+        @Override
+        public void save(long userId, Favorite favorite) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                accountOf(stripe, userId).favorites.put(favorite.eventId, favorite);
+            }
+        }
+
+        @Override
+        public void remove(long userId, String eventId) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = stripe.get(userId);
+                if (a != null) a.favorites.remove(eventId);
+            }
+        }
+    }
+
+    /** Orders sit in their owner's account; escrow moves under the same stripe locks as trades. */
+    private final class OrderRows implements Orders {
+        @Override
+        public String open(LimitOrder o) {
+            LongMap<Account> stripe = stripe(o.userId);
+            synchronized (stripe) {
+                Account a = stripe.get(o.userId);
+                if (a == null || a.cash == Money.NONE) {
+                    ProvisionedUsers.forget(o.userId);
+                    return TradeMath.WALLET_NOT_FOUND;
+                }
+                if (o.buy) {
+                    long value = Money.times(o.priceCents, o.qty);
+                    if (!TradeMath.canAfford(a.cash, value)) return TradeMath.INSUFFICIENT_CASH;
+                    a.cash = Money.minus(a.cash, value);
+                } else {
+                    Position held = a.positions.get(o.eventId);
+                    if (held == null) return TradeMath.NO_POSITION;
+                    if (o.qty > held.holding.qty) return TradeMath.EXCEEDS_POSITION;
+                    TradeMath.Holding rest = TradeMath.sell(held.holding, o.qty);
+                    o.escrow = TradeMath.removed(held.holding, rest);
+                    put(a, o.eventId, held, rest);
+                }
+                o.id = orderIds.incrementAndGet();
+                a.orders.put(o.id, o.copy());
+            }
+            WalletVersions.bump(o.userId);
+            return null;
+        }
+
+        @Override
+        public void settle(LimitOrder taker, OrderBook.Fills fills) throws SQLException {
+            long[] users = new long[fills.size() + 1];
+            users[0] = taker.userId;
+            for (int i = 0; i < fills.size(); i++) users[i + 1] = fills.userId(i);
+            int[] held = new int[users.length];
+            for (int i = 0; i < users.length; i++) held[i] = stripeIndex(users[i]);
+            SQLException[] failure = new SQLException[1];
+            locked(Arrays.stream(held).sorted().distinct().toArray(), 0, () -> {
+                Map<Long, Long> cash = new HashMap<>();
+                Map<Long, TradeMath.Holding> holdings = new HashMap<>();
+                Map<Long, LimitOrder> open = new HashMap<>();
+                for (long userId : users) {
+                    Account a = stripe(userId).get(userId);
+                    if (a == null || a.cash == Money.NONE) continue;
+                    cash.put(userId, a.cash);
+                    Position p = a.positions.get(taker.eventId);
+                    if (p != null) holdings.put(userId, p.holding);
+                }
+                if (!collect(open, taker.userId, taker.id)) {
+                    failure[0] = new SQLException("Order book is out of step with the open orders");
+                    return;
+                }
+                for (int i = 0; i < fills.size(); i++) {
+                    if (!collect(open, fills.userId(i), fills.orderId(i))) {
+                        failure[0] = new SQLException("Order book is out of step with the open orders");
+                        return;
+                    }
+                }
+                TradeMath.settle(taker, fills, cash, holdings, open);
+                for (Map.Entry<Long, Long> w : cash.entrySet()) {
+                    Account a = stripe(w.getKey()).get(w.getKey());
+                    a.cash = w.getValue();
+                    TradeMath.Holding next = holdings.get(w.getKey());
+                    if (next != null) put(a, taker.eventId, a.positions.get(taker.eventId), next);
+                }
+                for (LimitOrder o : open.values()) {
+                    if (o.remaining == 0) stripe(o.userId).get(o.userId).orders.remove(o.id);
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            for (long userId : users) WalletVersions.bump(userId);
+        }
+
+        /** Adds the stored order to {@code open}; false when the user has no such open order. */
+        private boolean collect(Map<Long, LimitOrder> open, long userId, long orderId) {
+            Account a = stripe(userId).get(userId);
+            LimitOrder o = a == null ? null : a.orders.get(orderId);
+            if (o == null) return false;
+            open.put(orderId, o);
+            return true;
+        }
+
+        @Override
+        public boolean cancel(long orderId, long userId) {
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = stripe.get(userId);
+                LimitOrder o = a == null ? null : a.orders.remove(orderId);
+                if (o == null) return false;
+                Map<Long, Long> cash = new HashMap<>();
+                Map<Long, TradeMath.Holding> holdings = new HashMap<>();
+                cash.put(userId, a.cash);
+                Position p = a.positions.get(o.eventId);
+                if (p != null) holdings.put(userId, p.holding);
+                TradeMath.refund(o, cash, holdings);
+                a.cash = cash.get(userId);
+                if (!o.buy) put(a, o.eventId, p, holdings.get(userId));
+            }
+            WalletVersions.bump(userId);
+            return true;
+        }
+
+        @Override
+        public List<LimitOrder> book(String eventId) {
+            List<LimitOrder> list = new ArrayList<>();
+            for (LongMap<Account> stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.forEach((userId, a) -> a.orders.forEach((id, o) -> {
+                        if (o.eventId.equals(eventId)) list.add(o.copy());
+                    }));
+                }
+            }
+            list.sort((x, y) -> Long.compare(x.id, y.id));
+            return list;
+        }
+
+        @Override
+        public List<LimitOrder> list(long userId) {
+            List<LimitOrder> list = new ArrayList<>();
+            LongMap<Account> stripe = stripe(userId);
+            synchronized (stripe) {
+                Account a = stripe.get(userId);
+                if (a != null) a.orders.forEach((id, o) -> list.add(o.copy()));
+            }
+            list.sort((x, y) -> Long.compare(y.id, x.id));
+            return list;
+        }
+    }
+}
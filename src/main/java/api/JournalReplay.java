@@ -0,0 +1,96 @@
+package api;
+
+import db.JDBCConnector;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * Command-line recovery tool: rebuilds the {@code wallet} and {@code positions}
+ * tables from the newest {@link TradeSnapshot} plus the {@link TradeJournal}
+ * records that follow it.
+ *
+ * <pre>java -cp WEB-INF/classes:WEB-INF/lib/* api.JournalReplay &lt;journal-dir&gt; [--dry-run]</pre>
+ */
+public final class JournalReplay {
+    private JournalReplay() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalReplay <journal-dir> [--dry-run]");
+            System.exit(2);
+        }
+        Path dir = Path.of(args[0]);
+        boolean dryRun = args.length > 1 && "--dry-run".equals(args[1]);
+
+        TradeSnapshot state = rebuild(dir);
+        int positions = 0;
+        for (Map<String, TradeMath.Holding> m : state.positions.values()) positions += m.size();
+        System.out.println("Rebuilt " + state.wallets.size() + " wallets and " + positions
+                + " positions from snapshot seq " + state.startSeq);
+        if (!dryRun) {
+            writeTables(state);
+            System.out.println("wallet and positions tables replaced");
+        }
+        JDBCConnector.shutdown();
+    }
+
+    /** Latest snapshot (or an empty state) with every later journal record applied. */
+    static TradeSnapshot rebuild(Path dir) throws Exception {
+        TradeSnapshot snap = TradeSnapshot.readLatest(dir);
+        TradeSnapshot state = snap != null ? snap : new TradeSnapshot(1, System.currentTimeMillis());
+        TradeJournal.read(dir, state.startSeq, state::apply);
+        return state;
+    }
+
+    private static void writeTables(TradeSnapshot state) throws Exception {
+        Connection c = null;
+        Statement wipe = null;
+        PreparedStatement w = null, p = null;
+        try {
+            c = JDBCConnector.get();
+            c.setAutoCommit(false);
+            wipe = c.createStatement();
+            wipe.executeUpdate("DELETE FROM positions");
+
+            w = c.prepareStatement("INSERT INTO wallet(user_id, cash_usd) VALUES(?,?) " +
+                    "ON DUPLICATE KEY UPDATE cash_usd=VALUES(cash_usd)");
+            for (Map.Entry<Long, Long> e : state.wallets.entrySet()) {
+                w.setLong(1, e.getKey());
+                w.setBigDecimal(2, Money.decimal(e.getValue()));
+                w.addBatch();
+            }
+            w.executeBatch();
+
+            p = c.prepareStatement("INSERT INTO positions(user_id, event_id, event_name, qty, total_cost_usd, " +
+                    "min_price_usd, max_price_usd) VALUES(?,?,?,?,?,?,?)");
+            for (Map.Entry<Long, Map<String, TradeMath.Holding>> u : state.positions.entrySet()) {
+                for (Map.Entry<String, TradeMath.Holding> e : u.getValue().entrySet()) {
+                    TradeMath.Holding h = e.getValue();
+                    p.setLong(1, u.getKey());
+                    p.setString(2, e.getKey());
+                    p.setString(3, h.eventName);
+                    p.setInt(4, h.qty);
+                    p.setBigDecimal(5, Money.decimal(h.totalCost));
+                    p.setBigDecimal(6, Money.decimal(h.minPrice));
+                    p.setBigDecimal(7, Money.decimal(h.maxPrice));
+                    p.addBatch();
+                }
+            }
+            p.executeBatch();
+            c.commit();
+            WalletVersions.bumpAll();
+        } catch (Exception e) {
+            if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+            throw e;
+        } finally {
+            JDBCConnector.closeQuiet(wipe);
+            JDBCConnector.closeQuiet(w);
+            JDBCConnector.closeQuiet(p);
+            if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+            JDBCConnector.closeQuiet(c);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package api;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass JSON reader for request bodies and the mock data files.
+ *
+ * <p>Reads straight from a {@link Reader} (no intermediate String) or from a
+ * {@link CharSequence}, and hands each top-level member of an object to a
+ * {@link Handler} or a caller-supplied map. String values are unescaped,
+ * numbers and booleans are passed as their literal text, {@code null} as a
+ * Java null, and nested objects and arrays verbatim as raw JSON. Buffers are
+ * reused per thread, and repeated field names come back as the same String.
+ * Malformed input raises {@link IllegalArgumentException}; an empty body
+ * simply yields no members.
+ */
+final class JsonParser {
+    /** Receives the members of an object in document order. */
+    interface Handler {
+        void field(String name, String value);
+    }
+
+    private static final int BUFFER = 1024;
+    private static final int KEY_CACHE = 64; // power of two
+    private static final int MAX_DEPTH = 64;
+    private static final ThreadLocal<JsonParser> LOCAL = ThreadLocal.withInitial(JsonParser::new);
+
+    private final char[] buf = new char[BUFFER];
+    private final StringBuilder sb = new StringBuilder(64);
+    private final String[] keys = new String[KEY_CACHE];
+    private Reader reader;
+    private CharSequence text;
+    private int pos;
+    private int limit;
+    private long consumed; // chars read before buf[0]
+    private boolean busy;
+
+    private JsonParser() {}
+
+    static <M extends Map<String, String>> M parseObject(Reader in, M into) throws IOException {
+        read(in, into::put);
+        return into;
+    }
+
+    static void read(Reader in, Handler h) throws IOException {
+        JsonParser p = acquire();
+        try {
+            p.reader = in;
+            p.document(h);
+        } finally {
+            p.release();
+        }
+    }
+
+    static <M extends Map<String, String>> M parseObject(CharSequence json, M into) {
+        read(json, into::put);
+        return into;
+    }
+
+    static void read(CharSequence json, Handler h) {
+        if (json == null) return;
+        JsonParser p = acquire();
+        try {
+            p.text = json;
+            p.limit = json.length();
+            p.document(h);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen without a Reader
+        } finally {
+            p.release();
+        }
+    }
+
+    /** Objects of a top-level array read from {@code in}, one map each; non-object elements are skipped. */
+    static List<Map<String, String>> parseArrayOfObjects(Reader in, List<Map<String, String>> into) throws IOException {
+        JsonParser p = acquire();
+        try {
+            p.reader = in;
+            p.array(into);
+            return into;
+        } finally {
+            p.release();
+        }
+    }
+
+    /** Objects of a top-level array, one map each; non-object elements are skipped. */
+    static List<Map<String, String>> parseArrayOfObjects(CharSequence json, List<Map<String, String>> into) {
+        if (json == null) return into;
+        JsonParser p = acquire();
+        try {
+            p.text = json;
+            p.limit = json.length();
+            p.array(into);
+            return into;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            p.release();
+        }
+    }
+
+    private static JsonParser acquire() {
+        JsonParser p = LOCAL.get();
+        if (p.busy) return new JsonParser(); // a handler re-entered the parser
+        p.busy = true;
+        return p;
+    }
+
+    private void release() {
+        reader = null;
+        text = null;
+        pos = limit = 0;
+        consumed = 0;
+        if (sb.capacity() > 16 * BUFFER) {
+            sb.setLength(0);
+            sb.trimToSize();
+        }
+        busy = false;
+    }
+
+    private void document(Handler h) throws IOException {
+        int c = nextNonWs();
+        if (c < 0) return;
+        if (c != '{') throw error("expected '{'");
+        members(h);
+        if (nextNonWs() >= 0) throw error("unexpected content after the object");
+    }
+
+    private void array(List<Map<String, String>> into) throws IOException {
+        int c = nextNonWs();
+        if (c < 0) return;
+        if (c != '[') throw error("expected '['");
+        c = nextNonWs();
+        if (c == ']') return;
+        while (true) {
+            if (c == '{') {
+                Map<String, String> m = new HashMap<>();
+                members(m::put);
+                into.add(m);
+            } else {
+                value(c);
+            }
+            c = nextNonWs();
+            if (c == ']') break;
+            if (c != ',') throw error("expected ',' or ']'");
+            c = nextNonWs();
+        }
+        if (nextNonWs() >= 0) throw error("unexpected content after the array");
+    }
+
+    /** Reads members up to and including the closing brace; the opening one is already consumed. */
+    private void members(Handler h) throws IOException {
+        int c = nextNonWs();
+        if (c == '}') return;
+        while (true) {
+            if (c != '"') throw error("expected a field name");
+            String name = key();
+            if (nextNonWs() != ':') throw error("expected ':'");
+            h.field(name, value(nextNonWs()));
+            c = nextNonWs();
+            if (c == '}') return;
+            if (c != ',') throw error("expected ',' or '}'");
+            c = nextNonWs();
+        }
+    }
+
+    private String value(int c) throws IOException {
+        switch (c) {
+            case '"':
+                string();
+                return sb.toString();
+            case '{':
+            case '[':
+                return raw(c);
+            case 't':
+                literal("rue");
+                return "true";
+            case 'f':
+                literal("alse");
+                return "false";
+            case 'n':
+                literal("ull");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number(c);
+                throw error(c < 0 ? "unexpected end of input" : "unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private String key() throws IOException {
+        string();
+        int h = 0;
+        for (int i = 0; i < sb.length(); i++) h = 31 * h + sb.charAt(i);
+        int slot = (h ^ (h >>> 16)) & (KEY_CACHE - 1);
+        String k = keys[slot];
+        if (k == null || !k.contentEquals(sb)) keys[slot] = k = sb.toString();
+        return k;
+    }
+
+    /** Unescapes a string body into {@link #sb}; the opening quote is already consumed. */
+    private void string() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            // copy runs of plain characters in one go
+            int start = pos;
+            if (text == null) {
+                while (pos < limit && plain(buf[pos])) pos++;
+                sb.append(buf, start, pos - start);
+            } else {
+                while (pos < limit && plain(text.charAt(pos))) pos++;
+                sb.append(text, start, pos);
+            }
+            int c = next();
+            if (c == '"') return;
+            if (c == '\\') sb.append(escape());
+            else if (c < 0) throw error("unterminated string");
+            else if (c < 0x20) throw error("control character in string");
+            else sb.append((char) c);
+        }
+    }
+
+    private static boolean plain(char c) {
+        return c != '"' && c != '\\' && c >= 0x20;
+    }
+
+    private char escape() throws IOException {
+        int c = next();
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    int d = Character.digit(next(), 16);
+                    if (d < 0) throw error("invalid \\u escape");
+                    v = (v << 4) | d;
+                }
+                return (char) v;
+            default:
+                throw error("invalid escape");
+        }
+    }
+
+    private String number(int c) throws IOException {
+        sb.setLength(0);
+        if (c == '-') {
+            sb.append('-');
+            c = next();
+        }
+        if (c == '0') sb.append('0');
+        else if (c >= '1' && c <= '9') {
+            sb.append((char) c);
+            digits();
+        } else throw error("invalid number");
+        if (peek() == '.') {
+            sb.append((char) next());
+            if (digits() == 0) throw error("invalid number");
+        }
+        int e = peek();
+        if (e == 'e' || e == 'E') {
+            sb.append((char) next());
+            int sign = peek();
+            if (sign == '+' || sign == '-') sb.append((char) next());
+            if (digits() == 0) throw error("invalid number");
+        }
+        return sb.toString();
+    }
+
+    private int digits() throws IOException {
+        int n = 0;
+        for (int c = peek(); c >= '0' && c <= '9'; c = peek()) {
+            sb.append((char) next());
+            n++;
+        }
+        return n;
+    }
+
+    private void literal(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (next() != rest.charAt(i)) throw error("invalid literal");
+        }
+    }
+
+    /** Copies a nested object or array verbatim, checking that brackets pair up. */
+    private String raw(int open) throws IOException {
+        sb.setLength(0);
+        sb.append((char) open);
+        long objects = open == '{' ? 1 : 0; // one bit per level, 1 = object
+        int depth = 1;
+        boolean inString = false;
+        while (depth > 0) {
+            int c = next();
+            if (c < 0) throw error("unterminated " + (open == '{' ? "object" : "array"));
+            sb.append((char) c);
+            if (inString) {
+                if (c == '\\') {
+                    int e = next();
+                    if (e < 0) throw error("unterminated string");
+                    sb.append((char) e);
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                if (depth == MAX_DEPTH) throw error("nested too deeply");
+                objects = (objects << 1) | (c == '{' ? 1 : 0);
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (((objects & 1) != 0) != (c == '}')) throw error("mismatched '" + (char) c + "'");
+                objects >>>= 1;
+                depth--;
+            }
+        }
+        return sb.toString();
+    }
+
+    private int nextNonWs() throws IOException {
+        int c = next();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') c = next();
+        return c;
+    }
+
+    private int next() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return text != null ? text.charAt(pos++) : buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return text != null ? text.charAt(pos) : buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        if (reader == null) return false;
+        consumed += limit;
+        pos = limit = 0;
+        int n;
+        do {
+            n = reader.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) return false;
+        limit = n;
+        return true;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON at offset " + Math.max(0, consumed + pos - 1) + ": " + message);
+    }
+}
@@ -1,5 +1,8 @@
 package api;
 
+import java.io.IOException;
+import java.io.Writer;
+
 public class JsonResp<T> {
     public boolean success;
     public String message;
@@ -18,4 +21,10 @@ public class JsonResp<T> {
     public static <T> JsonResp<T> error(String message) { return new JsonResp<>(false, message, null); }
 
     public String toJson() { return SimpleJson.stringify(this); }
+    public void writeTo(Writer out) throws IOException {
+        Metrics.responseWritten(this);
+        long start = System.nanoTime();
+        SimpleJson.write(this, out);
+        Metrics.JSON_WRITE.record(System.nanoTime() - start);
+    }
 }
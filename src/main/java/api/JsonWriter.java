@@ -0,0 +1,183 @@
+package api;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming serializer behind {@link SimpleJson#stringify} and
+ * {@link JsonResp#writeTo}. How to write each runtime class is decided once
+ * and cached in a {@link ClassValue}; plain objects get their declared fields
+ * resolved and made accessible up front, so serializing walks a prepared
+ * field list and writes straight into the target {@link Writer}.
+ *
+ * <p>The output is byte-for-byte what the original reflective stringify
+ * produced: every declared field (static ones included) in declaration order,
+ * fields that cannot be made accessible or read silently left out, numbers and
+ * booleans via {@link String#valueOf}, and backslash and double quote
+ * escaped in strings. The one difference is that control characters are now
+ * escaped too ({@code \n}, {@code \u001f}, ...); the original wrote them
+ * raw, which is not valid JSON and would split an SSE {@code data:} line.
+ */
+final class JsonWriter {
+    private interface Serializer {
+        void write(Object value, Writer out) throws IOException;
+    }
+
+    private static final Serializer STRING = (v, out) -> quote((String) v, out);
+    private static final Serializer SCALAR = (v, out) -> out.write(String.valueOf(v));
+    private static final Serializer ARRAY = JsonWriter::writeArray;
+    private static final Serializer ITERABLE = JsonWriter::writeIterable;
+    private static final Serializer MAP = JsonWriter::writeMap;
+
+    private static final ClassValue<Serializer> SERIALIZERS = new ClassValue<Serializer>() {
+        @Override
+        protected Serializer computeValue(Class<?> type) {
+            // Same precedence as the original instanceof chain.
+            if (type == String.class) return STRING;
+            if (Number.class.isAssignableFrom(type) || type == Boolean.class) return SCALAR;
+            if (type.isArray()) return ARRAY;
+            if (Iterable.class.isAssignableFrom(type)) return ITERABLE;
+            if (Map.class.isAssignableFrom(type)) return MAP;
+            return new BeanSerializer(type);
+        }
+    };
+
+    private JsonWriter() {}
+
+    static void write(Object value, Writer out) throws IOException {
+        if (value == null) out.write("null");
+        else SERIALIZERS.get(value.getClass()).write(value, out);
+    }
+
+    static String toString(Object value) {
+        StringBuilderWriter out = new StringBuilderWriter();
+        try {
+            write(value, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilderWriter never throws
+        }
+        return out.sb.toString();
+    }
+
+    private static void writeArray(Object array, Writer out) throws IOException {
+        int len = Array.getLength(array);
+        out.write('[');
+        for (int i = 0; i < len; i++) {
+            if (i > 0) out.write(',');
+            write(Array.get(array, i), out);
+        }
+        out.write(']');
+    }
+
+    private static void writeIterable(Object value, Writer out) throws IOException {
+        out.write('[');
+        boolean first = true;
+        for (Object o : (Iterable<?>) value) {
+            if (!first) out.write(',');
+            first = false;
+            write(o, out);
+        }
+        out.write(']');
+    }
+
+    private static void writeMap(Object value, Writer out) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+            if (!first) out.write(',');
+            first = false;
+            quote(String.valueOf(e.getKey()), out);
+            out.write(':');
+            write(e.getValue(), out);
+        }
+        out.write('}');
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static void quote(String s, Writer out) throws IOException {
+        out.write('"');
+        int run = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            out.write(s, run, i - run);
+            out.write('\\');
+            if (c >= 0x20) {
+                run = i; // the quote or backslash itself goes out with the next run
+                continue;
+            }
+            switch (c) {
+                case '\n': out.write('n'); break;
+                case '\r': out.write('r'); break;
+                case '\t': out.write('t'); break;
+                case '\b': out.write('b'); break;
+                case '\f': out.write('f'); break;
+                default:
+                    out.write("u00");
+                    out.write(HEX[c >> 4]);
+                    out.write(HEX[c & 0xf]);
+            }
+            run = i + 1;
+        }
+        out.write(s, run, s.length() - run);
+        out.write('"');
+    }
+
+    /** Declared fields resolved once; each entry carries its pre-quoted {@code "name":} prefix. */
+    private static final class BeanSerializer implements Serializer {
+        private final Field[] fields;
+        private final String[] prefixes;
+
+        BeanSerializer(Class<?> type) {
+            List<Field> usable = new ArrayList<>();
+            for (Field f : type.getDeclaredFields()) {
+                try {
+                    f.setAccessible(true);
+                    usable.add(f);
+                } catch (Exception ignored) {}
+            }
+            fields = usable.toArray(new Field[0]);
+            prefixes = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                prefixes[i] = "\"" + fields[i].getName().replace("\\", "\\\\").replace("\"", "\\\"") + "\":";
+            }
+        }
+
+        @Override
+        public void write(Object value, Writer out) throws IOException {
+            out.write('{');
+            boolean first = true;
+            for (int i = 0; i < fields.length; i++) {
+                Object v;
+                try {
+                    v = fields[i].get(value);
+                } catch (Exception ignored) {
+                    continue;
+                }
+                if (!first) out.write(',');
+                first = false;
+                out.write(prefixes[i]);
+                JsonWriter.write(v, out);
+            }
+            out.write('}');
+        }
+    }
+
+    /** Unsynchronized in-memory Writer for {@link #toString}. */
+    private static final class StringBuilderWriter extends Writer {
+        final StringBuilder sb = new StringBuilder(128);
+
+        @Override public void write(int c) { sb.append((char) c); }
+        @Override public void write(char[] cbuf, int off, int len) { sb.append(cbuf, off, len); }
+        @Override public void write(String str) { sb.append(str); }
+        @Override public void write(String str, int off, int len) { sb.append(str, off, off + len); }
+        @Override public void flush() {}
+        @Override public void close() {}
+    }
+}
@@ -0,0 +1,73 @@
+package api;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+
+/**
+ * A user's limit order on an event, mirroring an {@code orders} row. While it
+ * is open the order holds its funds in escrow: a BUY has {@code price *
+ * remaining} taken out of the wallet, a SELL has its unsold tickets taken out
+ * of the position, cost basis included, in {@link #escrow}.
+ */
+final class LimitOrder {
+    volatile long id; // set by Storage.Orders#open on the shard thread, read by a timed-out caller
+    final long userId;
+    final boolean buy;
+    final String eventId;
+    final String eventName;
+    final long priceCents;
+    final int qty;
+    int remaining;
+    TradeMath.Holding escrow; // SELL only; qty equals remaining
+
+    LimitOrder(long id, long userId, boolean buy, String eventId, String eventName, long priceCents, int qty,
+               int remaining, TradeMath.Holding escrow) {
+        this.id = id;
+        this.userId = userId;
+        this.buy = buy;
+        this.eventId = eventId;
+        this.eventName = eventName;
+        this.priceCents = priceCents;
+        this.qty = qty;
+        this.remaining = remaining;
+        this.escrow = escrow;
+    }
+
+    BigDecimal price() { return BigDecimal.valueOf(priceCents, 2); }
+
+    LimitOrder copy() {
+        return new LimitOrder(id, userId, buy, eventId, eventName, priceCents, qty, remaining, escrow);
+    }
+
+    /**
+     * Reads side/eventId/eventName/qty/priceUsd from a request body. Throws
+     * IllegalArgumentException with a client-facing message when the body
+     * cannot describe an order.
+     */
+    static LimitOrder parse(long userId, Map<String, String> body) {
+        String side = body.getOrDefault("side", "");
+        String eventId = body.getOrDefault("eventId", "");
+        if (eventId.isEmpty()) throw new IllegalArgumentException("eventId is required");
+        if (!"BUY".equalsIgnoreCase(side) && !"SELL".equalsIgnoreCase(side)) {
+            throw new IllegalArgumentException("side must be BUY or SELL");
+        }
+        int qty;
+        try { qty = Integer.parseInt(body.get("qty")); } catch (Exception e) { qty = 0; }
+        if (qty <= 0) throw new IllegalArgumentException("Quantity must be positive");
+        return new LimitOrder(0, userId, "BUY".equalsIgnoreCase(side), eventId, body.getOrDefault("eventName", ""),
+                cents(body.get("priceUsd")), qty, qty, null);
+    }
+
+    /** A positive whole-cent USD amount as cents. */
+    static long cents(String raw) {
+        BigDecimal v;
+        try { v = raw == null ? null : new BigDecimal(raw); } catch (Exception e) { v = null; }
+        if (v == null || v.signum() <= 0) throw new IllegalArgumentException("priceUsd must be a positive amount");
+        try {
+            return v.setScale(2, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("priceUsd must be in whole cents");
+        }
+    }
+}
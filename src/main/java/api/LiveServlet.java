@@ -0,0 +1,48 @@
+package api;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * {@code GET /live} opens a Server-Sent Events stream of the caller's wallet
+ * and followed prices (see {@link LiveUpdates}). It needs a session, and
+ * {@code EventSource} cannot send headers, so the token may come as
+ * {@code ?token=}.
+ */
+@WebServlet(name = "LiveServlet", urlPatterns = {"/live"}, asyncSupported = true)
+public class LiveServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        Long userId = SessionFilter.userId(req);
+        if (userId == null) {
+            resp.setHeader("WWW-Authenticate", "Bearer");
+            resp.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Login required");
+            return;
+        }
+        try {
+            DemoUser.seedWallet(userId, DemoUser.DEFAULT_CASH);
+        } catch (Exception e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unable to prepare demo wallet: " + e.getMessage());
+            return;
+        }
+        if (!req.isAsyncSupported() || !LiveUpdates.accepting()) {
+            resp.setHeader("Retry-After", "10");
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Live updates unavailable");
+            return;
+        }
+
+        resp.setContentType("text/event-stream;charset=UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setHeader("X-Accel-Buffering", "no");
+        AsyncContext async = req.startAsync();
+        LiveUpdates.subscribe(userId, async);
+    }
+}
@@ -0,0 +1,343 @@
+package api;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-Sent Events behind {@code /live}: a {@code wallet} event with the
+ * {@code /wallet?type=snapshot} body after every commit that touches the
+ * user's wallet, and a {@code price} event whenever the {@link PriceCache}
+ * quote of an event they hold or favorite moves.
+ *
+ * <p>Streams are async requests written with non-blocking I/O, so an idle
+ * one costs a queue and no thread. Each update is serialized once into a
+ * frame that every interested stream shares. A stream queues at most
+ * {@code tt.live.bufferBytes} of frames the client has not taken yet; one
+ * that falls further behind is closed, and the browser's reconnect starts it
+ * over from a fresh snapshot. Wallet changes are coalesced per user and read
+ * on {@code tt.live.threads} threads, never on the committing one. A comment
+ * line every {@code tt.live.heartbeatMs} keeps proxies from timing streams
+ * out and finds dead ones. At most {@code tt.live.maxConnections} are open.
+ */
+final class LiveUpdates {
+    private static final int MAX_CONNECTIONS = Integer.getInteger("tt.live.maxConnections", 10_000);
+    private static final int BUFFER_BYTES = Integer.getInteger("tt.live.bufferBytes", 64 * 1024);
+    private static final int THREADS = Integer.getInteger("tt.live.threads", 2);
+    private static final long HEARTBEAT_MS = Long.getLong("tt.live.heartbeatMs", 15_000L);
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    /** Counters since startup. */
+    static final class Stats {
+        public int connections;
+        public int users;
+        public int events;
+        public long opened;
+        public long rejected;
+        public long walletFrames;
+        public long priceFrames;
+        public long framesQueued;
+        public long bytesWritten;
+        public long slowDropped;
+        public long refreshErrors;
+    }
+
+    /** A user's open streams and the events whose prices they follow. */
+    private static final class Channel {
+        final long userId;
+        final Set<Stream> streams = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean dirty = new AtomicBoolean();
+        Set<String> events = Set.of(); // guarded by WATCH_LOCK
+
+        Channel(long userId) { this.userId = userId; }
+    }
+
+    /** One open response. Frames wait in {@link #queue} until the output is ready for them. */
+    private static final class Stream implements WriteListener, AsyncListener {
+        final Channel channel;
+        final AsyncContext async;
+        final ServletOutputStream out;
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        private int queuedBytes;
+        private boolean closed;
+
+        Stream(Channel channel, AsyncContext async) throws IOException {
+            this.channel = channel;
+            this.async = async;
+            this.out = async.getResponse().getOutputStream();
+        }
+
+        /** Queues a frame, closing the stream instead when its client is too far behind. */
+        void offer(byte[] frame) {
+            synchronized (this) {
+                if (closed) return;
+                if (queuedBytes + frame.length > BUFFER_BYTES) {
+                    SLOW_DROPPED.increment();
+                    close();
+                    return;
+                }
+                queue.add(frame);
+                queuedBytes += frame.length;
+            }
+            FRAMES_QUEUED.increment();
+            drain();
+        }
+
+        /** Writes while the container can take more; it calls {@link #onWritePossible} once it can again. */
+        synchronized void drain() {
+            try {
+                while (!closed && !queue.isEmpty() && out.isReady()) {
+                    byte[] frame = queue.poll();
+                    queuedBytes -= frame.length;
+                    out.write(frame);
+                    BYTES_WRITTEN.add(frame.length);
+                }
+                if (!closed && queue.isEmpty() && out.isReady()) out.flush();
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+
+        synchronized boolean isClosed() { return closed; }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+            try {
+                async.complete();
+            } catch (IllegalStateException ignore) { /* already completed by the container */ }
+            unsubscribe(this);
+        }
+
+        @Override public void onWritePossible() { drain(); }
+        @Override public void onError(Throwable t) { close(); }
+        @Override public void onComplete(AsyncEvent event) { close(); }
+        @Override public void onTimeout(AsyncEvent event) { close(); }
+        @Override public void onError(AsyncEvent event) { close(); }
+        @Override public void onStartAsync(AsyncEvent event) { }
+    }
+
+    private static final ConcurrentHashMap<Long, Channel> CHANNELS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Set<Channel>> WATCHERS = new ConcurrentHashMap<>();
+    private static final AtomicInteger CONNECTIONS = new AtomicInteger();
+    private static final Object WATCH_LOCK = new Object();
+
+    private static final LongAdder OPENED = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final LongAdder WALLET_FRAMES = new LongAdder();
+    private static final LongAdder PRICE_FRAMES = new LongAdder();
+    private static final LongAdder FRAMES_QUEUED = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static final LongAdder SLOW_DROPPED = new LongAdder();
+    private static final LongAdder REFRESH_ERRORS = new LongAdder();
+
+    private static volatile ExecutorService refresher;
+    private static volatile ScheduledExecutorService heartbeat;
+
+    private LiveUpdates() {}
+
+    static synchronized void start() {
+        if (refresher != null) return;
+        AtomicInteger n = new AtomicInteger();
+        refresher = Executors.newFixedThreadPool(Math.max(1, THREADS), r -> {
+            Thread t = new Thread(r, "live-refresh-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "live-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(() -> {
+            for (Channel c : CHANNELS.values()) for (Stream s : c.streams) s.offer(HEARTBEAT);
+        }, HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Closes every stream; the clients reconnect to whichever node serves them next. */
+    static synchronized void stop() {
+        if (refresher == null) return;
+        heartbeat.shutdownNow();
+        refresher.shutdownNow();
+        heartbeat = null;
+        refresher = null;
+        for (Channel c : CHANNELS.values()) for (Stream s : c.streams) s.close();
+    }
+
+    /** False when the connection limit is reached or updates are not running; the caller answers 503. */
+    static boolean accepting() {
+        if (refresher != null && CONNECTIONS.get() < MAX_CONNECTIONS) return true;
+        REJECTED.increment();
+        return false;
+    }
+
+    /**
+     * Attaches a started async request to {@code userId}'s updates and
+     * queues a first snapshot. The response headers must already be set.
+     * The stream's listeners are registered before it joins the channel, so
+     * a concurrent publish never offers to an output without a write listener.
+     */
+    static void subscribe(long userId, AsyncContext async) throws IOException {
+        async.setTimeout(0);
+        Stream[] created = new Stream[1];
+        IOException[] failed = new IOException[1];
+        CONNECTIONS.incrementAndGet();
+        Channel channel = CHANNELS.compute(userId, (k, c) -> {
+            if (c == null) c = new Channel(userId);
+            try {
+                Stream s = new Stream(c, async);
+                async.addListener(s);
+                s.out.setWriteListener(s);
+                c.streams.add(s);
+                created[0] = s;
+            } catch (IOException | IllegalStateException e) {
+                failed[0] = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            return c;
+        });
+        if (failed[0] != null) {
+            CONNECTIONS.decrementAndGet();
+            throw failed[0];
+        }
+        Stream stream = created[0];
+        OPENED.increment();
+        // Closed before it joined the channel: its own unsubscribe found nothing to remove.
+        if (stream.isClosed()) {
+            unsubscribe(stream);
+            return;
+        }
+        stream.offer(": connected\n\n".getBytes(StandardCharsets.US_ASCII));
+        schedule(channel);
+    }
+
+    /** Called by {@link WalletVersions#bump} after a commit; pushes a snapshot if the user is listening. */
+    static void walletChanged(long userId) {
+        Channel c = CHANNELS.get(userId);
+        if (c != null) schedule(c);
+    }
+
+    /** Re-reads which prices the user follows (the refresh also pushes the wallet once more). */
+    static void favoritesChanged(long userId) {
+        walletChanged(userId);
+    }
+
+    static void allWalletsChanged() {
+        for (Channel c : CHANNELS.values()) schedule(c);
+    }
+
+    /** Called by {@link PriceCache} after an event's quote moved; one frame goes to every follower. */
+    static void priceChanged(String eventId, long min, long max) {
+        Set<Channel> watchers = WATCHERS.get(eventId);
+        if (watchers == null || watchers.isEmpty()) return;
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("eventId", eventId);
+        data.put("minPriceUsd", Money.decimal(min));
+        data.put("maxPriceUsd", Money.decimal(max));
+        byte[] frame = frame("price", data);
+        PRICE_FRAMES.increment();
+        for (Channel c : watchers) for (Stream s : c.streams) s.offer(frame);
+    }
+
+    static Stats stats() {
+        Stats s = new Stats();
+        s.connections = CONNECTIONS.get();
+        s.users = CHANNELS.size();
+        s.events = WATCHERS.size();
+        s.opened = OPENED.sum();
+        s.rejected = REJECTED.sum();
+        s.walletFrames = WALLET_FRAMES.sum();
+        s.priceFrames = PRICE_FRAMES.sum();
+        s.framesQueued = FRAMES_QUEUED.sum();
+        s.bytesWritten = BYTES_WRITTEN.sum();
+        s.slowDropped = SLOW_DROPPED.sum();
+        s.refreshErrors = REFRESH_ERRORS.sum();
+        return s;
+    }
+
+    /** Queues one refresh per user; changes that land while it runs queue the next. */
+    private static void schedule(Channel c) {
+        ExecutorService ex = refresher;
+        if (ex == null || !c.dirty.compareAndSet(false, true)) return;
+        try {
+            ex.execute(() -> refresh(c));
+        } catch (RuntimeException e) {
+            c.dirty.set(false);
+        }
+    }
+
+    /** Reads the wallet and favorites, pushes the snapshot and re-points the price subscriptions. */
+    private static void refresh(Channel c) {
+        c.dirty.set(false);
+        if (c.streams.isEmpty()) return;
+        try {
+            long version = WalletVersions.version(c.userId);
+            Storage.Account account = Storage.get().wallets().account(c.userId);
+            if (account == null) return;
+            byte[] frame = frame("wallet", WalletServlet.snapshot(c.userId, version, account));
+            WALLET_FRAMES.increment();
+            for (Stream s : c.streams) s.offer(frame);
+
+            Set<String> events = new HashSet<>();
+            for (Storage.Position p : account.positions) if (p.holding.qty > 0) events.add(p.eventId);
+            for (Storage.Favorite f : Storage.get().favorites().list(c.userId)) events.add(f.eventId);
+            watch(c, events);
+        } catch (Exception e) {
+            REFRESH_ERRORS.increment();
+            Metrics.error("live", "Wallet push for user " + c.userId + " failed: " + e.getMessage());
+        }
+    }
+
+    private static void watch(Channel c, Set<String> events) {
+        synchronized (WATCH_LOCK) {
+            if (c.streams.isEmpty()) events = Set.of(); // the last stream closed meanwhile
+            for (String eventId : events) {
+                if (!c.events.contains(eventId)) {
+                    WATCHERS.computeIfAbsent(eventId, k -> ConcurrentHashMap.newKeySet()).add(c);
+                }
+            }
+            for (String eventId : c.events) {
+                if (!events.contains(eventId)) unwatch(c, eventId);
+            }
+            c.events = events;
+        }
+    }
+
+    private static void unwatch(Channel c, String eventId) {
+        WATCHERS.computeIfPresent(eventId, (k, s) -> {
+            s.remove(c);
+            return s.isEmpty() ? null : s;
+        });
+    }
+
+    private static void unsubscribe(Stream stream) {
+        Channel c = stream.channel;
+        if (!c.streams.remove(stream)) return;
+        CONNECTIONS.decrementAndGet();
+        CHANNELS.computeIfPresent(c.userId, (k, cur) -> cur == c && c.streams.isEmpty() ? null : cur);
+        if (c.streams.isEmpty()) watch(c, Set.of());
+    }
+
+    /** One SSE frame; {@link JsonWriter} escapes every control character, so a single data line carries it. */
+    private static byte[] frame(String event, Object data) {
+        return ("event: " + event + "\ndata: " + JsonWriter.toString(data) + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,6 +1,6 @@
 package api;
 
-import db.JDBCConnector;
+import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -8,25 +8,24 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.math.BigDecimal;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map;
-import java.util.stream.Collectors;
 
-@WebServlet(name = "LoginServlet", urlPatterns = {"/login"})
+@WebServlet(name = "LoginServlet", urlPatterns = {"/login"}, asyncSupported = true)
 public class LoginServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
 
     @Override
-    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        // Mostly password hashing; only the storage calls below take a database slot.
+        RequestExecutor.run(req, resp, "login", Bulkhead.CPU, this::handlePost);
+    }
+
+    private void handlePost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         resp.setContentType("application/json;charset=UTF-8");
 
         try {
-            String body = readBody(req);
-            LoginPayload payload = parsePayload(body);
+            LoginPayload payload = parsePayload(req);
             if (payload == null) {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 write(resp, JsonResp.error("Invalid JSON payload"));
@@ -39,21 +38,41 @@ public class LoginServlet extends HttpServlet {
                 return;
             }
 
-            DemoUser.ensure(DemoUser.DEFAULT_CASH);
-            UserRecord user = findUser(payload.username);
-            if (user == null) {
-                write(resp, JsonResp.error("User not found"));
+            Storage.User user;
+            try {
+                user = Bulkhead.DB.call(() -> {
+                    DemoUser.ensure(DemoUser.DEFAULT_CASH);
+                    Storage.User found = Storage.get().users().find(payload.username);
+                    if (found != null) DemoUser.seedWallet(found.id, DemoUser.DEFAULT_CASH);
+                    return found;
+                });
+            } catch (Bulkhead.Full e) {
+                busy(resp, e.getMessage());
                 return;
             }
-            DemoUser.seedWallet(user.id, DemoUser.DEFAULT_CASH);
-            String hashed = hash(payload.password);
-            if (!hashed.equals(user.passwordHash)) {
+            PasswordHasher.Verification check;
+            try {
+                if (user == null) {
+                    // Same work and answer as a wrong password, so logins do not reveal who has an account.
+                    PasswordHasher.verifyNothing(payload.password);
+                    write(resp, JsonResp.error("Invalid credentials"));
+                    return;
+                }
+                check = PasswordHasher.verify(payload.password, user.passwordHash);
+            } catch (PasswordHasher.Busy e) {
+                busy(resp, e.getMessage());
+                return;
+            }
+            if (!check.matches) {
                 write(resp, JsonResp.error("Invalid credentials"));
                 return;
             }
-            write(resp, JsonResp.ok("Login successful", new UserResponse(user)));
+            if (check.upgraded != null) upgradeHash(user.id, user.passwordHash, check.upgraded);
+            UserResponse body = new UserResponse(user);
+            body.token = SessionStore.create(user.id);
+            write(resp, JsonResp.ok("Login successful", body));
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("login", "Login failed: " + e);
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             write(resp, JsonResp.error("Login failed: " + e.getMessage()));
         }
@@ -66,77 +85,57 @@ public class LoginServlet extends HttpServlet {
         write(resp, JsonResp.error("Use POST /login with JSON payload"));
     }
 
-    private UserRecord findUser(String usernameOrEmail) throws SQLException {
-        Connection c = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
+    /** Stores a stronger hash for the user; a failure only means trying again next login. */
+    private void upgradeHash(long userId, String oldHash, String newHash) {
         try {
-            c = JDBCConnector.get();
-            ps = c.prepareStatement(
-                    "SELECT id, username, email, password_hash FROM users WHERE username = ? OR email = ? LIMIT 1");
-            ps.setString(1, usernameOrEmail);
-            ps.setString(2, usernameOrEmail);
-            rs = ps.executeQuery();
-            if (rs.next()) {
-                UserRecord u = new UserRecord();
-                u.id = rs.getLong("id");
-                u.username = rs.getString("username");
-                u.email = rs.getString("email");
-                u.passwordHash = rs.getString("password_hash");
-                return u;
-            }
-            return null;
-        } finally {
-            JDBCConnector.closeQuiet(rs);
-            JDBCConnector.closeQuiet(ps);
-            JDBCConnector.closeQuiet(c);
+            // Compare-and-set, so a password changed meanwhile is not overwritten.
+            Bulkhead.DB.call(() -> Storage.get().users().replacePasswordHash(userId, oldHash, newHash));
+        } catch (SQLException | Bulkhead.Full e) {
+            Metrics.error("password_upgrade", "Password hash upgrade skipped for user " + userId + ": " + e.getMessage());
         }
     }
 
-    private String readBody(HttpServletRequest req) throws IOException {
-        try (BufferedReader reader = req.getReader()) {
-            return reader.lines().collect(Collectors.joining());
-        }
+    private void busy(HttpServletResponse resp, String message) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        resp.setHeader("Retry-After", "1");
+        write(resp, JsonResp.error(message));
     }
 
     private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
         try (PrintWriter out = resp.getWriter()) {
-            out.write(jr.toJson());
+            jr.writeTo(out);
         }
     }
 
-    private LoginPayload parsePayload(String body) {
-        if (body == null) return null;
-        Map<String, String> map = SimpleJson.parseObject(body);
-        if (map == null) return null;
+    /** Reads the body straight into the payload; null when it is not valid JSON. */
+    private LoginPayload parsePayload(HttpServletRequest req) throws IOException {
         LoginPayload p = new LoginPayload();
-        p.username = map.get("username");
-        p.password = map.get("password");
+        try (BufferedReader reader = req.getReader()) {
+            JsonParser.read(reader, (name, value) -> {
+                if ("username".equals(name)) p.username = value;
+                else if ("password".equals(name)) p.password = value;
+            });
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
         return p;
     }
 
     private boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
 
-    static String hash(String raw) { return HashUtil.sha256(raw); }
-
     private static class LoginPayload {
         String username;
         String password;
     }
 
-    private static class UserRecord {
-        long id;
-        String username;
-        String email;
-        String passwordHash;
-    }
-
     private static class UserResponse {
         long id;
         String username;
         String email;
+        /** Bearer token for /wallet, /favorites and /trade. */
+        String token;
 
-        UserResponse(UserRecord r) {
+        UserResponse(Storage.User r) {
             this.id = r.id;
             this.username = r.username;
             this.email = r.email;
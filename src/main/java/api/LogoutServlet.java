@@ -0,0 +1,21 @@
+package api;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/** {@code POST /logout} with the session's bearer token ends that session. */
+@WebServlet(name = "LogoutServlet", urlPatterns = {"/logout"})
+public class LogoutServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json;charset=UTF-8");
+        SessionStore.invalidate(SessionFilter.token(req));
+        try (PrintWriter out = resp.getWriter()) { JsonResp.ok("Logged out", null).writeTo(out); }
+    }
+}
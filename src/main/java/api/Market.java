@@ -0,0 +1,307 @@
+package api;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * User-to-user trading through per-event limit order books, enabled with
+ * {@code -Dtt.market.enabled=true}.
+ *
+ * <p>Events are sharded by id across single-threaded executors
+ * ({@code tt.market.shards}), so each {@link OrderBook} is only ever touched
+ * by one thread and matching needs no locks. Placing an order first escrows
+ * its cash or tickets through {@link Storage.Orders#open}, then matches it,
+ * then settles the fills in one more storage transaction. Books are built
+ * lazily from the open orders in storage, replaying them oldest first, which
+ * also settles any match a crash interrupted. If settling fails the book is
+ * dropped and rebuilt the same way on next use, and the order, already open,
+ * is answered as {@link #PENDING} rather than as an error.
+ *
+ * <p>Like engine mode, the books assume this node is the only one matching,
+ * so run the market on a single node. It does not combine with
+ * {@code tt.trade.mode=engine}, whose resident wallets would miss the escrow.
+ */
+final class Market {
+    private static final boolean ENABLED = Boolean.getBoolean("tt.market.enabled");
+    private static final int SHARDS = Integer.getInteger("tt.market.shards",
+            Runtime.getRuntime().availableProcessors());
+    private static final long TIMEOUT_MS = Long.getLong("tt.market.timeoutMs", 5_000L);
+    private static final int DEPTH_LEVELS = 10;
+
+    /** Message of a 202 answer: the order is open and escrowed, but its fills are not settled yet. */
+    static final String PENDING = "Order placed; its fills are still being settled, check your open orders shortly";
+    /** Message of a 504 answer: the request was already running when its wait ran out. */
+    static final String UNKNOWN = "Order request timed out; its outcome is unknown, check your open orders before retrying";
+
+    private static volatile Market instance;
+
+    static final class Stats {
+        public long placed;
+        public long rejected;
+        public long cancelled;
+        public long fills;
+        public long filledQty;
+        public long booksLoaded;
+        public long booksDropped;
+        public int books;
+        public int openOrders;
+    }
+
+    /** One matcher thread and the books it owns. */
+    private static final class Shard {
+        final ExecutorService executor;
+        final Map<String, OrderBook> books = new HashMap<>();
+        final OrderBook.Fills fills = new OrderBook.Fills();
+        volatile int bookCount;  // both only written on the shard's thread
+        volatile int openOrders;
+
+        Shard(String name) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private final Shard[] shards;
+    private final LongAdder placed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder fills = new LongAdder();
+    private final LongAdder filledQty = new LongAdder();
+    private final LongAdder booksLoaded = new LongAdder();
+    private final LongAdder booksDropped = new LongAdder();
+
+    private Market(int shardCount) {
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard("market-shard-" + i);
+    }
+
+    static boolean enabled() { return ENABLED && !TradeEngine.enabled(); }
+
+    static synchronized void start() {
+        if (instance != null || !ENABLED) return;
+        if (TradeEngine.enabled()) {
+            Metrics.error("market", "tt.market.enabled is ignored with tt.trade.mode=engine");
+            return;
+        }
+        instance = new Market(Math.max(1, SHARDS));
+    }
+
+    /** Stops accepting orders and waits for the shards to finish the ones they have. */
+    static synchronized void stop() {
+        Market m = instance;
+        if (m == null) return;
+        instance = null;
+        for (Shard s : m.shards) s.executor.shutdown();
+        try {
+            for (Shard s : m.shards) s.executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static Stats stats() {
+        Market m = instance;
+        if (m == null) return null;
+        Stats s = new Stats();
+        s.placed = m.placed.sum();
+        s.rejected = m.rejected.sum();
+        s.cancelled = m.cancelled.sum();
+        s.fills = m.fills.sum();
+        s.filledQty = m.filledQty.sum();
+        s.booksLoaded = m.booksLoaded.sum();
+        s.booksDropped = m.booksDropped.sum();
+        for (Shard shard : m.shards) {
+            s.books += shard.bookCount;
+            s.openOrders += shard.openOrders;
+        }
+        return s;
+    }
+
+    /** Escrows, matches and settles one order; the data lists its fills and what is left resting. */
+    static JsonResp<?> place(LimitOrder order) {
+        Market m = running();
+        if (m == null) return JsonResp.error("Order book trading is disabled");
+        return m.run(order.eventId, () -> m.placeOnShard(m.shard(order.eventId), order), () -> outcome(UNKNOWN, order));
+    }
+
+    static JsonResp<?> cancel(String eventId, long orderId, long userId) {
+        Market m = running();
+        if (m == null) return JsonResp.error("Order book trading is disabled");
+        return m.run(eventId, () -> m.cancelOnShard(m.shard(eventId), eventId, orderId, userId),
+                () -> new JsonResp<>(false, UNKNOWN));
+    }
+
+    /** The best {@value #DEPTH_LEVELS} price levels of each side, with the quantity resting at each. */
+    static JsonResp<?> depth(String eventId) {
+        Market m = running();
+        if (m == null) return JsonResp.error("Order book trading is disabled");
+        return m.run(eventId, () -> {
+            OrderBook book = m.book(m.shard(eventId), eventId);
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("eventId", eventId);
+            data.put("bids", levels(book, true));
+            data.put("asks", levels(book, false));
+            return JsonResp.ok("OK", data);
+        }, () -> new JsonResp<>(false, "Order book busy, please retry"));
+    }
+
+    private static Market running() {
+        Market m = instance;
+        if (m == null) {
+            start();
+            m = instance;
+        }
+        return m;
+    }
+
+    private Shard shard(String eventId) {
+        return shards[Math.floorMod(eventId.hashCode(), shards.length)];
+    }
+
+    /**
+     * Runs {@code work} on the event's shard. A request that times out before
+     * the shard picks it up is withdrawn and safe to retry; one that was
+     * already running answers {@code late}.
+     */
+    private JsonResp<?> run(String eventId, Callable<JsonResp<?>> work, Supplier<JsonResp<?>> late) {
+        Future<JsonResp<?>> result = null;
+        try {
+            result = shard(eventId).executor.submit(work);
+            return result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            if (result.cancel(false)) return new JsonResp<>(false, "Order book busy, please retry");
+            return late.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return new JsonResp<>(false, "Server error: interrupted");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            return new JsonResp<>(false, (cause instanceof SQLException ? "DB error: " : "Server error: ")
+                    + cause.getMessage());
+        } catch (RejectedExecutionException re) {
+            return new JsonResp<>(false, "Server error: order book is shutting down");
+        }
+    }
+
+    private JsonResp<?> placeOnShard(Shard shard, LimitOrder order) throws SQLException {
+        OrderBook book = book(shard, order.eventId);
+        String rejection = Storage.get().orders().open(order);
+        if (rejection != null) {
+            rejected.increment();
+            return new JsonResp<>(false, rejection);
+        }
+        placed.increment();
+        OrderBook.Fills out = shard.fills;
+        int before = book.openOrders();
+        int left = book.place(order.id, order.userId, order.buy, order.priceCents, order.qty, out);
+        shard.openOrders += book.openOrders() - before;
+        if (out.size() > 0) {
+            try {
+                Storage.get().orders().settle(order, out);
+            } catch (SQLException e) {
+                // The order is open and escrowed in storage; the rebuilt book matches and settles it again.
+                drop(shard, order.eventId, e);
+                return outcome(PENDING, order);
+            }
+        }
+
+        List<Map<String, Object>> traded = new ArrayList<>();
+        for (int i = 0; i < out.size(); i++) {
+            if (out.cancelled(i)) continue;
+            Map<String, Object> f = new LinkedHashMap<>();
+            f.put("qty", out.qty(i));
+            f.put("priceUsd", BigDecimal.valueOf(out.price(i), 2));
+            traded.add(f);
+        }
+        int filled = out.filledQty();
+        fills.add(traded.size());
+        filledQty.add(filled);
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("orderId", order.id);
+        data.put("filledQty", filled);
+        data.put("remaining", left);
+        data.put("fills", traded);
+        return JsonResp.ok(left == 0 ? "Filled" : filled > 0 ? "Partially filled" : "Open", data);
+    }
+
+    private JsonResp<?> cancelOnShard(Shard shard, String eventId, long orderId, long userId) throws SQLException {
+        OrderBook book = book(shard, eventId);
+        if (book.cancel(orderId, userId) == 0) return JsonResp.error("Order not found");
+        shard.openOrders--;
+        try {
+            Storage.get().orders().cancel(orderId, userId);
+        } catch (SQLException e) {
+            // The order is still open in storage; the rebuilt book rests it again.
+            drop(shard, eventId, e);
+            throw e;
+        }
+        cancelled.increment();
+        return JsonResp.ok("Cancelled");
+    }
+
+    /** The event's book, replaying its open orders from storage if this shard has not built it yet. */
+    private OrderBook book(Shard shard, String eventId) throws SQLException {
+        OrderBook book = shard.books.get(eventId);
+        if (book != null) return book;
+        book = new OrderBook();
+        for (LimitOrder o : Storage.get().orders().book(eventId)) {
+            book.place(o.id, o.userId, o.buy, o.priceCents, o.remaining, shard.fills);
+            if (shard.fills.size() > 0) Storage.get().orders().settle(o, shard.fills);
+        }
+        shard.books.put(eventId, book);
+        shard.bookCount = shard.books.size();
+        shard.openOrders += book.openOrders();
+        booksLoaded.increment();
+        return book;
+    }
+
+    /** A 202/504 answer that still tells the client which order it is about, once it has an id. */
+    private static JsonResp<?> outcome(String message, LimitOrder order) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        long id = order.id;
+        if (id > 0) data.put("orderId", id);
+        return new JsonResp<>(message == PENDING, message, data);
+    }
+
+    /** Forgets a book whose storage write failed, so the next request rebuilds it from what was committed. */
+    private void drop(Shard shard, String eventId, SQLException e) {
+        OrderBook book = shard.books.remove(eventId);
+        if (book != null) shard.openOrders -= book.openOrders();
+        shard.bookCount = shard.books.size();
+        booksDropped.increment();
+        Metrics.error("market", "Order book for " + eventId + " dropped after a storage failure: " + e.getMessage());
+    }
+
+    private static List<Map<String, Object>> levels(OrderBook book, boolean bids) {
+        long[] prices = new long[DEPTH_LEVELS];
+        long[] qtys = new long[DEPTH_LEVELS];
+        int n = book.depth(bids, prices, qtys);
+        List<Map<String, Object>> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> level = new LinkedHashMap<>();
+            level.put("priceUsd", BigDecimal.valueOf(prices[i], 2));
+            level.put("qty", qtys[i]);
+            list.add(level);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,236 @@
+package api;
+
+import db.ConnectionPool;
+import db.JDBCConnector;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process instrumentation, exported by {@link MetricsServlet} in the
+ * Prometheus text format.
+ *
+ * <p>Request latency is recorded per endpoint and {@link Outcome} by
+ * {@link RequestExecutor}; JDBC borrow and statement times arrive through
+ * {@link ConnectionPool.Listener}; JSON serialization is timed in
+ * {@link JsonResp#writeTo}. All of these record into {@link Histogram}s
+ * held in fields, so the hot path never looks anything up. The Stats of the
+ * other subsystems are read only when scraped.
+ */
+final class Metrics {
+    /** How a request ended. */
+    enum Outcome {
+        OK, BUSINESS_ERROR, DB_ERROR, ERROR, TIMEOUT, REJECTED;
+
+        final String label = name().toLowerCase();
+    }
+
+    private static final double[] REQUEST_BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] JDBC_BOUNDS = {0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 1, 5};
+    private static final double[] JSON_BOUNDS = {0.000001, 0.0000025, 0.000005, 0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.001, 0.01};
+
+    static final Histogram JDBC_BORROW_OK = new Histogram();
+    static final Histogram JDBC_BORROW_FAILED = new Histogram();
+    static final Histogram JDBC_STATEMENT_OK = new Histogram();
+    static final Histogram JDBC_STATEMENT_FAILED = new Histogram();
+    static final Histogram JSON_WRITE = new Histogram();
+    private static final Map<String, LongAdder> ERRORS = new ConcurrentHashMap<>();
+
+    /** What the current request has seen so far; reset by {@link #beginRequest}. */
+    private static final class RequestState {
+        boolean dbFailed;
+        boolean businessError;
+    }
+
+    private static final ThreadLocal<RequestState> STATE = ThreadLocal.withInitial(RequestState::new);
+
+    private static final ConnectionPool.Listener JDBC = new ConnectionPool.Listener() {
+        @Override
+        public void borrowed(long nanos, boolean ok) {
+            (ok ? JDBC_BORROW_OK : JDBC_BORROW_FAILED).record(nanos);
+            if (!ok) STATE.get().dbFailed = true;
+        }
+
+        @Override
+        public void executed(long nanos, boolean ok) {
+            (ok ? JDBC_STATEMENT_OK : JDBC_STATEMENT_FAILED).record(nanos);
+            if (!ok) STATE.get().dbFailed = true;
+        }
+
+        @Override
+        public void error(String message) {
+            Metrics.error("connection_pool", message);
+        }
+    };
+
+    private Metrics() {}
+
+    /** Installs the JDBC listener; call before the first connection is borrowed. */
+    static void start() {
+        JDBCConnector.setListener(JDBC);
+    }
+
+    static void beginRequest() {
+        RequestState s = STATE.get();
+        s.dbFailed = false;
+        s.businessError = false;
+    }
+
+    /** Classifies the request that just ran on this thread. */
+    static Outcome endRequest() {
+        RequestState s = STATE.get();
+        if (s.dbFailed) return Outcome.DB_ERROR;
+        return s.businessError ? Outcome.BUSINESS_ERROR : Outcome.OK;
+    }
+
+    /** Notes a response body; failed ones count as business errors unless they report a DB error. */
+    static void responseWritten(JsonResp<?> jr) {
+        if (jr.success) return;
+        RequestState s = STATE.get();
+        if (jr.message != null && jr.message.startsWith("DB error")) s.dbFailed = true;
+        else s.businessError = true;
+    }
+
+    /** Counts an error from {@code source} and logs it, for paths that recover instead of failing the request. */
+    static void error(String source, String message) {
+        ERRORS.computeIfAbsent(source, k -> new LongAdder()).increment();
+        System.err.println(message);
+    }
+
+    // ---- export ----
+
+    static void writePrometheus(Writer out) throws IOException {
+        header(out, "tt_http_request_duration_seconds", "histogram", "Servlet handling time by endpoint and outcome.");
+        for (Map.Entry<String, Histogram[]> e : RequestExecutor.histograms().entrySet()) {
+            for (Outcome o : Outcome.values()) {
+                Histogram h = e.getValue()[o.ordinal()];
+                if (!h.isEmpty()) histogram(out, "tt_http_request_duration_seconds",
+                        "endpoint=\"" + escape(e.getKey()) + "\",outcome=\"" + o.label + "\"", h, REQUEST_BOUNDS);
+            }
+        }
+        header(out, "tt_jdbc_borrow_duration_seconds", "histogram", "Time to obtain a pooled connection.");
+        histogram(out, "tt_jdbc_borrow_duration_seconds", "result=\"ok\"", JDBC_BORROW_OK, JDBC_BOUNDS);
+        histogram(out, "tt_jdbc_borrow_duration_seconds", "result=\"error\"", JDBC_BORROW_FAILED, JDBC_BOUNDS);
+        header(out, "tt_jdbc_statement_duration_seconds", "histogram", "Statement execute time.");
+        histogram(out, "tt_jdbc_statement_duration_seconds", "result=\"ok\"", JDBC_STATEMENT_OK, JDBC_BOUNDS);
+        histogram(out, "tt_jdbc_statement_duration_seconds", "result=\"error\"", JDBC_STATEMENT_FAILED, JDBC_BOUNDS);
+        header(out, "tt_json_write_duration_seconds", "histogram", "JSON response serialization time.");
+        histogram(out, "tt_json_write_duration_seconds", "", JSON_WRITE, JSON_BOUNDS);
+
+        header(out, "tt_errors_total", "counter", "Recovered errors by source.");
+        for (Map.Entry<String, LongAdder> e : ERRORS.entrySet()) {
+            out.write("tt_errors_total{source=\"" + escape(e.getKey()) + "\"} " + e.getValue().sum() + "\n");
+        }
+
+        stats(out, "tt_storage", Storage.currentStats());
+        stats(out, "tt_db_pool", JDBCConnector.poolStats());
+        statsFamily(out, "tt_bulkhead", Bulkhead.DB.stats(), Bulkhead.CPU.stats());
+        stats(out, "tt_trade_batcher", TradeBatcher.stats());
+        stats(out, "tt_trade_write_behind", TradeEngine.stats());
+        stats(out, "tt_market", Market.stats());
+        stats(out, "tt_event_detail_cache", EventDetailCache.stats());
+        stats(out, "tt_price_cache", PriceCache.stats());
+        stats(out, "tt_valuation", Valuation.stats());
+        stats(out, "tt_live", LiveUpdates.stats());
+        stats(out, "tt_provisioned_users", ProvisionedUsers.stats());
+        stats(out, "tt_sessions", SessionStore.stats());
+        stats(out, "tt_password_hash", PasswordHasher.stats());
+        out.write("tt_catalog_events " + EventCatalog.loadedSize() + "\n");
+        out.write("tt_async_virtual_threads " + (RequestExecutor.virtualThreads() ? 1 : 0) + "\n");
+    }
+
+    private static void header(Writer out, String name, String type, String help) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " " + type + "\n");
+    }
+
+    /** Cumulative buckets at {@code bounds}; a bucket counts toward a bound once its whole range is below it. */
+    private static void histogram(Writer out, String name, String labels, Histogram h, double[] bounds) throws IOException {
+        long[] counts = h.snapshot();
+        String sep = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        int i = 0;
+        for (double bound : bounds) {
+            long limit = (long) (bound * 1e9);
+            while (i < counts.length && Histogram.upperBound(i) <= limit) cumulative += counts[i++];
+            out.write(name + "_bucket{" + sep + "le=\"" + BigDecimal.valueOf(bound).toPlainString() + "\"} " + cumulative + "\n");
+        }
+        while (i < counts.length) cumulative += counts[i++];
+        out.write(name + "_bucket{" + sep + "le=\"+Inf\"} " + cumulative + "\n");
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.write(name + "_sum" + braces + " " + (h.sum() / (double) TimeUnit.SECONDS.toNanos(1)) + "\n");
+        out.write(name + "_count" + braces + " " + cumulative + "\n");
+    }
+
+    /** Every public numeric field of a Stats object as {@code prefix_snake_case}; String fields become labels. */
+    private static void stats(Writer out, String prefix, Object stats) throws IOException {
+        if (stats == null) return;
+        String braces = labels(stats);
+        for (Field f : stats.getClass().getFields()) {
+            if (!numeric(f)) continue;
+            try {
+                out.write(prefix + "_" + snake(f.getName()) + braces + " " + f.get(stats) + "\n");
+            } catch (IllegalAccessException ignore) { /* public fields only */ }
+        }
+    }
+
+    /**
+     * Like {@link #stats} for several instances of one Stats class told apart
+     * by their String fields: each metric gets one TYPE line followed by all
+     * of its samples, as the exposition format requires. Longs are counters,
+     * the rest gauges.
+     */
+    private static void statsFamily(Writer out, String prefix, Object... all) throws IOException {
+        String[] braces = new String[all.length];
+        for (int i = 0; i < all.length; i++) braces[i] = labels(all[i]);
+        for (Field f : all[0].getClass().getFields()) {
+            if (!numeric(f)) continue;
+            String name = prefix + "_" + snake(f.getName());
+            out.write("# TYPE " + name + (f.getType() == long.class ? " counter\n" : " gauge\n"));
+            for (int i = 0; i < all.length; i++) {
+                try {
+                    out.write(name + braces[i] + " " + f.get(all[i]) + "\n");
+                } catch (IllegalAccessException ignore) { /* public fields only */ }
+            }
+        }
+    }
+
+    /** The String fields of a Stats object as a label set, or "" when it has none. */
+    private static String labels(Object stats) {
+        StringBuilder lb = new StringBuilder();
+        for (Field f : stats.getClass().getFields()) {
+            if (f.getType() != String.class || Modifier.isStatic(f.getModifiers())) continue;
+            try {
+                Object v = f.get(stats);
+                if (v == null) continue;
+                if (lb.length() > 0) lb.append(',');
+                lb.append(snake(f.getName())).append("=\"").append(escape((String) v)).append('"');
+            } catch (IllegalAccessException ignore) { /* public fields only */ }
+        }
+        return lb.length() == 0 ? "" : "{" + lb + "}";
+    }
+
+    private static boolean numeric(Field f) {
+        Class<?> t = f.getType();
+        return !Modifier.isStatic(f.getModifiers()) && (t == int.class || t == long.class || t == double.class);
+    }
+
+    private static String snake(String camel) {
+        StringBuilder sb = new StringBuilder(camel.length() + 4);
+        for (int i = 0; i < camel.length(); i++) {
+            char ch = camel.charAt(i);
+            if (Character.isUpperCase(ch)) sb.append('_').append(Character.toLowerCase(ch));
+            else sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String v) {
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
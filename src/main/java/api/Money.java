@@ -0,0 +1,112 @@
+package api;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * USD amounts as a {@code long} count of cents, the unit of every
+ * {@code DECIMAL(n,2)} money column, so trade arithmetic is exact integer
+ * math that allocates nothing. {@link BigDecimal} only appears at the edges:
+ * {@link #of} for values read over JDBC and {@link #decimal} for binding and
+ * JSON output.
+ *
+ * <p>Amounts are rounded half up to whole cents once, when they enter (a
+ * request price, a column value); nothing rounds after that except
+ * {@link #share}, which splits a cost basis. Arithmetic throws
+ * ArithmeticException on overflow rather than wrap.
+ */
+final class Money {
+    /** "No amount", e.g. an absent price or a missing wallet. */
+    static final long NONE = Long.MIN_VALUE;
+
+    static final String TOO_LARGE = "Amount too large";
+
+    private Money() {}
+
+    /**
+     * Parses a decimal USD amount such as {@code 12}, {@code 12.5} or
+     * {@code 12.345} (rounded to {@code 12.35}). Plain decimals are read
+     * without allocating; exponents go through BigDecimal. Returns
+     * {@link #NONE} for null or malformed input and throws
+     * IllegalArgumentException with {@link #TOO_LARGE} when it does not fit.
+     */
+    static long parse(String raw) {
+        if (raw == null) return NONE;
+        int n = raw.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < n && (raw.charAt(i) == '-' || raw.charAt(i) == '+')) negative = raw.charAt(i++) == '-';
+        long units = 0;
+        int digits = 0;
+        try {
+            for (; i < n && raw.charAt(i) >= '0' && raw.charAt(i) <= '9'; i++, digits++) {
+                units = Math.addExact(Math.multiplyExact(units, 10), raw.charAt(i) - '0');
+            }
+            long cents = 0;
+            int fraction = 0;
+            boolean roundUp = false;
+            if (i < n && raw.charAt(i) == '.') {
+                for (i++; i < n && raw.charAt(i) >= '0' && raw.charAt(i) <= '9'; i++, fraction++) {
+                    int d = raw.charAt(i) - '0';
+                    if (fraction < 2) cents = cents * 10 + d;
+                    else if (fraction == 2) roundUp = d >= 5;
+                }
+            }
+            if (i < n) return parseSlow(raw);
+            if (digits + fraction == 0) return NONE;
+            if (fraction < 2) cents *= fraction == 0 ? 100 : 10;
+            long v = Math.addExact(Math.multiplyExact(units, 100), cents + (roundUp ? 1 : 0));
+            return negative ? -v : v;
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(TOO_LARGE);
+        }
+    }
+
+    private static long parseSlow(String raw) {
+        BigDecimal v;
+        try { v = new BigDecimal(raw.trim()); } catch (NumberFormatException e) { return NONE; }
+        return of(v);
+    }
+
+    /** A column or other decimal value in cents, rounded half up; null gives {@link #NONE}. */
+    static long of(BigDecimal v) {
+        if (v == null) return NONE;
+        try {
+            return v.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(TOO_LARGE);
+        }
+    }
+
+    /** For JDBC binding and JSON output; {@link #NONE} gives null. */
+    static BigDecimal decimal(long cents) {
+        return cents == NONE ? null : BigDecimal.valueOf(cents, 2);
+    }
+
+    static long times(long cents, int qty) {
+        return Math.multiplyExact(cents, qty);
+    }
+
+    static long plus(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    static long minus(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * {@code total * part / whole} rounded half up, e.g. the cost basis left
+     * on {@code part} of {@code whole} tickets. The remainder
+     * {@code total - share} goes with the other tickets, so the two always
+     * add back up to {@code total}.
+     */
+    static long share(long total, long part, long whole) {
+        if (whole <= 0) return 0;
+        long product = Math.multiplyExact(total, part);
+        long q = product / whole;
+        long r = product % whole;
+        if (Math.abs(r) * 2 >= whole) q += Long.signum(product);
+        return q;
+    }
+}
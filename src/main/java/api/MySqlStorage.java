@@ -0,0 +1,802 @@
+package api;
+
+import db.JDBCConnector;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The {@code users}, {@code wallet}, {@code positions}, {@code favorites} and {@code orders} tables in MySQL, through {@link JDBCConnector}. */
+final class MySqlStorage extends Storage {
+    private static final String INSERT_USER = "INSERT INTO users(username, email, password_hash) VALUES(?,?,?)";
+    private static final String INSERT_USER_WITH_ID = "INSERT INTO users(id, username, email, password_hash) VALUES(?,?,?,?)";
+    private static final String SEED_WALLET = "INSERT INTO wallet(user_id, cash_usd) VALUES(?, ?) "
+            + "ON DUPLICATE KEY UPDATE cash_usd = GREATEST(cash_usd, VALUES(cash_usd))";
+    private static final String POSITION_COLUMNS = "id, event_id, event_name, qty, total_cost_usd, min_price_usd, max_price_usd";
+    private static final int ER_DUP_ENTRY = 1062;
+
+    private final Users users = new UserTable();
+    private final Wallets wallets = new WalletTable();
+    private final Positions positions = new PositionTable();
+    private final Favorites favorites = new FavoriteTable();
+    private final Orders orders = new OrderTable();
+
+    @Override String name() { return "mysql"; }
+    @Override Users users() { return users; }
+    @Override Wallets wallets() { return wallets; }
+    @Override Positions positions() { return positions; }
+    @Override Favorites favorites() { return favorites; }
+    @Override Orders orders() { return orders; }
+
+    private static final class UserTable implements Users {
+        @Override
+        public User find(String usernameOrEmail) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement(
+                        "SELECT id, username, email, password_hash FROM users WHERE username = ? OR email = ? LIMIT 1");
+                ps.setString(1, usernameOrEmail);
+                ps.setString(2, usernameOrEmail);
+                rs = ps.executeQuery();
+                return rs.next() ? user(rs) : null;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        @Override
+        public User findById(long id) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement("SELECT id, username, email, password_hash FROM users WHERE id=?");
+                ps.setLong(1, id);
+                rs = ps.executeQuery();
+                return rs.next() ? user(rs) : null;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        /**
+         * Creates the user and its wallet on one connection in one transaction.
+         * The unique keys do the duplicate check, so a taken name or email costs
+         * a single failed INSERT instead of two probes up front.
+         */
+        @Override
+        public long create(long id, String username, String email, String passwordHash, long startingCash)
+                throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+                int col = 1;
+                if (id > 0) {
+                    ps = c.prepareStatement(INSERT_USER_WITH_ID);
+                    ps.setLong(col++, id);
+                } else {
+                    ps = c.prepareStatement(INSERT_USER, PreparedStatement.RETURN_GENERATED_KEYS);
+                }
+                ps.setString(col++, username);
+                ps.setString(col++, email);
+                ps.setString(col, passwordHash);
+                ps.executeUpdate();
+                if (id <= 0) {
+                    rs = ps.getGeneratedKeys();
+                    if (!rs.next()) throw new SQLException("No generated key returned");
+                    id = rs.getLong(1);
+                    JDBCConnector.closeQuiet(rs);
+                    rs = null;
+                }
+                JDBCConnector.closeQuiet(ps);
+
+                // The insert trigger already made the wallet; this only lifts it to the starting cash.
+                ps = c.prepareStatement(SEED_WALLET);
+                ps.setLong(1, id);
+                ps.setBigDecimal(2, Money.decimal(startingCash));
+                ps.executeUpdate();
+                c.commit();
+                return id;
+            } catch (SQLException e) {
+                if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+                String duplicate = duplicateMessage(e);
+                if (duplicate != null) throw new DuplicateUserException(duplicate);
+                throw e;
+            } finally {
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        /** One JDBC batch; INSERT IGNORE returns a key only for rows it actually inserted. Wallets come from the trigger. */
+        @Override
+        public int createAll(List<User> batch) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+                ps = c.prepareStatement(INSERT_USER.replace("INSERT INTO", "INSERT IGNORE INTO"),
+                        PreparedStatement.RETURN_GENERATED_KEYS);
+                for (User u : batch) {
+                    ps.setString(1, u.username);
+                    ps.setString(2, u.email);
+                    ps.setString(3, u.passwordHash);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                int inserted = 0;
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    while (keys.next()) inserted++;
+                }
+                c.commit();
+                return inserted;
+            } catch (SQLException e) {
+                if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+                throw e;
+            } finally {
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        @Override
+        public boolean replacePasswordHash(long id, String expected, String replacement) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            try {
+                c = JDBCConnector.get();
+                // Compare-and-set, so a password changed meanwhile is not overwritten.
+                ps = c.prepareStatement("UPDATE users SET password_hash = ? WHERE id = ? AND password_hash = ?");
+                ps.setString(1, replacement);
+                ps.setLong(2, id);
+                ps.setString(3, expected);
+                return ps.executeUpdate() > 0;
+            } finally {
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        private static User user(ResultSet rs) throws SQLException {
+            return new User(rs.getLong("id"), rs.getString("username"), rs.getString("email"),
+                    rs.getString("password_hash"));
+        }
+    }
+
+    /** The user-facing message for a duplicate username or email, or null for any other error. */
+    private static String duplicateMessage(SQLException e) {
+        if (!"23000".equals(e.getSQLState()) && e.getErrorCode() != ER_DUP_ENTRY) return null;
+        String msg = e.getMessage() == null ? "" : e.getMessage();
+        if (msg.contains("uq_users_email")) return "Email already registered";
+        if (msg.contains("uq_users_username")) return "Username already taken";
+        return null;
+    }
+
+    private static final class WalletTable implements Wallets {
+        @Override
+        public void seed(long userId, long startingCash) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement(SEED_WALLET);
+                ps.setLong(1, userId);
+                ps.setBigDecimal(2, Money.decimal(startingCash));
+                ps.executeUpdate();
+            } finally {
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        @Override
+        public long cash(long userId) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement("SELECT cash_usd FROM wallet WHERE user_id=?");
+                ps.setLong(1, userId);
+                rs = ps.executeQuery();
+                return rs.next() ? Money.of(rs.getBigDecimal(1)) : Money.NONE;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        /** Cash and positions from one statement, so both come from one InnoDB read view. */
+        @Override
+        public Account account(long userId) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement("SELECT w.cash_usd, p.id, p.event_id, p.event_name, p.qty, p.total_cost_usd, "
+                        + "p.min_price_usd, p.max_price_usd FROM wallet w LEFT JOIN positions p ON p.user_id = w.user_id "
+                        + "WHERE w.user_id=? ORDER BY p.id DESC");
+                ps.setLong(1, userId);
+                rs = ps.executeQuery();
+                if (!rs.next()) return null;
+                long cash = Money.of(rs.getBigDecimal(1));
+                List<Position> positions = new ArrayList<>();
+                do {
+                    rs.getLong(2);
+                    if (!rs.wasNull()) positions.add(position(rs, 2));
+                } while (rs.next());
+                return new Account(cash, positions);
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        /** Applies one trade in its own MySQL transaction, locking the wallet and position rows. */
+        @Override
+        public JsonResp<?> trade(TradeOrder order) {
+            long userId = order.userId;
+            Connection c = null;
+            PreparedStatement qCash = null, uCash = null, qPos = null, iPos = null, uPos = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+
+                // Cash
+                qCash = c.prepareStatement("SELECT cash_usd FROM wallet WHERE user_id=? FOR UPDATE");
+                qCash.setLong(1, userId);
+                rs = qCash.executeQuery();
+                if (!rs.next()) {
+                    c.rollback();
+                    ProvisionedUsers.forget(userId);
+                    return new JsonResp<>(false, TradeMath.WALLET_NOT_FOUND);
+                }
+                long cash = Money.of(rs.getBigDecimal(1));
+                rs.close();
+
+                long tradeValue = TradeMath.tradeValue(order);
+                TradeMath.Holding prev = null, next;
+
+                qPos = c.prepareStatement("SELECT " + POSITION_COLUMNS + " FROM positions WHERE user_id=? AND event_id=? FOR UPDATE");
+                if (order.buy) {
+                    if (!TradeMath.canAfford(cash, tradeValue)) {
+                        c.rollback();
+                        return new JsonResp<>(false, TradeMath.INSUFFICIENT_CASH);
+                    }
+                    // upsert position
+                    qPos.setLong(1, userId);
+                    qPos.setString(2, order.eventId);
+                    rs = qPos.executeQuery();
+                    if (rs.next()) {
+                        Position p = position(rs, 1);
+                        prev = p.holding;
+                        next = TradeMath.buy(prev, order, tradeValue);
+                        rs.close();
+
+                        uPos = c.prepareStatement("UPDATE positions SET qty=?, total_cost_usd=?, min_price_usd=?, max_price_usd=? WHERE id=?");
+                        uPos.setInt(1, next.qty);
+                        uPos.setBigDecimal(2, Money.decimal(next.totalCost));
+                        uPos.setBigDecimal(3, Money.decimal(next.minPrice));
+                        uPos.setBigDecimal(4, Money.decimal(next.maxPrice));
+                        uPos.setLong(5, p.id);
+                        uPos.executeUpdate();
+                    } else {
+                        next = TradeMath.buy(null, order, tradeValue);
+                        iPos = c.prepareStatement("INSERT INTO positions(user_id, event_id, event_name, qty, total_cost_usd, min_price_usd, max_price_usd) VALUES(?,?,?,?,?,?,?)");
+                        iPos.setLong(1, userId);
+                        iPos.setString(2, order.eventId);
+                        iPos.setString(3, next.eventName);
+                        iPos.setInt(4, next.qty);
+                        iPos.setBigDecimal(5, Money.decimal(next.totalCost));
+                        iPos.setBigDecimal(6, Money.decimal(next.minPrice));
+                        iPos.setBigDecimal(7, Money.decimal(next.maxPrice));
+                        iPos.executeUpdate();
+                    }
+
+                    uCash = c.prepareStatement("UPDATE wallet SET cash_usd = cash_usd - ? WHERE user_id=?");
+                    uCash.setBigDecimal(1, Money.decimal(tradeValue));
+                    uCash.setLong(2, userId);
+                    uCash.executeUpdate();
+
+                } else { // SELL
+                    qPos.setLong(1, userId);
+                    qPos.setString(2, order.eventId);
+                    rs = qPos.executeQuery();
+                    if (!rs.next()) {
+                        c.rollback();
+                        return new JsonResp<>(false, TradeMath.NO_POSITION);
+                    }
+                    Position p = position(rs, 1);
+                    prev = p.holding;
+                    rs.close();
+
+                    if (order.qty > prev.qty) {
+                        c.rollback();
+                        return new JsonResp<>(false, TradeMath.EXCEEDS_POSITION);
+                    }
+
+                    next = TradeMath.sell(prev, order.qty);
+                    if (next.qty == 0) {
+                        uPos = c.prepareStatement("DELETE FROM positions WHERE id=?");
+                        uPos.setLong(1, p.id);
+                        uPos.executeUpdate();
+                    } else {
+                        uPos = c.prepareStatement("UPDATE positions SET qty=?, total_cost_usd=?, min_price_usd=?, max_price_usd=? WHERE id=?");
+                        uPos.setInt(1, next.qty);
+                        uPos.setBigDecimal(2, Money.decimal(next.totalCost));
+                        uPos.setBigDecimal(3, Money.decimal(next.minPrice));
+                        uPos.setBigDecimal(4, Money.decimal(next.maxPrice));
+                        uPos.setLong(5, p.id);
+                        uPos.executeUpdate();
+                    }
+
+                    uCash = c.prepareStatement("UPDATE wallet SET cash_usd = cash_usd + ? WHERE user_id=?");
+                    uCash.setBigDecimal(1, Money.decimal(tradeValue));
+                    uCash.setLong(2, userId);
+                    uCash.executeUpdate();
+                }
+
+                // Journal while the wallet row is still locked so per-user records keep commit order.
+                long cashAfter = order.buy ? Money.minus(cash, tradeValue) : Money.plus(cash, tradeValue);
+                long seq = TradeJournal.appendIfEnabled(TradeJournal.Entry.of(order, cashAfter, next));
+                try {
+                    c.commit();
+                    WalletVersions.bump(userId);
+                } catch (SQLException e) {
+                    TradeJournal.settle(TradeJournal.appendIfEnabled(TradeJournal.Entry.reversal(order, cash, prev)));
+                    throw e;
+                } finally {
+                    TradeJournal.settle(seq);
+                }
+                awaitJournal(seq);
+                return new JsonResp<>(true, "Done");
+            } catch (Exception e) {
+                if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+                return new JsonResp<>(false, "DB error: " + e.getMessage());
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(qCash);
+                JDBCConnector.closeQuiet(uCash);
+                JDBCConnector.closeQuiet(qPos);
+                JDBCConnector.closeQuiet(iPos);
+                JDBCConnector.closeQuiet(uPos);
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        @Override
+        public void store(List<TradeWriteBehind.Change> changes) throws SQLException {
+            Connection c = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+                TradeWriteBehind.apply(c, changes);
+                c.commit();
+            } catch (SQLException e) {
+                if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+                throw e;
+            } finally {
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        /** Reads wallet and positions in one consistent InnoDB snapshot. */
+        @Override
+        public TradeSnapshot dump(long startSeq) throws SQLException {
+            TradeSnapshot snap = new TradeSnapshot(startSeq, System.currentTimeMillis());
+            Connection c = null;
+            Statement s = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+                s = c.createStatement();
+                s.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+                rs = s.executeQuery("SELECT user_id, cash_usd FROM wallet");
+                while (rs.next()) snap.wallets.put(rs.getLong(1), Money.of(rs.getBigDecimal(2)));
+                rs.close();
+                rs = s.executeQuery("SELECT user_id, event_id, event_name, qty, total_cost_usd, min_price_usd, max_price_usd FROM positions");
+                while (rs.next()) {
+                    snap.positions.computeIfAbsent(rs.getLong(1), k -> new LinkedHashMap<>())
+                            .put(rs.getString(2), new TradeMath.Holding(rs.getString(3), rs.getInt(4),
+                                    Money.of(rs.getBigDecimal(5)), Money.of(rs.getBigDecimal(6)),
+                                    Money.of(rs.getBigDecimal(7))));
+                }
+                c.commit();
+                return snap;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(s);
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+    }
+
+    private static final class PositionTable implements Positions {
+        @Override
+        public List<Position> list(long userId) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement("SELECT " + POSITION_COLUMNS + " FROM positions WHERE user_id=? ORDER BY id DESC");
+                ps.setLong(1, userId);
+                rs = ps.executeQuery();
+                List<Position> list = new ArrayList<>();
+                while (rs.next()) list.add(position(rs, 1));
+                return list;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+    }
+
+    private static final class FavoriteTable implements Favorites {
+        @Override
+        public List<Favorite> list(long userId) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement(
+                        "SELECT event_id,event_name,event_date,venue,min_price_usd,max_price_usd,url " +
+                        "FROM favorites WHERE user_id=? ORDER BY created_at DESC");
+                ps.setLong(1, userId);
+                rs = ps.executeQuery();
+                List<Favorite> list = new ArrayList<>();
+                while (rs.next()) {
+                    list.add(new Favorite(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                            rs.getBigDecimal(5), rs.getBigDecimal(6), rs.getString(7)));
+                }
+                return list;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        @Override
+        public void save(long userId, Favorite f) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement(
+                        "INSERT INTO favorites(user_id, event_id, event_name, event_date, venue, min_price_usd, max_price_usd, url) " +
+                                "VALUES(?,?,?,?,?,?,?,?) " +
+                                "ON DUPLICATE KEY UPDATE event_name=VALUES(event_name), event_date=VALUES(event_date), venue=VALUES(venue), " +
+                                "min_price_usd=VALUES(min_price_usd), max_price_usd=VALUES(max_price_usd), url=VALUES(url)");
+                ps.setLong(1, userId);
+                ps.setString(2, f.eventId);
+                ps.setString(3, f.eventName);
+                ps.setString(4, f.date);
+                ps.setString(5, f.venue);
+                ps.setBigDecimal(6, f.minPrice);
+                ps.setBigDecimal(7, f.maxPrice);
+                ps.setString(8, f.url);
+                ps.executeUpdate();
+            } finally {
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        @Override
+        public void remove(long userId, String eventId) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement("DELETE FROM favorites WHERE user_id=? AND event_id=?");
+                ps.setLong(1, userId);
+                ps.setString(2, eventId);
+                ps.executeUpdate();
+            } finally {
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+    }
+
+    /**
+     * Open orders and their escrow. Every method locks the wallet rows it
+     * touches first, in user id order, then positions, then orders, the same
+     * order {@link WalletTable#trade} uses, so the two never deadlock.
+     */
+    private static final class OrderTable implements Orders {
+        private static final String ORDER_COLUMNS = "id, user_id, side, event_id, event_name, price_cents, qty, remaining, "
+                + "escrow_cost_usd, escrow_min_price_usd, escrow_max_price_usd";
+
+        @Override
+        public String open(LimitOrder o) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+                Map<Long, Long> cash = lockCash(c, List.of(o.userId));
+                Long held = cash.get(o.userId);
+                if (held == null) {
+                    c.rollback();
+                    ProvisionedUsers.forget(o.userId);
+                    return TradeMath.WALLET_NOT_FOUND;
+                }
+                TradeMath.Holding rest = null;
+                if (o.buy) {
+                    long value = Money.times(o.priceCents, o.qty);
+                    if (!TradeMath.canAfford(held, value)) {
+                        c.rollback();
+                        return TradeMath.INSUFFICIENT_CASH;
+                    }
+                    held = Money.minus(held, value);
+                } else {
+                    TradeMath.Holding position = lockHoldings(c, o.eventId, List.of(o.userId)).get(o.userId);
+                    if (position == null) {
+                        c.rollback();
+                        return TradeMath.NO_POSITION;
+                    }
+                    if (o.qty > position.qty) {
+                        c.rollback();
+                        return TradeMath.EXCEEDS_POSITION;
+                    }
+                    rest = TradeMath.sell(position, o.qty);
+                    o.escrow = TradeMath.removed(position, rest);
+                }
+                TradeWriteBehind.apply(c, List.of(new TradeWriteBehind.Change(o.userId, held, o.eventId, rest, 0, null)));
+
+                ps = c.prepareStatement("INSERT INTO orders(user_id, side, event_id, event_name, price_cents, qty, remaining, "
+                        + "escrow_cost_usd, escrow_min_price_usd, escrow_max_price_usd) VALUES(?,?,?,?,?,?,?,?,?,?)",
+                        PreparedStatement.RETURN_GENERATED_KEYS);
+                ps.setLong(1, o.userId);
+                ps.setString(2, o.buy ? "BUY" : "SELL");
+                ps.setString(3, o.eventId);
+                ps.setString(4, o.buy ? o.eventName : o.escrow.eventName);
+                ps.setLong(5, o.priceCents);
+                ps.setInt(6, o.qty);
+                ps.setInt(7, o.remaining);
+                ps.setBigDecimal(8, o.buy ? null : Money.decimal(o.escrow.totalCost));
+                ps.setBigDecimal(9, o.buy ? null : Money.decimal(o.escrow.minPrice));
+                ps.setBigDecimal(10, o.buy ? null : Money.decimal(o.escrow.maxPrice));
+                ps.executeUpdate();
+                rs = ps.getGeneratedKeys();
+                if (!rs.next()) throw new SQLException("No generated key returned");
+                o.id = rs.getLong(1);
+                c.commit();
+                WalletVersions.bump(o.userId);
+                return null;
+            } catch (SQLException e) {
+                if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+                throw e;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        @Override
+        public void settle(LimitOrder taker, OrderBook.Fills fills) throws SQLException {
+            Set<Long> users = new TreeSet<>();
+            Set<Long> ids = new TreeSet<>();
+            users.add(taker.userId);
+            ids.add(taker.id);
+            for (int i = 0; i < fills.size(); i++) {
+                users.add(fills.userId(i));
+                ids.add(fills.orderId(i));
+            }
+            Connection c = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+                Map<Long, Long> cash = lockCash(c, users);
+                Map<Long, TradeMath.Holding> holdings = lockHoldings(c, taker.eventId, users);
+                Map<Long, LimitOrder> orders = lockOrders(c, ids);
+                if (orders.size() != ids.size()) throw new SQLException("Order book is out of step with the orders table");
+                TradeMath.settle(taker, fills, cash, holdings, orders);
+                write(c, taker.eventId, cash, holdings, orders.values());
+                c.commit();
+            } catch (SQLException e) {
+                if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+                throw e;
+            } finally {
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(c);
+            }
+            for (long userId : users) WalletVersions.bump(userId);
+        }
+
+        @Override
+        public boolean cancel(long orderId, long userId) throws SQLException {
+            Connection c = null;
+            try {
+                c = JDBCConnector.get();
+                c.setAutoCommit(false);
+                Map<Long, Long> cash = lockCash(c, List.of(userId));
+                LimitOrder o = lockOrders(c, List.of(orderId)).get(orderId);
+                if (o == null || o.userId != userId) {
+                    c.rollback();
+                    return false;
+                }
+                Map<Long, TradeMath.Holding> holdings = o.buy ? new HashMap<>() : lockHoldings(c, o.eventId, List.of(userId));
+                TradeMath.refund(o, cash, holdings);
+                write(c, o.eventId, cash, holdings, List.of(o));
+                c.commit();
+            } catch (SQLException e) {
+                if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+                throw e;
+            } finally {
+                if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+                JDBCConnector.closeQuiet(c);
+            }
+            WalletVersions.bump(userId);
+            return true;
+        }
+
+        @Override
+        public List<LimitOrder> book(String eventId) throws SQLException {
+            return query("SELECT " + ORDER_COLUMNS + " FROM orders WHERE event_id=? ORDER BY id", eventId);
+        }
+
+        @Override
+        public List<LimitOrder> list(long userId) throws SQLException {
+            return query("SELECT " + ORDER_COLUMNS + " FROM orders WHERE user_id=? ORDER BY id DESC", userId);
+        }
+
+        private static List<LimitOrder> query(String sql, Object key) throws SQLException {
+            Connection c = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                c = JDBCConnector.get();
+                ps = c.prepareStatement(sql);
+                ps.setObject(1, key);
+                rs = ps.executeQuery();
+                List<LimitOrder> list = new ArrayList<>();
+                while (rs.next()) list.add(order(rs));
+                return list;
+            } finally {
+                JDBCConnector.closeQuiet(rs);
+                JDBCConnector.closeQuiet(ps);
+                JDBCConnector.closeQuiet(c);
+            }
+        }
+
+        /** Locks the users' wallet rows in id order and returns their cash; a user without a wallet is left out. */
+        private static Map<Long, Long> lockCash(Connection c, Collection<Long> users) throws SQLException {
+            Map<Long, Long> cash = new HashMap<>();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT user_id, cash_usd FROM wallet WHERE user_id IN (" + params(users.size()) + ") ORDER BY user_id FOR UPDATE")) {
+                int col = 1;
+                for (long userId : users) ps.setLong(col++, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) cash.put(rs.getLong(1), Money.of(rs.getBigDecimal(2)));
+                }
+            }
+            return cash;
+        }
+
+        /** Locks and returns the users' positions in the event; users holding none are left out. */
+        private static Map<Long, TradeMath.Holding> lockHoldings(Connection c, String eventId, Collection<Long> users)
+                throws SQLException {
+            Map<Long, TradeMath.Holding> holdings = new HashMap<>();
+            try (PreparedStatement ps = c.prepareStatement("SELECT user_id, " + POSITION_COLUMNS
+                    + " FROM positions WHERE event_id=? AND user_id IN (" + params(users.size()) + ") ORDER BY user_id FOR UPDATE")) {
+                ps.setString(1, eventId);
+                int col = 2;
+                for (long userId : users) ps.setLong(col++, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) holdings.put(rs.getLong(1), position(rs, 2).holding);
+                }
+            }
+            return holdings;
+        }
+
+        private static Map<Long, LimitOrder> lockOrders(Connection c, Collection<Long> ids) throws SQLException {
+            Map<Long, LimitOrder> orders = new LinkedHashMap<>();
+            try (PreparedStatement ps = c.prepareStatement("SELECT " + ORDER_COLUMNS
+                    + " FROM orders WHERE id IN (" + params(ids.size()) + ") ORDER BY id FOR UPDATE")) {
+                int col = 1;
+                for (long id : ids) ps.setLong(col++, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        LimitOrder o = order(rs);
+                        orders.put(o.id, o);
+                    }
+                }
+            }
+            return orders;
+        }
+
+        /** Writes back settled wallets and positions, then shrinks or deletes the orders, one JDBC batch each. */
+        private static void write(Connection c, String eventId, Map<Long, Long> cash,
+                                  Map<Long, TradeMath.Holding> holdings, Collection<LimitOrder> orders) throws SQLException {
+            List<TradeWriteBehind.Change> changes = new ArrayList<>();
+            for (Map.Entry<Long, Long> w : cash.entrySet()) {
+                changes.add(new TradeWriteBehind.Change(w.getKey(), w.getValue(), eventId,
+                        holdings.get(w.getKey()), 0, null));
+            }
+            TradeWriteBehind.apply(c, changes);
+
+            try (PreparedStatement update = c.prepareStatement("UPDATE orders SET remaining=?, escrow_cost_usd=? WHERE id=?");
+                 PreparedStatement delete = c.prepareStatement("DELETE FROM orders WHERE id=?")) {
+                boolean updates = false, deletes = false;
+                for (LimitOrder o : orders) {
+                    if (o.remaining == 0) {
+                        delete.setLong(1, o.id);
+                        delete.addBatch();
+                        deletes = true;
+                    } else {
+                        update.setInt(1, o.remaining);
+                        update.setBigDecimal(2, o.buy ? null : Money.decimal(o.escrow.totalCost));
+                        update.setLong(3, o.id);
+                        update.addBatch();
+                        updates = true;
+                    }
+                }
+                if (deletes) delete.executeBatch();
+                if (updates) update.executeBatch();
+            }
+        }
+
+        private static LimitOrder order(ResultSet rs) throws SQLException {
+            boolean buy = "BUY".equals(rs.getString("side"));
+            int remaining = rs.getInt("remaining");
+            TradeMath.Holding escrow = buy ? null : new TradeMath.Holding(rs.getString("event_name"), remaining,
+                    Money.of(rs.getBigDecimal("escrow_cost_usd")), Money.of(rs.getBigDecimal("escrow_min_price_usd")),
+                    Money.of(rs.getBigDecimal("escrow_max_price_usd")));
+            return new LimitOrder(rs.getLong("id"), rs.getLong("user_id"), buy, rs.getString("event_id"),
+                    rs.getString("event_name"), rs.getLong("price_cents"), rs.getInt("qty"), remaining, escrow);
+        }
+
+        private static String params(int n) {
+            StringBuilder sb = new StringBuilder(n * 2);
+            for (int i = 0; i < n; i++) sb.append(i == 0 ? "?" : ",?");
+            return sb.toString();
+        }
+    }
+
+    /** One positions row starting at column {@code col}: id, event_id, event_name, qty, total, min, max. */
+    private static Position position(ResultSet rs, int col) throws SQLException {
+        return new Position(rs.getLong(col), rs.getString(col + 1), new TradeMath.Holding(rs.getString(col + 2),
+                rs.getInt(col + 3), Money.of(rs.getBigDecimal(col + 4)), Money.of(rs.getBigDecimal(col + 5)),
+                Money.of(rs.getBigDecimal(col + 6))));
+    }
+}
@@ -0,0 +1,334 @@
+package api;
+
+import java.util.Arrays;
+
+/**
+ * One event's limit order book with price-time priority. Prices are whole
+ * cents. Orders live in parallel primitive arrays indexed by slot and are
+ * chained into a FIFO per price level through {@code next}/{@code prev} slot
+ * links, so resting, matching and cancelling never allocate once the arrays
+ * have grown to the book's working size. Each side keeps its levels in a
+ * sorted array with the best price last, where new orders mostly land.
+ *
+ * <p>Not thread-safe: every book is owned by one {@link Market} shard thread.
+ */
+final class OrderBook {
+    private static final int NONE = -1;
+
+    /**
+     * What one {@link #place} did to resting orders, in matching order: fills,
+     * and resting orders of the same user that were cancelled instead of being
+     * traded against (self-trade prevention). Reused from call to call.
+     */
+    static final class Fills {
+        private int size;
+        private long[] orderId = new long[16];
+        private long[] userId = new long[16];
+        private long[] price = new long[16];
+        private int[] qty = new int[16];
+        private boolean[] cancelled = new boolean[16];
+
+        int size() { return size; }
+        /** The resting order that was hit. */
+        long orderId(int i) { return orderId[i]; }
+        long userId(int i) { return userId[i]; }
+        /** The resting order's price, which is the trade price. */
+        long price(int i) { return price[i]; }
+        int qty(int i) { return qty[i]; }
+        /** True when the resting order was cancelled for {@code qty} rather than filled. */
+        boolean cancelled(int i) { return cancelled[i]; }
+
+        /** Tickets traded, not counting self-trade cancels. */
+        int filledQty() {
+            int total = 0;
+            for (int i = 0; i < size; i++) if (!cancelled[i]) total += qty[i];
+            return total;
+        }
+
+        private void add(long id, long user, long px, int q, boolean cancel) {
+            if (size == qty.length) {
+                int n = size * 2;
+                orderId = Arrays.copyOf(orderId, n);
+                userId = Arrays.copyOf(userId, n);
+                price = Arrays.copyOf(price, n);
+                qty = Arrays.copyOf(qty, n);
+                cancelled = Arrays.copyOf(cancelled, n);
+            }
+            orderId[size] = id;
+            userId[size] = user;
+            price[size] = px;
+            qty[size] = q;
+            cancelled[size] = cancel;
+            size++;
+        }
+    }
+
+    /** Price levels of one side, sorted so the best one is at {@code count - 1}. */
+    private static final class Side {
+        final boolean bids;
+        long[] price = new long[16];
+        long[] qty = new long[16];
+        int[] head = new int[16];
+        int[] tail = new int[16];
+        int count;
+
+        Side(boolean bids) { this.bids = bids; }
+
+        /** Whether {@code a} is a worse price than {@code b} for this side. */
+        boolean worse(long a, long b) { return bids ? a < b : a > b; }
+
+        /** The level holding {@code px}, or {@code -(insertion point) - 1}. */
+        int find(long px) {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long p = price[mid];
+                if (p == px) return mid;
+                if (worse(p, px)) lo = mid + 1;
+                else hi = mid - 1;
+            }
+            return -(lo + 1);
+        }
+
+        int insert(int at, long px) {
+            if (count == price.length) {
+                int n = count * 2;
+                price = Arrays.copyOf(price, n);
+                qty = Arrays.copyOf(qty, n);
+                head = Arrays.copyOf(head, n);
+                tail = Arrays.copyOf(tail, n);
+            }
+            int move = count - at;
+            if (move > 0) {
+                System.arraycopy(price, at, price, at + 1, move);
+                System.arraycopy(qty, at, qty, at + 1, move);
+                System.arraycopy(head, at, head, at + 1, move);
+                System.arraycopy(tail, at, tail, at + 1, move);
+            }
+            price[at] = px;
+            qty[at] = 0;
+            head[at] = NONE;
+            tail[at] = NONE;
+            count++;
+            return at;
+        }
+
+        void remove(int at) {
+            int move = count - at - 1;
+            if (move > 0) {
+                System.arraycopy(price, at + 1, price, at, move);
+                System.arraycopy(qty, at + 1, qty, at, move);
+                System.arraycopy(head, at + 1, head, at, move);
+                System.arraycopy(tail, at + 1, tail, at, move);
+            }
+            count--;
+        }
+    }
+
+    private final Side bids = new Side(true);
+    private final Side asks = new Side(false);
+
+    // Order slots; a free slot is chained through next.
+    private long[] id;
+    private long[] user;
+    private long[] price;
+    private int[] remaining;
+    private boolean[] buy;
+    private int[] next;
+    private int[] prev;
+    private int free = NONE;
+    private int used;
+    private int open;
+
+    // Order id -> slot, open addressing with linear probing; key 0 marks an empty cell.
+    private long[] indexKeys;
+    private int[] indexSlots;
+
+    OrderBook() {
+        this(64);
+    }
+
+    OrderBook(int expectedOrders) {
+        int n = Math.max(16, expectedOrders);
+        id = new long[n];
+        user = new long[n];
+        price = new long[n];
+        remaining = new int[n];
+        buy = new boolean[n];
+        next = new int[n];
+        prev = new int[n];
+        int cells = Integer.highestOneBit(n * 2 - 1) << 1;
+        indexKeys = new long[cells];
+        indexSlots = new int[cells];
+    }
+
+    /**
+     * Matches an incoming limit order against the other side, best price
+     * first and oldest first within a price, then rests what is left.
+     * {@code out} is cleared and receives every fill and self-trade cancel.
+     * Returns the quantity left resting, 0 when it filled completely.
+     *
+     * @param orderId a positive id, unique among this book's open orders
+     */
+    int place(long orderId, long userId, boolean isBuy, long priceCents, int qty, Fills out) {
+        out.size = 0;
+        Side other = isBuy ? asks : bids;
+        int left = qty;
+        while (left > 0 && other.count > 0) {
+            int level = other.count - 1;
+            long levelPrice = other.price[level];
+            if (isBuy ? levelPrice > priceCents : levelPrice < priceCents) break;
+            int slot = other.head[level];
+            if (user[slot] == userId) {
+                out.add(id[slot], userId, levelPrice, remaining[slot], true);
+                other.qty[level] -= remaining[slot];
+                unlink(other, level, slot);
+                continue;
+            }
+            int traded = Math.min(left, remaining[slot]);
+            out.add(id[slot], user[slot], levelPrice, traded, false);
+            left -= traded;
+            remaining[slot] -= traded;
+            other.qty[level] -= traded;
+            if (remaining[slot] == 0) unlink(other, level, slot);
+        }
+        if (left > 0) rest(orderId, userId, isBuy, priceCents, left);
+        return left;
+    }
+
+    /** Removes an open order of {@code userId}; returns the quantity it still had, or 0 if there is no such order. */
+    int cancel(long orderId, long userId) {
+        int slot = lookup(orderId);
+        if (slot == NONE || user[slot] != userId) return 0;
+        Side side = buy[slot] ? bids : asks;
+        int level = side.find(price[slot]);
+        int qty = remaining[slot];
+        side.qty[level] -= qty;
+        unlink(side, level, slot);
+        return qty;
+    }
+
+    /** Highest bid in cents, or 0 when there is none. */
+    long bestBid() { return bids.count == 0 ? 0 : bids.price[bids.count - 1]; }
+
+    /** Lowest ask in cents, or 0 when there is none. */
+    long bestAsk() { return asks.count == 0 ? 0 : asks.price[asks.count - 1]; }
+
+    int openOrders() { return open; }
+
+    /**
+     * Copies up to {@code prices.length} levels of one side, best first, into
+     * {@code prices} and {@code qtys}; returns how many were copied.
+     */
+    int depth(boolean bidSide, long[] prices, long[] qtys) {
+        Side side = bidSide ? bids : asks;
+        int n = Math.min(prices.length, side.count);
+        for (int i = 0; i < n; i++) {
+            prices[i] = side.price[side.count - 1 - i];
+            qtys[i] = side.qty[side.count - 1 - i];
+        }
+        return n;
+    }
+
+    private void rest(long orderId, long userId, boolean isBuy, long priceCents, int qty) {
+        int slot = allocate();
+        id[slot] = orderId;
+        user[slot] = userId;
+        price[slot] = priceCents;
+        remaining[slot] = qty;
+        buy[slot] = isBuy;
+        Side side = isBuy ? bids : asks;
+        int level = side.find(priceCents);
+        if (level < 0) level = side.insert(-level - 1, priceCents);
+        int tail = side.tail[level];
+        prev[slot] = tail;
+        next[slot] = NONE;
+        if (tail == NONE) side.head[level] = slot;
+        else next[tail] = slot;
+        side.tail[level] = slot;
+        side.qty[level] += qty;
+        index(orderId, slot);
+        open++;
+    }
+
+    /** Takes the slot out of its level's queue, drops the level when it empties, and frees the slot. */
+    private void unlink(Side side, int level, int slot) {
+        int p = prev[slot], n = next[slot];
+        if (p == NONE) side.head[level] = n;
+        else next[p] = n;
+        if (n == NONE) side.tail[level] = p;
+        else prev[n] = p;
+        if (side.head[level] == NONE) side.remove(level);
+        unindex(id[slot]);
+        next[slot] = free;
+        free = slot;
+        open--;
+    }
+
+    private int allocate() {
+        if (free != NONE) {
+            int slot = free;
+            free = next[slot];
+            return slot;
+        }
+        if (used == id.length) {
+            int n = used * 2;
+            id = Arrays.copyOf(id, n);
+            user = Arrays.copyOf(user, n);
+            price = Arrays.copyOf(price, n);
+            remaining = Arrays.copyOf(remaining, n);
+            buy = Arrays.copyOf(buy, n);
+            next = Arrays.copyOf(next, n);
+            prev = Arrays.copyOf(prev, n);
+        }
+        return used++;
+    }
+
+    private int cell(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (indexKeys.length - 1);
+    }
+
+    private int lookup(long orderId) {
+        int mask = indexKeys.length - 1;
+        for (int i = cell(orderId); ; i = (i + 1) & mask) {
+            long k = indexKeys[i];
+            if (k == orderId) return indexSlots[i];
+            if (k == 0) return NONE;
+        }
+    }
+
+    private void index(long orderId, int slot) {
+        if ((open + 1) * 2 > indexKeys.length) {
+            long[] keys = indexKeys;
+            int[] slots = indexSlots;
+            indexKeys = new long[keys.length * 2];
+            indexSlots = new int[keys.length * 2];
+            for (int i = 0; i < keys.length; i++) if (keys[i] != 0) put(keys[i], slots[i]);
+        }
+        put(orderId, slot);
+    }
+
+    private void put(long key, int slot) {
+        int mask = indexKeys.length - 1;
+        int i = cell(key);
+        while (indexKeys[i] != 0) i = (i + 1) & mask;
+        indexKeys[i] = key;
+        indexSlots[i] = slot;
+    }
+
+    /** Backward-shift deletion, as in {@link LongMap}, so probes never need tombstones. */
+    private void unindex(long key) {
+        int mask = indexKeys.length - 1;
+        int i = cell(key);
+        while (indexKeys[i] != key) i = (i + 1) & mask;
+        for (int j = (i + 1) & mask; indexKeys[j] != 0; j = (j + 1) & mask) {
+            int home = cell(indexKeys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                indexKeys[i] = indexKeys[j];
+                indexSlots[i] = indexSlots[j];
+                i = j;
+            }
+        }
+        indexKeys[i] = 0;
+    }
+}
@@ -0,0 +1,141 @@
+package api;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Limit orders between users (see {@link Market}). {@code GET ?eventId=}
+ * returns the event's book depth, a plain {@code GET} the caller's open
+ * orders. {@code POST {eventId, eventName, side, qty, priceUsd}} places an
+ * order; {@code POST {action: "cancel", eventId, orderId}} cancels one.
+ * Everything but the book depth needs a session token; a request without one
+ * gets a 401 rather than acting for a {@code userId} it names.
+ */
+@WebServlet(name = "OrderServlet", urlPatterns = {"/orders"}, asyncSupported = true)
+public class OrderServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        RequestExecutor.run(req, resp, "orders", Bulkhead.DB, this::handleGet);
+    }
+
+    private void handleGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        resp.setContentType("application/json;charset=UTF-8");
+
+        String eventId = req.getParameter("eventId");
+        if (eventId != null && !eventId.isEmpty()) {
+            write(resp, Market.depth(eventId));
+            return;
+        }
+
+        Long userId = SessionFilter.userId(req);
+        if (userId == null) {
+            loginRequired(resp);
+            return;
+        }
+        try {
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (LimitOrder o : Storage.get().orders().list(userId)) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("orderId", o.id);
+                m.put("eventId", o.eventId);
+                m.put("eventName", o.eventName);
+                m.put("side", o.buy ? "BUY" : "SELL");
+                m.put("priceUsd", o.price());
+                m.put("qty", o.qty);
+                m.put("remaining", o.remaining);
+                list.add(m);
+            }
+            write(resp, JsonResp.ok("OK", list));
+        } catch (Exception e) {
+            write(resp, JsonResp.error("DB error: " + e.getMessage()));
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        RequestExecutor.run(req, resp, "orders", Bulkhead.DB, this::handlePost);
+    }
+
+    private void handlePost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        resp.setContentType("application/json;charset=UTF-8");
+
+        try {
+            Map<String, String> body;
+            try {
+                body = JsonParser.parseObject(req.getReader(), new HashMap<>());
+            } catch (IllegalArgumentException e) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                write(resp, JsonResp.error("Invalid JSON payload: " + e.getMessage()));
+                return;
+            }
+            if (body.isEmpty()) {
+                write(resp, JsonResp.error("Missing request body"));
+                return;
+            }
+
+            Long userId = SessionFilter.userId(req);
+            if (userId == null) {
+                loginRequired(resp);
+                return;
+            }
+            try {
+                DemoUser.seedWallet(userId, DemoUser.DEFAULT_CASH);
+            } catch (Exception e) {
+                write(resp, JsonResp.error("Unable to prepare demo wallet: " + e.getMessage()));
+                return;
+            }
+
+            if ("cancel".equalsIgnoreCase(body.getOrDefault("action", ""))) {
+                String eventId = body.getOrDefault("eventId", "");
+                long orderId;
+                try { orderId = Long.parseLong(body.get("orderId")); } catch (Exception e) { orderId = 0; }
+                if (eventId.isEmpty() || orderId <= 0) {
+                    write(resp, JsonResp.error("eventId and orderId are required"));
+                    return;
+                }
+                answer(resp, Market.cancel(eventId, orderId, userId));
+                return;
+            }
+
+            LimitOrder order;
+            try {
+                order = LimitOrder.parse(userId, body);
+            } catch (IllegalArgumentException e) {
+                write(resp, JsonResp.error(e.getMessage()));
+                return;
+            }
+            answer(resp, Market.place(order));
+        } catch (Exception e) {
+            write(resp, JsonResp.error("Server error: " + e.getMessage()));
+        }
+    }
+
+    /** Writes a market result, as 202 or 504 when its outcome is still pending or unknown. */
+    private void answer(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
+        if (Market.PENDING.equals(jr.message)) resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        else if (Market.UNKNOWN.equals(jr.message)) resp.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+        write(resp, jr);
+    }
+
+    private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
+        try (PrintWriter out = resp.getWriter()) { jr.writeTo(out); }
+    }
+
+    private void loginRequired(HttpServletResponse resp) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        resp.setHeader("WWW-Authenticate", "Bearer");
+        write(resp, JsonResp.error("Login required"));
+    }
+}
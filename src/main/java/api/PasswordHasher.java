@@ -0,0 +1,327 @@
+package api;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Password hashing for {@code /login} and {@code /register}.
+ *
+ * <p>Stored hashes name their algorithm, so rows written by an older one keep
+ * verifying and are upgraded on the next successful login:
+ * <ul>
+ *   <li>{@code $pbkdf2-sha256$<iterations>$<salt>$<hash>}: salted PBKDF2, the
+ *       current default ({@code tt.password.iterations}).</li>
+ *   <li>64 hex digits with no prefix: the original unsalted SHA-256.</li>
+ * </ul>
+ *
+ * <p>Hashing is deliberately slow, so servlets hand it to a fixed pool of
+ * {@code tt.password.threads} workers with a queue of
+ * {@code tt.password.queue}. When the queue is full, or a task has waited
+ * {@code tt.password.waitMs}, the caller gets {@link Busy} and answers 503
+ * instead of tying up a request thread.
+ */
+final class PasswordHasher {
+    private static final int THREADS = Math.max(1, Integer.getInteger("tt.password.threads",
+            Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE = Math.max(1, Integer.getInteger("tt.password.queue", THREADS * 4));
+    private static final long WAIT_MS = Long.getLong("tt.password.waitMs", 2_000L);
+
+    /** A stored-hash format. */
+    interface Algorithm {
+        /** Whether {@code stored} was written by this algorithm. */
+        boolean owns(String stored);
+
+        String hash(String password);
+
+        boolean verify(String password, String stored);
+
+        /** True when {@code stored} is weaker than what {@link #hash} writes now. */
+        boolean outdated(String stored);
+    }
+
+    /** Thrown when the hashing pool cannot take or finish the work in time. */
+    static final class Busy extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Busy(String message) { super(message); }
+    }
+
+    /** A login check; {@code upgraded} is the hash to store instead, when the old one is outdated. */
+    static final class Verification {
+        final boolean matches;
+        final String upgraded;
+
+        Verification(boolean matches, String upgraded) {
+            this.matches = matches;
+            this.upgraded = upgraded;
+        }
+    }
+
+    /** Counters since startup; nanos are time spent hashing, waits are time queued. */
+    static final class Stats {
+        public int threads;
+        public int queued;
+        public int active;
+        public long completed;
+        public long rejected;
+        public long timeouts;
+        public long upgrades;
+        public long hashNanosTotal;
+        public long hashNanosMax;
+        public long waitNanosTotal;
+        public long waitNanosMax;
+    }
+
+    static final Algorithm PBKDF2 = new Pbkdf2(Integer.getInteger("tt.password.iterations", 310_000));
+    static final Algorithm LEGACY_SHA256 = new LegacySha256();
+    private static final Algorithm[] KNOWN = {PBKDF2, LEGACY_SHA256};
+    private static final Algorithm CURRENT = PBKDF2;
+
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(QUEUE), r -> {
+                Thread t = new Thread(r, "password-hash");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final LongAdder TIMEOUTS = new LongAdder();
+    private static final LongAdder UPGRADES = new LongAdder();
+    private static final LongAdder HASH_NANOS = new LongAdder();
+    private static final AtomicLong HASH_NANOS_MAX = new AtomicLong();
+    private static final LongAdder WAIT_NANOS = new LongAdder();
+    private static final AtomicLong WAIT_NANOS_MAX = new AtomicLong();
+
+    private PasswordHasher() {}
+
+    /** Hashes a new password on the pool. */
+    static String hash(String password) throws Busy {
+        return run(() -> hashInline(password));
+    }
+
+    /** Checks a password against its stored hash on the pool, rehashing it when outdated. */
+    static Verification verify(String password, String stored) throws Busy {
+        return run(() -> {
+            if (!verifyInline(password, stored)) return new Verification(false, null);
+            if (!outdated(stored)) return new Verification(true, null);
+            UPGRADES.increment();
+            return new Verification(true, CURRENT.hash(password));
+        });
+    }
+
+    /**
+     * Verifies {@code password} against a throwaway hash on the pool and
+     * discards the result, so a login for an unknown user takes as long as
+     * one with a wrong password.
+     */
+    static void verifyNothing(String password) throws Busy {
+        run(() -> verifyInline(password, Dummy.HASH));
+    }
+
+    /** Built on first use, so startup does not pay for it. */
+    private static final class Dummy {
+        static final String HASH = hashInline(UUID.randomUUID().toString());
+    }
+
+    /** Hashes on the calling thread; for startup and admin paths that are not request-bound. */
+    static String hashInline(String password) {
+        return CURRENT.hash(password == null ? "" : password);
+    }
+
+    /** Verifies on the calling thread; false for unknown formats. */
+    static boolean verifyInline(String password, String stored) {
+        if (password == null || stored == null) return false;
+        for (Algorithm a : KNOWN) {
+            if (a.owns(stored)) return a.verify(password, stored);
+        }
+        return false;
+    }
+
+    /** Whether {@code stored} is in any format this class can verify. */
+    static boolean recognizes(String stored) {
+        if (stored == null) return false;
+        for (Algorithm a : KNOWN) {
+            if (a.owns(stored)) return true;
+        }
+        return false;
+    }
+
+    static boolean outdated(String stored) {
+        return !CURRENT.owns(stored) || CURRENT.outdated(stored);
+    }
+
+    static void shutdown() {
+        POOL.shutdownNow();
+    }
+
+    static Stats stats() {
+        Stats s = new Stats();
+        s.threads = THREADS;
+        s.queued = POOL.getQueue().size();
+        s.active = POOL.getActiveCount();
+        s.completed = POOL.getCompletedTaskCount();
+        s.rejected = REJECTED.sum();
+        s.timeouts = TIMEOUTS.sum();
+        s.upgrades = UPGRADES.sum();
+        s.hashNanosTotal = HASH_NANOS.sum();
+        s.hashNanosMax = HASH_NANOS_MAX.get();
+        s.waitNanosTotal = WAIT_NANOS.sum();
+        s.waitNanosMax = WAIT_NANOS_MAX.get();
+        return s;
+    }
+
+    private static <T> T run(Callable<T> work) throws Busy {
+        long queuedAt = System.nanoTime();
+        Future<T> f;
+        try {
+            f = POOL.submit(() -> {
+                long start = System.nanoTime();
+                record(WAIT_NANOS, WAIT_NANOS_MAX, start - queuedAt);
+                try {
+                    return work.call();
+                } finally {
+                    record(HASH_NANOS, HASH_NANOS_MAX, System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            throw new Busy("Too many sign-ins in progress, please retry");
+        }
+        try {
+            return f.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            f.cancel(true);
+            TIMEOUTS.increment();
+            throw new Busy("Sign-in timed out, please retry");
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new Busy("Interrupted while hashing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void record(LongAdder total, AtomicLong max, long nanos) {
+        total.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** Salted PBKDF2-HMAC-SHA256 with a per-thread key factory. */
+    static final class Pbkdf2 implements Algorithm {
+        private static final String PREFIX = "$pbkdf2-sha256$";
+        private static final int SALT_BYTES = 16;
+        private static final int KEY_BITS = 256;
+        private static final SecureRandom RANDOM = new SecureRandom();
+        private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+            try {
+                return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("PBKDF2WithHmacSHA256 unavailable", e);
+            }
+        });
+
+        private final int iterations;
+
+        Pbkdf2(int iterations) { this.iterations = Math.max(1_000, iterations); }
+
+        @Override
+        public boolean owns(String stored) { return stored.startsWith(PREFIX); }
+
+        @Override
+        public String hash(String password) {
+            byte[] salt = new byte[SALT_BYTES];
+            RANDOM.nextBytes(salt);
+            Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+            return PREFIX + iterations + "$" + b64.encodeToString(salt) + "$"
+                    + b64.encodeToString(derive(password, salt, iterations));
+        }
+
+        @Override
+        public boolean verify(String password, String stored) {
+            String[] parts = stored.substring(PREFIX.length()).split("\\$");
+            if (parts.length != 3) return false;
+            try {
+                int n = Integer.parseInt(parts[0]);
+                byte[] salt = Base64.getDecoder().decode(parts[1]);
+                byte[] expected = Base64.getDecoder().decode(parts[2]);
+                if (n < 1 || expected.length == 0) return false;
+                return MessageDigest.isEqual(expected, derive(password, salt, n));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public boolean outdated(String stored) {
+            int end = stored.indexOf('$', PREFIX.length());
+            try {
+                return end < 0 || Integer.parseInt(stored.substring(PREFIX.length(), end)) < iterations;
+            } catch (NumberFormatException e) {
+                return true;
+            }
+        }
+
+        private static byte[] derive(String password, byte[] salt, int iterations) {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+            try {
+                return FACTORY.get().generateSecret(spec).getEncoded();
+            } catch (InvalidKeySpecException e) {
+                throw new IllegalStateException("PBKDF2 failed", e);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+    }
+
+    /** The original unsalted SHA-256 hex; verify-only, upgraded on next login. */
+    static final class LegacySha256 implements Algorithm {
+        private static final Charset PLATFORM = Charset.defaultCharset();
+
+        @Override
+        public boolean owns(String stored) {
+            if (stored.length() != 64) return false;
+            for (int i = 0; i < 64; i++) {
+                char ch = stored.charAt(i);
+                if ((ch < '0' || ch > '9') && (ch < 'a' || ch > 'f')) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String hash(String password) { return HashUtil.sha256(password); }
+
+        @Override
+        public boolean verify(String password, String stored) {
+            byte[] s = stored.getBytes(StandardCharsets.US_ASCII);
+            if (MessageDigest.isEqual(s, HashUtil.sha256(password).getBytes(StandardCharsets.US_ASCII))) return true;
+            // Old rows were hashed with the platform charset; only differs for non-ASCII passwords.
+            if (PLATFORM.equals(StandardCharsets.UTF_8)) return false;
+            String platformHash = HashUtil.hex(HashUtil.sha256(password.getBytes(PLATFORM)));
+            return MessageDigest.isEqual(s, platformHash.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public boolean outdated(String stored) { return true; }
+    }
+}
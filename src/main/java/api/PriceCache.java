@@ -0,0 +1,321 @@
+package api;
+
+import jakarta.servlet.ServletContext;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-side ticket prices for {@code /trade}, so trades are priced from
+ * what the server fetched rather than from numbers in the request body.
+ *
+ * <p>Quotes are the {@code price.min}/{@code price.max} of the event's detail
+ * JSON, keyed by event id. A BUY is priced at {@code min} and a SELL at
+ * {@code max}, as the pages did. Quotes come from the configured
+ * {@link EventDetailSource} the first time an event is traded, and from every
+ * detail {@link EventDetailCache} fetches. A background pass every
+ * {@code tt.price.refreshMs} re-fetches quotes at least that old for events
+ * traded within {@code tt.price.idleMs} and forgets the rest. A quote older
+ * than {@code tt.price.maxAgeMs} is never traded on; it is fetched again
+ * first, and the trade is refused if that fails.
+ *
+ * <p>With {@code -Dtt.price.check=enforce} (the default) a trade whose client
+ * price differs from the quote by more than {@code tt.price.tolerancePct}
+ * percent is rejected, and accepted trades execute at the quote.
+ * {@code off} trusts client prices as before.
+ */
+final class PriceCache {
+    private static final boolean ENFORCE = !"off".equalsIgnoreCase(System.getProperty("tt.price.check", "enforce"));
+    private static final long REFRESH_MS = Long.getLong("tt.price.refreshMs", 60_000L);
+    private static final long MAX_AGE_MS = Long.getLong("tt.price.maxAgeMs", 300_000L);
+    private static final long IDLE_MS = Long.getLong("tt.price.idleMs", 3_600_000L);
+    private static final int MAX_ENTRIES = Integer.getInteger("tt.price.maxEntries", 100_000);
+    private static final long TOLERANCE_BP = Math.max(0, Money.parse(System.getProperty("tt.price.tolerancePct", "2"))); // hundredths of a percent
+    private static final long WAIT_MS = Long.getLong("tt.price.waitMs", 5_000L);
+
+    static final String UNAVAILABLE = "Price unavailable; cannot trade this event";
+
+    private static volatile PriceCache instance;
+
+    /** Counters since startup. */
+    static final class Stats {
+        public int size;
+        public long hits;
+        public long loads;
+        public long expiredLoads;
+        public long observed;
+        public long refreshes;
+        public long refreshErrors;
+        public long evictions;
+        public long rejected;
+    }
+
+    /** An event's quote in cents; {@code min}/{@code max} are {@link Money#NONE} when the event has no price. */
+    static final class Quote {
+        final long min;
+        final long max;
+        final long fetchedAt; // System.nanoTime()
+        volatile long lastUsed;
+
+        Quote(long min, long max, long fetchedAt) {
+            this.min = min;
+            this.max = max;
+            this.fetchedAt = fetchedAt;
+            this.lastUsed = fetchedAt;
+        }
+
+        boolean priced() { return min != Money.NONE && max != Money.NONE; }
+    }
+
+    private final EventDetailSource source;
+    private final ConcurrentHashMap<String, Quote> quotes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Quote>> inFlight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder expiredLoads = new LongAdder();
+    private final LongAdder observed = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshErrors = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private PriceCache(EventDetailSource source) {
+        this.source = source;
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "price-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshAll, REFRESH_MS, REFRESH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    static boolean enforced() { return ENFORCE; }
+
+    static synchronized void start(ServletContext ctx) {
+        if (instance == null && ENFORCE) instance = new PriceCache(EventDetailSource.fromConfig(ctx));
+    }
+
+    static synchronized void stop() {
+        if (instance != null) {
+            instance.refresher.shutdownNow();
+            instance = null;
+        }
+    }
+
+    static Stats stats() {
+        PriceCache c = instance;
+        return c == null ? null : c.snapshot();
+    }
+
+    /** Records the prices in detail JSON fetched elsewhere, so an upstream answer is never wasted. */
+    static void observe(String eventId, String json, long fetchedAt) {
+        PriceCache c = instance;
+        if (c == null || json == null) return;
+        Quote old = c.quotes.get(eventId);
+        if (old == null && c.quotes.size() >= MAX_ENTRIES) return;
+        if (old != null && old.fetchedAt - fetchedAt >= 0) return;
+        Quote q;
+        try {
+            q = parse(json, fetchedAt);
+        } catch (IllegalArgumentException e) {
+            return; // not ours to report; /eventDetail passes the JSON through as is
+        }
+        if (old != null) q.lastUsed = old.lastUsed;
+        c.store(eventId, q);
+        c.observed.increment();
+    }
+
+    /** The price a position in {@code eventId} is marked at (the quote's {@code max}), or {@link Money#NONE} without a quote. */
+    static long mark(String eventId) {
+        PriceCache c = instance;
+        return c == null ? Money.NONE : mark(c.quotes.get(eventId));
+    }
+
+    private static long mark(Quote q) {
+        return q == null || !q.priced() ? Money.NONE : q.max;
+    }
+
+    /**
+     * Checks the client's prices against the quote and returns the order
+     * repriced at it. Throws IllegalArgumentException with a client-facing
+     * message when the event has no usable price or the client's is off.
+     */
+    static TradeOrder reprice(TradeOrder order) {
+        PriceCache c = instance;
+        if (c == null) return order;
+        if (!EventDetailSource.validId(order.eventId)) {
+            c.rejected.increment();
+            throw new IllegalArgumentException(UNAVAILABLE);
+        }
+        Quote q = c.quote(order.eventId);
+        if (q == null || !q.priced()) {
+            c.rejected.increment();
+            throw new IllegalArgumentException(UNAVAILABLE);
+        }
+        long server = order.buy ? q.min : q.max;
+        long client = order.buy ? order.buyPrice : order.sellPrice;
+        if (!withinTolerance(client, server)) {
+            c.rejected.increment();
+            throw new IllegalArgumentException("Price changed to " + Money.decimal(server).toPlainString()
+                    + " USD; refresh the event and try again");
+        }
+        try {
+            Money.times(Math.max(q.min, q.max), order.qty);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(Money.TOO_LARGE);
+        }
+        return new TradeOrder(order.userId, order.buy, order.eventId, order.eventName, order.qty, q.min, q.max);
+    }
+
+    /** Whether {@code client} is within {@code tt.price.tolerancePct} of {@code server}, both in cents. */
+    static boolean withinTolerance(long client, long server) {
+        try {
+            return Math.multiplyExact(Math.abs(client - server), 10_000L) <= Math.multiplyExact(server, TOLERANCE_BP);
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    /** The event's quote, fetched first when missing or older than the age limit; null when it cannot be had. */
+    private Quote quote(String eventId) {
+        long now = System.nanoTime();
+        Quote q = quotes.get(eventId);
+        if (q != null && now - q.fetchedAt < TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MS)) {
+            q.lastUsed = now;
+            hits.increment();
+            return q;
+        }
+        if (q == null) loads.increment();
+        else expiredLoads.increment();
+        try {
+            Quote fresh = load(eventId);
+            fresh.lastUsed = now;
+            return fresh;
+        } catch (IOException e) {
+            Metrics.error("price_cache", "Price fetch for " + eventId + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Fetches through the single-flight table, waiting for a call already under way. */
+    private Quote load(String eventId) throws IOException {
+        CompletableFuture<Quote> mine = new CompletableFuture<>();
+        CompletableFuture<Quote> running = inFlight.putIfAbsent(eventId, mine);
+        if (running == null) {
+            fetchInto(eventId, mine);
+            running = mine;
+        }
+        try {
+            return running.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause.getMessage(), cause);
+        } catch (TimeoutException ex) {
+            throw new IOException("Timed out waiting for the price of " + eventId);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the price of " + eventId);
+        }
+    }
+
+    private void fetchInto(String eventId, CompletableFuture<Quote> future) {
+        try {
+            String json = source.fetch(eventId);
+            Quote q = parse(json, System.nanoTime());
+            if (json == null) {
+                // Unknown ids are neither kept nor refreshed, so made-up ones cannot pile up upstream calls.
+                forget(eventId);
+            } else if (quotes.containsKey(eventId) || quotes.size() < MAX_ENTRIES) {
+                // Unpriced events are kept, so they cost one fetch per refresh rather than per trade.
+                store(eventId, q);
+            }
+            future.complete(q);
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        } finally {
+            inFlight.remove(eventId, future);
+        }
+    }
+
+    /** Replaces the event's quote, re-marking its holders' portfolios and pushing it to followers when it moved. */
+    private void store(String eventId, Quote q) {
+        Quote old = quotes.put(eventId, q);
+        boolean markMoved = mark(old) != mark(q);
+        if (markMoved) Valuation.repriced(eventId);
+        if (q.priced() && (markMoved || old.min != q.min)) LiveUpdates.priceChanged(eventId, q.min, q.max);
+    }
+
+    /** Drops the quote of an event that no longer exists, un-marking its holders if it was priced. */
+    private void forget(String eventId) {
+        Quote old = quotes.remove(eventId);
+        if (mark(old) != Money.NONE) Valuation.repriced(eventId);
+    }
+
+    /** One pass of the refresher: drops idle quotes and re-fetches the ones due. */
+    private void refreshAll() {
+        long now = System.nanoTime();
+        long due = TimeUnit.MILLISECONDS.toNanos(REFRESH_MS);
+        long idle = TimeUnit.MILLISECONDS.toNanos(IDLE_MS);
+        for (Map.Entry<String, Quote> e : quotes.entrySet()) {
+            Quote q = e.getValue();
+            if (now - q.lastUsed >= idle) {
+                if (quotes.remove(e.getKey(), q)) evictions.increment();
+                continue;
+            }
+            if (now - q.fetchedAt < due || inFlight.containsKey(e.getKey())) continue;
+            CompletableFuture<Quote> mine = new CompletableFuture<>();
+            if (inFlight.putIfAbsent(e.getKey(), mine) != null) continue;
+            refreshes.increment();
+            fetchInto(e.getKey(), mine);
+            Quote fresh = quotes.get(e.getKey());
+            if (mine.isCompletedExceptionally()) refreshErrors.increment();
+            else if (fresh != null && fresh != q) fresh.lastUsed = q.lastUsed;
+        }
+    }
+
+    /** The {@code price} object of detail JSON; a missing or negative (-1) price means none, 0 is free. */
+    static Quote parse(String json, long fetchedAt) {
+        if (json == null) return new Quote(Money.NONE, Money.NONE, fetchedAt);
+        Map<String, String> detail = JsonParser.parseObject(json, new HashMap<>());
+        Map<String, String> price = JsonParser.parseObject(detail.get("price"), new HashMap<>());
+        long min = amount(price.get("min"));
+        long max = amount(price.get("max"));
+        if (min == Money.NONE) min = max;
+        if (max == Money.NONE) max = min;
+        return new Quote(min, max, fetchedAt);
+    }
+
+    private static long amount(String raw) {
+        try {
+            long v = Money.parse(raw);
+            return v < 0 ? Money.NONE : v;
+        } catch (IllegalArgumentException e) {
+            return Money.NONE;
+        }
+    }
+
+    private Stats snapshot() {
+        Stats s = new Stats();
+        s.size = quotes.size();
+        s.hits = hits.sum();
+        s.loads = loads.sum();
+        s.expiredLoads = expiredLoads.sum();
+        s.observed = observed.sum();
+        s.refreshes = refreshes.sum();
+        s.refreshErrors = refreshErrors.sum();
+        s.evictions = evictions.sum();
+        s.rejected = rejected.sum();
+        return s;
+    }
+}
@@ -0,0 +1,132 @@
+package api;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Users whose wallet row this node has already provisioned, so
+ * {@link DemoUser#seedWallet} and {@link DemoUser#ensure} can skip their
+ * upsert after the first success.
+ *
+ * <p>A fixed-size, lock-free open-addressing table of primitive user ids
+ * (capacity {@code tt.provisioned.maxUsers}). Probing is bounded; when every
+ * slot a key may use is taken, one is overwritten, so the set never grows
+ * and a forgotten user just costs one more upsert. Entries are dropped with
+ * {@link #forget} whenever a wallet turns out to be missing.
+ */
+final class ProvisionedUsers {
+    private static final int MAX_USERS = Integer.getInteger("tt.provisioned.maxUsers", 262_144);
+    private static final int MAX_PROBE = 8;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+
+    /** Counters since startup. */
+    static final class Stats {
+        public int slots;
+        public long avoidedWrites;
+        public long misses;
+        public long evictions;
+        public long invalidations;
+    }
+
+    private static final AtomicLongArray SLOTS = new AtomicLongArray(tableSize(MAX_USERS));
+    private static final int MASK = SLOTS.length() - 1;
+    private static final int SHIFT = 64 - Integer.numberOfTrailingZeros(SLOTS.length());
+    private static volatile boolean demoReady;
+
+    private static final LongAdder AVOIDED = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+    private static final LongAdder INVALIDATIONS = new LongAdder();
+
+    private ProvisionedUsers() {}
+
+    /** True (and counted as an avoided write) when {@code userId} is known to have a wallet. */
+    static boolean contains(long userId) {
+        if (userId > 0) {
+            int home = home(userId);
+            for (int i = 0; i < MAX_PROBE; i++) {
+                long v = SLOTS.get((home + i) & MASK);
+                if (v == userId) {
+                    AVOIDED.increment();
+                    return true;
+                }
+                if (v == EMPTY) break;
+            }
+        }
+        MISSES.increment();
+        return false;
+    }
+
+    /** Records a successful provisioning; ids that are not positive are never cached. */
+    static void add(long userId) {
+        if (userId <= 0) return;
+        int home = home(userId);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int slot = (home + i) & MASK;
+            long v = SLOTS.get(slot);
+            if (v == userId) return;
+            if ((v == EMPTY || v == REMOVED) && SLOTS.compareAndSet(slot, v, userId)) return;
+        }
+        // Probe window full: replace its first entry. Never writes EMPTY, so chains stay intact.
+        SLOTS.set(home, userId);
+        EVICTIONS.increment();
+    }
+
+    /** Drops {@code userId}, e.g. after its wallet was reported missing or the user was deleted. */
+    static void forget(long userId) {
+        if (userId == DemoUser.ID) demoReady = false;
+        if (userId <= 0) return;
+        int home = home(userId);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int slot = (home + i) & MASK;
+            long v = SLOTS.get(slot);
+            if (v == EMPTY) break;
+            if (v == userId && SLOTS.compareAndSet(slot, v, REMOVED)) INVALIDATIONS.increment();
+        }
+    }
+
+    /** Forgets everyone, e.g. after the wallet table was rebuilt. */
+    static void clear() {
+        demoReady = false;
+        for (int i = 0; i < SLOTS.length(); i++) SLOTS.set(i, EMPTY);
+        INVALIDATIONS.increment();
+        WalletVersions.bumpAll();
+    }
+
+    /** True (and counted) once {@link DemoUser#ensure} has succeeded on this node. */
+    static boolean demoReady() {
+        if (demoReady) {
+            AVOIDED.increment();
+            return true;
+        }
+        MISSES.increment();
+        return false;
+    }
+
+    static void demoProvisioned() {
+        demoReady = true;
+        add(DemoUser.ID);
+    }
+
+    static Stats stats() {
+        Stats s = new Stats();
+        s.slots = SLOTS.length();
+        s.avoidedWrites = AVOIDED.sum();
+        s.misses = MISSES.sum();
+        s.evictions = EVICTIONS.sum();
+        s.invalidations = INVALIDATIONS.sum();
+        return s;
+    }
+
+    /** Fibonacci hashing: the top bits of the product spread sequential ids evenly. */
+    private static int home(long userId) {
+        return (int) ((userId * 0x9E3779B97F4A7C15L) >>> SHIFT);
+    }
+
+    /** Smallest power of two at least twice {@code users}, so the table stays under half full. */
+    private static int tableSize(int users) {
+        int n = Integer.highestOneBit(Math.max(16, users) - 1) << 2;
+        return Math.min(n, 1 << 30);
+    }
+}
@@ -0,0 +1,128 @@
+package api;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code POST /register/import}: bulk-creates users for migrations and
+ * load-test seeding. The body is newline-delimited JSON, one
+ * {@code {"username","email","password"}} object per line (or, to skip the
+ * slow hashing, {@code "passwordHash"} in a format {@link PasswordHasher}
+ * recognizes instead of {@code "password"}); it is read as a
+ * stream and stored in batches of {@code tt.register.importBatch} rows,
+ * each committed on its own, so the import never holds the whole file or
+ * one huge transaction. Rows whose username or email already exist are
+ * skipped. Each new user gets a wallet with the default starting cash.
+ *
+ * <p>Disabled unless {@code -Dtt.register.importToken} is set; callers send
+ * the same value in the {@code X-Import-Token} header.
+ */
+@WebServlet(name = "RegisterImportServlet", urlPatterns = {"/register/import"})
+public class RegisterImportServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final String TOKEN = System.getProperty("tt.register.importToken");
+    private static final int BATCH = Math.max(1, Integer.getInteger("tt.register.importBatch", 500));
+
+    /** What an import did, line by line. */
+    static final class Summary {
+        public long lines;
+        public long inserted;
+        public long skipped;
+        public long invalid;
+        public int batches;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json;charset=UTF-8");
+        if (TOKEN == null || TOKEN.isEmpty()) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            write(resp, JsonResp.error("Bulk import is disabled"));
+            return;
+        }
+        String given = req.getHeader("X-Import-Token");
+        if (given == null || !MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+                TOKEN.getBytes(StandardCharsets.UTF_8))) {
+            resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            write(resp, JsonResp.error("Invalid import token"));
+            return;
+        }
+
+        Summary summary = new Summary();
+        try (BufferedReader reader = req.getReader()) {
+            DemoUser.ensure(DemoUser.DEFAULT_CASH);
+            importUsers(reader, summary);
+            write(resp, JsonResp.ok("Import finished", summary));
+        } catch (Exception e) {
+            Metrics.error("register_import", "Import stopped after " + summary.lines + " lines: " + e);
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            // Earlier batches are committed; report how far the import got.
+            write(resp, new JsonResp<>(false, "Import stopped after " + summary.lines + " lines: " + e.getMessage(), summary));
+        }
+    }
+
+    private void importUsers(BufferedReader reader, Summary summary) throws IOException, SQLException {
+        Storage.Users users = Storage.get().users();
+        List<Storage.User> batch = new ArrayList<>(BATCH);
+        String[] row = new String[4];
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (line.trim().isEmpty()) continue;
+            summary.lines++;
+            if (!parse(line, row)) {
+                summary.invalid++;
+                continue;
+            }
+            // Runs on this request's thread: imports are rare, admin-only and sequential.
+            String hash = row[3] != null ? row[3] : PasswordHasher.hashInline(row[2]);
+            batch.add(new Storage.User(0, row[0], row[1], hash));
+            if (batch.size() == BATCH) flush(users, batch, summary);
+        }
+        if (!batch.isEmpty()) flush(users, batch, summary);
+    }
+
+    /** Stores and commits one batch; users whose name or email is taken are counted as skipped. */
+    private void flush(Storage.Users users, List<Storage.User> batch, Summary summary) throws SQLException {
+        int inserted = users.createAll(batch);
+        summary.inserted += inserted;
+        summary.skipped += batch.size() - inserted;
+        summary.batches++;
+        batch.clear();
+    }
+
+    /** Fills {@code row} with username, email, password, hash; false when the line is not a complete user. */
+    private boolean parse(String line, String[] row) {
+        row[0] = row[1] = row[2] = row[3] = null;
+        try {
+            JsonParser.read(line, (name, value) -> {
+                switch (name) {
+                    case "username": row[0] = value; break;
+                    case "email": row[1] = value; break;
+                    case "password": row[2] = value; break;
+                    case "passwordHash": row[3] = value; break;
+                    default: break;
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (isBlank(row[0]) || isBlank(row[1])) return false;
+        if (row[3] != null && !PasswordHasher.recognizes(row[3])) return false;
+        return row[3] != null || !isBlank(row[2]);
+    }
+
+    private boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
+
+    private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
+        try (PrintWriter out = resp.getWriter()) { jr.writeTo(out); }
+    }
+}
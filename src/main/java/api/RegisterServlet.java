@@ -1,6 +1,5 @@
 package api;
 
-import db.JDBCConnector;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -9,15 +8,8 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.math.BigDecimal;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Map;
-import java.util.stream.Collectors;
 
-@WebServlet(name = "RegisterServlet", urlPatterns = {"/register"})
+@WebServlet(name = "RegisterServlet", urlPatterns = {"/register"}, asyncSupported = true)
 public class RegisterServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -29,11 +21,16 @@ public class RegisterServlet extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
+        // Mostly password hashing; only the storage calls below take a database slot.
+        RequestExecutor.run(req, resp, "register", Bulkhead.CPU, this::handlePost);
+    }
+
+    private void handlePost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
         resp.setContentType("application/json;charset=UTF-8");
 
         try {
-            String body = readBody(req);
-            RegisterPayload payload = parsePayload(body);
+            RegisterPayload payload = parsePayload(req);
             if (payload == null) {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 write(resp, JsonResp.error("Invalid JSON payload"));
@@ -46,87 +43,70 @@ public class RegisterServlet extends HttpServlet {
                 return;
             }
 
-            DemoUser.ensure(DemoUser.DEFAULT_CASH);
-            if (exists("SELECT 1 FROM users WHERE username = ?", payload.username)) {
-                write(resp, JsonResp.error("Username already taken"));
+            String passwordHash;
+            try {
+                passwordHash = PasswordHasher.hash(payload.password);
+            } catch (PasswordHasher.Busy e) {
+                busy(resp, e.getMessage());
                 return;
             }
-            if (exists("SELECT 1 FROM users WHERE email = ?", payload.email)) {
-                write(resp, JsonResp.error("Email already registered"));
+
+            // Cached after the first call, so it normally costs no round trip; it
+            // keeps id 1 reserved for the demo user on a fresh database.
+            long id;
+            try {
+                id = Bulkhead.DB.call(() -> {
+                    DemoUser.ensure(DemoUser.DEFAULT_CASH);
+                    return Storage.get().users().create(0, payload.username, payload.email, passwordHash,
+                            DemoUser.DEFAULT_CASH);
+                });
+            } catch (Storage.DuplicateUserException e) {
+                write(resp, JsonResp.error(e.getMessage()));
+                return;
+            } catch (Bulkhead.Full e) {
+                busy(resp, e.getMessage());
                 return;
             }
-
-            long id = insertUser(payload.username, payload.email, HashUtil.sha256(payload.password));
-            DemoUser.seedWallet(id, DemoUser.DEFAULT_CASH);
+            ProvisionedUsers.add(id);
             UserResponse user = new UserResponse();
             user.id = id;
             user.username = payload.username;
             user.email = payload.email;
+            user.token = SessionStore.create(id);
             write(resp, JsonResp.ok("Account created", user));
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("register", "Registration failed: " + e);
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             write(resp, JsonResp.error("Registration failed: " + e.getMessage()));
         }
     }
 
-    private long insertUser(String username, String email, String passwordHash) throws SQLException {
-        Connection c = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        try {
-            c = JDBCConnector.get();
-            ps = c.prepareStatement("INSERT INTO users(username, email, password_hash) VALUES(?,?,?)", PreparedStatement.RETURN_GENERATED_KEYS);
-            ps.setString(1, username);
-            ps.setString(2, email);
-            ps.setString(3, passwordHash);
-            ps.executeUpdate();
-            rs = ps.getGeneratedKeys();
-            if (rs.next()) return rs.getLong(1);
-            throw new SQLException("No generated key returned");
-        } finally {
-            JDBCConnector.closeQuiet(rs);
-            JDBCConnector.closeQuiet(ps);
-            JDBCConnector.closeQuiet(c);
-        }
-    }
-
-    private boolean exists(String sql, String value) throws SQLException {
-        Connection c = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        try {
-            c = JDBCConnector.get();
-            ps = c.prepareStatement(sql);
-            ps.setString(1, value);
-            rs = ps.executeQuery();
-            return rs.next();
-        } finally {
-            JDBCConnector.closeQuiet(rs);
-            JDBCConnector.closeQuiet(ps);
-            JDBCConnector.closeQuiet(c);
-        }
-    }
-
-    private RegisterPayload parsePayload(String body) {
-        if (body == null) return null;
-        Map<String, String> map = SimpleJson.parseObject(body);
-        if (map == null) return null;
+    /** Reads the body straight into the payload; null when it is not valid JSON. */
+    private RegisterPayload parsePayload(HttpServletRequest req) throws IOException {
         RegisterPayload p = new RegisterPayload();
-        p.email = map.get("email");
-        p.username = map.get("username");
-        p.password = map.get("password");
+        try (BufferedReader reader = req.getReader()) {
+            JsonParser.read(reader, (name, value) -> {
+                switch (name) {
+                    case "email": p.email = value; break;
+                    case "username": p.username = value; break;
+                    case "password": p.password = value; break;
+                    default: break;
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
         return p;
     }
 
-    private String readBody(HttpServletRequest req) throws IOException {
-        try (BufferedReader reader = req.getReader()) {
-            return reader.lines().collect(Collectors.joining());
-        }
+    private void busy(HttpServletResponse resp, String message) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        resp.setHeader("Retry-After", "1");
+        write(resp, JsonResp.error(message));
     }
 
     private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
-        try (PrintWriter out = resp.getWriter()) { out.write(jr.toJson()); }
+        try (PrintWriter out = resp.getWriter()) { jr.writeTo(out); }
     }
 
     private boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
@@ -141,5 +121,6 @@ public class RegisterServlet extends HttpServlet {
         long id;
         String username;
         String email;
+        String token;
     }
 }
@@ -0,0 +1,397 @@
+package api;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs servlet handlers, optionally off the container's worker threads.
+ *
+ * <p>By default ({@code tt.async.enabled=false}) a handler runs inline, as
+ * before, and only its latency is recorded. With {@code -Dtt.async.enabled=true}
+ * the request goes async: the handler runs on a virtual thread (Java 21+,
+ * found by reflection) or, on older JVMs, a bounded pool of
+ * {@code tt.async.threads}, inside its {@link Bulkhead}. Each endpoint has a
+ * deadline of {@code tt.async.<endpoint>.timeoutMs}. When the bulkhead turns
+ * the request away, or the deadline passes before the handler started, the
+ * client gets a 503 to retry. A handler that has started is never
+ * interrupted, since it may be committing a trade: past the deadline the
+ * client gets a 504 saying the outcome is unknown, and the handler's own
+ * output is discarded when it finishes. Handlers write into a buffer so only
+ * one answer ever reaches the real response.
+ */
+final class RequestExecutor {
+    private static final boolean ENABLED = Boolean.getBoolean("tt.async.enabled");
+    private static final long DEFAULT_TIMEOUT_MS = Long.getLong("tt.async.timeoutMs", 10_000L);
+
+    // Handler phases, see run().
+    private static final int WAITING = 0;
+    private static final int RUNNING = 1;
+    private static final int ABANDONED = 2;
+
+    /** A servlet method body. */
+    @FunctionalInterface
+    interface Handler {
+        void handle(HttpServletRequest req, HttpServletResponse resp) throws IOException, ServletException;
+    }
+
+    /** Per-endpoint counters since startup. */
+    static final class Stats {
+        public String endpoint;
+        public long requests;
+        public long rejected;
+        public long timeouts;
+        public long errors;
+        public long nanosTotal;
+        public long nanosMax;
+    }
+
+    private static final class Endpoint {
+        final String name;
+        final long timeoutMs;
+        final LongAdder requests = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanosTotal = new LongAdder();
+        final AtomicLong nanosMax = new AtomicLong();
+        final Histogram[] latency = new Histogram[Metrics.Outcome.values().length];
+
+        Endpoint(String name) {
+            this.name = name;
+            this.timeoutMs = Long.getLong("tt.async." + name + ".timeoutMs", DEFAULT_TIMEOUT_MS);
+            for (int i = 0; i < latency.length; i++) latency[i] = new Histogram();
+        }
+
+        void record(long nanos, Metrics.Outcome outcome) {
+            nanosTotal.add(nanos);
+            nanosMax.accumulateAndGet(nanos, Math::max);
+            latency[outcome.ordinal()].record(nanos);
+        }
+    }
+
+    private static final Map<String, Endpoint> ENDPOINTS = new ConcurrentHashMap<>();
+    private static ExecutorService executor;
+    private static boolean virtual;
+
+    private RequestExecutor() {}
+
+    static synchronized void start() {
+        if (!ENABLED || executor != null) return;
+        try {
+            executor = (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtual = true;
+        } catch (ReflectiveOperationException e) {
+            int threads = Math.max(1, Integer.getInteger("tt.async.threads", 200));
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Math.max(1, Integer.getInteger("tt.async.queue", 1_000))), r -> {
+                        Thread t = new Thread(r, "request-worker");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+            virtual = false;
+        }
+        System.err.println("Async request handling on " + (virtual ? "virtual threads" : "a platform thread pool"));
+    }
+
+    static synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /** Whether {@code tt.async.enabled} is on; bulkheads only apply when it is. */
+    static boolean enabled() {
+        return ENABLED;
+    }
+
+    /** Whether handlers run on virtual threads; false when async is off or the JVM lacks them. */
+    static synchronized boolean virtualThreads() {
+        return executor != null && virtual;
+    }
+
+    /** Latency and outcome counters per endpoint, in name order. */
+    static Map<String, Stats> stats() {
+        Map<String, Stats> out = new LinkedHashMap<>();
+        ENDPOINTS.keySet().stream().sorted().forEach(name -> {
+            Endpoint e = ENDPOINTS.get(name);
+            Stats s = new Stats();
+            s.endpoint = name;
+            s.requests = e.requests.sum();
+            s.rejected = e.rejected.sum();
+            s.timeouts = e.timeouts.sum();
+            s.errors = e.errors.sum();
+            s.nanosTotal = e.nanosTotal.sum();
+            s.nanosMax = e.nanosMax.get();
+            out.put(name, s);
+        });
+        return out;
+    }
+
+    /** Latency histograms per endpoint, indexed by {@link Metrics.Outcome#ordinal()}, in name order. */
+    static Map<String, Histogram[]> histograms() {
+        Map<String, Histogram[]> out = new LinkedHashMap<>();
+        ENDPOINTS.keySet().stream().sorted().forEach(name -> out.put(name, ENDPOINTS.get(name).latency));
+        return out;
+    }
+
+    /** Handles one request for {@code endpoint}, inline or async depending on configuration. */
+    static void run(HttpServletRequest req, HttpServletResponse resp, String endpoint, Bulkhead bulkhead,
+                    Handler handler) throws IOException, ServletException {
+        Endpoint ep = ENDPOINTS.computeIfAbsent(endpoint, Endpoint::new);
+        ep.requests.increment();
+        ExecutorService pool;
+        synchronized (RequestExecutor.class) {
+            pool = executor;
+        }
+        if (pool == null || !req.isAsyncSupported()) {
+            long start = System.nanoTime();
+            Metrics.Outcome outcome = Metrics.Outcome.ERROR;
+            Metrics.beginRequest();
+            try {
+                handler.handle(req, resp);
+                outcome = Metrics.endRequest();
+            } catch (IOException | ServletException | RuntimeException e) {
+                ep.errors.increment();
+                throw e;
+            } finally {
+                ep.record(System.nanoTime() - start, outcome);
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        AsyncContext ctx = req.startAsync();
+        ctx.setTimeout(ep.timeoutMs);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger phase = new AtomicInteger(WAITING);
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+        ctx.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (!done.compareAndSet(false, true)) return;
+                ep.timeouts.increment();
+                ep.record(System.nanoTime() - start, Metrics.Outcome.TIMEOUT);
+                if (phase.compareAndSet(WAITING, ABANDONED)) {
+                    Future<?> f = task.get();
+                    if (f != null) f.cancel(true);
+                    fail(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request timed out, please retry");
+                } else {
+                    // Already running, maybe mid-commit: let it finish, and do not invite a duplicate.
+                    fail(resp, HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                            "Request timed out; its outcome is unknown, check before retrying");
+                }
+                ctx.complete();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    ep.errors.increment();
+                    ctx.complete();
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {}
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {}
+        });
+
+        try {
+            task.set(pool.submit(() -> {
+                BufferedResponse buffered = new BufferedResponse(resp);
+                boolean admitted = false;
+                String failure = null;
+                Metrics.Outcome outcome = Metrics.Outcome.REJECTED;
+                try {
+                    long left = ep.timeoutMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    admitted = bulkhead.acquire(Math.max(0, left));
+                    if (admitted && !phase.compareAndSet(WAITING, RUNNING)) return; // timed out while queued
+                    if (admitted) {
+                        Metrics.beginRequest();
+                        handler.handle(req, buffered);
+                        outcome = Metrics.endRequest();
+                    } else {
+                        failure = "Server busy, please retry";
+                    }
+                } catch (InterruptedException e) {
+                    return; // cancelled by the timeout, which has already answered
+                } catch (Exception e) {
+                    Metrics.error("request_executor", "Request to " + endpoint + " failed: " + e);
+                    ep.errors.increment();
+                    outcome = Metrics.Outcome.ERROR;
+                    failure = "Request failed: " + e.getMessage();
+                } finally {
+                    if (admitted) bulkhead.release();
+                }
+                if (!done.compareAndSet(false, true)) return; // timed out meanwhile
+                ep.record(System.nanoTime() - start, outcome);
+                try {
+                    if (failure == null) {
+                        buffered.copyTo(resp);
+                    } else {
+                        if (!admitted) ep.rejected.increment();
+                        fail(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, failure);
+                    }
+                } catch (IOException e) {
+                    ep.errors.increment();
+                } finally {
+                    ctx.complete();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            if (done.compareAndSet(false, true)) {
+                ep.rejected.increment();
+                ep.record(System.nanoTime() - start, Metrics.Outcome.REJECTED);
+                fail(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy, please retry");
+                ctx.complete();
+            }
+        }
+    }
+
+    /** Answers for a handler that did not; only a 503 says when to retry. */
+    private static void fail(HttpServletResponse resp, int status, String message) throws IOException {
+        resp.setStatus(status);
+        if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) resp.setHeader("Retry-After", "1");
+        resp.setContentType("application/json;charset=UTF-8");
+        try (PrintWriter out = resp.getWriter()) { JsonResp.error(message).writeTo(out); }
+    }
+
+    /**
+     * Holds status, headers and body until the handler has finished. Every
+     * header and status call is kept here, so none can reach the real
+     * response after a timeout has answered it.
+     */
+    private static final class BufferedResponse extends HttpServletResponseWrapper {
+        private final StringWriter body = new StringWriter(512);
+        private final PrintWriter writer = new PrintWriter(body);
+        private final Map<String, List<String>> headers = new LinkedHashMap<>();
+        private int status = HttpServletResponse.SC_OK;
+        private String contentType;
+
+        BufferedResponse(HttpServletResponse real) { super(real); }
+
+        @Override
+        public void setStatus(int sc) { status = sc; }
+
+        @Override
+        public int getStatus() { return status; }
+
+        @Override
+        public void setContentType(String type) { contentType = type; }
+
+        @Override
+        public String getContentType() { return contentType; }
+
+        @Override
+        public void setHeader(String name, String value) {
+            List<String> values = new ArrayList<>(1);
+            values.add(value);
+            headers.put(name, values);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) { setHeader(name, Integer.toString(value)); }
+
+        @Override
+        public void addIntHeader(String name, int value) { addHeader(name, Integer.toString(value)); }
+
+        @Override
+        public void setDateHeader(String name, long date) { setHeader(name, httpDate(date)); }
+
+        @Override
+        public void addDateHeader(String name, long date) { addHeader(name, httpDate(date)); }
+
+        @Override
+        public boolean containsHeader(String name) { return headers.containsKey(name); }
+
+        @Override
+        public String getHeader(String name) {
+            List<String> values = headers.get(name);
+            return values == null ? null : values.get(0);
+        }
+
+        /** Answers with the status and a JSON error body instead of the container's error page. */
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            body.getBuffer().setLength(0);
+            status = sc;
+            contentType = "application/json;charset=UTF-8";
+            JsonResp.error(msg == null ? "Request failed" : msg).writeTo(writer);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException { sendError(sc, null); }
+
+        @Override
+        public void sendRedirect(String location) {
+            body.getBuffer().setLength(0);
+            status = HttpServletResponse.SC_FOUND;
+            setHeader("Location", location);
+        }
+
+        @Override
+        public PrintWriter getWriter() { return writer; }
+
+        /** Handlers write text only; a raw stream would bypass the buffer. */
+        @Override
+        public ServletOutputStream getOutputStream() {
+            throw new IllegalStateException("Buffered responses support getWriter() only");
+        }
+
+        @Override
+        public boolean isCommitted() { return false; }
+
+        void copyTo(HttpServletResponse real) throws IOException {
+            writer.flush();
+            real.setStatus(status);
+            if (contentType != null) real.setContentType(contentType);
+            for (Map.Entry<String, List<String>> h : headers.entrySet()) {
+                for (String value : h.getValue()) real.addHeader(h.getKey(), value);
+            }
+            if (status == HttpServletResponse.SC_NOT_MODIFIED) return;
+            try (PrintWriter out = real.getWriter()) { out.write(body.toString()); }
+        }
+
+        private static String httpDate(long date) {
+            return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+        }
+    }
+}
@@ -7,72 +7,76 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.stream.Collectors;
 
-@WebServlet(name = "SearchServlet", urlPatterns = {"/search"})
+/**
+ * {@code GET /search?keyword=&city=&from=yyyy-MM-dd&to=yyyy-MM-dd&offset=&limit=} over the
+ * {@link EventCatalog}. Results come back ranked (see {@link EventSearch}); the total match
+ * count is in {@code X-Total-Count} and the offset of the next page, if any, in
+ * {@code X-Next-Offset}.
+ */
+@WebServlet(name = "SearchServlet", urlPatterns = {"/search"}, asyncSupported = true)
 public class SearchServlet extends HttpServlet {
+    private static final int DEFAULT_LIMIT = Integer.getInteger("tt.search.defaultLimit", 50);
+    private static final int MAX_LIMIT = Integer.getInteger("tt.search.maxLimit", 200);
+    private static final int MAX_OFFSET = Integer.getInteger("tt.search.maxOffset", 10_000);
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
+        RequestExecutor.run(req, resp, "search", Bulkhead.CPU, this::handleGet);
+    }
+
+    private void handleGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
         resp.setContentType("application/json;charset=UTF-8");
 
         String keyword = param(req, "keyword");
         String city = param(req, "city");
+        int offset, limit, from, to;
+        try {
+            offset = intParam(req, "offset", 0);
+            limit = Math.min(intParam(req, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+            from = dateParam(req, "from", 0);
+            to = dateParam(req, "to", Integer.MAX_VALUE);
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            write(resp, JsonResp.error(e.getMessage()));
+            return;
+        }
+        if (offset < 0 || limit < 1 || offset > MAX_OFFSET) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            write(resp, JsonResp.error("limit must be 1-" + MAX_LIMIT + " and offset 0-" + MAX_OFFSET));
+            return;
+        }
 
         try {
-            List<Event> events = loadMockEvents();
-            List<Event> filtered = events.stream()
-                    .filter(e -> matches(e, keyword, city))
-                    .collect(Collectors.toList());
-            write(resp, JsonResp.ok(filtered));
+            EventCatalog catalog = EventCatalog.get(getServletContext());
+            EventSearch.Page page = EventSearch.search(catalog, keyword, city, from, to, offset, limit);
+            resp.setHeader("X-Total-Count", String.valueOf(page.total));
+            int next = offset + page.items.size();
+            if (next < page.total && next <= MAX_OFFSET) resp.setHeader("X-Next-Offset", String.valueOf(next));
+            write(resp, JsonResp.ok(page.items));
         } catch (Exception e) {
             write(resp, JsonResp.error("Search failed: " + e.getMessage()));
         }
     }
 
-    private List<Event> loadMockEvents() throws IOException {
-        String realPath = getServletContext().getRealPath("/mock/getEvents/search.json");
-        if (realPath != null) {
-            Path p = Path.of(realPath);
-            if (Files.exists(p)) {
-                String json = Files.readString(p);
-                List<Map<String, String>> maps = SimpleJson.parseArrayOfObjects(json);
-                List<Event> events = new ArrayList<>();
-                for (Map<String, String> m : maps) {
-                    Event e = new Event(
-                            m.getOrDefault("id", m.getOrDefault("eventId", "")),
-                            m.getOrDefault("name", ""),
-                            m.getOrDefault("venue", ""),
-                            m.getOrDefault("localDate", m.getOrDefault("date", "")),
-                            m.getOrDefault("image", ""),
-                            m.getOrDefault("city", ""));
-                    events.add(e);
-                }
-                if (!events.isEmpty()) return events;
-            }
+    private int intParam(HttpServletRequest req, String name, int def) {
+        String v = param(req, name);
+        if (v.isEmpty()) return def;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
         }
-
-        List<Event> list = new ArrayList<>();
-        list.add(new Event("E1", "Taylor Swift | The Eras Tour", "SoFi Stadium", "2025-12-20", "", "Los Angeles"));
-        list.add(new Event("E2", "Los Angeles Lakers vs Boston Celtics", "Crypto.com Arena", "2025-12-25", "", "Los Angeles"));
-        return list;
-    }
-
-    private boolean matches(Event e, String keyword, String city) {
-        boolean keywordOk = keyword.isEmpty() || contains(e.name, keyword) || contains(e.venue, keyword);
-        boolean cityOk = city.isEmpty() || contains(e.venue, city);
-        return keywordOk && cityOk;
     }
 
-    private boolean contains(String haystack, String needle) {
-        if (haystack == null) return false;
-        return haystack.toLowerCase(Locale.ROOT).contains(needle.toLowerCase(Locale.ROOT));
+    private int dateParam(HttpServletRequest req, String name, int def) {
+        String v = param(req, name);
+        if (v.isEmpty()) return def;
+        int key = EventCatalog.dateKey(v);
+        if (key < 0) throw new IllegalArgumentException(name + " must be a yyyy-MM-dd date");
+        return key;
     }
 
     private String param(HttpServletRequest req, String name) {
@@ -80,20 +84,7 @@ public class SearchServlet extends HttpServlet {
         return v == null ? "" : v.trim();
     }
 
-    private void write(HttpServletResponse resp, JsonResp jr) throws IOException {
-        try (PrintWriter out = resp.getWriter()) { out.write(jr.toJson()); }
-    }
-
-    private static class Event {
-        String id;
-        String name;
-        String venue;
-        String localDate;
-        String image;
-        String city;
-
-        Event(String id, String name, String venue, String localDate, String image, String city) {
-            this.id = id; this.name = name; this.venue = venue; this.localDate = localDate; this.image = image; this.city = city;
-        }
+    private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
+        try (PrintWriter out = resp.getWriter()) { jr.writeTo(out); }
     }
 }
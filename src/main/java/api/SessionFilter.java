@@ -0,0 +1,73 @@
+package api;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Resolves {@code Authorization: Bearer <token>} through {@link SessionStore}
+ * and hands the caller's user id to the servlet via {@link #userId}. A token
+ * that is forged or expired gets a 401, and so does a request without a
+ * token: {@code -Dtt.session.required=false} brings back the legacy
+ * {@code userId} parameter, which lets any client act as any user and is
+ * only meant for old clients on a trusted network. {@code /live} also takes
+ * the token as {@code ?token=}, since {@code EventSource} cannot set headers.
+ */
+@WebFilter(filterName = "SessionFilter", urlPatterns = {"/wallet", "/favorites", "/trade", "/orders", "/live"},
+        asyncSupported = true)
+public class SessionFilter implements Filter {
+    private static final String ATTR = "tt.session.userId";
+    private static final boolean REQUIRED = !"false".equalsIgnoreCase(System.getProperty("tt.session.required", "true"));
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        String token = token(req);
+        if (token == null) {
+            if (REQUIRED) {
+                reject(resp, "Login required");
+                return;
+            }
+        } else {
+            long userId = SessionStore.resolve(token);
+            if (userId == SessionStore.NONE) {
+                reject(resp, "Session expired, please log in again");
+                return;
+            }
+            req.setAttribute(ATTR, userId);
+        }
+        chain.doFilter(request, response);
+    }
+
+    /** The authenticated caller, or null when the request carried no session. */
+    static Long userId(HttpServletRequest req) {
+        Object v = req.getAttribute(ATTR);
+        return v instanceof Long ? (Long) v : null;
+    }
+
+    /** The bearer token sent with the request, or null. */
+    static String token(HttpServletRequest req) {
+        String h = req.getHeader("Authorization");
+        String t;
+        if (h != null && h.regionMatches(true, 0, "Bearer ", 0, 7)) t = h.substring(7).trim();
+        else if ("/live".equals(req.getServletPath())) t = req.getParameter("token");
+        else return null;
+        return t == null || t.isEmpty() ? null : t;
+    }
+
+    private void reject(HttpServletResponse resp, String message) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        resp.setHeader("WWW-Authenticate", "Bearer");
+        resp.setContentType("application/json;charset=UTF-8");
+        try (PrintWriter out = resp.getWriter()) { JsonResp.error(message).writeTo(out); }
+    }
+}
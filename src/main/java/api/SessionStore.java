@@ -0,0 +1,424 @@
+package api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Login sessions, kept in memory so resolving a token never touches MySQL.
+ *
+ * <p>A token is {@code base64url(sessionId) + "." + base64url(hmac)}: 16
+ * random bytes signed with HMAC-SHA256. It carries nothing about the user;
+ * the signature lets forged or mangled tokens be rejected before any lookup.
+ *
+ * <p>Sessions live in {@code tt.session.shards} independently locked shards.
+ * Each shard is an open-addressing table of parallel primitive arrays
+ * (session id, user id, expiry: 32 bytes per session), holding at most its
+ * share of {@code tt.session.capacity}. A session expires
+ * {@code tt.session.ttlMs} after it was last used. When a shard is full the
+ * session closest to expiry among a small sample is evicted.
+ *
+ * <p>With {@code -Dtt.session.file} set, live sessions (and the signing key,
+ * unless {@code tt.session.secret} fixes it) are written there periodically
+ * and on shutdown and read back on startup, so a restart does not log
+ * everyone out.
+ */
+final class SessionStore {
+    private static final int CAPACITY = Integer.getInteger("tt.session.capacity", 100_000);
+    private static final int SHARDS = Integer.highestOneBit(Math.max(1, Integer.getInteger("tt.session.shards", 16)));
+    private static final long TTL_MS = Long.getLong("tt.session.ttlMs", 1_800_000L);
+    private static final long SWEEP_MS = Long.getLong("tt.session.sweepMs", 60_000L);
+    private static final String FILE = System.getProperty("tt.session.file");
+    private static final int EVICTION_SAMPLE = 8;
+    private static final int ID_BYTES = 16;
+    private static final int MAC_BYTES = 16;
+    private static final int FILE_MAGIC = 0x54545353; // "TTSS"
+
+    /** Returned by {@link #resolve} when the token names no live session. */
+    static final long NONE = 0;
+
+    /** Counters since startup. */
+    static final class Stats {
+        public int capacity;
+        public int live;
+        public long created;
+        public long hits;
+        public long misses;
+        public long rejected;
+        public long expired;
+        public long evicted;
+        public long invalidated;
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+    private static final Shard[] TABLE = new Shard[SHARDS];
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(SessionStore::newMac);
+    private static volatile byte[] key = initialKey();
+    private static ScheduledExecutorService sweeper;
+
+    private static final LongAdder CREATED = new LongAdder();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final LongAdder EXPIRED = new LongAdder();
+    private static final LongAdder EVICTED = new LongAdder();
+    private static final LongAdder INVALIDATED = new LongAdder();
+
+    static {
+        int perShard = Math.max(1, (CAPACITY + SHARDS - 1) / SHARDS);
+        for (int i = 0; i < SHARDS; i++) TABLE[i] = new Shard(perShard);
+    }
+
+    private SessionStore() {}
+
+    /** Loads persisted sessions and starts the expiry sweep. */
+    static synchronized void start() {
+        if (sweeper != null) return;
+        if (FILE != null) {
+            try {
+                load(Path.of(FILE));
+            } catch (Exception e) {
+                System.err.println("Session file not loaded, starting empty: " + e.getMessage());
+            }
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+                if (FILE != null) save(Path.of(FILE));
+            } catch (Exception e) {
+                Metrics.error("sessions", "Session sweep failed: " + e.getMessage());
+            }
+        }, SWEEP_MS, SWEEP_MS, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop() {
+        if (sweeper == null) return;
+        sweeper.shutdownNow();
+        sweeper = null;
+        if (FILE != null) {
+            try {
+                save(Path.of(FILE));
+            } catch (Exception e) {
+                Metrics.error("sessions", "Session file not written: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Opens a session for {@code userId} and returns its token. */
+    static String create(long userId) {
+        if (userId <= 0) throw new IllegalArgumentException("userId must be positive");
+        byte[] id = new byte[ID_BYTES];
+        long hi, lo;
+        do {
+            RANDOM.nextBytes(id);
+            hi = getLong(id, 0);
+            lo = getLong(id, 8);
+        } while (hi == 0 && lo == 0); // all-zero marks an empty slot
+        shard(hi).put(hi, lo, userId, System.currentTimeMillis() + TTL_MS);
+        CREATED.increment();
+        return B64.encodeToString(id) + "." + B64.encodeToString(sign(id));
+    }
+
+    /** The token's user, extending its session; {@link #NONE} when it is unknown, expired or forged. */
+    static long resolve(String token) {
+        byte[] id = verify(token);
+        if (id == null) {
+            REJECTED.increment();
+            return NONE;
+        }
+        long hi = getLong(id, 0);
+        long userId = shard(hi).touch(hi, getLong(id, 8), System.currentTimeMillis());
+        if (userId == NONE) MISSES.increment();
+        else HITS.increment();
+        return userId;
+    }
+
+    /** Ends the token's session; false when there was none. */
+    static boolean invalidate(String token) {
+        byte[] id = verify(token);
+        if (id == null) return false;
+        long hi = getLong(id, 0);
+        boolean removed = shard(hi).remove(hi, getLong(id, 8));
+        if (removed) INVALIDATED.increment();
+        return removed;
+    }
+
+    static Stats stats() {
+        Stats s = new Stats();
+        s.capacity = CAPACITY;
+        for (Shard sh : TABLE) s.live += sh.size();
+        s.created = CREATED.sum();
+        s.hits = HITS.sum();
+        s.misses = MISSES.sum();
+        s.rejected = REJECTED.sum();
+        s.expired = EXPIRED.sum();
+        s.evicted = EVICTED.sum();
+        s.invalidated = INVALIDATED.sum();
+        return s;
+    }
+
+    /** Drops every expired session. */
+    static void sweep() {
+        long now = System.currentTimeMillis();
+        for (Shard sh : TABLE) sh.sweep(now);
+    }
+
+    // ---- tokens ----
+
+    /** The session id inside a well-formed, correctly signed token, else null. */
+    private static byte[] verify(String token) {
+        if (token == null) return null;
+        int dot = token.indexOf('.');
+        if (dot <= 0) return null;
+        byte[] id, mac;
+        try {
+            id = B64D.decode(token.substring(0, dot));
+            mac = B64D.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (id.length != ID_BYTES || mac.length != MAC_BYTES) return null;
+        return MessageDigest.isEqual(mac, sign(id)) ? id : null;
+    }
+
+    private static byte[] sign(byte[] id) {
+        byte[] full = MAC.get().doFinal(id);
+        byte[] out = new byte[MAC_BYTES];
+        System.arraycopy(full, 0, out, 0, MAC_BYTES);
+        return out;
+    }
+
+    private static Mac newMac() {
+        try {
+            Mac m = Mac.getInstance("HmacSHA256");
+            m.init(new SecretKeySpec(key, "HmacSHA256"));
+            return m;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    private static byte[] initialKey() {
+        String secret = System.getProperty("tt.session.secret");
+        if (secret != null && !secret.isEmpty()) return secret.getBytes(StandardCharsets.UTF_8);
+        byte[] k = new byte[32];
+        RANDOM.nextBytes(k);
+        return k;
+    }
+
+    /** Adopts a persisted key; threads re-create their Mac on next use. */
+    private static void useKey(byte[] k) {
+        key = k;
+        MAC.remove();
+    }
+
+    private static Shard shard(long hi) {
+        return TABLE[(int) (hi >>> 32) & (SHARDS - 1)];
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    // ---- persistence ----
+
+    private static void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try {
+            // The file holds the signing key, so keep it private where the filesystem allows.
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tmp);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            boolean ownKey = System.getProperty("tt.session.secret") == null;
+            byte[] k = ownKey ? key : new byte[0];
+            out.writeInt(k.length);
+            out.write(k);
+            long now = System.currentTimeMillis();
+            for (Shard sh : TABLE) sh.writeTo(out, now);
+            out.writeLong(0); // terminator: no session id is all zeroes
+            out.writeLong(0);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void load(Path file) throws IOException {
+        if (!Files.exists(file)) return;
+        int n = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) throw new IOException("not a session file: " + file);
+            byte[] k = new byte[in.readInt()];
+            in.readFully(k);
+            if (k.length > 0) useKey(k);
+            long now = System.currentTimeMillis();
+            while (true) {
+                long hi = in.readLong(), lo = in.readLong();
+                if (hi == 0 && lo == 0) break;
+                long userId = in.readLong(), expiresAt = in.readLong();
+                if (expiresAt > now) {
+                    shard(hi).put(hi, lo, userId, expiresAt);
+                    n++;
+                }
+            }
+        }
+        System.err.println("Restored " + n + " sessions from " + file);
+    }
+
+    /** One lock's worth of sessions: linear probing over parallel arrays. */
+    private static final class Shard {
+        private final long[] idHi, idLo, userIds, expiresAt;
+        private final int mask;
+        private final int max;
+        private int size;
+
+        Shard(int max) {
+            int slots = Integer.highestOneBit(Math.max(4, max) - 1) << 2; // at most half full
+            this.idHi = new long[slots];
+            this.idLo = new long[slots];
+            this.userIds = new long[slots];
+            this.expiresAt = new long[slots];
+            this.mask = slots - 1;
+            this.max = max;
+        }
+
+        synchronized int size() { return size; }
+
+        synchronized void put(long hi, long lo, long userId, long expires) {
+            int i = find(hi, lo);
+            if (i < 0) {
+                if (size >= max) evictOne(System.currentTimeMillis());
+                i = ~find(hi, lo);
+                idHi[i] = hi;
+                idLo[i] = lo;
+                size++;
+            }
+            userIds[i] = userId;
+            expiresAt[i] = expires;
+        }
+
+        synchronized long touch(long hi, long lo, long now) {
+            int i = find(hi, lo);
+            if (i < 0) return NONE;
+            if (expiresAt[i] <= now) {
+                delete(i);
+                EXPIRED.increment();
+                return NONE;
+            }
+            expiresAt[i] = now + TTL_MS;
+            return userIds[i];
+        }
+
+        synchronized boolean remove(long hi, long lo) {
+            int i = find(hi, lo);
+            if (i < 0) return false;
+            delete(i);
+            return true;
+        }
+
+        synchronized void sweep(long now) {
+            for (int i = 0; i <= mask; ) {
+                // delete() may shift a later entry into slot i, so re-check it.
+                if ((idHi[i] != 0 || idLo[i] != 0) && expiresAt[i] <= now) {
+                    delete(i);
+                    EXPIRED.increment();
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        synchronized void writeTo(DataOutputStream out, long now) throws IOException {
+            for (int i = 0; i <= mask; i++) {
+                if ((idHi[i] == 0 && idLo[i] == 0) || expiresAt[i] <= now) continue;
+                out.writeLong(idHi[i]);
+                out.writeLong(idLo[i]);
+                out.writeLong(userIds[i]);
+                out.writeLong(expiresAt[i]);
+            }
+        }
+
+        /** Drops an expired session if the sample has one, else the one closest to expiry. */
+        private void evictOne(long now) {
+            int victim = -1;
+            int seen = 0;
+            int start = ThreadLocalRandom.current().nextInt(mask + 1);
+            for (int n = 0; n <= mask && seen < EVICTION_SAMPLE; n++) {
+                int i = (start + n) & mask;
+                if (idHi[i] == 0 && idLo[i] == 0) continue;
+                seen++;
+                if (victim < 0 || expiresAt[i] < expiresAt[victim]) victim = i;
+            }
+            if (victim < 0) return;
+            boolean expired = expiresAt[victim] <= now;
+            delete(victim);
+            if (expired) EXPIRED.increment();
+            else EVICTED.increment();
+        }
+
+        /** Slot holding the id, or {@code ~slot} of the empty slot where it would go. */
+        private int find(long hi, long lo) {
+            int i = home(hi, lo);
+            while (true) {
+                if (idHi[i] == hi && idLo[i] == lo) return i;
+                if (idHi[i] == 0 && idLo[i] == 0) return ~i;
+                i = (i + 1) & mask;
+            }
+        }
+
+        /** Empties slot {@code i}, shifting later entries of the run back so lookups never stop early. */
+        private void delete(int i) {
+            size--;
+            int gap = i;
+            for (int j = (i + 1) & mask; idHi[j] != 0 || idLo[j] != 0; j = (j + 1) & mask) {
+                int h = home(idHi[j], idLo[j]);
+                // Move j into the gap unless its home lies cyclically in (gap, j].
+                boolean stays = gap <= j ? (gap < h && h <= j) : (gap < h || h <= j);
+                if (stays) continue;
+                idHi[gap] = idHi[j];
+                idLo[gap] = idLo[j];
+                userIds[gap] = userIds[j];
+                expiresAt[gap] = expiresAt[j];
+                gap = j;
+            }
+            idHi[gap] = 0;
+            idLo[gap] = 0;
+            userIds[gap] = 0;
+            expiresAt[gap] = 0;
+        }
+
+        /** Ids are random, so their low bits are already uniform. */
+        private int home(long hi, long lo) {
+            return (int) lo & mask;
+        }
+    }
+}
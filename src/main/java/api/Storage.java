@@ -0,0 +1,268 @@
+package api;
+
+import db.JDBCConnector;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Where users, wallets, positions, favorites and open orders live. Servlets and the trade
+ * paths go through these repositories instead of writing SQL themselves;
+ * {@link MySqlStorage} is the original JDBC code and {@link InMemoryStorage}
+ * keeps everything on the heap.
+ *
+ * <p>The backend is picked once at deploy time by {@code -Dtt.storage}:
+ * {@code mysql} (the default) or {@code memory} for demos, tests and
+ * benchmarks. With {@code -Dtt.storage.fallback=memory} a node that cannot
+ * reach MySQL at deploy time runs on the in-memory backend instead of failing
+ * every request. It stays there until redeployed, because switching back
+ * would silently drop whatever was written meanwhile. Both backends report
+ * failures as {@link SQLException}, so callers keep one error path.
+ */
+abstract class Storage {
+    private static final String BACKEND = System.getProperty("tt.storage", "mysql");
+    private static final String FALLBACK = System.getProperty("tt.storage.fallback", "");
+
+    private static volatile Storage instance;
+    private static volatile boolean fellBack;
+
+    /** Which backend is serving; backends add their own counters. */
+    static class Stats {
+        public String backend;
+        public int fallback;
+    }
+
+    /** One users row. */
+    static final class User {
+        final long id;
+        final String username;
+        final String email;
+        final String passwordHash;
+
+        User(long id, String username, String email, String passwordHash) {
+            this.id = id;
+            this.username = username;
+            this.email = email;
+            this.passwordHash = passwordHash;
+        }
+    }
+
+    /** One positions row; a higher id is a newer position. */
+    static final class Position {
+        final long id;
+        final String eventId;
+        final TradeMath.Holding holding;
+
+        Position(long id, String eventId, TradeMath.Holding holding) {
+            this.id = id;
+            this.eventId = eventId;
+            this.holding = holding;
+        }
+    }
+
+    /** A wallet's cash (in cents) and its positions, newest first, as of one moment. */
+    static final class Account {
+        final long cash;
+        final List<Position> positions;
+
+        Account(long cash, List<Position> positions) {
+            this.cash = cash;
+            this.positions = positions;
+        }
+    }
+
+    /** One favorites row. */
+    static final class Favorite {
+        final String eventId;
+        final String eventName;
+        final String date;
+        final String venue;
+        final BigDecimal minPrice;
+        final BigDecimal maxPrice;
+        final String url;
+
+        Favorite(String eventId, String eventName, String date, String venue, BigDecimal minPrice,
+                 BigDecimal maxPrice, String url) {
+            this.eventId = eventId;
+            this.eventName = eventName;
+            this.date = date;
+            this.venue = venue;
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+            this.url = url;
+        }
+    }
+
+    /** The username or email is already taken; the message is meant for the user. */
+    static final class DuplicateUserException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        DuplicateUserException(String message) {
+            super(message, "23000");
+        }
+    }
+
+    interface Users {
+        /** The user whose username or email is {@code usernameOrEmail}, or null. */
+        User find(String usernameOrEmail) throws SQLException;
+
+        User findById(long id) throws SQLException;
+
+        /**
+         * Creates the user and a wallet holding at least {@code startingCash}
+         * cents in one step and returns the user's id; {@code id} 0 lets the backend
+         * pick it. Throws {@link DuplicateUserException} for a taken username or email.
+         */
+        long create(long id, String username, String email, String passwordHash, long startingCash)
+                throws SQLException;
+
+        /**
+         * Bulk variant for imports: creates the users (ids are assigned, the
+         * given ones ignored) with default wallets in one transaction, skipping
+         * any whose username or email is taken, and returns how many it created.
+         */
+        int createAll(List<User> users) throws SQLException;
+
+        /** Sets a new hash only if the stored one is still {@code expected}; false when it changed meanwhile. */
+        boolean replacePasswordHash(long id, String expected, String replacement) throws SQLException;
+    }
+
+    interface Wallets {
+        /** Creates the wallet, or raises its cash to {@code startingCash} cents if it holds less. */
+        void seed(long userId, long startingCash) throws SQLException;
+
+        /** The wallet's cash in cents, or {@link Money#NONE} when the user has no wallet. */
+        long cash(long userId) throws SQLException;
+
+        /** Cash and positions read together, or null when the user has no wallet. */
+        Account account(long userId) throws SQLException;
+
+        /**
+         * Validates and applies one BUY/SELL atomically against the user's
+         * wallet and position in that event, journaling it when the
+         * {@link TradeJournal} is on. Business rejections and storage failures
+         * come back as an unsuccessful response rather than an exception.
+         */
+        JsonResp<?> trade(TradeOrder order);
+
+        /** Writes final wallet and position states from {@link TradeEngine}; later changes win. */
+        void store(List<TradeWriteBehind.Change> changes) throws SQLException;
+
+        /** Every wallet and position, for a {@link TradeSnapshot} starting at {@code startSeq}. */
+        TradeSnapshot dump(long startSeq) throws SQLException;
+    }
+
+    interface Positions {
+        /** The user's positions, newest first. */
+        List<Position> list(long userId) throws SQLException;
+    }
+
+    interface Favorites {
+        /** The user's favorites, most recently added first. */
+        List<Favorite> list(long userId) throws SQLException;
+
+        /** Adds the favorite, or refreshes its details if the event is already a favorite. */
+        void save(long userId, Favorite favorite) throws SQLException;
+
+        void remove(long userId, String eventId) throws SQLException;
+    }
+
+    interface Orders {
+        /**
+         * Takes the order's cash (BUY) or tickets (SELL) into escrow and
+         * records it as open in one step, setting its id. Returns null, or
+         * why the wallet or position cannot cover it.
+         */
+        String open(LimitOrder order) throws SQLException;
+
+        /**
+         * Applies in one step what {@link OrderBook#place} did for
+         * {@code taker}: a fill moves tickets to the buyer and cash to the
+         * seller at the resting order's price and refunds a buyer who bid
+         * above it; a self-trade cancel returns that order's escrow.
+         */
+        void settle(LimitOrder taker, OrderBook.Fills fills) throws SQLException;
+
+        /** Returns what is left of the user's open order to them and deletes it; false when there is no such order. */
+        boolean cancel(long orderId, long userId) throws SQLException;
+
+        /** The event's open orders, oldest first, to rebuild its book from. */
+        List<LimitOrder> book(String eventId) throws SQLException;
+
+        /** The user's open orders, newest first. */
+        List<LimitOrder> list(long userId) throws SQLException;
+    }
+
+    abstract String name();
+
+    abstract Users users();
+
+    abstract Wallets wallets();
+
+    abstract Positions positions();
+
+    abstract Favorites favorites();
+
+    abstract Orders orders();
+
+    Stats stats() {
+        return fill(new Stats());
+    }
+
+    /** Sets the fields every backend reports. */
+    final <S extends Stats> S fill(S s) {
+        s.backend = name();
+        s.fallback = fellBack ? 1 : 0;
+        return s;
+    }
+
+    /** The backend serving this node, starting it on first use. */
+    static Storage get() {
+        Storage s = instance;
+        if (s != null) return s;
+        start();
+        return instance;
+    }
+
+    /**
+     * Picks the backend. For MySQL this also runs the migrations and warms
+     * the pool, which is how the fallback decision learns whether MySQL is up.
+     */
+    static synchronized void start() {
+        if (instance != null) return;
+        if ("memory".equalsIgnoreCase(BACKEND)) {
+            instance = new InMemoryStorage();
+            return;
+        }
+        JDBCConnector.warmUp();
+        if (JDBCConnector.schemaVersion() < 0 && "memory".equalsIgnoreCase(FALLBACK)) {
+            Metrics.error("storage", "MySQL unreachable at deploy; serving from in-memory storage until redeployed");
+            JDBCConnector.shutdown();
+            fellBack = true;
+            instance = new InMemoryStorage();
+            return;
+        }
+        instance = new MySqlStorage();
+    }
+
+    static synchronized void stop() {
+        instance = null;
+        fellBack = false;
+    }
+
+    /** Counters for the running backend, or null before it started. */
+    static Stats currentStats() {
+        Storage s = instance;
+        return s == null ? null : s.stats();
+    }
+
+    /** The trade is already stored, so a journal flush failure is logged rather than surfaced. */
+    static void awaitJournal(long seq) {
+        try {
+            TradeJournal.awaitIfEnabled(seq);
+        } catch (IOException e) {
+            Metrics.error("trade_journal", "Trade committed but journal flush failed: " + e.getMessage());
+        }
+    }
+}
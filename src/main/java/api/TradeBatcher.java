@@ -0,0 +1,358 @@
+package api;
+
+import db.JDBCConnector;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group-commit stage for /trade, enabled with {@code -Dtt.trade.mode=batch}.
+ *
+ * <p>Trades that arrive within {@code tt.trade.batch.windowMicros} of the
+ * first one in a batch (or until {@code tt.trade.batch.maxSize} have queued)
+ * are applied together in one MySQL transaction: the affected wallet and
+ * position rows are locked once, each trade is validated in arrival order
+ * with {@link TradeMath}, and the resulting rows are written with JDBC
+ * batches. Every caller still gets its own result, including the business
+ * rejections (insufficient cash, nothing to sell, sell qty too large).
+ * A batch that fails to commit is retried one trade at a time, so only the
+ * trade that caused it fails. A caller whose trade is still queued when its
+ * wait times out is told to retry; one whose trade was already taken gets
+ * {@link TradeEngine#UNKNOWN}.
+ */
+final class TradeBatcher {
+    private static final String MODE = System.getProperty("tt.trade.mode", "direct");
+    private static final long WINDOW_MICROS = Long.getLong("tt.trade.batch.windowMicros", 2_000L);
+    private static final int MAX_SIZE = Integer.getInteger("tt.trade.batch.maxSize", 64);
+    private static final long RESULT_TIMEOUT_MS = Long.getLong("tt.trade.batch.resultTimeoutMs", 10_000L);
+    private static final int SIZE_BUCKETS = 8; // 1, 2-3, 4-7, ... 128+
+
+    /** Batch-size and queueing-delay counters since startup. */
+    static final class Stats {
+        public long batches;
+        public long trades;
+        public long splitBatches;
+        public long maxBatchSize;
+        public long[] batchSizeBuckets;
+        public long queueDelayNanosTotal;
+        public long queueDelayNanosMax;
+        public int queued;
+    }
+
+    private static final class Pending {
+        final TradeOrder order;
+        final long enqueuedNanos = System.nanoTime();
+        final CompletableFuture<JsonResp<?>> result = new CompletableFuture<>();
+        JsonResp<?> outcome;
+
+        Pending(TradeOrder order) { this.order = order; }
+    }
+
+    private static volatile TradeBatcher instance;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closing;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder trades = new LongAdder();
+    private final LongAdder split = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLongArray sizeBuckets = new AtomicLongArray(SIZE_BUCKETS);
+    private final LongAdder queueDelayTotal = new LongAdder();
+    private final AtomicLong queueDelayMax = new AtomicLong();
+
+    private TradeBatcher() {
+        thread = new Thread(this::run, "trade-batcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Group commit is a MySQL technique; on the in-memory backend trades go the direct path. */
+    static boolean enabled() { return "batch".equalsIgnoreCase(MODE) && Storage.get() instanceof MySqlStorage; }
+
+    static synchronized void start() {
+        if (instance == null && enabled()) instance = new TradeBatcher();
+    }
+
+    static synchronized void stop() {
+        TradeBatcher b = instance;
+        if (b == null) return;
+        instance = null;
+        b.closing = true;
+        b.thread.interrupt();
+        try {
+            b.thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Counters for the running batcher, or null when batching is off. */
+    static Stats stats() {
+        TradeBatcher b = instance;
+        if (b == null) return null;
+        Stats s = new Stats();
+        s.batches = b.batches.sum();
+        s.trades = b.trades.sum();
+        s.splitBatches = b.split.sum();
+        s.maxBatchSize = b.maxBatchSize.get();
+        s.batchSizeBuckets = new long[SIZE_BUCKETS];
+        for (int i = 0; i < SIZE_BUCKETS; i++) s.batchSizeBuckets[i] = b.sizeBuckets.get(i);
+        s.queueDelayNanosTotal = b.queueDelayTotal.sum();
+        s.queueDelayNanosMax = b.queueDelayMax.get();
+        s.queued = b.queue.size();
+        return s;
+    }
+
+    /** Queues one trade and waits for the outcome of the batch it lands in. */
+    static JsonResp<?> execute(TradeOrder order) {
+        TradeBatcher b = instance;
+        if (b == null) {
+            start();
+            b = instance;
+        }
+        if (b == null || b.closing) return new JsonResp<>(false, "Server error: trade batcher is shutting down");
+        Pending p = new Pending(order);
+        b.queue.add(p);
+        try {
+            return p.result.get(RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Still queued means it never ran and is safe to retry; once taken, it may yet commit.
+            if (b.queue.remove(p)) return new JsonResp<>(false, "Server busy, please retry");
+            return TradeEngine.UNKNOWN;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new JsonResp<>(false, "Server error: interrupted");
+        } catch (ExecutionException e) {
+            return new JsonResp<>(false, "Server error: " + e.getCause().getMessage());
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(MAX_SIZE);
+        while (true) {
+            try {
+                Pending first = closing ? queue.poll() : queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    if (closing) return;
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedNanos + TimeUnit.MICROSECONDS.toNanos(WINDOW_MICROS);
+                while (batch.size() < MAX_SIZE) {
+                    long left = deadline - System.nanoTime();
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // stop() wakes us; fall through and process what we have
+            }
+            if (batch.isEmpty()) continue;
+            record(batch);
+            process(batch);
+            batch.clear();
+        }
+    }
+
+    private void record(List<Pending> batch) {
+        int n = batch.size();
+        batches.increment();
+        trades.add(n);
+        maxBatchSize.accumulateAndGet(n, Math::max);
+        sizeBuckets.incrementAndGet(Math.min(SIZE_BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(n)));
+        long now = System.nanoTime();
+        for (Pending p : batch) {
+            long delay = now - p.enqueuedNanos;
+            queueDelayTotal.add(delay);
+            queueDelayMax.accumulateAndGet(delay, Math::max);
+        }
+    }
+
+    /**
+     * Commits a batch. When that fails, the trades are tried again one by one
+     * so a single bad trade does not fail the others with it.
+     */
+    private void process(List<Pending> batch) {
+        Exception failure = commit(batch);
+        if (failure == null) return;
+        if (batch.size() > 1) {
+            split.increment();
+            for (Pending p : batch) {
+                Exception alone = commit(Collections.singletonList(p));
+                if (alone != null) p.result.complete(new JsonResp<>(false, "DB error: " + alone.getMessage()));
+            }
+        } else {
+            batch.get(0).result.complete(new JsonResp<>(false, "DB error: " + failure.getMessage()));
+        }
+    }
+
+    /** Runs and commits {@code batch}, completing its results; on failure rolls back and returns the cause. */
+    private static Exception commit(List<Pending> batch) {
+        Connection c = null;
+        List<TradeJournal.Entry> reversals = new ArrayList<>();
+        List<Long> journaled = new ArrayList<>();
+        long lastSeq = 0;
+        List<TradeWriteBehind.Change> changes = new ArrayList<>();
+        try {
+            c = JDBCConnector.get();
+            c.setAutoCommit(false);
+            Map<Long, Long> cash = lockWallets(c, batch);
+            Map<String, TradeMath.Holding> held = lockPositions(c, batch);
+
+            for (Pending p : batch) {
+                TradeOrder o = p.order;
+                Long balance = cash.get(o.userId);
+                if (balance == null) {
+                    ProvisionedUsers.forget(o.userId);
+                    p.outcome = new JsonResp<>(false, TradeMath.WALLET_NOT_FOUND);
+                    continue;
+                }
+                String key = key(o.userId, o.eventId);
+                TradeMath.Holding prev = held.get(key);
+                long tradeValue = TradeMath.tradeValue(o);
+                TradeMath.Holding next;
+                long after;
+                if (o.buy) {
+                    if (!TradeMath.canAfford(balance, tradeValue)) {
+                        p.outcome = new JsonResp<>(false, TradeMath.INSUFFICIENT_CASH);
+                        continue;
+                    }
+                    next = TradeMath.buy(prev, o, tradeValue);
+                    after = Money.minus(balance, tradeValue);
+                } else {
+                    if (prev == null) {
+                        p.outcome = new JsonResp<>(false, TradeMath.NO_POSITION);
+                        continue;
+                    }
+                    if (o.qty > prev.qty) {
+                        p.outcome = new JsonResp<>(false, TradeMath.EXCEEDS_POSITION);
+                        continue;
+                    }
+                    next = TradeMath.sell(prev, o.qty);
+                    after = Money.plus(balance, tradeValue);
+                }
+                cash.put(o.userId, after);
+                if (next.qty == 0) held.remove(key);
+                else held.put(key, next);
+                changes.add(new TradeWriteBehind.Change(o.userId, after, o.eventId, next, 0, null));
+                // Rows are still locked, so journal order matches commit order per user.
+                long seq = TradeJournal.appendIfEnabled(TradeJournal.Entry.of(o, after, next));
+                if (seq > 0) {
+                    journaled.add(seq);
+                    reversals.add(0, TradeJournal.Entry.reversal(o, balance, prev));
+                }
+                lastSeq = Math.max(lastSeq, seq);
+                p.outcome = new JsonResp<>(true, "Done");
+            }
+
+            if (!changes.isEmpty()) TradeWriteBehind.apply(c, changes);
+            c.commit();
+        } catch (Exception e) {
+            if (c != null) try { c.rollback(); } catch (Exception ignore) {}
+            // Whatever was journaled before the failure did not commit; undo it for replay.
+            reverse(reversals);
+            return e;
+        } finally {
+            for (long seq : journaled) TradeJournal.settle(seq);
+            if (c != null) try { c.setAutoCommit(true); } catch (Exception ignore) {}
+            JDBCConnector.closeQuiet(c);
+        }
+        for (TradeWriteBehind.Change ch : changes) WalletVersions.bump(ch.userId);
+
+        try {
+            TradeJournal.awaitIfEnabled(lastSeq);
+        } catch (IOException e) {
+            Metrics.error("trade_journal", "Trade batch committed but journal flush failed: " + e.getMessage());
+        }
+        for (Pending p : batch) p.result.complete(p.outcome);
+        return null;
+    }
+
+    /** Appends the reversals of a batch that did not commit, newest trade first. */
+    private static void reverse(List<TradeJournal.Entry> reversals) {
+        for (TradeJournal.Entry r : reversals) {
+            try {
+                TradeJournal.settle(TradeJournal.appendIfEnabled(r));
+            } catch (IOException e) {
+                Metrics.error("trade_journal", "Reversal of a rolled-back trade for user " + r.userId
+                        + " could not be journaled: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Locks the batch's wallet rows in user-id order (so concurrent lockers cannot deadlock) and reads cash. */
+    private static Map<Long, Long> lockWallets(Connection c, List<Pending> batch) throws SQLException {
+        Set<Long> users = new TreeSet<>();
+        for (Pending p : batch) users.add(p.order.userId);
+        Map<Long, Long> cash = new HashMap<>();
+        try (PreparedStatement ps = c.prepareStatement("SELECT user_id, cash_usd FROM wallet WHERE user_id IN ("
+                + placeholders(users.size(), "?") + ") ORDER BY user_id FOR UPDATE")) {
+            int i = 1;
+            for (long u : users) ps.setLong(i++, u);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) cash.put(rs.getLong(1), Money.of(rs.getBigDecimal(2)));
+            }
+        }
+        return cash;
+    }
+
+    private static Map<String, TradeMath.Holding> lockPositions(Connection c, List<Pending> batch) throws SQLException {
+        Set<String> keys = new LinkedHashSet<>();
+        List<TradeOrder> distinct = new ArrayList<>();
+        for (Pending p : batch) {
+            if (keys.add(key(p.order.userId, p.order.eventId))) distinct.add(p.order);
+        }
+        Map<String, TradeMath.Holding> held = new HashMap<>();
+        try (PreparedStatement ps = c.prepareStatement("SELECT user_id, event_id, event_name, qty, total_cost_usd, "
+                + "min_price_usd, max_price_usd FROM positions WHERE (user_id, event_id) IN ("
+                + placeholders(distinct.size(), "(?,?)") + ") FOR UPDATE")) {
+            int i = 1;
+            for (TradeOrder o : distinct) {
+                ps.setLong(i++, o.userId);
+                ps.setString(i++, o.eventId);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    held.put(key(rs.getLong(1), rs.getString(2)), new TradeMath.Holding(rs.getString(3),
+                            rs.getInt(4), Money.of(rs.getBigDecimal(5)), Money.of(rs.getBigDecimal(6)),
+                            Money.of(rs.getBigDecimal(7))));
+                }
+            }
+        }
+        return held;
+    }
+
+    private static String placeholders(int n, String one) {
+        StringBuilder sb = new StringBuilder(n * (one.length() + 1));
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(one);
+        }
+        return sb.toString();
+    }
+
+    private static String key(long userId, String eventId) {
+        return userId + "\u0000" + eventId;
+    }
+}
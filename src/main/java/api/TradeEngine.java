@@ -0,0 +1,236 @@
+package api;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Optional in-memory trade engine, enabled with {@code -Dtt.trade.mode=engine}.
+ *
+ * <p>Wallets and positions are loaded from {@link Storage} the first time a
+ * user trades and then stay resident, up to {@code tt.trade.engine.maxAccounts}
+ * of the most recently used. Users are sharded by id across single-threaded
+ * executors, so each account is only ever touched by one thread and BUY/SELL
+ * validation needs neither locks nor a DB round trip. Every accepted trade
+ * hands the account's new state to {@link TradeWriteBehind}, which persists
+ * it in batched transactions.
+ *
+ * <p>With {@code tt.trade.engine.durableAck=true} (the default) a trade is
+ * only acknowledged once its batch has committed, so MySQL always holds every
+ * acknowledged trade and a restarted node simply reloads accounts from it.
+ * With durable acks off, trades are acknowledged from memory as soon as the
+ * {@link TradeJournal} (if enabled) has them on disk; without a journal a
+ * crash can lose up to one flush window of them.
+ */
+final class TradeEngine {
+    private static final String MODE = System.getProperty("tt.trade.mode", "direct");
+    private static final int SHARDS = Integer.getInteger("tt.trade.engine.shards",
+            Runtime.getRuntime().availableProcessors());
+    private static final boolean DURABLE_ACK =
+            Boolean.parseBoolean(System.getProperty("tt.trade.engine.durableAck", "true"));
+    private static final long ACK_TIMEOUT_MS = Long.getLong("tt.trade.engine.ackTimeoutMs", 5_000L);
+    private static final int MAX_ACCOUNTS = Integer.getInteger("tt.trade.engine.maxAccounts", 100_000);
+    /** How many of the least recently used accounts a trim looks at for one without queued writes. */
+    private static final int TRIM_SCAN = 16;
+
+    /** Answered with 202: the trade is applied and queued, but not yet saved. */
+    static final JsonResp<?> PENDING =
+            new JsonResp<>(true, "Trade accepted; it is still being saved, refresh your wallet shortly");
+    /** Answered with 504: the trade is still queued and may or may not go through. */
+    static final JsonResp<?> UNKNOWN =
+            new JsonResp<>(false, "Trade timed out; its outcome is unknown, check your wallet before retrying");
+
+    private static volatile TradeEngine instance;
+
+    /** A user's resident wallet; only read or written on its shard's thread. */
+    private static final class Account {
+        long cash; // cents
+        final Map<String, TradeMath.Holding> holdings = new HashMap<>();
+        final TradeWriteBehind.Tracker writes = new TradeWriteBehind.Tracker();
+    }
+
+    private final ExecutorService[] shards;
+    private final List<Map<Long, Account>> accounts; // per shard, least recently used first
+    private final int maxPerShard;
+    private final TradeWriteBehind writer;
+
+    private TradeEngine(int shardCount) {
+        shards = new ExecutorService[shardCount];
+        accounts = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            String name = "trade-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+            accounts.add(new LinkedHashMap<>(16, 0.75f, true));
+        }
+        maxPerShard = Math.max(1, MAX_ACCOUNTS / shardCount);
+        writer = new TradeWriteBehind();
+    }
+
+    static boolean enabled() { return "engine".equalsIgnoreCase(MODE); }
+
+    static synchronized void start() {
+        if (instance == null && enabled()) instance = new TradeEngine(Math.max(1, SHARDS));
+    }
+
+    /** Stops accepting trades, waits for the shards to drain and flushes pending writes. */
+    static synchronized void stop() {
+        TradeEngine e = instance;
+        if (e == null) return;
+        instance = null;
+        for (ExecutorService shard : e.shards) shard.shutdown();
+        try {
+            for (ExecutorService shard : e.shards) shard.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        e.writer.close();
+    }
+
+    /** Write-behind counters, or null when the engine is off. */
+    static TradeWriteBehind.Stats stats() {
+        TradeEngine e = instance;
+        return e == null ? null : e.writer.stats();
+    }
+
+    /**
+     * Runs one trade through the engine and waits for its acknowledgement.
+     * When the wait times out the answer is {@link #PENDING} if the trade
+     * already passed validation and is only waiting to be saved, or
+     * {@link #UNKNOWN} if it has not been looked at yet; neither must be
+     * retried blindly.
+     */
+    static JsonResp<?> execute(TradeOrder order) {
+        TradeEngine e = instance;
+        if (e == null) {
+            start();
+            e = instance;
+        }
+        AtomicBoolean accepted = new AtomicBoolean();
+        try {
+            return e.submit(order, accepted).get(ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            return accepted.get() ? PENDING : UNKNOWN;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return new JsonResp<>(false, "Server error: interrupted");
+        } catch (ExecutionException ee) {
+            return new JsonResp<>(false, "Server error: " + ee.getCause().getMessage());
+        } catch (RejectedExecutionException re) {
+            return new JsonResp<>(false, "Server error: trade engine is shutting down");
+        }
+    }
+
+    CompletableFuture<JsonResp<?>> submit(TradeOrder order, AtomicBoolean accepted) {
+        int shard = (int) Math.floorMod(order.userId, (long) shards.length);
+        CompletableFuture<JsonResp<?>> result = new CompletableFuture<>();
+        shards[shard].execute(() -> {
+            try {
+                apply(accounts.get(shard), order, result, accepted);
+            } catch (Exception ex) {
+                result.complete(new JsonResp<>(false, "DB error: " + ex.getMessage()));
+            }
+        });
+        return result;
+    }
+
+    private void apply(Map<Long, Account> resident, TradeOrder order, CompletableFuture<JsonResp<?>> result,
+                       AtomicBoolean accepted) throws SQLException, IOException {
+        Account a = resident.get(order.userId);
+        if (a != null && a.writes.dropped && a.writes.unsaved.get() == 0) {
+            // A write of this account was dropped: storage, not memory, is what the next trade must see.
+            resident.remove(order.userId);
+            a = null;
+        }
+        if (a == null) {
+            a = load(order.userId);
+            if (a == null) {
+                ProvisionedUsers.forget(order.userId);
+                result.complete(new JsonResp<>(false, TradeMath.WALLET_NOT_FOUND));
+                return;
+            }
+            resident.put(order.userId, a);
+            trim(resident);
+        }
+
+        long tradeValue = TradeMath.tradeValue(order);
+        TradeMath.Holding held = a.holdings.get(order.eventId);
+        TradeMath.Holding next;
+        long cash;
+        if (order.buy) {
+            if (!TradeMath.canAfford(a.cash, tradeValue)) {
+                result.complete(new JsonResp<>(false, TradeMath.INSUFFICIENT_CASH));
+                return;
+            }
+            next = TradeMath.buy(held, order, tradeValue);
+            cash = Money.minus(a.cash, tradeValue);
+        } else {
+            if (held == null) {
+                result.complete(new JsonResp<>(false, TradeMath.NO_POSITION));
+                return;
+            }
+            if (order.qty > held.qty) {
+                result.complete(new JsonResp<>(false, TradeMath.EXCEEDS_POSITION));
+                return;
+            }
+            next = TradeMath.sell(held, order.qty);
+            cash = Money.plus(a.cash, tradeValue);
+        }
+
+        // Journal before touching resident state so a failed append leaves the account unchanged.
+        TradeJournal journal = TradeJournal.get();
+        long seq = TradeJournal.appendIfEnabled(TradeJournal.Entry.of(order, cash, next));
+
+        a.cash = cash;
+        if (next.qty == 0) a.holdings.remove(order.eventId);
+        else a.holdings.put(order.eventId, next);
+
+        accepted.set(true);
+        a.writes.unsaved.incrementAndGet();
+        writer.enqueue(new TradeWriteBehind.Change(order.userId, cash, order.eventId, next, seq,
+                DURABLE_ACK ? result : null, a.writes));
+        if (!DURABLE_ACK) {
+            JsonResp<?> done = new JsonResp<>(true, "Done");
+            if (journal != null) journal.onDurable(seq, () -> result.complete(done));
+            else result.complete(done);
+        }
+    }
+
+    /**
+     * Evicts least recently used accounts past {@code tt.trade.engine.maxAccounts}
+     * (split across shards). Accounts with queued writes stay, since reloading
+     * them from storage would lose those writes; they go on a later trim.
+     */
+    private void trim(Map<Long, Account> resident) {
+        Iterator<Account> it = resident.values().iterator();
+        for (int scanned = 0; resident.size() > maxPerShard && scanned < TRIM_SCAN && it.hasNext(); scanned++) {
+            if (it.next().writes.unsaved.get() == 0) it.remove();
+        }
+    }
+
+    /** Reads a user's wallet and positions; returns null when the wallet is missing. */
+    private static Account load(long userId) throws SQLException {
+        Storage.Account stored = Storage.get().wallets().account(userId);
+        if (stored == null) return null;
+        Account a = new Account();
+        a.cash = stored.cash;
+        for (Storage.Position p : stored.positions) a.holdings.put(p.eventId, p.holding);
+        return a;
+    }
+}
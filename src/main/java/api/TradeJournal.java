@@ -0,0 +1,448 @@
+package api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of every committed BUY/SELL. Enabled by
+ * pointing {@code -Dtt.journal.dir} at a writable directory.
+ *
+ * <p>Records are fixed-width ({@link #RECORD_SIZE} bytes) and carry the
+ * wallet cash and position state <em>after</em> the trade, so replaying a
+ * record is idempotent and {@link JournalReplay} can rebuild the tables from
+ * a {@link TradeSnapshot} plus the journal tail without redoing any math.
+ * Segments are files of {@code tt.journal.segmentRecords} records named after
+ * their first sequence number. Durability is group-committed: appends only
+ * write into the mapping and a flusher thread forces everything appended so
+ * far in one go, releasing all callers waiting on those records.
+ *
+ * <p>Callers append before their storage commit, so a record can exist for a
+ * trade that is not (yet, or ever) committed. Each appended sequence stays
+ * unsettled until its transaction has finished and {@link #snapshotStartSeq}
+ * never moves past an unsettled one; that is what keeps a snapshot taken in
+ * that window from pruning the record.
+ */
+final class TradeJournal implements AutoCloseable {
+    static final int RECORD_SIZE = 256;
+    static final int EVENT_ID_BYTES = 64;
+    static final int EVENT_NAME_BYTES = 100;
+    private static final int CRC_OFFSET = 248;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String DIR = System.getProperty("tt.journal.dir");
+    private static final int SEGMENT_RECORDS = Integer.getInteger("tt.journal.segmentRecords", 65_536);
+    private static final long DURABLE_TIMEOUT_MS = Long.getLong("tt.journal.durableTimeoutMs", 5_000L);
+
+    private static volatile TradeJournal instance;
+
+    /** One journaled trade and the resulting account state. */
+    static final class Entry {
+        long seq;
+        long timestampMillis;
+        final long userId;
+        final boolean buy;
+        final int qty;
+        final long price;     // cents
+        final long cashAfter; // cents
+        final String eventId;
+        final TradeMath.Holding holdingAfter; // qty 0 when the position was closed
+
+        Entry(long userId, boolean buy, int qty, long price, long cashAfter,
+              String eventId, TradeMath.Holding holdingAfter) {
+            this.userId = userId;
+            this.buy = buy;
+            this.qty = qty;
+            this.price = price;
+            this.cashAfter = cashAfter;
+            this.eventId = eventId;
+            this.holdingAfter = holdingAfter;
+        }
+
+        static Entry of(TradeOrder o, long cashAfter, TradeMath.Holding holdingAfter) {
+            return new Entry(o.userId, o.buy, o.qty, o.buy ? o.buyPrice : o.sellPrice, cashAfter, o.eventId, holdingAfter);
+        }
+
+        /**
+         * Restores the pre-trade state after a journaled trade failed to commit.
+         * Marked by qty 0; {@code before} is null when the user held nothing.
+         */
+        static Entry reversal(TradeOrder o, long cashBefore, TradeMath.Holding before) {
+            TradeMath.Holding h = before != null ? before : new TradeMath.Holding(o.eventName, 0, 0, 0, 0);
+            return new Entry(o.userId, o.buy, 0, 0, cashBefore, o.eventId, h);
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final long seq;
+        final Runnable action;
+
+        Waiter(long seq, Runnable action) { this.seq = seq; this.action = action; }
+
+        @Override
+        public int compareTo(Waiter o) { return Long.compare(seq, o.seq); }
+    }
+
+    private final Path dir;
+    private final int segmentRecords;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private final ConcurrentSkipListSet<Long> unsettled = new ConcurrentSkipListSet<>();
+    private final Thread flusher;
+
+    // Guarded by this.
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int slot;
+    private long nextSeq;
+    private long durableSeq;
+    private int dirtyFrom;
+    private boolean closed;
+
+    private TradeJournal(Path dir, int segmentRecords) throws IOException {
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        Files.createDirectories(dir);
+        recover();
+        flusher = new Thread(this::flushLoop, "trade-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    static boolean enabled() { return DIR != null && !DIR.isBlank(); }
+
+    static Path directory() { return enabled() ? Path.of(DIR) : null; }
+
+    /** The running journal, or null when journaling is disabled or not started. */
+    static TradeJournal get() { return instance; }
+
+    static synchronized void start() {
+        if (instance != null || !enabled()) return;
+        try {
+            instance = new TradeJournal(Path.of(DIR), SEGMENT_RECORDS);
+        } catch (IOException e) {
+            System.err.println("Trade journal disabled, cannot open " + DIR + ": " + e.getMessage());
+        }
+    }
+
+    static synchronized void stop() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Appends when journaling is on; returns the record's sequence, or 0 when it
+     * is off. Callers append before their MySQL commit and must {@link #settle}
+     * the sequence once the transaction has committed or rolled back.
+     */
+    static long appendIfEnabled(Entry e) throws IOException {
+        TradeJournal j = instance;
+        return j == null ? 0 : j.append(e);
+    }
+
+    /** Marks a record's MySQL transaction as finished; a no-op for 0. */
+    static void settle(long seq) {
+        TradeJournal j = instance;
+        if (j != null && seq > 0) j.unsettled.remove(seq);
+    }
+
+    /** Blocks until record {@code seq} is on disk; a no-op for 0 or when journaling is off. */
+    static void awaitIfEnabled(long seq) throws IOException {
+        TradeJournal j = instance;
+        if (j != null && seq > 0) j.awaitDurable(seq, DURABLE_TIMEOUT_MS);
+    }
+
+    /** Writes the record into the mapping and returns its sequence number, unsettled. */
+    synchronized long append(Entry e) throws IOException {
+        if (closed) throw new IOException("Trade journal is closed");
+        if (slot == segmentRecords) roll();
+        e.seq = nextSeq++;
+        unsettled.add(e.seq);
+        if (e.timestampMillis == 0) e.timestampMillis = System.currentTimeMillis();
+        encode(e, scratch);
+        map.put(slot * RECORD_SIZE, scratch, 0, RECORD_SIZE);
+        slot++;
+        notifyAll();
+        return e.seq;
+    }
+
+    /** Runs {@code action} on the flusher thread once {@code seq} is durable (or right away if it already is). */
+    void onDurable(long seq, Runnable action) {
+        synchronized (this) {
+            if (seq > durableSeq) {
+                waiters.add(new Waiter(seq, action));
+                return;
+            }
+        }
+        action.run();
+    }
+
+    synchronized void awaitDurable(long seq, long timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (durableSeq < seq) {
+            if (closed) throw new IOException("Trade journal closed before record " + seq + " was flushed");
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) throw new IOException("Timed out waiting for journal flush of record " + seq);
+            try {
+                wait(left);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for journal flush", ie);
+            }
+        }
+    }
+
+    /**
+     * First sequence a snapshot taken now must replay from: every earlier
+     * record's transaction has finished, so a fresh read of MySQL covers it.
+     */
+    synchronized long snapshotStartSeq() {
+        return unsettled.isEmpty() ? nextSeq : Math.min(nextSeq, unsettled.first());
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            map.force();
+            try { channel.close(); } catch (IOException ignore) {}
+            notifyAll();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            MappedByteBuffer toForce;
+            int from, to;
+            long upTo;
+            synchronized (this) {
+                while (!closed && nextSeq - 1 == durableSeq) {
+                    try { wait(); } catch (InterruptedException e) { return; }
+                }
+                if (closed && nextSeq - 1 == durableSeq) return;
+                toForce = map;
+                from = dirtyFrom;
+                to = slot;
+                upTo = nextSeq - 1;
+                dirtyFrom = slot;
+            }
+            // One force covers every record appended since the last one: the group commit.
+            toForce.force(from * RECORD_SIZE, (to - from) * RECORD_SIZE);
+            List<Waiter> ready = new ArrayList<>();
+            synchronized (this) {
+                durableSeq = Math.max(durableSeq, upTo);
+                while (!waiters.isEmpty() && waiters.peek().seq <= upTo) ready.add(waiters.poll());
+                notifyAll();
+            }
+            for (Waiter w : ready) {
+                try {
+                    w.action.run();
+                } catch (RuntimeException e) {
+                    Metrics.error("trade_journal", "Durable callback for seq " + w.seq + " failed: " + e);
+                }
+            }
+        }
+    }
+
+    /** Caller holds the lock. Forces the full segment, then maps a fresh one. */
+    private void roll() throws IOException {
+        map.force();
+        channel.close();
+        durableSeq = nextSeq - 1;
+        openSegment(nextSeq);
+    }
+
+    private void openSegment(long firstSeq) throws IOException {
+        Path file = dir.resolve(segmentName(firstSeq));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_SIZE);
+        slot = 0;
+        dirtyFrom = 0;
+    }
+
+    /** Finds the tail of the newest segment so appends resume after the last intact record. */
+    private void recover() throws IOException {
+        List<Path> segments = segments(dir);
+        if (segments.isEmpty()) {
+            nextSeq = 1;
+            durableSeq = 0;
+            openSegment(1);
+            return;
+        }
+        Path last = segments.get(segments.size() - 1);
+        long first = firstSeq(last);
+        channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int records = (int) Math.max(segmentRecords, channel.size() / RECORD_SIZE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) records * RECORD_SIZE);
+        int n = 0;
+        while (n < records && decode(map, n * RECORD_SIZE, first + n) != null) n++;
+        slot = n;
+        dirtyFrom = n;
+        nextSeq = first + n;
+        durableSeq = nextSeq - 1;
+        if (n == records) roll();
+    }
+
+    /** Streams every intact record with {@code seq >= fromSeq}, oldest first. */
+    static void read(Path dir, long fromSeq, Consumer<Entry> sink) throws IOException {
+        List<Path> segments = segments(dir);
+        for (int i = 0; i < segments.size(); i++) {
+            long first = firstSeq(segments.get(i));
+            if (i + 1 < segments.size() && firstSeq(segments.get(i + 1)) <= fromSeq) continue;
+            try (FileChannel ch = FileChannel.open(segments.get(i), StandardOpenOption.READ)) {
+                MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                int records = (int) (ch.size() / RECORD_SIZE);
+                for (int n = 0; n < records; n++) {
+                    Entry e = decode(m, n * RECORD_SIZE, first + n);
+                    if (e == null) break;
+                    if (e.seq >= fromSeq) sink.accept(e);
+                }
+            }
+        }
+    }
+
+    /** Deletes segments whose records all precede {@code seq}; the active segment is never removed. */
+    static void deleteSegmentsBefore(Path dir, long seq) throws IOException {
+        List<Path> segments = segments(dir);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstSeq(segments.get(i + 1)) <= seq) Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> {
+                String n = p.getFileName().toString();
+                return n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(out::add);
+        }
+        return out;
+    }
+
+    private static String segmentName(long firstSeq) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX);
+    }
+
+    private static long firstSeq(Path segment) {
+        String n = segment.getFileName().toString();
+        return Long.parseLong(n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // ---- record layout ----------------------------------------------------
+    //   0 seq | 8 timestamp | 16 userId | 24 side | 25 flags | 28 qty | 32 price
+    //  40 cashAfter | 48 posQty | 56 posCost | 64 posMin | 72 posMax
+    //  80 eventId len + 64 bytes | 146 eventName len + 100 bytes | 248 crc32
+    // TradeOrder.parse keeps ids and names within these widths, so nothing is cut here.
+    // Money is stored as fixed-point micros (6 decimal places), the format records had before
+    // amounts became cents. micros/fromMicros are shims for that file format (records and
+    // snapshots); everything else deals in cents.
+
+    private void encode(Entry e, ByteBuffer b) {
+        b.clear();
+        TradeMath.Holding h = e.holdingAfter;
+        b.putLong(0, e.seq);
+        b.putLong(8, e.timestampMillis);
+        b.putLong(16, e.userId);
+        b.put(24, (byte) (e.buy ? 1 : 2));
+        b.put(25, (byte) 0);
+        b.putShort(26, (short) 0);
+        b.putInt(28, e.qty);
+        b.putLong(32, micros(e.price));
+        b.putLong(40, micros(e.cashAfter));
+        b.putInt(48, h.qty);
+        b.putInt(52, 0);
+        b.putLong(56, micros(h.totalCost));
+        b.putLong(64, micros(h.minPrice));
+        b.putLong(72, micros(h.maxPrice));
+        putString(b, 80, e.eventId, EVENT_ID_BYTES);
+        putString(b, 146, h.eventName, EVENT_NAME_BYTES);
+        crc.reset();
+        crc.update(b.array(), 0, CRC_OFFSET);
+        b.putInt(CRC_OFFSET, (int) crc.getValue());
+        b.putInt(252, 0);
+    }
+
+    /** Returns null for an empty slot, a torn write, or a sequence gap. */
+    private static Entry decode(ByteBuffer m, int off, long expectedSeq) {
+        long seq = m.getLong(off);
+        if (seq == 0 || seq != expectedSeq) return null;
+        byte[] raw = new byte[CRC_OFFSET];
+        m.get(off, raw, 0, CRC_OFFSET);
+        CRC32 c = new CRC32();
+        c.update(raw, 0, CRC_OFFSET);
+        if ((int) c.getValue() != m.getInt(off + CRC_OFFSET)) return null;
+
+        ByteBuffer b = ByteBuffer.wrap(raw);
+        TradeMath.Holding h = new TradeMath.Holding(getString(b, 146), b.getInt(48),
+                fromMicros(b.getLong(56)), fromMicros(b.getLong(64)), fromMicros(b.getLong(72)));
+        Entry e = new Entry(b.getLong(16), b.get(24) == 1, b.getInt(28), fromMicros(b.getLong(32)),
+                fromMicros(b.getLong(40)), getString(b, 80), h);
+        e.seq = seq;
+        e.timestampMillis = b.getLong(8);
+        return e;
+    }
+
+    private static void putString(ByteBuffer b, int off, String s, int maxBytes) {
+        byte[] bytes = utf8Prefix(s == null ? "" : s, maxBytes);
+        b.putShort(off, (short) bytes.length);
+        b.put(off + 2, bytes);
+        for (int i = off + 2 + bytes.length; i < off + 2 + maxBytes; i++) b.put(i, (byte) 0);
+    }
+
+    private static String getString(ByteBuffer b, int off) {
+        int len = b.getShort(off);
+        return new String(b.array(), off + 2, len, StandardCharsets.UTF_8);
+    }
+
+    /** Longest prefix of {@code s} whose UTF-8 encoding fits, never splitting a character. */
+    static byte[] utf8Prefix(String s, int maxBytes) {
+        byte[] all = s.getBytes(StandardCharsets.UTF_8);
+        if (all.length <= maxBytes) return all;
+        int end = s.length();
+        byte[] cut;
+        do {
+            end--;
+            if (end > 0 && Character.isLowSurrogate(s.charAt(end))) end--;
+            cut = s.substring(0, end).getBytes(StandardCharsets.UTF_8);
+        } while (cut.length > maxBytes);
+        return cut;
+    }
+
+    /** Cents to the micros that journal and snapshot files keep, for format compatibility only. */
+    static long micros(long cents) {
+        return Math.multiplyExact(cents, 10_000L);
+    }
+
+    /** Back to cents, rounding half up any sub-cent amounts that older records may carry. */
+    static long fromMicros(long micros) {
+        return Money.share(micros, 1, 10_000L);
+    }
+}
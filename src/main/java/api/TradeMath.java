@@ -0,0 +1,118 @@
+package api;
+
+import java.util.Map;
+
+/**
+ * BUY/SELL arithmetic shared by every trade execution path, order book
+ * settlement included, so the cash check, average-cost recalculation and
+ * position bookkeeping stay identical. All amounts are {@link Money} cents.
+ */
+final class TradeMath {
+    static final String WALLET_NOT_FOUND = "Wallet not found";
+    static final String INSUFFICIENT_CASH = "Insufficient cash";
+    static final String NO_POSITION = "No position to sell";
+    static final String EXCEEDS_POSITION = "Sell qty exceeds position";
+
+    /** One user's holding in one event, mirroring a positions row; amounts in cents. Immutable. */
+    static final class Holding {
+        final String eventName;
+        final int qty;
+        final long totalCost;
+        final long minPrice;
+        final long maxPrice;
+
+        Holding(String eventName, int qty, long totalCost, long minPrice, long maxPrice) {
+            this.eventName = eventName;
+            this.qty = qty;
+            this.totalCost = totalCost;
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+        }
+    }
+
+    private TradeMath() {}
+
+    /** Price times qty; {@link TradeOrder#parse} has already checked that it fits. */
+    static long tradeValue(TradeOrder o) {
+        return Money.times(o.buy ? o.buyPrice : o.sellPrice, o.qty);
+    }
+
+    static boolean canAfford(long cash, long tradeValue) {
+        return cash >= tradeValue;
+    }
+
+    /** Position after a BUY; {@code old} is null when the user holds none yet. */
+    static Holding buy(Holding old, TradeOrder o, long tradeValue) {
+        if (old == null) return new Holding(o.eventName, o.qty, tradeValue, o.buyPrice, o.sellPrice);
+        return new Holding(old.eventName, old.qty + o.qty, Money.plus(old.totalCost, tradeValue),
+                Math.min(old.minPrice, o.buyPrice), Math.max(old.maxPrice, o.sellPrice));
+    }
+
+    /**
+     * Position after a SELL that has already been checked against {@code old.qty}.
+     * The tickets kept keep their share of the cost basis, rounded half up to
+     * the cent ({@link Money#share}); the sold ones take the rest. A result
+     * with qty 0 means the row should be deleted.
+     */
+    static Holding sell(Holding old, int qty) {
+        int newQty = old.qty - qty;
+        return new Holding(old.eventName, newQty, Money.share(old.totalCost, newQty, old.qty),
+                old.minPrice, old.maxPrice);
+    }
+
+    /**
+     * The tickets a SELL took out of {@code before}, leaving {@code after};
+     * the cost basis is split so the two add back up exactly.
+     */
+    static Holding removed(Holding before, Holding after) {
+        return new Holding(before.eventName, before.qty - after.qty, before.totalCost - after.totalCost,
+                before.minPrice, before.maxPrice);
+    }
+
+    /** {@code old} with {@code more} put back, e.g. the tickets of a cancelled sell order; {@code old} may be null. */
+    static Holding add(Holding old, Holding more) {
+        if (old == null) return more;
+        return new Holding(old.eventName, old.qty + more.qty, Money.plus(old.totalCost, more.totalCost),
+                Math.min(old.minPrice, more.minPrice), Math.max(old.maxPrice, more.maxPrice));
+    }
+
+    /**
+     * Settles what {@link OrderBook#place} did for {@code taker} on state the
+     * caller has already locked and will write back: {@code cash} and
+     * {@code holdings} (this event's, by user) start with every involved
+     * user's current values, and {@code orders} holds the taker and each
+     * resting order hit, by id. Every fill moves tickets to the buyer at the
+     * trade price, refunds the difference to a buyer who bid higher, and pays
+     * the seller; the orders' remaining qty and escrow shrink to match.
+     */
+    static void settle(LimitOrder taker, OrderBook.Fills fills, Map<Long, Long> cash,
+                       Map<Long, Holding> holdings, Map<Long, LimitOrder> orders) {
+        LimitOrder incoming = orders.get(taker.id);
+        for (int i = 0; i < fills.size(); i++) {
+            LimitOrder resting = orders.get(fills.orderId(i));
+            if (fills.cancelled(i)) {
+                refund(resting, cash, holdings);
+                continue;
+            }
+            int qty = fills.qty(i);
+            long price = fills.price(i);
+            long value = Money.times(price, qty);
+            LimitOrder bid = incoming.buy ? incoming : resting;
+            LimitOrder ask = incoming.buy ? resting : incoming;
+            TradeOrder bought = new TradeOrder(bid.userId, true, bid.eventId, bid.eventName, qty, price, price);
+            holdings.put(bid.userId, buy(holdings.get(bid.userId), bought, value));
+            cash.merge(bid.userId, Money.times(bid.priceCents - price, qty), Money::plus);
+            cash.merge(ask.userId, value, Money::plus);
+            ask.escrow = sell(ask.escrow, qty);
+            bid.remaining -= qty;
+            ask.remaining -= qty;
+        }
+    }
+
+    /** Hands an open order's escrow back to its owner and leaves it with nothing remaining. */
+    static void refund(LimitOrder o, Map<Long, Long> cash, Map<Long, Holding> holdings) {
+        if (o.buy) cash.merge(o.userId, Money.times(o.priceCents, o.remaining), Money::plus);
+        else holdings.put(o.userId, add(holdings.get(o.userId), o.escrow));
+        o.remaining = 0;
+    }
+}
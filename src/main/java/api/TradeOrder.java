@@ -0,0 +1,70 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/** A parsed /trade request body, with the buy/sell prices already resolved to cents. */
+final class TradeOrder {
+    final long userId;
+    final boolean buy;
+    final String eventId;
+    final String eventName;
+    final int qty;
+    final long buyPrice;
+    final long sellPrice;
+
+    TradeOrder(long userId, boolean buy, String eventId, String eventName, int qty,
+               long buyPrice, long sellPrice) {
+        this.userId = userId;
+        this.buy = buy;
+        this.eventId = eventId;
+        this.eventName = eventName;
+        this.qty = qty;
+        this.buyPrice = buyPrice;
+        this.sellPrice = sellPrice;
+    }
+
+    /**
+     * Reads side/eventId/qty/prices from a request body. Throws
+     * IllegalArgumentException with a client-facing message when the body
+     * cannot describe a trade. An event name longer than a journal record
+     * holds is shortened here, so the database and the journal keep the
+     * same label.
+     */
+    static TradeOrder parse(long userId, Map<String, String> body) {
+        String side = body.getOrDefault("side", ""); // "BUY" or "SELL"
+        String eventId = body.getOrDefault("eventId", "");
+        String eventName = body.getOrDefault("eventName", "");
+        int qty = parseInt(body.get("qty"));
+        long priceUsd = Money.parse(body.get("priceUsd"));
+        long minPriceUsd = Money.parse(body.get("minPriceUsd"));
+        long maxPriceUsd = Money.parse(body.get("maxPriceUsd"));
+
+        if (eventId.getBytes(StandardCharsets.UTF_8).length > TradeJournal.EVENT_ID_BYTES) {
+            throw new IllegalArgumentException("eventId is too long");
+        }
+        eventName = new String(TradeJournal.utf8Prefix(eventName, TradeJournal.EVENT_NAME_BYTES), StandardCharsets.UTF_8);
+        if (qty <= 0) throw new IllegalArgumentException("Quantity must be positive");
+        if (priceUsd == Money.NONE && minPriceUsd == Money.NONE && maxPriceUsd == Money.NONE) {
+            throw new IllegalArgumentException("priceUsd is required");
+        }
+
+        long buyPrice = (minPriceUsd != Money.NONE) ? minPriceUsd : priceUsd;
+        long sellPrice = (maxPriceUsd != Money.NONE) ? maxPriceUsd : (priceUsd != Money.NONE ? priceUsd : minPriceUsd);
+        if (buyPrice == Money.NONE) buyPrice = sellPrice;
+        if (sellPrice == Money.NONE) sellPrice = buyPrice;
+        // Zero stays allowed (free tickets); a negative price would pay the buyer.
+        if (buyPrice < 0 || sellPrice < 0) throw new IllegalArgumentException("priceUsd must not be negative");
+        try {
+            Money.times(Math.max(buyPrice, sellPrice), qty);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(Money.TOO_LARGE);
+        }
+
+        return new TradeOrder(userId, "BUY".equalsIgnoreCase(side), eventId, eventName, qty, buyPrice, sellPrice);
+    }
+
+    private static int parseInt(String raw) {
+        try { return Integer.parseInt(raw); } catch (Exception e) { return 0; }
+    }
+}
@@ -0,0 +1,169 @@
+package api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time copy of every wallet and position, written next to the
+ * {@link TradeJournal} segments. A snapshot records the journal sequence it
+ * starts from: every trade with a lower sequence is already reflected in it,
+ * and replaying records from that sequence on brings it up to date (records
+ * carry absolute state, so overlap is harmless).
+ */
+final class TradeSnapshot {
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x54545331; // "TTS1"
+    private static final long INTERVAL_MS = Long.getLong("tt.journal.snapshotIntervalMs", 600_000L);
+    private static final int KEEP = 2;
+
+    private static ScheduledExecutorService scheduler;
+
+    final long startSeq;
+    final long createdMillis;
+    final Map<Long, Long> wallets = new LinkedHashMap<>(); // cents
+    final Map<Long, Map<String, TradeMath.Holding>> positions = new LinkedHashMap<>();
+
+    TradeSnapshot(long startSeq, long createdMillis) {
+        this.startSeq = startSeq;
+        this.createdMillis = createdMillis;
+    }
+
+    /** Applies one journal record on top of this state. */
+    void apply(TradeJournal.Entry e) {
+        wallets.put(e.userId, e.cashAfter);
+        Map<String, TradeMath.Holding> held = positions.computeIfAbsent(e.userId, k -> new LinkedHashMap<>());
+        if (e.holdingAfter.qty == 0) held.remove(e.eventId);
+        else held.put(e.eventId, e.holdingAfter);
+    }
+
+    static synchronized void startScheduler() {
+        if (scheduler != null || TradeJournal.get() == null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "trade-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeAndPrune();
+            } catch (Exception e) {
+                Metrics.error("trade_snapshot", "Trade snapshot failed: " + e.getMessage());
+            }
+        }, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stopScheduler() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Snapshots the tables, then drops older snapshots and the journal
+     * segments only they needed.
+     */
+    static void takeAndPrune() throws Exception {
+        TradeJournal journal = TradeJournal.get();
+        if (journal == null) return;
+        Path dir = TradeJournal.directory();
+        // Anything below this sequence is already stored, so the read below
+        // is guaranteed to include it. Records appended but not yet committed
+        // are unsettled and hold it back (TradeJournal#snapshotStartSeq).
+        long startSeq = journal.snapshotStartSeq();
+        write(dir, Storage.get().wallets().dump(startSeq));
+
+        List<Path> snaps = list(dir);
+        for (int i = 0; i < snaps.size() - KEEP; i++) Files.deleteIfExists(snaps.get(i));
+        List<Path> kept = list(dir);
+        if (!kept.isEmpty()) TradeJournal.deleteSegmentsBefore(dir, readHeaderSeq(kept.get(0)));
+    }
+
+    static void write(Path dir, TradeSnapshot snap) throws IOException {
+        Path target = dir.resolve(String.format("%s%020d%s", PREFIX, snap.startSeq, SUFFIX));
+        Path tmp = dir.resolve(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(snap.startSeq);
+            out.writeLong(snap.createdMillis);
+            out.writeInt(snap.wallets.size());
+            for (Map.Entry<Long, Long> w : snap.wallets.entrySet()) {
+                out.writeLong(w.getKey());
+                out.writeLong(TradeJournal.micros(w.getValue()));
+            }
+            int count = 0;
+            for (Map<String, TradeMath.Holding> m : snap.positions.values()) count += m.size();
+            out.writeInt(count);
+            for (Map.Entry<Long, Map<String, TradeMath.Holding>> u : snap.positions.entrySet()) {
+                for (Map.Entry<String, TradeMath.Holding> p : u.getValue().entrySet()) {
+                    TradeMath.Holding h = p.getValue();
+                    out.writeLong(u.getKey());
+                    out.writeUTF(p.getKey());
+                    out.writeUTF(h.eventName == null ? "" : h.eventName);
+                    out.writeInt(h.qty);
+                    out.writeLong(TradeJournal.micros(h.totalCost));
+                    out.writeLong(TradeJournal.micros(h.minPrice));
+                    out.writeLong(TradeJournal.micros(h.maxPrice));
+                }
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** The newest snapshot in {@code dir}, or null when none has been taken yet. */
+    static TradeSnapshot readLatest(Path dir) throws IOException {
+        List<Path> snaps = list(dir);
+        if (snaps.isEmpty()) return null;
+        Path latest = snaps.get(snaps.size() - 1);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(latest)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a trade snapshot: " + latest);
+            TradeSnapshot snap = new TradeSnapshot(in.readLong(), in.readLong());
+            int wallets = in.readInt();
+            for (int i = 0; i < wallets; i++) snap.wallets.put(in.readLong(), TradeJournal.fromMicros(in.readLong()));
+            int positions = in.readInt();
+            for (int i = 0; i < positions; i++) {
+                long userId = in.readLong();
+                String eventId = in.readUTF();
+                TradeMath.Holding h = new TradeMath.Holding(in.readUTF(), in.readInt(),
+                        TradeJournal.fromMicros(in.readLong()), TradeJournal.fromMicros(in.readLong()),
+                        TradeJournal.fromMicros(in.readLong()));
+                snap.positions.computeIfAbsent(userId, k -> new LinkedHashMap<>()).put(eventId, h);
+            }
+            return snap;
+        }
+    }
+
+    private static long readHeaderSeq(Path snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshot))) {
+            in.readInt();
+            return in.readLong();
+        }
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> {
+                String n = p.getFileName().toString();
+                return n.startsWith(PREFIX) && n.endsWith(SUFFIX);
+            }).sorted().forEach(out::add);
+        }
+        return out;
+    }
+}
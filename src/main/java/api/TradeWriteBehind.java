@@ -0,0 +1,240 @@
+package api;
+
+import db.JDBCConnector;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persists the account states produced by {@link TradeEngine}. A single writer
+ * thread drains whatever has queued up, keeps only the latest state per wallet
+ * and per position, and hands the lot to {@link Storage} in one go (one
+ * transaction with JDBC batches on MySQL). Batches are applied strictly in
+ * order and retried up to {@code tt.trade.engine.maxRetries} times. A batch
+ * that still fails is split and each change tried on its own, so one bad
+ * change cannot hold up the rest; the ones that fail again are dropped,
+ * logged and counted, and the engine reloads their accounts from storage. A dropped change's journal record stays unsettled, so
+ * {@link JournalReplay} can still bring storage up to date from the journal.
+ */
+final class TradeWriteBehind {
+    private static final int MAX_BATCH = Integer.getInteger("tt.trade.engine.maxBatch", 512);
+    private static final int MAX_RETRIES = Integer.getInteger("tt.trade.engine.maxRetries", 10);
+    private static final long RETRY_BACKOFF_MS = 500L;
+
+    static final class Stats {
+        public long batches;
+        public long retries;
+        public long dropped;
+        public int queued;
+    }
+
+    /** How many of an account's changes are still queued, and whether one of them was dropped. */
+    static final class Tracker {
+        final AtomicInteger unsaved = new AtomicInteger();
+        volatile boolean dropped;
+    }
+
+    /** The new state of one wallet and one position after a trade. */
+    static final class Change {
+        final long userId;
+        final long cash; // cents
+        final String eventId;
+        final TradeMath.Holding holding; // qty 0 means the position was closed, null leaves it alone
+        final long journalSeq;           // 0 when the trade was not journaled
+        final CompletableFuture<JsonResp<?>> ack; // completed once stored or dropped, null if nobody waits
+        final Tracker tracker;                     // null outside the engine
+
+        Change(long userId, long cash, String eventId, TradeMath.Holding holding, long journalSeq,
+               CompletableFuture<JsonResp<?>> ack) {
+            this(userId, cash, eventId, holding, journalSeq, ack, null);
+        }
+
+        Change(long userId, long cash, String eventId, TradeMath.Holding holding, long journalSeq,
+               CompletableFuture<JsonResp<?>> ack, Tracker tracker) {
+            this.userId = userId;
+            this.cash = cash;
+            this.eventId = eventId;
+            this.holding = holding;
+            this.journalSeq = journalSeq;
+            this.ack = ack;
+            this.tracker = tracker;
+        }
+    }
+
+    private final BlockingQueue<Change> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closing;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    TradeWriteBehind() {
+        thread = new Thread(this::run, "trade-write-behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void enqueue(Change change) {
+        queue.add(change);
+    }
+
+    Stats stats() {
+        Stats s = new Stats();
+        s.batches = batches.sum();
+        s.retries = retries.sum();
+        s.dropped = dropped.sum();
+        s.queued = queue.size();
+        return s;
+    }
+
+    /** Flushes everything queued so far and stops the writer thread. */
+    void close() {
+        closing = true;
+        thread.interrupt();
+        try {
+            thread.join(30_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Change> batch = new ArrayList<>(MAX_BATCH);
+        int failures = 0;
+        while (true) {
+            try {
+                if (batch.isEmpty()) {
+                    Change first = closing ? queue.poll() : queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        if (closing) return;
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+                Storage.get().wallets().store(batch);
+                stored(batch);
+                batch.clear();
+                failures = 0;
+            } catch (InterruptedException e) {
+                // close() wakes us up; loop again to drain what is left.
+            } catch (Exception e) {
+                if (++failures > MAX_RETRIES) {
+                    storeOneByOne(batch);
+                    batch.clear();
+                    failures = 0;
+                    continue;
+                }
+                retries.increment();
+                Metrics.error("trade_write_behind", "Trade write-behind failed, retrying batch of " + batch.size() + ": " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS);
+                } catch (InterruptedException ignore) {
+                    // close() only asks us to drain; the batch is retried regardless
+                }
+            }
+        }
+    }
+
+    private void stored(List<Change> changes) {
+        batches.increment();
+        for (Change c : changes) {
+            WalletVersions.bump(c.userId);
+            TradeJournal.settle(c.journalSeq);
+            if (c.tracker != null) c.tracker.unsaved.decrementAndGet();
+            if (c.ack != null) c.ack.complete(new JsonResp<>(true, "Done"));
+        }
+    }
+
+    /**
+     * Last try for a batch that keeps failing: stores what it can and drops
+     * the rest. A dropped trade is already in the engine's memory, and a later
+     * change of the same wallet may still carry its cash, so its client is
+     * told the outcome is unknown rather than that it failed.
+     */
+    private void storeOneByOne(List<Change> changes) {
+        for (Change c : changes) {
+            try {
+                List<Change> one = Collections.singletonList(c);
+                Storage.get().wallets().store(one);
+                stored(one);
+            } catch (Exception e) {
+                dropped.increment();
+                Metrics.error("trade_write_behind", "Dropping trade for user " + c.userId + " on event " + c.eventId
+                        + " after " + MAX_RETRIES + " retries (journal seq " + c.journalSeq + "): " + e.getMessage());
+                if (c.tracker != null) {
+                    c.tracker.dropped = true; // before the count, so the engine sees it once the count is 0
+                    c.tracker.unsaved.decrementAndGet();
+                }
+                if (c.ack != null) c.ack.complete(TradeEngine.UNKNOWN);
+            }
+        }
+    }
+
+    /**
+     * Writes the final wallet and position state of {@code changes} on the
+     * caller's connection and transaction, using one JDBC batch per statement.
+     * Later changes to the same wallet or position win.
+     */
+    static void apply(Connection c, List<Change> changes) throws SQLException {
+        Map<Long, Long> wallets = new LinkedHashMap<>();
+        Map<String, Change> positions = new LinkedHashMap<>();
+        for (Change ch : changes) {
+            wallets.put(ch.userId, ch.cash);
+            if (ch.holding != null) positions.put(ch.userId + "\u0000" + ch.eventId, ch);
+        }
+
+        PreparedStatement uCash = null, upsert = null, delete = null;
+        try {
+            uCash = c.prepareStatement("UPDATE wallet SET cash_usd=? WHERE user_id=?");
+            for (Map.Entry<Long, Long> w : wallets.entrySet()) {
+                uCash.setBigDecimal(1, Money.decimal(w.getValue()));
+                uCash.setLong(2, w.getKey());
+                uCash.addBatch();
+            }
+            uCash.executeBatch();
+
+            upsert = c.prepareStatement(
+                    "INSERT INTO positions(user_id, event_id, event_name, qty, total_cost_usd, min_price_usd, max_price_usd) " +
+                    "VALUES(?,?,?,?,?,?,?) ON DUPLICATE KEY UPDATE qty=VALUES(qty), total_cost_usd=VALUES(total_cost_usd), " +
+                    "min_price_usd=VALUES(min_price_usd), max_price_usd=VALUES(max_price_usd)");
+            delete = c.prepareStatement("DELETE FROM positions WHERE user_id=? AND event_id=?");
+            boolean upserts = false, deletes = false;
+            for (Change p : positions.values()) {
+                if (p.holding.qty == 0) {
+                    delete.setLong(1, p.userId);
+                    delete.setString(2, p.eventId);
+                    delete.addBatch();
+                    deletes = true;
+                } else {
+                    upsert.setLong(1, p.userId);
+                    upsert.setString(2, p.eventId);
+                    upsert.setString(3, p.holding.eventName);
+                    upsert.setInt(4, p.holding.qty);
+                    upsert.setBigDecimal(5, Money.decimal(p.holding.totalCost));
+                    upsert.setBigDecimal(6, Money.decimal(p.holding.minPrice));
+                    upsert.setBigDecimal(7, Money.decimal(p.holding.maxPrice));
+                    upsert.addBatch();
+                    upserts = true;
+                }
+            }
+            if (deletes) delete.executeBatch();
+            if (upserts) upsert.executeBatch();
+        } finally {
+            JDBCConnector.closeQuiet(uCash);
+            JDBCConnector.closeQuiet(upsert);
+            JDBCConnector.closeQuiet(delete);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package api;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mark-to-market totals for {@code /wallet}: each user's market value, cost
+ * and unrealized P&amp;L, kept in cents so reading them is a field load.
+ *
+ * <p>A position is marked at its event's {@code max} quote in
+ * {@link PriceCache} (what selling it would fetch), or at the price of its
+ * last trade when there is no quote, as {@code v_positions} does. Holdings
+ * are read from storage the first time a user is valued and again whenever
+ * their {@link WalletVersions} counter has moved. A reverse index from event
+ * id to holders lets a quote change re-mark just the lines holding that
+ * event, by the difference in price. At most {@code tt.valuation.maxUsers}
+ * portfolios are kept; past that users are valued from storage per request.
+ * A portfolio unused for {@code tt.valuation.idleMs} is dropped by a sweep
+ * every {@code tt.valuation.sweepMs}. Tickets in escrow for open SELL orders
+ * are not counted.
+ *
+ * <p>Every change to a kept portfolio's marks takes a new, process-unique
+ * {@link Totals#marks} number, which the snapshot ETag carries next to the
+ * wallet version so a price move is never answered 304.
+ */
+final class Valuation {
+    private static final int MAX_USERS = Integer.getInteger("tt.valuation.maxUsers", 100_000);
+    private static final long IDLE_MS = Long.getLong("tt.valuation.idleMs", 900_000L);
+    private static final long SWEEP_MS = Long.getLong("tt.valuation.sweepMs", 60_000L);
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) LOCKS[i] = new Object();
+    }
+
+    /** Counters since startup. */
+    static final class Stats {
+        public int users;
+        public int events;
+        public long hits;
+        public long rebuilds;
+        public long uncached;
+        public long remarked;
+        public long evicted;
+    }
+
+    /** A portfolio's totals as of one moment; {@code marks} is -1 when the portfolio is not kept. */
+    static final class Totals {
+        final long valueCents;
+        final long costCents;
+        final long marks;
+
+        Totals(long valueCents, long costCents, long marks) {
+            this.valueCents = valueCents;
+            this.costCents = costCents;
+            this.marks = marks;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("marketValueUsd", Money.decimal(valueCents));
+            m.put("costUsd", Money.decimal(costCents));
+            m.put("unrealizedPnlUsd", Money.decimal(valueCents - costCents));
+            return m;
+        }
+    }
+
+    private static final class Line {
+        final int qty;
+        final long lastTradeCents;
+        long markCents;
+
+        Line(int qty, long lastTradeCents) {
+            this.qty = qty;
+            this.lastTradeCents = lastTradeCents;
+        }
+    }
+
+    /** One user's lines by event id; the totals are guarded by the portfolio's monitor. */
+    private static final class Portfolio {
+        final long version;
+        final Map<String, Line> lines = new HashMap<>();
+        long valueCents;
+        long costCents;
+        long marks = MARKS.incrementAndGet();
+        boolean kept;
+        volatile long lastUsed = System.nanoTime();
+
+        Portfolio(long version) { this.version = version; }
+
+        /** Moves {@code line} to the event's current mark and the value by the difference. */
+        synchronized void remark(String eventId, Line line) {
+            long quote = PriceCache.mark(eventId);
+            long mark = quote == Money.NONE ? line.lastTradeCents : quote;
+            if (mark == line.markCents) return;
+            valueCents += (mark - line.markCents) * line.qty;
+            line.markCents = mark;
+            marks = MARKS.incrementAndGet();
+        }
+
+        synchronized Totals totals() {
+            lastUsed = System.nanoTime();
+            return new Totals(valueCents, costCents, kept ? marks : -1);
+        }
+
+        synchronized void keep() { kept = true; }
+
+        synchronized long marks() { return marks; }
+    }
+
+    private static final ConcurrentHashMap<Long, Portfolio> PORTFOLIOS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Set<Long>> HOLDERS = new ConcurrentHashMap<>();
+    private static final AtomicLong MARKS = new AtomicLong();
+    private static ScheduledExecutorService sweeper;
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder REBUILDS = new LongAdder();
+    private static final LongAdder UNCACHED = new LongAdder();
+    private static final LongAdder REMARKED = new LongAdder();
+    private static final LongAdder EVICTED = new LongAdder();
+
+    private Valuation() {}
+
+    static synchronized void start() {
+        if (sweeper != null) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "valuation-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                Metrics.error("valuation", "Portfolio sweep failed: " + e.getMessage());
+            }
+        }, SWEEP_MS, SWEEP_MS, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop() {
+        if (sweeper == null) return;
+        sweeper.shutdownNow();
+        sweeper = null;
+    }
+
+    /**
+     * The {@link Totals#marks} of the user's kept portfolio when it is still
+     * at wallet {@code version}; -1 when there is none, so the caller cannot
+     * answer 304 without building it.
+     */
+    static long marks(long userId, long version) {
+        Portfolio p = PORTFOLIOS.get(userId);
+        return p != null && p.version == version ? p.marks() : -1;
+    }
+
+    /** The user's totals, reading their positions only when they changed; null when there is no wallet. */
+    static Totals totals(long userId) throws SQLException {
+        long version = WalletVersions.version(userId);
+        Portfolio p = PORTFOLIOS.get(userId);
+        if (p != null && p.version == version) {
+            HITS.increment();
+            return p.totals();
+        }
+        Storage.Account account = Storage.get().wallets().account(userId);
+        return account == null ? null : totals(userId, version, account);
+    }
+
+    /**
+     * The totals of an account the caller already read, with the
+     * {@link WalletVersions#version} it read before the account.
+     */
+    static Totals totals(long userId, long version, Storage.Account account) {
+        Portfolio p = PORTFOLIOS.get(userId);
+        if (p != null && p.version == version) {
+            HITS.increment();
+            return p.totals();
+        }
+        return install(userId, version, account);
+    }
+
+    /** Re-marks the holders of {@code eventId}; called by {@link PriceCache} after its quote changed. */
+    static void repriced(String eventId) {
+        Set<Long> holders = HOLDERS.get(eventId);
+        if (holders == null) return;
+        for (Long userId : holders) {
+            Portfolio p = PORTFOLIOS.get(userId);
+            Line line = p == null ? null : p.lines.get(eventId);
+            if (line == null) continue;
+            p.remark(eventId, line);
+            REMARKED.increment();
+        }
+    }
+
+    static Stats stats() {
+        Stats s = new Stats();
+        s.users = PORTFOLIOS.size();
+        s.events = HOLDERS.size();
+        s.hits = HITS.sum();
+        s.rebuilds = REBUILDS.sum();
+        s.uncached = UNCACHED.sum();
+        s.remarked = REMARKED.sum();
+        s.evicted = EVICTED.sum();
+        return s;
+    }
+
+    /** Drops portfolios nobody has read for {@code tt.valuation.idleMs}. */
+    static void sweep() {
+        long idle = TimeUnit.MILLISECONDS.toNanos(IDLE_MS);
+        long now = System.nanoTime();
+        for (Map.Entry<Long, Portfolio> e : PORTFOLIOS.entrySet()) {
+            Portfolio p = e.getValue();
+            if (now - p.lastUsed < idle) continue;
+            long userId = e.getKey();
+            synchronized (LOCKS[(int) (userId & (LOCKS.length - 1))]) {
+                if (!PORTFOLIOS.remove(userId, p)) continue;
+                unindex(userId, p);
+            }
+            EVICTED.increment();
+        }
+    }
+
+    private static Totals install(long userId, long version, Storage.Account account) {
+        Portfolio p = new Portfolio(version);
+        for (Storage.Position pos : account.positions) {
+            TradeMath.Holding h = pos.holding;
+            if (h.qty <= 0) continue;
+            p.lines.put(pos.eventId, new Line(h.qty, h.maxPrice == Money.NONE ? 0 : h.maxPrice));
+            p.costCents += h.totalCost;
+        }
+        for (Map.Entry<String, Line> e : p.lines.entrySet()) p.remark(e.getKey(), e.getValue());
+        REBUILDS.increment();
+
+        // Per-user lock so two rebuilds cannot interleave their index updates.
+        synchronized (LOCKS[(int) (userId & (LOCKS.length - 1))]) {
+            Portfolio old = PORTFOLIOS.get(userId);
+            if (old != null && old.version - version > 0) return p.totals();
+            if (old == null && PORTFOLIOS.size() >= MAX_USERS) {
+                UNCACHED.increment();
+                return p.totals();
+            }
+            p.keep();
+            PORTFOLIOS.put(userId, p);
+            for (String eventId : p.lines.keySet()) {
+                HOLDERS.compute(eventId, (k, s) -> {
+                    if (s == null) s = ConcurrentHashMap.newKeySet();
+                    s.add(userId);
+                    return s;
+                });
+            }
+            if (old != null) unindex(userId, old, p);
+        }
+        // A quote that changed before the index listed this user was not applied to it; catch up.
+        for (Map.Entry<String, Line> e : p.lines.entrySet()) p.remark(e.getKey(), e.getValue());
+        return p.totals();
+    }
+
+    /** Takes {@code userId} off the holder lists of {@code old}'s events; call under the user's lock. */
+    private static void unindex(long userId, Portfolio old) {
+        unindex(userId, old, null);
+    }
+
+    /** As above, keeping the events {@code current} still holds. */
+    private static void unindex(long userId, Portfolio old, Portfolio current) {
+        for (String eventId : old.lines.keySet()) {
+            if (current != null && current.lines.containsKey(eventId)) continue;
+            HOLDERS.computeIfPresent(eventId, (k, s) -> {
+                s.remove(userId);
+                return s.isEmpty() ? null : s;
+            });
+        }
+    }
+}
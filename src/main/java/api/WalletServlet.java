@@ -1,23 +1,26 @@
 package api;
 
-import db.JDBCConnector;
 import jakarta.servlet.http.*;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.ServletException;
 import java.io.*;
-import java.sql.*;
 import java.util.*;
-import java.math.BigDecimal;
 
-@WebServlet(name = "WalletServlet", urlPatterns = {"/wallet"})
+@WebServlet(name = "WalletServlet", urlPatterns = {"/wallet"}, asyncSupported = true)
 public class WalletServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
+        RequestExecutor.run(req, resp, "wallet", Bulkhead.DB, this::handleGet);
+    }
+
+    private void handleGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
         resp.setContentType("application/json;charset=UTF-8");
 
-        String type   = req.getParameter("type");    // "cash" or "positions"
-        String userId = req.getParameter("userId");
+        String type   = req.getParameter("type");    // "cash", "positions", "portfolio" or "snapshot"
+        Long sessionUser = SessionFilter.userId(req);
+        String userId = sessionUser != null ? String.valueOf(sessionUser) : req.getParameter("userId");
 
         try {
             if (userId == null || userId.isEmpty()) {
@@ -27,65 +30,121 @@ public class WalletServlet extends HttpServlet {
                 DemoUser.seedWallet(Long.parseLong(userId), DemoUser.DEFAULT_CASH);
             }
         } catch (Exception e) {
-            write(resp, new JsonResp(false, "Unable to prepare demo wallet: " + e.getMessage()));
+            write(resp, new JsonResp<>(false, "Unable to prepare demo wallet: " + e.getMessage()));
             return;
         }
 
         if (type == null) {
-            write(resp, new JsonResp(false, "Missing parameters"));
+            write(resp, new JsonResp<>(false, "Missing parameters"));
+            return;
+        }
+
+        if ("snapshot".equalsIgnoreCase(type)) {
+            writeSnapshot(req, resp, Long.parseLong(userId));
             return;
         }
 
-        Connection c = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
         try {
-            c = JDBCConnector.get();
             if ("cash".equalsIgnoreCase(type)) {
-                ps = c.prepareStatement("SELECT cash_usd FROM wallet WHERE user_id=?");
-                ps.setLong(1, Long.parseLong(userId));
-                rs = ps.executeQuery();
-                if (rs.next()) {
+                long cash = Storage.get().wallets().cash(Long.parseLong(userId));
+                if (cash != Money.NONE) {
                     Map<String, Object> m = new HashMap<>();
-                    m.put("cashUsd", rs.getBigDecimal(1));
-                    write(resp, new JsonResp(true, "OK", m));
+                    m.put("cashUsd", Money.decimal(cash));
+                    write(resp, new JsonResp<>(true, "OK", m));
                 } else {
-                    write(resp, new JsonResp(false, "Wallet not found"));
+                    ProvisionedUsers.forget(Long.parseLong(userId));
+                    write(resp, new JsonResp<>(false, "Wallet not found"));
+                }
+            } else if ("portfolio".equalsIgnoreCase(type)) {
+                Valuation.Totals totals = Valuation.totals(Long.parseLong(userId));
+                if (totals != null) {
+                    write(resp, new JsonResp<>(true, "OK", totals.toMap()));
+                } else {
+                    ProvisionedUsers.forget(Long.parseLong(userId));
+                    write(resp, new JsonResp<>(false, "Wallet not found"));
                 }
             } else if ("positions".equalsIgnoreCase(type)) {
-                ps = c.prepareStatement("SELECT id,event_id,event_name,qty,total_cost_usd,min_price_usd,max_price_usd FROM positions WHERE user_id=? ORDER BY id DESC");
-                ps.setLong(1, Long.parseLong(userId));
-                rs = ps.executeQuery();
                 java.util.List<Map<String,Object>> list = new ArrayList<>();
-                while (rs.next()) {
-                    Map<String,Object> m = new LinkedHashMap<>();
-                    m.put("id", rs.getLong(1));
-                    m.put("eventId", rs.getString(2));
-                    m.put("eventName", rs.getString(3));
-                    m.put("qty", rs.getInt(4));
-                    BigDecimal total = rs.getBigDecimal(5);
-                    BigDecimal avg = rs.getInt(4) == 0 ? BigDecimal.ZERO
-                        : total.divide(BigDecimal.valueOf(rs.getInt(4)), 2, java.math.RoundingMode.HALF_UP);
-                    m.put("avgCostUsd", avg);
-                    m.put("minPriceUsd", rs.getBigDecimal(6));
-                    m.put("maxPriceUsd", rs.getBigDecimal(7));
-                    m.put("totalCostUsd", total);
-                    list.add(m);
-                }
-                write(resp, new JsonResp(true, "OK", list));
+                for (Storage.Position p : Storage.get().positions().list(Long.parseLong(userId))) list.add(position(p));
+                write(resp, new JsonResp<>(true, "OK", list));
             } else {
-                write(resp, new JsonResp(false, "Unknown type"));
+                write(resp, new JsonResp<>(false, "Unknown type"));
             }
         } catch (Exception e) {
-            write(resp, new JsonResp(false, "DB error: " + e.getMessage()));
-        } finally {
-            JDBCConnector.closeQuiet(rs);
-            JDBCConnector.closeQuiet(ps);
-            JDBCConnector.closeQuiet(c);
+            write(resp, new JsonResp<>(false, "DB error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Cash and positions read together (one InnoDB read view on MySQL),
+     * plus the {@link Valuation} totals. The ETag joins the wallet's
+     * {@link WalletVersions} counter with the totals' marks, so either a
+     * commit or a price move changes it. A matching {@code If-None-Match} is
+     * answered 304 before storage is touched; without a kept portfolio there
+     * is nothing to match and no ETag is sent. With
+     * {@link WalletVersions#conditional} off neither happens.
+     */
+    private void writeSnapshot(HttpServletRequest req, HttpServletResponse resp, long userId) throws IOException {
+        // Read the version before the data: a trade committing in between makes the tag older, never newer.
+        long version = WalletVersions.version(userId);
+        long marks = WalletVersions.conditional() ? Valuation.marks(userId, version) : -1;
+        resp.setHeader("Cache-Control", "private, no-cache");
+        if (marks >= 0) {
+            String etag = WalletVersions.etag(userId, version, marks);
+            if (WalletVersions.matches(req.getHeader("If-None-Match"), etag)) {
+                resp.setHeader("ETag", etag);
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
         }
+
+        try {
+            Storage.Account account = Storage.get().wallets().account(userId);
+            if (account == null) {
+                ProvisionedUsers.forget(userId);
+                write(resp, new JsonResp<>(false, TradeMath.WALLET_NOT_FOUND));
+                return;
+            }
+            Valuation.Totals totals = Valuation.totals(userId, version, account);
+            if (totals.marks >= 0 && WalletVersions.conditional()) {
+                resp.setHeader("ETag", WalletVersions.etag(userId, version, totals.marks));
+            }
+            write(resp, new JsonResp<>(true, "OK", snapshot(account, totals)));
+        } catch (Exception e) {
+            write(resp, new JsonResp<>(false, "DB error: " + e.getMessage()));
+        }
+    }
+
+    /** The snapshot body; {@code version} is the {@link WalletVersions#version} read before the account. */
+    static Map<String, Object> snapshot(long userId, long version, Storage.Account account) {
+        return snapshot(account, Valuation.totals(userId, version, account));
+    }
+
+    private static Map<String, Object> snapshot(Storage.Account account, Valuation.Totals totals) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("cashUsd", Money.decimal(account.cash));
+        List<Map<String, Object>> positions = new ArrayList<>();
+        for (Storage.Position p : account.positions) positions.add(position(p));
+        snapshot.put("positions", positions);
+        snapshot.put("portfolio", totals.toMap());
+        return snapshot;
+    }
+
+    private static Map<String, Object> position(Storage.Position p) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        TradeMath.Holding h = p.holding;
+        m.put("id", p.id);
+        m.put("eventId", p.eventId);
+        m.put("eventName", h.eventName);
+        m.put("qty", h.qty);
+        m.put("avgCostUsd", Money.decimal(Money.share(h.totalCost, 1, h.qty)));
+        m.put("minPriceUsd", Money.decimal(h.minPrice));
+        m.put("maxPriceUsd", Money.decimal(h.maxPrice));
+        m.put("totalCostUsd", Money.decimal(h.totalCost));
+        return m;
     }
 
-    private void write(HttpServletResponse resp, JsonResp jr) throws IOException {
-        try (PrintWriter out = resp.getWriter()) { out.write(jr.toJson()); }
+    private void write(HttpServletResponse resp, JsonResp<?> jr) throws IOException {
+        try (PrintWriter out = resp.getWriter()) { jr.writeTo(out); }
     }
 }
@@ -0,0 +1,80 @@
+package api;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Change counters behind the {@code /wallet?type=snapshot} ETag. Bumped after
+ * every commit that changes a wallet or its positions, so a poller whose
+ * ETag still matches can be answered 304 without a query.
+ *
+ * <p>Counters are striped ({@code tt.wallet.versionStripes}) rather than
+ * kept per user: a bump also invalidates the other users of its stripe,
+ * which costs them one extra read, but memory stays fixed. Tags carry a
+ * per-process epoch, so a restart never revives an old tag.
+ *
+ * <p>The counters are per node: a commit on one node does not bump another,
+ * which would keep answering 304 for a wallet that changed. Deployments with
+ * several nodes must set {@code tt.wallet.conditional=false}, which turns the
+ * ETag off.
+ */
+final class WalletVersions {
+    private static final AtomicLongArray STRIPES =
+            new AtomicLongArray(Integer.highestOneBit(Math.max(16, Integer.getInteger("tt.wallet.versionStripes", 65_536))));
+    private static final int SHIFT = 64 - Integer.numberOfTrailingZeros(STRIPES.length());
+    private static final boolean CONDITIONAL =
+            !"false".equalsIgnoreCase(System.getProperty("tt.wallet.conditional", "true"));
+    private static final String EPOCH = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+
+    private WalletVersions() {}
+
+    /**
+     * Call after the change is committed, so a reader that sees the new
+     * version also sees the data. Also tells {@link LiveUpdates} to push the
+     * wallet to the user's open streams.
+     */
+    static void bump(long userId) {
+        STRIPES.incrementAndGet(stripe(userId));
+        LiveUpdates.walletChanged(userId);
+    }
+
+    /** Invalidates every tag, e.g. after the tables were rebuilt underneath. */
+    static void bumpAll() {
+        for (int i = 0; i < STRIPES.length(); i++) STRIPES.incrementAndGet(i);
+        LiveUpdates.allWalletsChanged();
+    }
+
+    /**
+     * A tag for data read at wallet {@code version} that also depends on
+     * prices, e.g. a snapshot with its {@link Valuation} totals;
+     * {@code marks} is their {@link Valuation.Totals#marks}.
+     */
+    static String etag(long userId, long version, long marks) {
+        return "W/\"" + EPOCH + "-" + userId + "-" + version + "-" + marks + "\"";
+    }
+
+    /** The counter behind {@link #etag}; equal values mean no commit touched the wallet in between. */
+    static long version(long userId) {
+        return STRIPES.get(stripe(userId));
+    }
+
+    /** Whether snapshots carry an ETag and may be answered 304 ({@code tt.wallet.conditional}). */
+    static boolean conditional() {
+        return CONDITIONAL;
+    }
+
+    /** Whether an {@code If-None-Match} header value names {@code etag}. */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        String weak = etag.substring(2);
+        for (String t : ifNoneMatch.split(",")) {
+            t = t.trim();
+            if (t.equals("*") || t.equals(etag) || t.equals(weak)) return true;
+        }
+        return false;
+    }
+
+    private static int stripe(long userId) {
+        return (int) ((userId * 0x9E3779B97F4A7C15L) >>> SHIFT);
+    }
+}
@@ -0,0 +1,448 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small bounded pool of MySQL connections. Borrowed connections are handed out
+ * as proxies whose {@code close()} returns the physical connection to the pool,
+ * so callers keep the plain {@code JDBCConnector.get()/closeQuiet()} contract.
+ * A returned connection is reset to auto-commit, read-write and the isolation
+ * level it was opened with before the next borrower sees it.
+ */
+public final class ConnectionPool {
+    /** Point-in-time counters for a pool; all wait figures are in nanoseconds. */
+    public static final class Stats {
+        public int minSize;
+        public int maxSize;
+        public int active;
+        public int idle;
+        public int total;
+        public double utilization;
+        public long borrows;
+        public long timeouts;
+        public long created;
+        public long destroyed;
+        public long validationFailures;
+        public long leaksDetected;
+        public long waitNanosTotal;
+        public long waitNanosMax;
+    }
+
+    /**
+     * Receives borrow and statement timings, e.g. for latency histograms. Called
+     * on the borrowing thread, so implementations must be cheap and must not throw.
+     */
+    public interface Listener {
+        /** A borrow finished after {@code nanos}; {@code ok} is false when it timed out or failed. */
+        void borrowed(long nanos, boolean ok);
+
+        /** A statement {@code execute*} call returned after {@code nanos}. */
+        void executed(long nanos, boolean ok);
+
+        /** A problem the pool worked around, e.g. a suspected leak; called from the housekeeping thread. */
+        void error(String message);
+    }
+
+    private static final Method CLOSE;
+    private static final Method IS_CLOSED;
+
+    static {
+        try {
+            CLOSE = Connection.class.getMethod("close");
+            IS_CLOSED = Connection.class.getMethod("isClosed");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final long validateAfterMs;
+    private final long leakDetectionMs;
+    private final long maxIdleMs;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Physical> idle = new LinkedBlockingDeque<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder leaksDetected = new LongAdder();
+    private final LongAdder waitNanosTotal = new LongAdder();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+
+    private volatile Listener listener;
+    private volatile boolean closed;
+    private ScheduledExecutorService housekeeper;
+
+    public ConnectionPool(String url, String user, String pass, int minSize, int maxSize,
+                          long borrowTimeoutMs, long validateAfterMs, long leakDetectionMs, long maxIdleMs) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.maxSize = maxSize;
+        this.minSize = Math.max(0, Math.min(minSize, maxSize));
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.validateAfterMs = validateAfterMs;
+        this.leakDetectionMs = leakDetectionMs;
+        this.maxIdleMs = maxIdleMs;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Opens {@code minSize} connections up front and starts the housekeeping
+     * task. Connection failures are logged rather than thrown so the webapp can
+     * still deploy while MySQL is down.
+     */
+    public synchronized void start() {
+        if (housekeeper != null) return;
+        try {
+            fillToMin();
+        } catch (SQLException e) {
+            report("Connection pool warm-up incomplete: " + e.getMessage());
+        }
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "jdbc-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = leakDetectionMs > 0 ? Math.max(1000, leakDetectionMs / 2) : 30_000;
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Installs (or, with null, removes) the timing listener for subsequent borrows. */
+    public void setListener(Listener listener) { this.listener = listener; }
+
+    public Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is shut down");
+        long start = System.nanoTime();
+        Listener l = listener;
+        if (l == null) return borrow(start, null);
+        boolean ok = false;
+        try {
+            Connection c = borrow(start, l);
+            ok = true;
+            return c;
+        } finally {
+            l.borrowed(System.nanoTime() - start, ok);
+        }
+    }
+
+    private Connection borrow(long start, Listener l) throws SQLException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLException("Timed out after " + borrowTimeoutMs + "ms waiting for a connection (active="
+                    + leased.size() + ", max=" + maxSize + ")");
+        }
+        try {
+            Physical p = takeIdleOrCreate();
+            long waited = System.nanoTime() - start;
+            recordWait(waited);
+            borrows.increment();
+            Lease lease = new Lease(p, leakDetectionMs > 0 ? new Throwable("Connection borrowed here") : null, l);
+            leased.add(lease);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, lease);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Closes idle connections and refuses new borrows; leased ones close on return. */
+    public synchronized void shutdown() {
+        closed = true;
+        if (housekeeper != null) housekeeper.shutdownNow();
+        Physical p;
+        while ((p = idle.pollFirst()) != null) destroy(p);
+    }
+
+    public Stats stats() {
+        Stats s = new Stats();
+        s.minSize = minSize;
+        s.maxSize = maxSize;
+        s.active = leased.size();
+        s.idle = idle.size();
+        s.total = total.get();
+        s.utilization = maxSize == 0 ? 0 : (double) s.active / maxSize;
+        s.borrows = borrows.sum();
+        s.timeouts = timeouts.sum();
+        s.created = created.sum();
+        s.destroyed = destroyed.sum();
+        s.validationFailures = validationFailures.sum();
+        s.leaksDetected = leaksDetected.sum();
+        s.waitNanosTotal = waitNanosTotal.sum();
+        s.waitNanosMax = waitNanosMax.get();
+        return s;
+    }
+
+    private Physical takeIdleOrCreate() throws SQLException {
+        while (true) {
+            Physical p = idle.pollFirst();
+            if (p == null) {
+                p = create();
+                if (p != null) return p;
+                // Holding a permit while the pool is full means a connection is
+                // sitting idle (or being topped up by the housekeeper); retry.
+                Thread.onSpinWait();
+                continue;
+            }
+            if (System.currentTimeMillis() - p.lastUsedMillis < validateAfterMs) return p;
+            if (isValid(p)) return p;
+            validationFailures.increment();
+            destroy(p);
+        }
+    }
+
+    private boolean isValid(Physical p) {
+        try {
+            return p.raw.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /** Opens a new physical connection, or returns null when the pool is already at max size. */
+    private Physical create() throws SQLException {
+        if (total.incrementAndGet() > maxSize) {
+            total.decrementAndGet();
+            return null;
+        }
+        try {
+            Physical p = new Physical(DriverManager.getConnection(url, user, pass));
+            created.increment();
+            return p;
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void destroy(Physical p) {
+        total.decrementAndGet();
+        destroyed.increment();
+        try { p.raw.close(); } catch (Exception ignore) {}
+    }
+
+    private void release(Lease lease) {
+        leased.remove(lease);
+        Physical p = lease.physical;
+        boolean reusable = !closed;
+        try {
+            if (reusable && p.raw.isClosed()) reusable = false;
+            if (reusable && !p.raw.getAutoCommit()) {
+                p.raw.rollback();
+                p.raw.setAutoCommit(true);
+            }
+            if (reusable && lease.readOnlySet) p.raw.setReadOnly(false);
+            if (reusable && lease.isolationSet) p.raw.setTransactionIsolation(p.defaultIsolation);
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (reusable) {
+            p.lastUsedMillis = System.currentTimeMillis();
+            idle.offerFirst(p);
+        } else {
+            destroy(p);
+        }
+        permits.release();
+    }
+
+    private void recordWait(long nanos) {
+        waitNanosTotal.add(nanos);
+        long max;
+        while (nanos > (max = waitNanosMax.get())) {
+            if (waitNanosMax.compareAndSet(max, nanos)) break;
+        }
+    }
+
+    private void fillToMin() throws SQLException {
+        while (!closed && total.get() < minSize) {
+            Physical p = create();
+            if (p == null) return;
+            p.lastUsedMillis = System.currentTimeMillis();
+            idle.offerLast(p);
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            if (leakDetectionMs > 0) {
+                for (Lease lease : leased) {
+                    if (!lease.leakReported && now - lease.borrowedAtMillis > leakDetectionMs) {
+                        lease.leakReported = true;
+                        leaksDetected.increment();
+                        report(leakReport(lease, now));
+                    }
+                }
+            }
+            if (maxIdleMs > 0) {
+                // Trim from the cold end of the deque; borrowers take from the warm end.
+                Physical p;
+                while (total.get() > minSize && (p = idle.peekLast()) != null && now - p.lastUsedMillis > maxIdleMs) {
+                    if (idle.removeLastOccurrence(p)) destroy(p);
+                }
+            }
+            fillToMin();
+        } catch (Exception e) {
+            report("Connection pool housekeeping failed: " + e.getMessage());
+        }
+    }
+
+    private static String leakReport(Lease lease, long now) {
+        StringBuilder sb = new StringBuilder("Possible connection leak: held for ")
+                .append(now - lease.borrowedAtMillis).append("ms");
+        if (lease.borrowSite != null) {
+            sb.append(", borrowed at");
+            for (StackTraceElement frame : lease.borrowSite.getStackTrace()) sb.append("\n\tat ").append(frame);
+        }
+        return sb.toString();
+    }
+
+    /** Hands a message to the listener (which counts it) or, without one, to stderr. */
+    private void report(String message) {
+        Listener l = listener;
+        if (l != null) {
+            l.error(message);
+        } else {
+            System.err.println(message);
+        }
+    }
+
+    private static final class Physical {
+        final Connection raw;
+        volatile long lastUsedMillis;
+        /** The isolation level the connection opened with; read the first time a lease changes it. */
+        int defaultIsolation = -1;
+
+        Physical(Connection raw) { this.raw = raw; }
+    }
+
+    /** One checkout of a physical connection; becomes unusable once closed. */
+    private final class Lease implements InvocationHandler {
+        final Physical physical;
+        final Throwable borrowSite;
+        final Listener listener;
+        final long borrowedAtMillis = System.currentTimeMillis();
+        final AtomicBoolean returned = new AtomicBoolean();
+        volatile boolean leakReported;
+        boolean readOnlySet;
+        boolean isolationSet;
+
+        Lease(Physical physical, Throwable borrowSite, Listener listener) {
+            this.physical = physical;
+            this.borrowSite = borrowSite;
+            this.listener = listener;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (CLOSE.equals(method)) {
+                if (returned.compareAndSet(false, true)) release(this);
+                return null;
+            }
+            if (IS_CLOSED.equals(method)) {
+                if (returned.get()) return true;
+            } else if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return "Pooled" + physical.raw;
+                }
+            } else if (returned.get()) {
+                throw new SQLException("Connection has already been returned to the pool");
+            } else if (method.getName().equals("setReadOnly")) {
+                readOnlySet = true;
+            } else if (method.getName().equals("setTransactionIsolation")) {
+                if (physical.defaultIsolation < 0) physical.defaultIsolation = physical.raw.getTransactionIsolation();
+                isolationSet = true;
+            }
+            Object result;
+            try {
+                result = method.invoke(physical.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (listener != null && result instanceof Statement) {
+                Class<?> type = method.getReturnType();
+                return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                        new Timed(result, listener));
+            }
+            return result;
+        }
+    }
+
+    /** Reports how long each {@code execute*} call on a statement took. */
+    private static final class Timed implements InvocationHandler {
+        final Object target;
+        final Listener listener;
+
+        Timed(Object target, Listener listener) {
+            this.target = target;
+            this.listener = listener;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return "Timed" + target;
+                }
+            }
+            if (!method.getName().startsWith("execute")) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                Object result = method.invoke(target, args);
+                ok = true;
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                listener.executed(System.nanoTime() - start, ok);
+            }
+        }
+    }
+}
@@ -1,122 +1,139 @@
 package db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class JDBCConnector {
     // TODO: adjust to your database values if different
     private static final String DB_NAME = "ticket_trader";
-    private static final String BASE_URL =
+    // -Dtt.db.url points at an existing schema instead (e.g. a load-test stand-in); the database is then not created.
+    private static final String URL_OVERRIDE = System.getProperty("tt.db.url");
+    private static final String BASE_URL = URL_OVERRIDE != null ? null :
             "jdbc:mysql://localhost:3306/?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
-    private static final String URL =
-            "jdbc:mysql://localhost:3306/" + DB_NAME + "?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
-    private static final String USER = "root";
-    private static final String PASS = "8Jaime8%";
-
-    private static volatile boolean schemaEnsured = false;
+    private static final String URL = URL_OVERRIDE != null ? URL_OVERRIDE :
+            "jdbc:mysql://localhost:3306/" + DB_NAME + "?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC" +
+            "&rewriteBatchedStatements=true";
+    private static final String USER = System.getProperty("tt.db.user", "root");
+    private static final String PASS = System.getProperty("tt.db.password", "8Jaime8%");
+    private static final String DRIVER = System.getProperty("tt.db.driver", "com.mysql.cj.jdbc.Driver");
+
+    // Pool sizing/timeouts; override with -Dtt.db.pool.* system properties.
+    private static final int POOL_MIN = Integer.getInteger("tt.db.pool.min", 2);
+    private static final int POOL_MAX = Integer.getInteger("tt.db.pool.max", 10);
+    private static final long BORROW_TIMEOUT_MS = Long.getLong("tt.db.pool.borrowTimeoutMs", 5_000L);
+    private static final long VALIDATE_AFTER_MS = Long.getLong("tt.db.pool.validateAfterMs", 500L);
+    private static final long LEAK_DETECTION_MS = Long.getLong("tt.db.pool.leakDetectionMs", 0L);
+    private static final long MAX_IDLE_MS = Long.getLong("tt.db.pool.maxIdleMs", 600_000L);
+    private static final long MIGRATION_RETRY_MS = 5_000L;
+
+    private static volatile ConnectionPool pool;
+    private static volatile ConnectionPool.Listener listener;
+    private static volatile int schemaVersion = -1;
+    private static volatile long migrationMillis = -1;
+    private static final AtomicLong lastMigrationAttempt = new AtomicLong();
 
     private JDBCConnector() {}
 
     static {
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
+            Class.forName(DRIVER);
         } catch (ClassNotFoundException e) {
-            throw new RuntimeException("MySQL JDBC driver not found on classpath", e);
+            throw new RuntimeException("JDBC driver " + DRIVER + " not found on classpath", e);
         }
     }
 
     public static Connection get() throws SQLException {
-        ensureSchema();
-        return DriverManager.getConnection(URL, USER, PASS);
+        if (schemaVersion < 0) retryMigration();
+        return pool().borrow();
     }
 
-    /** Convenience alias for legacy callers. */
-    public static Connection getConnection() throws SQLException { return get(); }
+    /**
+     * Applies pending schema migrations, then creates the pool and opens its
+     * minimum connections so the first requests after deploy pay for neither
+     * DDL nor the MySQL handshake. Safe to call repeatedly.
+     */
+    public static void warmUp() {
+        pool();
+    }
 
-    public static void closeQuiet(AutoCloseable c) {
-        if (c == null) return;
-        try { c.close(); } catch (Exception ignore) {}
+    /** Schema version found at startup, or -1 if the migration could not run. */
+    public static int schemaVersion() { return schemaVersion; }
+
+    /** Wall-clock time the startup migration check took, or -1 if it has not run. */
+    public static long migrationMillis() { return migrationMillis; }
+
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /** Times borrows and statements on the current pool and any later one. */
+    public static synchronized void setListener(ConnectionPool.Listener l) {
+        listener = l;
+        if (pool != null) pool.setListener(l);
+    }
+
+    /** Current pool counters, or null if no connection has been requested yet. */
+    public static ConnectionPool.Stats poolStats() {
+        ConnectionPool p = pool;
+        return p == null ? null : p.stats();
+    }
+
+    private static ConnectionPool pool() {
+        ConnectionPool p = pool;
+        if (p != null) return p;
+        synchronized (JDBCConnector.class) {
+            if (pool == null) {
+                migrate();
+                ConnectionPool created = new ConnectionPool(URL, USER, PASS, POOL_MIN, POOL_MAX,
+                        BORROW_TIMEOUT_MS, VALIDATE_AFTER_MS, LEAK_DETECTION_MS, MAX_IDLE_MS);
+                created.setListener(listener);
+                created.start();
+                pool = created;
+            }
+            return pool;
+        }
     }
 
     /**
-     * Creates the database and core tables if they do not already exist so
-     * first-time deployments do not fail with "Unknown database" errors.
+     * Runs the versioned migrations once per process. Failures are logged so a
+     * node can still deploy while MySQL is down; requests will then surface the
+     * DB errors themselves.
      */
-    private static synchronized void ensureSchema() throws SQLException {
-        if (schemaEnsured) return;
-
-        // Create the database if missing
-        try (Connection root = DriverManager.getConnection(BASE_URL, USER, PASS);
-             Statement s = root.createStatement()) {
-            s.executeUpdate("CREATE DATABASE IF NOT EXISTS " + DB_NAME +
-                    " CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci");
+    private static void migrate() {
+        long start = System.currentTimeMillis();
+        lastMigrationAttempt.set(start);
+        try {
+            schemaVersion = SchemaMigrator.migrate(BASE_URL, URL, DB_NAME, USER, PASS);
+        } catch (SQLException e) {
+            System.err.println("Schema migration skipped (DB offline): " + e.getMessage());
+        } finally {
+            migrationMillis = System.currentTimeMillis() - start;
         }
+    }
 
-        // Create the tables/trigger under the target schema
-        try (Connection c = DriverManager.getConnection(URL, USER, PASS);
-             Statement s = c.createStatement()) {
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS users (" +
-                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT," +
-                    "username VARCHAR(50) NOT NULL," +
-                    "email VARCHAR(100) NOT NULL," +
-                    "password_hash VARCHAR(255) NOT NULL," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "PRIMARY KEY (id)," +
-                    "UNIQUE KEY uq_users_username (username)," +
-                    "UNIQUE KEY uq_users_email (email)) ENGINE=InnoDB");
-
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS favorites (" +
-                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT," +
-                    "user_id BIGINT UNSIGNED NOT NULL," +
-                    "event_id VARCHAR(64) NOT NULL," +
-                    "event_name VARCHAR(255) NULL," +
-                    "event_date VARCHAR(64) NULL," +
-                    "venue VARCHAR(255) NULL," +
-                    "min_price_usd DECIMAL(10,2) NULL," +
-                    "max_price_usd DECIMAL(10,2) NULL," +
-                    "url VARCHAR(500) NULL," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "PRIMARY KEY (id)," +
-                    "UNIQUE KEY uq_fav_user_event (user_id, event_id)," +
-                    "CONSTRAINT fk_fav_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
-                    ") ENGINE=InnoDB");
-
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS wallet (" +
-                    "user_id BIGINT UNSIGNED NOT NULL," +
-                    "cash_usd DECIMAL(10,2) NOT NULL DEFAULT 3000.00," +
-                    "PRIMARY KEY (user_id)," +
-                    "CONSTRAINT fk_wallet_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
-                    ") ENGINE=InnoDB");
-
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS positions (" +
-                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT," +
-                    "user_id BIGINT UNSIGNED NOT NULL," +
-                    "event_id VARCHAR(64) NOT NULL," +
-                    "event_name VARCHAR(255) NULL," +
-                    "qty INT NOT NULL," +
-                    "total_cost_usd DECIMAL(12,2) NOT NULL," +
-                    "min_price_usd DECIMAL(10,2) NOT NULL," +
-                    "max_price_usd DECIMAL(10,2) NOT NULL," +
-                    "last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP," +
-                    "PRIMARY KEY (id)," +
-                    "UNIQUE KEY uq_pos_user_event (user_id, event_id)," +
-                    "KEY ix_pos_user (user_id)," +
-                    "CONSTRAINT fk_pos_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
-                    ") ENGINE=InnoDB");
-
-            s.executeUpdate("CREATE OR REPLACE VIEW v_positions AS " +
-                    "SELECT p.id, p.user_id, p.event_id, p.event_name, p.qty, p.total_cost_usd, " +
-                    "CASE WHEN p.qty > 0 THEN ROUND(p.total_cost_usd / p.qty, 2) ELSE NULL END AS avg_cost_usd, " +
-                    "p.min_price_usd, p.max_price_usd, ROUND(p.max_price_usd * p.qty, 2) AS market_value_usd, p.last_updated " +
-                    "FROM positions p");
-
-            s.executeUpdate("DROP TRIGGER IF EXISTS trg_users_after_insert");
-            s.executeUpdate("CREATE TRIGGER trg_users_after_insert AFTER INSERT ON users " +
-                    "FOR EACH ROW BEGIN INSERT INTO wallet(user_id, cash_usd) VALUES (NEW.id, 3000.00); END");
+    /**
+     * Re-attempts a failed startup migration, at most every few seconds, once
+     * MySQL is back. Only the thread that claims the attempt takes the lock;
+     * the others go straight on to the pool instead of queueing behind it.
+     */
+    private static void retryMigration() {
+        long last = lastMigrationAttempt.get();
+        long now = System.currentTimeMillis();
+        if (now - last < MIGRATION_RETRY_MS || !lastMigrationAttempt.compareAndSet(last, now)) return;
+        synchronized (JDBCConnector.class) {
+            if (schemaVersion < 0) migrate();
         }
+    }
+
+    /** Convenience alias for legacy callers. */
+    public static Connection getConnection() throws SQLException { return get(); }
 
-        schemaEnsured = true;
+    public static void closeQuiet(AutoCloseable c) {
+        if (c == null) return;
+        try { c.close(); } catch (Exception ignore) {}
     }
 }
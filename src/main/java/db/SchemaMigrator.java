@@ -0,0 +1,203 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Versioned schema migrations. Runs once at deploy time, records each applied
+ * version in {@code schema_version}, and skips all DDL when the database is
+ * already current. A MySQL named lock keeps concurrently starting nodes from
+ * applying the same migration twice.
+ */
+final class SchemaMigrator {
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+
+    private static final String LOCK_NAME = "ticket_trader.schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    // Append new migrations at the end; never edit one that has shipped.
+    private static final Migration[] MIGRATIONS = {
+        new Migration(1, "Baseline users/favorites/wallet/positions tables, v_positions view and wallet trigger",
+            "CREATE TABLE IF NOT EXISTS users (" +
+                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT," +
+                    "username VARCHAR(50) NOT NULL," +
+                    "email VARCHAR(100) NOT NULL," +
+                    "password_hash VARCHAR(255) NOT NULL," +
+                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                    "PRIMARY KEY (id)," +
+                    "UNIQUE KEY uq_users_username (username)," +
+                    "UNIQUE KEY uq_users_email (email)) ENGINE=InnoDB",
+
+            "CREATE TABLE IF NOT EXISTS favorites (" +
+                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT," +
+                    "user_id BIGINT UNSIGNED NOT NULL," +
+                    "event_id VARCHAR(64) NOT NULL," +
+                    "event_name VARCHAR(255) NULL," +
+                    "event_date VARCHAR(64) NULL," +
+                    "venue VARCHAR(255) NULL," +
+                    "min_price_usd DECIMAL(10,2) NULL," +
+                    "max_price_usd DECIMAL(10,2) NULL," +
+                    "url VARCHAR(500) NULL," +
+                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                    "PRIMARY KEY (id)," +
+                    "UNIQUE KEY uq_fav_user_event (user_id, event_id)," +
+                    "CONSTRAINT fk_fav_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB",
+
+            "CREATE TABLE IF NOT EXISTS wallet (" +
+                    "user_id BIGINT UNSIGNED NOT NULL," +
+                    "cash_usd DECIMAL(10,2) NOT NULL DEFAULT 3000.00," +
+                    "PRIMARY KEY (user_id)," +
+                    "CONSTRAINT fk_wallet_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB",
+
+            "CREATE TABLE IF NOT EXISTS positions (" +
+                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT," +
+                    "user_id BIGINT UNSIGNED NOT NULL," +
+                    "event_id VARCHAR(64) NOT NULL," +
+                    "event_name VARCHAR(255) NULL," +
+                    "qty INT NOT NULL," +
+                    "total_cost_usd DECIMAL(12,2) NOT NULL," +
+                    "min_price_usd DECIMAL(10,2) NOT NULL," +
+                    "max_price_usd DECIMAL(10,2) NOT NULL," +
+                    "last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP," +
+                    "PRIMARY KEY (id)," +
+                    "UNIQUE KEY uq_pos_user_event (user_id, event_id)," +
+                    "KEY ix_pos_user (user_id)," +
+                    "CONSTRAINT fk_pos_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB",
+
+            "CREATE OR REPLACE VIEW v_positions AS " +
+                    "SELECT p.id, p.user_id, p.event_id, p.event_name, p.qty, p.total_cost_usd, " +
+                    "CASE WHEN p.qty > 0 THEN ROUND(p.total_cost_usd / p.qty, 2) ELSE NULL END AS avg_cost_usd, " +
+                    "p.min_price_usd, p.max_price_usd, ROUND(p.max_price_usd * p.qty, 2) AS market_value_usd, p.last_updated " +
+                    "FROM positions p",
+
+            "DROP TRIGGER IF EXISTS trg_users_after_insert",
+
+            "CREATE TRIGGER trg_users_after_insert AFTER INSERT ON users " +
+                    "FOR EACH ROW BEGIN INSERT INTO wallet(user_id, cash_usd) VALUES (NEW.id, 3000.00); END"),
+
+        new Migration(2, "Open limit orders with their escrowed cash or tickets",
+            "CREATE TABLE IF NOT EXISTS orders (" +
+                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT," +
+                    "user_id BIGINT UNSIGNED NOT NULL," +
+                    "side CHAR(4) NOT NULL," +
+                    "event_id VARCHAR(64) NOT NULL," +
+                    "event_name VARCHAR(255) NULL," +
+                    "price_cents BIGINT NOT NULL," +
+                    "qty INT NOT NULL," +
+                    "remaining INT NOT NULL," +
+                    "escrow_cost_usd DECIMAL(12,2) NULL," +
+                    "escrow_min_price_usd DECIMAL(10,2) NULL," +
+                    "escrow_max_price_usd DECIMAL(10,2) NULL," +
+                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                    "PRIMARY KEY (id)," +
+                    "KEY ix_orders_event (event_id, id)," +
+                    "KEY ix_orders_user (user_id, id)," +
+                    "CONSTRAINT fk_orders_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB"),
+    };
+
+    static final int LATEST_VERSION = MIGRATIONS[MIGRATIONS.length - 1].version;
+
+    private SchemaMigrator() {}
+
+    /**
+     * Brings the schema up to {@link #LATEST_VERSION} and returns the version found afterwards.
+     * A null {@code baseUrl} means the database already exists and is not created.
+     */
+    static int migrate(String baseUrl, String url, String dbName, String user, String pass) throws SQLException {
+        if (baseUrl != null) {
+            try (Connection root = DriverManager.getConnection(baseUrl, user, pass);
+                 Statement s = root.createStatement()) {
+                s.executeUpdate("CREATE DATABASE IF NOT EXISTS " + dbName +
+                        " CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci");
+            }
+        }
+
+        try (Connection c = DriverManager.getConnection(url, user, pass)) {
+            try (Statement s = c.createStatement()) {
+                s.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT NOT NULL," +
+                    "description VARCHAR(255) NOT NULL," +
+                    "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                    "duration_ms BIGINT NOT NULL," +
+                    "PRIMARY KEY (version)) ENGINE=InnoDB");
+            }
+            int current = currentVersion(c);
+            if (current >= LATEST_VERSION) return current;
+
+            acquireLock(c);
+            try {
+                // Another node may have finished the work while we waited for the lock.
+                current = currentVersion(c);
+                for (Migration m : MIGRATIONS) {
+                    if (m.version <= current) continue;
+                    apply(c, m);
+                    current = m.version;
+                }
+                return current;
+            } finally {
+                releaseLock(c);
+            }
+        }
+    }
+
+    private static void apply(Connection c, Migration m) throws SQLException {
+        long start = System.currentTimeMillis();
+        try (Statement s = c.createStatement()) {
+            for (String sql : m.statements) s.executeUpdate(sql);
+        }
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO schema_version(version, description, duration_ms) VALUES(?,?,?)")) {
+            ps.setInt(1, m.version);
+            ps.setString(2, m.description);
+            ps.setLong(3, System.currentTimeMillis() - start);
+            ps.executeUpdate();
+        }
+        System.err.println("Applied schema migration " + m.version + ": " + m.description);
+    }
+
+    private static int currentVersion(Connection c) throws SQLException {
+        try (Statement s = c.createStatement();
+             ResultSet rs = s.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void acquireLock(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for schema migration lock " + LOCK_NAME);
+                }
+            }
+        }
+    }
+
+    private static void releaseLock(Connection c) {
+        try (PreparedStatement ps = c.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.executeQuery().close();
+        } catch (SQLException ignore) {
+            // The lock is released with the session anyway.
+        }
+    }
+}
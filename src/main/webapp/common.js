@@ -87,11 +87,23 @@ const API = {
     renderNav();
   },
   logout(){
+    const headers = authHeaders();
+    if (headers.Authorization) {
+      fetch(apiPath('/logout'), { method: 'POST', headers }).catch(() => {});
+    }
     clearCurrentUser();
     renderNav();
   },
 };
 
+// Session token issued by /login or /register; the server prefers it over userId params.
+function authHeaders(extra){
+  const user = currentUser();
+  const headers = { ...(extra || {}) };
+  if (user && user.token) headers.Authorization = `Bearer ${user.token}`;
+  return headers;
+}
+
 async function authRequest(path, payload){
   const url = apiPath(path);
   try {
@@ -216,12 +228,15 @@ function loadWalletState(reset = false){
   }
 }
 
-function saveWalletState(state){
+// Only a server snapshot passes an etag; any local edit drops it so the next
+// fetch cannot be answered 304 against a state the server never sent.
+function saveWalletState(state, etag){
   const store = walletStore();
   const key = walletKey();
   if (!store || !key) return;
   try {
-    store.setItem(key, JSON.stringify(state));
+    const { _etag, ...plain } = state || {};
+    store.setItem(key, JSON.stringify(etag ? { ...plain, _etag: etag } : plain));
   } catch (e) {
     console.warn('Unable to persist wallet state', e);
   }
@@ -285,23 +300,27 @@ function applyTradeToState({ side, eventId, eventName, qty, priceUsd, minPriceUs
   return { success: true, state };
 }
 
+// One request for cash and positions. The saved state remembers the ETag it
+// came with, so an unchanged wallet is answered 304 without touching the DB.
 async function fetchWalletRemote(){
   if (!API.loggedIn) throw new Error('Please log in to view your wallet');
-  const cashRes = await fetch(apiPath(`/wallet?type=cash&userId=${API.userId}`));
-  const cashJson = JSON.parse(await cashRes.text() || '{}');
-  if (!cashRes.ok || !cashJson.success) throw new Error(cashJson.message || `Cash fetch failed (${cashRes.status})`);
-
-  const posRes = await fetch(apiPath(`/wallet?type=positions&userId=${API.userId}`));
-  const posJsonRaw = await posRes.text();
-  let posJson;
-  try { posJson = JSON.parse(posJsonRaw || '{}'); } catch (e) { throw new Error(`Positions parse failed: ${posJsonRaw?.slice(0,150)}`); }
-  if (!posRes.ok || !posJson.success) throw new Error(posJson.message || `Positions fetch failed (${posRes.status})`);
-
+  const cached = loadWalletState();
+  const headers = authHeaders();
+  if (cached._etag) headers['If-None-Match'] = cached._etag;
+  const res = await fetch(apiPath(`/wallet?type=snapshot&userId=${API.userId}`), { headers });
+  if (res.status === 304) return cached;
+
+  const raw = await res.text();
+  let json;
+  try { json = JSON.parse(raw || '{}'); } catch (e) { throw new Error(`Wallet parse failed: ${raw?.slice(0,150)}`); }
+  if (!res.ok || !json.success) throw new Error(json.message || `Wallet fetch failed (${res.status})`);
+
+  const data = json.data || {};
   const state = {
-    cashUsd: Number((cashJson.data && cashJson.data.cashUsd) ?? STARTING_CASH),
-    positions: Array.isArray(posJson.data) ? posJson.data : [],
+    cashUsd: Number(data.cashUsd ?? STARTING_CASH),
+    positions: Array.isArray(data.positions) ? data.positions : [],
   };
-  saveWalletState(state);
+  saveWalletState(state, res.headers.get('ETag'));
   return state;
 }
 
@@ -310,7 +329,7 @@ async function tradeRemote(payload){
   try {
     const res = await fetch(apiPath('/trade'), {
       method: 'POST',
-      headers: { 'Content-Type': 'application/json' },
+      headers: authHeaders({ 'Content-Type': 'application/json' }),
       body: JSON.stringify({ ...payload, userId: API.userId }),
     });
     const text = await res.text();
@@ -326,6 +345,33 @@ async function tradeRemote(payload){
   }
 }
 
+// Server-pushed updates over /live: a wallet snapshot after every committed
+// change and price moves for held or favorited events. EventSource cannot send
+// headers, so the session token rides in the query string; the browser
+// reconnects on its own and the server starts each stream with a snapshot.
+function openLiveUpdates({ onWallet, onPrice } = {}){
+  const user = currentUser();
+  if (!API.loggedIn || !user || !user.token || typeof EventSource === 'undefined') return null;
+  const params = new URLSearchParams({ token: user.token });
+  const source = new EventSource(apiPath(`/live?${params}`));
+  source.addEventListener('wallet', (e) => {
+    let data;
+    try { data = JSON.parse(e.data); } catch { return; }
+    const state = {
+      cashUsd: Number(data.cashUsd ?? STARTING_CASH),
+      positions: Array.isArray(data.positions) ? data.positions : [],
+    };
+    saveWalletState(state);
+    if (onWallet) onWallet(state, data.portfolio);
+  });
+  source.addEventListener('price', (e) => {
+    let data;
+    try { data = JSON.parse(e.data); } catch { return; }
+    if (onPrice) onPrice(data);
+  });
+  return source;
+}
+
 window.WalletState = {
   loadWalletState,
   saveWalletState,
@@ -333,6 +379,7 @@ window.WalletState = {
   resetWallet: () => saveWalletState(defaultWalletState()),
   fetchRemote: fetchWalletRemote,
   tradeRemote,
+  openLive: openLiveUpdates,
 };
 
 // -------- favorites helpers --------
@@ -398,7 +445,7 @@ function removeFavorite(eventId){
 async function syncFavoritesFromServer(){
   if (!API.loggedIn) return [];
   const url = apiPath(`/favorites?userId=${API.userId}`);
-  const res = await fetch(url);
+  const res = await fetch(url, { headers: authHeaders() });
   const text = await res.text();
   let json = {};
   try { json = JSON.parse(text || '{}'); } catch (e) { throw new Error(`Favorites parse error: ${text?.slice(0,150)}`); }
@@ -415,7 +462,7 @@ async function toggleFavoriteRemote(fav){
   const action = removing ? 'remove' : 'add';
   const res = await fetch(apiPath('/favorites'), {
     method: 'POST',
-    headers: { 'Content-Type': 'application/json' },
+    headers: authHeaders({ 'Content-Type': 'application/json' }),
     body: JSON.stringify({ ...fav, action, userId: API.userId }),
   });
   const text = await res.text();
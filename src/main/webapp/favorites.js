@@ -1,4 +1,4 @@
-/* global API, renderNav, FavoritesState, WalletState, sanitizeProxyBase */
+/* global API, apiPath, renderNav, FavoritesState, WalletState */
 (function () {
   document.addEventListener('DOMContentLoaded', async () => {
     renderNav();
@@ -12,9 +12,6 @@
     return;
   }
 
-  const TM_PROXY_ROOT = ((API && API.proxyBase) || (typeof sanitizeProxyBase === 'function' ? sanitizeProxyBase() : 'https://us-central1-quixotic-dynamo-165616.cloudfunctions.net')).replace(/\/+$/, '');
-  const TM_PROXY = `${TM_PROXY_ROOT}/getEvents`;
-
   let latestFavorites = [];
 
   const safeJson = async (res, urlHint = '') => {
@@ -26,26 +23,13 @@
     }
   };
 
+  // Served (and cached) by our /eventDetail endpoint rather than the proxy directly.
   async function fetchDetail(eventId) {
-    const mockBase = (API.base || '').replace(/\/$/, '');
-    const urls = [
-      `${TM_PROXY}/eventDetail/${encodeURIComponent(eventId)}`,
-      `${TM_PROXY}/eventDetail?eventId=${encodeURIComponent(eventId)}`,
-      `${mockBase}/mock/getEvents/eventDetail/${encodeURIComponent(eventId)}.json`,
-    ];
-
-    let lastErr = null;
-    for (const url of urls) {
-      try {
-        const res = await fetch(url, { method: 'GET' });
-        const json = await safeJson(res, url);
-        if (!res.ok) throw new Error(json.message || `Detail failed (${res.status})`);
-        return json;
-      } catch (e) {
-        lastErr = e;
-      }
-    }
-    throw lastErr || new Error('Detail failed');
+    const url = apiPath(`/eventDetail?eventId=${encodeURIComponent(eventId)}`);
+    const res = await fetch(url, { method: 'GET' });
+    const json = await safeJson(res, url);
+    if (!res.ok) throw new Error(json.message || `Detail failed (${res.status})`);
+    return json;
   }
 
   const fallbackDetail = (fav = {}) => ({
@@ -167,6 +151,7 @@
 
       const price = document.createElement('div');
       price.className = 'fav-meta';
+      price.dataset.eventId = fav.eventId;
       price.textContent = `Price range: ${formatPriceLabel(fav.minPriceUsd, fav.maxPriceUsd)}`;
       card.appendChild(price);
 
@@ -223,5 +208,19 @@
   }
 
   render();
+
+  // Pushed quote changes update the cards' price lines in place, leaving any open detail alone.
+  if (window.WalletState && WalletState.openLive) {
+    WalletState.openLive({
+      onPrice: ({ eventId, minPriceUsd, maxPriceUsd }) => {
+        const favs = FavoritesState.loadFavorites().map(f => (f.eventId === eventId ? { ...f, minPriceUsd, maxPriceUsd } : f));
+        FavoritesState.saveFavorites(favs);
+        latestFavorites = latestFavorites.map(f => (f.eventId === eventId ? { ...f, minPriceUsd, maxPriceUsd } : f));
+        for (const el of container.querySelectorAll('[data-event-id]')) {
+          if (el.dataset.eventId === eventId) el.textContent = `Price range: ${formatPriceLabel(minPriceUsd, maxPriceUsd)}`;
+        }
+      },
+    });
+  }
   });
 })();
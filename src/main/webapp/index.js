@@ -137,24 +137,14 @@
     return Array.isArray(json) ? json : Array.isArray(json.data) ? json.data : [];
   }
 
+  // Details come from our own /eventDetail endpoint, which caches the
+  // Ticketmaster proxy server-side and coalesces concurrent lookups.
   async function fetchDetail(eventId) {
-    const urls = [
-      `${TM_PROXY}/eventDetail/${encodeURIComponent(eventId)}`,
-      `${TM_PROXY}/eventDetail?eventId=${encodeURIComponent(eventId)}`,
-    ];
-
-    let lastErr = null;
-    for (const url of urls) {
-      try {
-        const res = await fetch(url, { method: "GET" });
-        const json = await safeJson(res, url);
-        if (!res.ok) throw new Error(json.message || `Detail failed (${res.status})`);
-        return json;
-      } catch (e) {
-        lastErr = e;
-      }
-    }
-    throw lastErr || new Error("Detail failed");
+    const url = apiPath(`/eventDetail?eventId=${encodeURIComponent(eventId)}`);
+    const res = await fetch(url, { method: "GET" });
+    const json = await safeJson(res, url);
+    if (!res.ok) throw new Error(json.message || `Detail failed (${res.status})`);
+    return json;
   }
 
   async function search() {
@@ -13,6 +13,7 @@ document.addEventListener('DOMContentLoaded', async () => {
   const cards = document.getElementById('positions');
   const startingCash = typeof STARTING_CASH !== 'undefined' ? STARTING_CASH : 3000;
   let state = { cashUsd: startingCash, positions: [] };
+  const marks = {}; // eventId -> latest pushed max price
 
   async function load(forceRemote = false) {
     try {
@@ -63,7 +64,7 @@ document.addEventListener('DOMContentLoaded', async () => {
       const minP = Number(pos.minPriceUsd ?? pos.minPrice ?? pos.maxPriceUsd ?? 0);
       const maxP = Number(pos.maxPriceUsd ?? pos.maxPrice ?? pos.minPriceUsd ?? 0);
       const change = maxP - minP;
-      const current = maxP;
+      const current = Number.isFinite(marks[pos.eventId]) ? marks[pos.eventId] : maxP;
       const mvNum  = current * qtyNum;
       sum += Number(mvNum);
 
@@ -117,4 +118,11 @@ document.addEventListener('DOMContentLoaded', async () => {
   }
 
   await load(true);
+
+  if (window.WalletState && window.WalletState.openLive) {
+    window.WalletState.openLive({
+      onWallet: (next) => { state = next; render(); },
+      onPrice: ({ eventId, maxPriceUsd }) => { marks[eventId] = Number(maxPriceUsd); render(); },
+    });
+  }
 });
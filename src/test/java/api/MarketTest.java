@@ -0,0 +1,99 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Runs against the in-memory backend; the surefire config sets tt.storage=memory and tt.market.enabled. */
+class MarketTest {
+    private static final String EVENT = "E1";
+    private static final long BUYER = 101, SELLER = 102;
+    private static final long START = 100_000; // cents
+
+    @BeforeEach
+    void freshStorage() throws Exception {
+        Market.stop();
+        Storage.stop();
+        Storage.Wallets wallets = Storage.get().wallets();
+        wallets.seed(BUYER, START);
+        wallets.seed(SELLER, START);
+        // The seller buys 5 tickets at $50 so it has something to offer.
+        assertTrue(wallets.trade(new TradeOrder(SELLER, true, EVENT, "Show", 5, 5_000, 5_000)).success);
+    }
+
+    @AfterEach
+    void stopMarket() {
+        Market.stop();
+        Storage.stop();
+    }
+
+    @Test
+    void replaySettlesACrossedBookExactlyOnce() throws Exception {
+        // Both orders escrowed and open, but the node died before matching them.
+        Storage.Orders orders = Storage.get().orders();
+        assertNull(orders.open(order(SELLER, false, 10_000, 3)));
+        assertNull(orders.open(order(BUYER, true, 12_000, 2)));
+        assertEquals(START - 24_000, cash(BUYER));
+
+        Market.depth(EVENT); // builds the book, which replays and settles the cross
+        assertSettled();
+
+        Market.stop();
+        Market.depth(EVENT); // a second rebuild must find nothing left to settle
+        assertSettled();
+    }
+
+    @Test
+    void placeFillsAgainstTheBookAndRefundsTheBuyersImprovement() throws Exception {
+        assertTrue(Market.place(order(SELLER, false, 10_000, 3)).success);
+        JsonResp<?> bought = Market.place(order(BUYER, true, 12_000, 2));
+
+        assertTrue(bought.success);
+        assertEquals("Filled", bought.message);
+        assertSettled();
+    }
+
+    @Test
+    void cancelOfAnotherUsersOrderIsRefused() throws Exception {
+        JsonResp<?> placed = Market.place(order(SELLER, false, 10_000, 3));
+        long orderId = (Long) ((Map<?, ?>) placed.data).get("orderId");
+
+        assertEquals("Order not found", Market.cancel(EVENT, orderId, BUYER).message);
+        assertEquals("Order not found", Market.cancel(EVENT, orderId + 1000, SELLER).message);
+        assertTrue(Market.cancel(EVENT, orderId, SELLER).success);
+        assertEquals(5, qty(SELLER), "the escrowed tickets come back");
+    }
+
+    /** Two tickets traded at the seller's $100, the buyer's extra $20 a ticket refunded. */
+    private void assertSettled() throws Exception {
+        assertEquals(START - 20_000, cash(BUYER));
+        assertEquals(2, qty(BUYER));
+        assertEquals(START - 25_000 + 20_000, cash(SELLER));
+        assertEquals(2, qty(SELLER), "one ticket is still escrowed in the open sell order");
+        assertEquals(0, Storage.get().orders().list(BUYER).size());
+        List<LimitOrder> open = Storage.get().orders().list(SELLER);
+        assertEquals(1, open.size());
+        assertEquals(1, open.get(0).remaining);
+    }
+
+    private static LimitOrder order(long userId, boolean buy, long priceCents, int qty) {
+        return new LimitOrder(0, userId, buy, EVENT, "Show", priceCents, qty, qty, null);
+    }
+
+    private static long cash(long userId) throws Exception {
+        return Storage.get().wallets().cash(userId);
+    }
+
+    private static int qty(long userId) throws Exception {
+        for (Storage.Position p : Storage.get().positions().list(userId)) {
+            if (EVENT.equals(p.eventId)) return p.holding.qty;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,119 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class OrderBookTest {
+    private static final long ALICE = 1, BOB = 2, CAROL = 3;
+
+    private final OrderBook book = new OrderBook();
+    private final OrderBook.Fills fills = new OrderBook.Fills();
+
+    @Test
+    void matchesBestPriceFirstThenOldestFirst() {
+        book.place(1, ALICE, false, 10_100, 1, fills);
+        book.place(2, BOB, false, 10_000, 1, fills);
+        book.place(3, CAROL, false, 10_000, 1, fills);
+
+        int left = book.place(4, 9, true, 12_000, 3, fills);
+
+        assertEquals(0, left);
+        assertEquals(3, fills.size());
+        assertEquals(2, fills.orderId(0));
+        assertEquals(3, fills.orderId(1));
+        assertEquals(1, fills.orderId(2));
+        assertEquals(10_000, fills.price(0), "trades at the resting order's price");
+        assertEquals(10_100, fills.price(2));
+        assertEquals(0, book.openOrders());
+    }
+
+    @Test
+    void stopsAtTheLimitPrice() {
+        book.place(1, ALICE, false, 10_000, 1, fills);
+        book.place(2, BOB, false, 10_500, 1, fills);
+
+        int left = book.place(3, CAROL, true, 10_200, 2, fills);
+
+        assertEquals(1, left);
+        assertEquals(1, fills.size());
+        assertEquals(10_200, book.bestBid());
+        assertEquals(10_500, book.bestAsk());
+    }
+
+    @Test
+    void partialFillLeavesTheRestOnBothSides() {
+        book.place(1, ALICE, false, 10_000, 5, fills);
+
+        assertEquals(0, book.place(2, BOB, true, 10_000, 2, fills));
+        assertEquals(2, fills.filledQty());
+        assertEquals(3, askQtyAtBest());
+
+        assertEquals(4, book.place(3, CAROL, true, 10_000, 7, fills));
+        assertEquals(3, fills.filledQty());
+        assertEquals(0, book.bestAsk());
+        assertEquals(10_000, book.bestBid());
+        assertEquals(1, book.openOrders());
+    }
+
+    @Test
+    void selfTradeCancelsTheRestingOrderInsteadOfFilling() {
+        book.place(1, ALICE, false, 10_000, 2, fills);
+        book.place(2, BOB, false, 10_000, 2, fills);
+
+        int left = book.place(3, ALICE, true, 10_000, 2, fills);
+
+        assertEquals(0, left);
+        assertEquals(2, fills.size());
+        assertTrue(fills.cancelled(0));
+        assertEquals(1, fills.orderId(0));
+        assertEquals(2, fills.qty(0));
+        assertFalse(fills.cancelled(1));
+        assertEquals(2, fills.orderId(1));
+        assertEquals(2, fills.filledQty());
+        assertEquals(0, book.openOrders());
+        assertEquals(0, book.cancel(1, ALICE), "the cancelled order is gone from the book");
+    }
+
+    @Test
+    void cancelIgnoresMissingAndForeignOrders() {
+        book.place(1, ALICE, true, 10_000, 4, fills);
+
+        assertEquals(0, book.cancel(99, ALICE));
+        assertEquals(0, book.cancel(1, BOB));
+        assertEquals(1, book.openOrders());
+
+        assertEquals(4, book.cancel(1, ALICE));
+        assertEquals(0, book.openOrders());
+        assertEquals(0, book.bestBid());
+        assertEquals(0, book.cancel(1, ALICE));
+    }
+
+    @Test
+    void indexSurvivesGrowthAndDeletes() {
+        OrderBook small = new OrderBook(1);
+        int n = 2_000;
+        for (int i = 1; i <= n; i++) small.place(i, i, true, 1 + i % 97, i % 5 + 1, fills);
+        assertEquals(n, small.openOrders());
+
+        for (int i = 1; i <= n; i += 2) assertEquals(i % 5 + 1, small.cancel(i, i), "order " + i);
+        for (int i = 1; i <= n; i += 2) assertEquals(0, small.cancel(i, i), "order " + i + " again");
+        // Backward-shift deletion must keep every surviving id reachable.
+        for (int i = 2; i <= n; i += 2) assertEquals(i % 5 + 1, small.cancel(i, i), "order " + i);
+        assertEquals(0, small.openOrders());
+        assertEquals(0, small.bestBid());
+
+        for (int i = 1; i <= n; i++) small.place(n + i, i, true, 100, 1, fills);
+        assertEquals(n, small.openOrders());
+        assertEquals(1, small.cancel(n + n / 2, n / 2));
+    }
+
+    private long askQtyAtBest() {
+        long[] prices = new long[1];
+        long[] qtys = new long[1];
+        book.depth(false, prices, qtys);
+        return qtys[0];
+    }
+}